@@ -0,0 +1,116 @@
+package com.thingspanel.sdk.benchmark;
+
+import com.sun.net.httpserver.HttpServer;
+import com.thingspanel.sdk.Device;
+import com.thingspanel.sdk.TPAPIClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TPAPIClient端到端基准：请求构造、HTTP往返及响应解析，服务端为进程内回环HTTP桩
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class APIClientBenchmark {
+
+    /** 响应中的子设备数量 */
+    @Param({"0", "64"})
+    public int subDevices;
+
+    /** 异步基准每次操作并发发出的请求数 */
+    private static final int ASYNC_BATCH = 32;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private TPAPIClient client;
+    private TPAPIClient.DeviceConfigRequest request;
+    private TPAPIClient.HeartbeatRequest heartbeat;
+
+    @Setup
+    public void setUp() throws Exception {
+        SilentLogging.apply();
+        byte[] configResponse = Payloads.deviceConfigResponse(subDevices);
+        byte[] okResponse = "{\"code\":200,\"message\":\"success\"}".getBytes();
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/api/v1/plugin/device/config", exchange -> {
+            try (InputStream in = exchange.getRequestBody(); OutputStream out = exchange.getResponseBody()) {
+                in.readAllBytes();
+                exchange.sendResponseHeaders(200, configResponse.length);
+                out.write(configResponse);
+            }
+        });
+        server.createContext("/api/v1/plugin/heartbeat", exchange -> {
+            try (InputStream in = exchange.getRequestBody(); OutputStream out = exchange.getResponseBody()) {
+                in.readAllBytes();
+                exchange.sendResponseHeaders(200, okResponse.length);
+                out.write(okResponse);
+            }
+        });
+        serverExecutor = Executors.newFixedThreadPool(4);
+        server.setExecutor(serverExecutor);
+        server.start();
+
+        client = new TPAPIClient("http://127.0.0.1:" + server.getAddress().getPort());
+        request = new TPAPIClient.DeviceConfigRequest();
+        request.deviceId = "device-001";
+        request.voucher = "voucher-123";
+        request.deviceNumber = "DEV001";
+        heartbeat = new TPAPIClient.HeartbeatRequest();
+        heartbeat.serviceIdentifier = "modbus-service";
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public Device getDeviceConfig() {
+        return client.getDeviceConfig(request).getData();
+    }
+
+    @Benchmark
+    public String sendHeartbeat() {
+        return client.sendHeartbeat(heartbeat).getData();
+    }
+
+    @Benchmark
+    public List<Device> getDeviceConfigAsyncBatch() {
+        List<CompletableFuture<TPAPIClient.APIResponse<Device>>> futures = new ArrayList<>(ASYNC_BATCH);
+        for (int i = 0; i < ASYNC_BATCH; i++) {
+            futures.add(client.getDeviceConfigAsync(request));
+        }
+        List<Device> devices = new ArrayList<>(ASYNC_BATCH);
+        for (CompletableFuture<TPAPIClient.APIResponse<Device>> future : futures) {
+            devices.add(future.join().getData());
+        }
+        return devices;
+    }
+}
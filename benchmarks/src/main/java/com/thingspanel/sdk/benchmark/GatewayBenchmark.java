@@ -0,0 +1,90 @@
+package com.thingspanel.sdk.benchmark;
+
+import com.thingspanel.sdk.Device;
+import com.thingspanel.sdk.GatewayTopics;
+import com.thingspanel.sdk.SubDevice;
+import com.thingspanel.sdk.TPClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 网关一次轮询的发布开销：逐个子设备sendData与按地址索引的聚合/逐子设备扇出（传输层为空实现）
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GatewayBenchmark {
+
+    private static final String SERVICE = "modbus-service";
+
+    @Param({"500"})
+    public int subDevices;
+
+    private TPClient client;
+    private Device gateway;
+    private GatewayTopics topics;
+    private Map<String, String> readingStrings;
+    private Map<String, byte[]> readings;
+
+    @Setup
+    public void setUp() {
+        SilentLogging.apply();
+        client = new TPClient("tcp://localhost:1883").setTransport(new NoopTransport()).setServiceIdentifier(SERVICE);
+        client.connect();
+        gateway = new Device("4a5b6c7d-gateway-001", "voucher", "GW-001", "gateway", "modbus");
+        List<SubDevice> list = new ArrayList<>(subDevices);
+        readingStrings = new HashMap<>();
+        readings = new HashMap<>();
+        for (int i = 1; i <= subDevices; i++) {
+            String address = String.valueOf(i);
+            list.add(new SubDevice("4a5b6c7d-sub-" + i, "voucher-" + i, "SUB-" + i, address));
+            String reading = "{\"temperature\":" + (20 + i % 10) + ".5,\"humidity\":60}";
+            readingStrings.put(address, reading);
+            readings.put(address, reading.getBytes(StandardCharsets.UTF_8));
+        }
+        gateway.setSubDevices(list);
+        topics = client.gatewayTopics(SERVICE, gateway);
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.disconnect();
+    }
+
+    @Benchmark
+    public void sendDataPerSubDevice() {
+        for (SubDevice subDevice : gateway.getSubDevices()) {
+            client.sendData(SERVICE, subDevice.getDeviceId(), readingStrings.get(subDevice.getAddress()));
+        }
+    }
+
+    @Benchmark
+    public int gatewayAggregated() {
+        return client.sendGatewayData(topics, null, readings, GatewayTopics.FanOut.AGGREGATED);
+    }
+
+    @Benchmark
+    public int gatewayPerSubDevice() {
+        return client.sendGatewayData(topics, null, readings, GatewayTopics.FanOut.PER_SUB_DEVICE);
+    }
+}
@@ -0,0 +1,64 @@
+package com.thingspanel.sdk.benchmark;
+
+import com.thingspanel.sdk.TPHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TPHandler回调分发基准，处理函数只消费参数，测量SDK分发本身的开销
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HandlerBenchmark {
+
+    private TPHandler handler;
+    private Map<String, Object> notification;
+    private Blackhole sink;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        SilentLogging.apply();
+        sink = blackhole;
+        handler = new TPHandler();
+        Map<String, Object> form = new HashMap<>();
+        form.put("fields", "[]");
+        handler.setFormConfigHandler((protocolType, deviceType, formType) -> form);
+        handler.setDeviceDisconnectHandler((deviceId, voucher) -> sink.consume(deviceId));
+        handler.setNotificationHandler(message -> sink.consume(message));
+        notification = new HashMap<>();
+        notification.put("message_type", "1");
+        notification.put("message", "device-001");
+    }
+
+    @Benchmark
+    public Map<String, Object> formConfig() {
+        return handler.handleFormConfig("MODBUS_RTU", "1", "CFG");
+    }
+
+    @Benchmark
+    public void deviceDisconnect() {
+        handler.handleDeviceDisconnect("device-001", "voucher-123");
+    }
+
+    @Benchmark
+    public void notification() {
+        handler.handleNotification(notification);
+    }
+}
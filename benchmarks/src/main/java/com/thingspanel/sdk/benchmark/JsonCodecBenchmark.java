@@ -0,0 +1,86 @@
+package com.thingspanel.sdk.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.thingspanel.sdk.Device;
+import com.thingspanel.sdk.JsonCodec;
+import com.thingspanel.sdk.SubDevice;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON编解码基准：JsonCodec流式解析/生成 对比 String中转 + 树模型解析 / String.format拼接
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JsonCodecBenchmark {
+
+    /** 响应中的子设备数量 */
+    @Param({"0", "16", "256"})
+    public int subDevices;
+
+    private byte[] response;
+    private final ObjectMapper naiveMapper = new ObjectMapper();
+
+    @Setup
+    public void setUp() {
+        response = Payloads.deviceConfigResponse(subDevices);
+    }
+
+    @Benchmark
+    public Device streamingDecode() throws Exception {
+        return JsonCodec.readResponse(response, JsonCodec::readDevice).getData();
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public Device treeModelDecode() throws Exception {
+        String body = new String(response, StandardCharsets.UTF_8);
+        JsonNode data = naiveMapper.readTree(body).get("data");
+        Device device = new Device();
+        device.setDeviceId(data.path("id").asText(null));
+        device.setVoucher(data.path("voucher").asText(null));
+        device.setDeviceType(data.path("device_type").asText(null));
+        device.setProtocolType(data.path("protocol_type").asText(null));
+        device.setConfig(naiveMapper.convertValue(data.get("config"), Map.class));
+        List<SubDevice> subs = new ArrayList<>();
+        for (Iterator<JsonNode> it = data.path("sub_devices").elements(); it.hasNext(); ) {
+            JsonNode node = it.next();
+            subs.add(new SubDevice(node.path("device_id").asText(null), node.path("voucher").asText(null),
+                    null, node.path("sub_device_addr").asText(null)));
+        }
+        device.setSubDevices(subs);
+        return device;
+    }
+
+    @Benchmark
+    public byte[] streamingEncodeRequest() {
+        return JsonCodec.writeObject("device_id", "device-001", "voucher", "voucher-123", "device_number", "DEV001");
+    }
+
+    @Benchmark
+    public byte[] formatEncodeRequest() {
+        return String.format("{\"device_id\":\"%s\",\"voucher\":\"%s\",\"device_number\":\"%s\"}",
+                "device-001", "voucher-123", "DEV001").getBytes(StandardCharsets.UTF_8);
+    }
+}
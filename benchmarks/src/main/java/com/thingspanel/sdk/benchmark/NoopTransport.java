@@ -0,0 +1,45 @@
+package com.thingspanel.sdk.benchmark;
+
+import com.thingspanel.sdk.MqttTransport;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+
+/**
+ * 不进行网络IO的MQTT传输，发布立即回调成功，用于隔离SDK自身开销
+ */
+final class NoopTransport implements MqttTransport {
+    private volatile boolean connected;
+    private long published;
+
+    @Override
+    public void connect(MqttConnectOptions options) {
+        connected = true;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public void publish(String topic, byte[] payload, int qos, boolean retained, PublishCallback callback) {
+        published += payload.length;
+        callback.onComplete(null);
+    }
+
+    @Override
+    public void subscribe(String[] topics, int[] qos) {
+    }
+
+    @Override
+    public void setMessageHandler(MessageHandler handler) {
+    }
+
+    @Override
+    public void disconnect() {
+        connected = false;
+    }
+
+    long getPublishedBytes() {
+        return published;
+    }
+}
@@ -0,0 +1,95 @@
+package com.thingspanel.sdk.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.thingspanel.sdk.JsonCodec;
+import com.thingspanel.sdk.TelemetryBuilder;
+import com.thingspanel.sdk.TelemetrySchema;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 遥测报文序列化基准：调用方常见的几种方式生成sendData所需的JSON，以及TelemetryBuilder的三种编码
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PayloadBenchmark {
+
+    private final ObjectWriter writer = JsonCodec.writer();
+    private double temperature = 25.5;
+    private int humidity = 60;
+    private Map<String, Object> sample;
+    private final TelemetrySchema schema = TelemetrySchema.forDeviceType("benchmark-sensor");
+
+    @Setup
+    public void setUp() {
+        sample = new LinkedHashMap<>();
+        sample.put("temperature", temperature);
+        sample.put("humidity", humidity);
+        sample.put("voltage", 220.4);
+        sample.put("switch", true);
+    }
+
+    @Benchmark
+    public String stringFormat() {
+        return String.format("{\"temperature\":%s,\"humidity\":%d}", temperature, humidity);
+    }
+
+    @Benchmark
+    public byte[] stringBuilderUtf8() {
+        return new StringBuilder(48)
+                .append("{\"temperature\":").append(temperature)
+                .append(",\"humidity\":").append(humidity)
+                .append('}').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] jacksonMapBytes() throws Exception {
+        return writer.writeValueAsBytes(sample);
+    }
+
+    @Benchmark
+    public String jacksonMapString() throws Exception {
+        return writer.writeValueAsString(sample);
+    }
+
+    @Benchmark
+    public byte[] telemetryJson() {
+        return telemetry(TelemetryBuilder.Encoding.JSON);
+    }
+
+    @Benchmark
+    public byte[] telemetryCbor() {
+        return telemetry(TelemetryBuilder.Encoding.CBOR);
+    }
+
+    @Benchmark
+    public byte[] telemetryMsgpack() {
+        return telemetry(TelemetryBuilder.Encoding.MSGPACK);
+    }
+
+    private byte[] telemetry(TelemetryBuilder.Encoding encoding) {
+        return TelemetryBuilder.acquire(schema, encoding)
+                .put("temperature", temperature)
+                .put("humidity", humidity)
+                .put("voltage", 220.4)
+                .put("switch", true)
+                .build();
+    }
+}
@@ -0,0 +1,34 @@
+package com.thingspanel.sdk.benchmark;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 基准测试使用的样例报文
+ */
+final class Payloads {
+
+    private Payloads() {}
+
+    /**
+     * 构造平台设备配置接口的响应体
+     * @param subDevices 子设备数量
+     */
+    static byte[] deviceConfigResponse(int subDevices) {
+        StringBuilder json = new StringBuilder(256 + subDevices * 96);
+        json.append("{\"code\":200,\"message\":\"success\",\"data\":{")
+            .append("\"id\":\"device-001\",\"voucher\":\"{\\\"username\\\":\\\"gw-001\\\"}\",")
+            .append("\"device_type\":2,\"protocol_type\":\"MODBUS_RTU\",")
+            .append("\"config\":{\"host\":\"192.168.1.100\",\"port\":502,\"interval\":1000},")
+            .append("\"sub_devices\":[");
+        for (int i = 0; i < subDevices; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"device_id\":\"sub-").append(i)
+                .append("\",\"voucher\":\"{\\\"username\\\":\\\"sub-").append(i)
+                .append("\\\"}\",\"sub_device_addr\":\"").append(i + 1).append("\"}");
+        }
+        json.append("]}}");
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,101 @@
+package com.thingspanel.sdk.benchmark;
+
+import com.thingspanel.sdk.DeviceTopics;
+import com.thingspanel.sdk.MqttTransport;
+import com.thingspanel.sdk.PublishToken;
+import com.thingspanel.sdk.TPClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MQTT发布路径基准：sendData/sendStatus的主题构造、编码及发布调用开销（传输层为空实现）
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PublishBenchmark {
+
+    private static final String SERVICE = "modbus-service";
+    private static final String DEVICE = "4a5b6c7d-device-001";
+    private static final String DATA = "{\"temperature\":25.5,\"humidity\":60}";
+
+    private static final byte[] DATA_BYTES = DATA.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] STATUS_BYTES = "1".getBytes(StandardCharsets.UTF_8);
+
+    private static final MqttTransport.PublishCallback IGNORE = error -> {
+    };
+
+    private TPClient client;
+    private DeviceTopics device;
+
+    @Setup
+    public void setUp() {
+        SilentLogging.apply();
+        client = new TPClient("tcp://localhost:1883").setTransport(new NoopTransport());
+        client.connect();
+        device = client.deviceTopics(SERVICE, DEVICE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.disconnect();
+    }
+
+    @Benchmark
+    public String dataTopicConcat() {
+        return "plugin/" + SERVICE + "/devices/" + DEVICE + "/datas";
+    }
+
+    @Benchmark
+    public byte[] dataTopicConcatEncoded() {
+        return ("plugin/" + SERVICE + "/devices/" + DEVICE + "/datas").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void sendData() {
+        client.sendData(SERVICE, DEVICE, DATA);
+    }
+
+    @Benchmark
+    public void sendStatus() {
+        client.sendStatus(DEVICE, "1");
+    }
+
+    @Benchmark
+    public void sendDataWithTopics() {
+        client.sendData(device, DATA_BYTES);
+    }
+
+    @Benchmark
+    public void sendStatusWithTopics() {
+        client.sendStatus(device, STATUS_BYTES);
+    }
+
+    @Benchmark
+    public void publishQos1WithCallback() {
+        client.publish(device.getDataTopic(), DATA_BYTES, 1, false, IGNORE);
+    }
+
+    @Benchmark
+    public boolean publishQos1WithToken() {
+        PublishToken token = client.sendDataAsync(device, DATA_BYTES, 1);
+        boolean success = token.isSuccess();
+        token.release();
+        return success;
+    }
+}
@@ -0,0 +1,19 @@
+package com.thingspanel.sdk.benchmark;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 关闭SDK的INFO日志，避免日志输出淹没被测路径
+ */
+final class SilentLogging {
+
+    /** 持有引用，防止Logger被回收后级别配置丢失 */
+    private static final Logger SDK_LOGGER = Logger.getLogger("com.thingspanel.sdk");
+
+    private SilentLogging() {}
+
+    static void apply() {
+        SDK_LOGGER.setLevel(Level.WARNING);
+    }
+}
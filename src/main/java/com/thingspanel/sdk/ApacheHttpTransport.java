@@ -0,0 +1,196 @@
+package com.thingspanel.sdk;
+
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.config.TlsConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.util.Timeout;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * 基于Apache HttpClient 5异步客户端的HTTP传输
+ * 使用可调大小的连接池和固定数量的IO反应器线程，适合同时访问大量平台实例的高扇出部署。
+ * httpclient5在pom.xml中为可选依赖，使用本类时需自行引入。
+ */
+public class ApacheHttpTransport implements HttpTransport {
+
+    private final CloseableHttpAsyncClient client;
+    private final PoolingAsyncClientConnectionManager connectionManager;
+
+    public ApacheHttpTransport() {
+        this(new Options());
+    }
+
+    /**
+     * @param options 传输参数
+     */
+    public ApacheHttpTransport(Options options) {
+        this.connectionManager = PoolingAsyncClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(options.maxConnTotal)
+                .setMaxConnPerRoute(options.maxConnPerRoute)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofMilliseconds(options.connectTimeoutMillis))
+                        .build())
+                .setDefaultTlsConfig(TlsConfig.custom()
+                        .setVersionPolicy(options.preferHttp2 ? HttpVersionPolicy.NEGOTIATE : HttpVersionPolicy.FORCE_HTTP_1)
+                        .build())
+                .build();
+        this.client = HttpAsyncClients.custom()
+                .setConnectionManager(connectionManager)
+                .setIOReactorConfig(IOReactorConfig.custom()
+                        .setIoThreadCount(options.ioThreads)
+                        .build())
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setResponseTimeout(Timeout.ofMilliseconds(options.requestTimeoutMillis))
+                        .build())
+                .build();
+        this.client.start();
+    }
+
+    @Override
+    public <T> T post(URI uri, byte[] body, ResponseDecoder<T> decoder) throws IOException, InterruptedException {
+        try {
+            return postAsync(uri, body, decoder).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    @Override
+    public <T> CompletableFuture<T> postAsync(URI uri, byte[] body, ResponseDecoder<T> decoder) {
+        SimpleHttpRequest request = SimpleRequestBuilder.post(uri)
+                .setBody(body, ContentType.APPLICATION_JSON)
+                .build();
+        CompletableFuture<T> future = new CompletableFuture<>();
+        client.execute(request, new FutureCallback<SimpleHttpResponse>() {
+            @Override
+            public void completed(SimpleHttpResponse response) {
+                try {
+                    future.complete(decoder.decode(response.getCode(), response.getBodyBytes()));
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void failed(Exception error) {
+                future.completeExceptionally(error);
+            }
+
+            @Override
+            public void cancelled() {
+                future.completeExceptionally(new CancellationException("请求已取消"));
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 当前连接池中的总连接数（租用 + 空闲）
+     */
+    public int getPooledConnections() {
+        PoolStats stats = connectionManager.getTotalStats();
+        return stats.getLeased() + stats.getAvailable();
+    }
+
+    @Override
+    public void close() {
+        client.close(CloseMode.GRACEFUL);
+    }
+
+    /**
+     * Apache HTTP传输参数
+     */
+    public static class Options {
+        private int maxConnTotal = 512;
+        private int maxConnPerRoute = 128;
+        private int ioThreads = Runtime.getRuntime().availableProcessors();
+        private long connectTimeoutMillis = 10_000;
+        private long requestTimeoutMillis = 30_000;
+        private boolean preferHttp2 = true;
+
+        /**
+         * 连接池总连接数上限
+         */
+        public Options setMaxConnTotal(int maxConnTotal) {
+            if (maxConnTotal <= 0) {
+                throw new IllegalArgumentException("maxConnTotal必须大于0");
+            }
+            this.maxConnTotal = maxConnTotal;
+            return this;
+        }
+
+        /**
+         * 每个目标主机的连接数上限
+         */
+        public Options setMaxConnPerRoute(int maxConnPerRoute) {
+            if (maxConnPerRoute <= 0) {
+                throw new IllegalArgumentException("maxConnPerRoute必须大于0");
+            }
+            this.maxConnPerRoute = maxConnPerRoute;
+            return this;
+        }
+
+        /**
+         * IO反应器线程数，默认为CPU核数
+         */
+        public Options setIoThreads(int ioThreads) {
+            if (ioThreads <= 0) {
+                throw new IllegalArgumentException("ioThreads必须大于0");
+            }
+            this.ioThreads = ioThreads;
+            return this;
+        }
+
+        /**
+         * 连接超时时间（毫秒）
+         */
+        public Options setConnectTimeoutMillis(long connectTimeoutMillis) {
+            if (connectTimeoutMillis <= 0) {
+                throw new IllegalArgumentException("connectTimeoutMillis必须大于0");
+            }
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * 响应超时时间（毫秒）
+         */
+        public Options setRequestTimeoutMillis(long requestTimeoutMillis) {
+            if (requestTimeoutMillis <= 0) {
+                throw new IllegalArgumentException("requestTimeoutMillis必须大于0");
+            }
+            this.requestTimeoutMillis = requestTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * 是否优先HTTP/2（TLS下通过ALPN协商），为false时只使用HTTP/1.1
+         */
+        public Options setPreferHttp2(boolean preferHttp2) {
+            this.preferHttp2 = preferHttp2;
+            return this;
+        }
+    }
+}
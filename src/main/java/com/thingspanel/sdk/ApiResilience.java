@@ -0,0 +1,397 @@
+package com.thingspanel.sdk;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+/**
+ * API调用的容错层：熔断、幂等调用的指数退避重试（全抖动）、异步幂等调用的对冲请求
+ * 只有网络异常、HTTP 5xx和429视为失败；业务错误（如设备不存在）不重试，也不计入熔断。
+ */
+public class ApiResilience {
+
+    private static final int MIN_HEDGE_SAMPLES = 20;
+    private static final int HEDGE_REFRESH_SAMPLES = 100;
+
+    private final int maxRetries;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+    private final boolean hedging;
+    private final double hedgePercentile;
+    private final long defaultHedgeDelayMillis;
+    private final CircuitBreaker breaker;
+    private final IntSupplier backlog;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicInteger samplesSinceRefresh = new AtomicInteger();
+    private volatile long hedgeDelayMillis;
+
+    private final LongAdder attempts = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder shortCircuited = new LongAdder();
+
+    /**
+     * @param backlog 尚未发出、在并发限制器中排队的请求数；有排队时不发对冲请求
+     */
+    ApiResilience(Options options, IntSupplier backlog) {
+        this.maxRetries = options.maxRetries;
+        this.baseBackoffMillis = options.baseBackoffMillis;
+        this.maxBackoffMillis = options.maxBackoffMillis;
+        this.hedging = options.hedging;
+        this.hedgePercentile = options.hedgePercentile;
+        this.defaultHedgeDelayMillis = options.hedgeDelayMillis;
+        this.hedgeDelayMillis = options.hedgeDelayMillis;
+        this.breaker = new CircuitBreaker(options.failureThreshold, options.openMillis);
+        this.backlog = backlog;
+    }
+
+    /**
+     * 同步执行，幂等调用失败后休眠退避再重试
+     */
+    <T> TPAPIClient.APIResponse<T> execute(boolean idempotent, Supplier<TPAPIClient.APIResponse<T>> attempt) {
+        for (int retry = 0; ; retry++) {
+            if (!breaker.tryAcquire()) {
+                return rejected();
+            }
+            long start = System.nanoTime();
+            attempts.increment();
+            TPAPIClient.APIResponse<T> response = attempt.get();
+            record(response, System.nanoTime() - start);
+            if (!isFailure(response) || !idempotent || retry >= maxRetries) {
+                return response;
+            }
+            retries.increment();
+            try {
+                Thread.sleep(backoffMillis(retry));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return response;
+            }
+        }
+    }
+
+    /**
+     * 异步执行，幂等调用在超过延迟百分位后发出对冲请求，失败后延迟重试
+     * @param attempt 发出一次请求，返回的Future不应异常完成
+     */
+    <T> CompletableFuture<TPAPIClient.APIResponse<T>> executeAsync(boolean idempotent, AsyncAttempt<T> attempt) {
+        return executeAsync(idempotent, attempt, 0);
+    }
+
+    private <T> CompletableFuture<TPAPIClient.APIResponse<T>> executeAsync(boolean idempotent,
+            AsyncAttempt<T> attempt, int retry) {
+        if (!breaker.tryAcquire()) {
+            return CompletableFuture.completedFuture(rejected());
+        }
+        CompletableFuture<TPAPIClient.APIResponse<T>> first = idempotent && hedging
+                ? hedged(attempt) : timed(attempt, new AtomicLong());
+        return first.thenCompose(response -> {
+            if (!isFailure(response) || !idempotent || retry >= maxRetries) {
+                return CompletableFuture.completedFuture(response);
+            }
+            retries.increment();
+            Executor delayed = CompletableFuture.delayedExecutor(backoffMillis(retry), TimeUnit.MILLISECONDS);
+            return CompletableFuture.supplyAsync(() -> null, delayed)
+                    .thenCompose(ignored -> executeAsync(idempotent, attempt, retry + 1));
+        });
+    }
+
+    /**
+     * 发出一次请求，耗时从请求真正发出时算起，不包含在并发限制器中排队的时间
+     * @param sentAt 请求发出时刻，发出前为0
+     */
+    private <T> CompletableFuture<TPAPIClient.APIResponse<T>> timed(AsyncAttempt<T> attempt, AtomicLong sentAt) {
+        attempts.increment();
+        return attempt.start(sentAt::set).thenApply(response -> {
+            long sent = sentAt.get();
+            record(response, sent == 0 ? -1 : System.nanoTime() - sent);
+            return response;
+        });
+    }
+
+    /**
+     * 首个非失败响应胜出；主请求在对冲延迟内失败时直接返回失败交给重试逻辑。
+     * 对冲请求同样要经过熔断器，熔断器不放行时只等待主请求；主请求尚未发出或限制器中有排队请求时
+     * 对冲只会继续排队，也不发出。
+     */
+    private <T> CompletableFuture<TPAPIClient.APIResponse<T>> hedged(AsyncAttempt<T> attempt) {
+        CompletableFuture<TPAPIClient.APIResponse<T>> result = new CompletableFuture<>();
+        AtomicInteger outstanding = new AtomicInteger(1);
+        AtomicReference<TPAPIClient.APIResponse<T>> lastFailure = new AtomicReference<>();
+        Consumer<TPAPIClient.APIResponse<T>> onResponse = response -> {
+            if (!isFailure(response)) {
+                result.complete(response);
+                return;
+            }
+            lastFailure.set(response);
+            if (outstanding.decrementAndGet() == 0) {
+                result.complete(response);
+            }
+        };
+        AtomicLong primarySentAt = new AtomicLong();
+        timed(attempt, primarySentAt).thenAccept(onResponse);
+        CompletableFuture.delayedExecutor(hedgeDelayMillis, TimeUnit.MILLISECONDS).execute(() -> {
+            if (result.isDone() || primarySentAt.get() == 0 || backlog.getAsInt() > 0
+                    || outstanding.getAndIncrement() == 0) {
+                return;
+            }
+            if (!breaker.tryAcquire()) {
+                shortCircuited.increment();
+                // 主请求可能在此期间已失败，由最后一个退出的一方完成结果
+                if (outstanding.decrementAndGet() == 0) {
+                    result.complete(lastFailure.get());
+                }
+                return;
+            }
+            hedges.increment();
+            timed(attempt, new AtomicLong()).thenAccept(onResponse);
+        });
+        return result;
+    }
+
+    /**
+     * @param nanos 请求耗时，未能取得发出时刻时为-1，只更新熔断器
+     */
+    private void record(TPAPIClient.APIResponse<?> response, long nanos) {
+        if (isFailure(response)) {
+            breaker.onFailure();
+            return;
+        }
+        breaker.onSuccess();
+        if (nanos < 0) {
+            return;
+        }
+        latency.record(nanos);
+        if (hedging && samplesSinceRefresh.incrementAndGet() >= HEDGE_REFRESH_SAMPLES) {
+            samplesSinceRefresh.set(0);
+            LatencyHistogram.Snapshot snapshot = latency.snapshot();
+            if (snapshot.getCount() >= MIN_HEDGE_SAMPLES) {
+                hedgeDelayMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(snapshot.getPercentileNanos(hedgePercentile)));
+            }
+        }
+    }
+
+    /**
+     * 全抖动：在0到min(上限, 基数*2^重试次数)之间随机
+     */
+    private long backoffMillis(int retry) {
+        long ceiling = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(retry, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private <T> TPAPIClient.APIResponse<T> rejected() {
+        shortCircuited.increment();
+        return new TPAPIClient.APIResponse<>(false, "熔断器已打开，请求被拒绝", null);
+    }
+
+    /**
+     * 是否为可重试的失败：无HTTP响应、5xx或429
+     */
+    static boolean isFailure(TPAPIClient.APIResponse<?> response) {
+        if (response.isSuccess()) {
+            return false;
+        }
+        int status = response.getStatusCode();
+        return status == 0 || status == 429 || status >= 500;
+    }
+
+    /**
+     * 一次异步请求
+     */
+    @FunctionalInterface
+    interface AsyncAttempt<T> {
+        /**
+         * @param sent 请求真正发出（离开并发限制器的等待队列）时以System.nanoTime()时刻调用
+         */
+        CompletableFuture<TPAPIClient.APIResponse<T>> start(LongConsumer sent);
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return breaker;
+    }
+
+    /**
+     * 获取容错统计
+     */
+    public Stats getStats() {
+        return new Stats(attempts.sum(), retries.sum(), hedges.sum(), shortCircuited.sum(),
+                breaker.getState(), breaker.getOpenCount(), hedging ? hedgeDelayMillis : 0);
+    }
+
+    /**
+     * 容错参数
+     */
+    public static class Options {
+        private int maxRetries = 3;
+        private long baseBackoffMillis = 100;
+        private long maxBackoffMillis = 2_000;
+        private boolean hedging = false;
+        private double hedgePercentile = 95;
+        private long hedgeDelayMillis = 200;
+        private int failureThreshold = 5;
+        private long openMillis = 30_000;
+
+        /**
+         * 幂等调用的最大重试次数，0表示不重试
+         */
+        public Options setMaxRetries(int maxRetries) {
+            if (maxRetries < 0) {
+                throw new IllegalArgumentException("maxRetries不能小于0");
+            }
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * 退避基数（毫秒），第n次重试的等待上限为 基数*2^n
+         */
+        public Options setBaseBackoffMillis(long baseBackoffMillis) {
+            if (baseBackoffMillis <= 0) {
+                throw new IllegalArgumentException("baseBackoffMillis必须大于0");
+            }
+            this.baseBackoffMillis = baseBackoffMillis;
+            return this;
+        }
+
+        /**
+         * 单次退避等待上限（毫秒）
+         */
+        public Options setMaxBackoffMillis(long maxBackoffMillis) {
+            if (maxBackoffMillis <= 0) {
+                throw new IllegalArgumentException("maxBackoffMillis必须大于0");
+            }
+            this.maxBackoffMillis = maxBackoffMillis;
+            return this;
+        }
+
+        /**
+         * 是否为异步幂等调用启用对冲请求
+         */
+        public Options setHedging(boolean hedging) {
+            this.hedging = hedging;
+            return this;
+        }
+
+        /**
+         * 对冲延迟取成功请求耗时的该百分位，默认95
+         */
+        public Options setHedgePercentile(double hedgePercentile) {
+            if (hedgePercentile <= 0 || hedgePercentile > 100) {
+                throw new IllegalArgumentException("hedgePercentile必须在0到100之间");
+            }
+            this.hedgePercentile = hedgePercentile;
+            return this;
+        }
+
+        /**
+         * 样本不足时使用的对冲延迟（毫秒）
+         */
+        public Options setHedgeDelayMillis(long hedgeDelayMillis) {
+            if (hedgeDelayMillis <= 0) {
+                throw new IllegalArgumentException("hedgeDelayMillis必须大于0");
+            }
+            this.hedgeDelayMillis = hedgeDelayMillis;
+            return this;
+        }
+
+        /**
+         * 打开熔断器的连续失败次数
+         */
+        public Options setFailureThreshold(int failureThreshold) {
+            this.failureThreshold = failureThreshold;
+            return this;
+        }
+
+        /**
+         * 熔断器打开后的冷却时间（毫秒）
+         */
+        public Options setOpenMillis(long openMillis) {
+            this.openMillis = openMillis;
+            return this;
+        }
+    }
+
+    /**
+     * 容错统计快照
+     */
+    public static class Stats {
+        private final long attempts;
+        private final long retries;
+        private final long hedges;
+        private final long shortCircuited;
+        private final CircuitBreaker.State breakerState;
+        private final long breakerOpens;
+        private final long hedgeDelayMillis;
+
+        public Stats(long attempts, long retries, long hedges, long shortCircuited,
+                     CircuitBreaker.State breakerState, long breakerOpens, long hedgeDelayMillis) {
+            this.attempts = attempts;
+            this.retries = retries;
+            this.hedges = hedges;
+            this.shortCircuited = shortCircuited;
+            this.breakerState = breakerState;
+            this.breakerOpens = breakerOpens;
+            this.hedgeDelayMillis = hedgeDelayMillis;
+        }
+
+        /**
+         * 实际发出的请求数（含重试和对冲）
+         */
+        public long getAttempts() {
+            return attempts;
+        }
+
+        public long getRetries() {
+            return retries;
+        }
+
+        public long getHedges() {
+            return hedges;
+        }
+
+        /**
+         * 熔断器打开期间被直接拒绝的请求数
+         */
+        public long getShortCircuited() {
+            return shortCircuited;
+        }
+
+        public CircuitBreaker.State getBreakerState() {
+            return breakerState;
+        }
+
+        public long getBreakerOpens() {
+            return breakerOpens;
+        }
+
+        /**
+         * 当前对冲延迟（毫秒），未启用对冲时为0
+         */
+        public long getHedgeDelayMillis() {
+            return hedgeDelayMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "attempts=" + attempts +
+                    ", retries=" + retries +
+                    ", hedges=" + hedges +
+                    ", shortCircuited=" + shortCircuited +
+                    ", breakerState=" + breakerState +
+                    ", breakerOpens=" + breakerOpens +
+                    ", hedgeDelayMillis=" + hedgeDelayMillis +
+                    '}';
+        }
+    }
+}
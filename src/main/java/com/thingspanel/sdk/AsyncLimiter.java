@@ -0,0 +1,90 @@
+package com.thingspanel.sdk;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 非阻塞并发限制器
+ * 超出并发上限的异步任务进入等待队列，在已有任务完成时依次启动，调用线程不会被挂起
+ */
+final class AsyncLimiter {
+    private final int maxConcurrent;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final ConcurrentLinkedQueue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+
+    AsyncLimiter(int maxConcurrent) {
+        if (maxConcurrent <= 0) {
+            throw new IllegalArgumentException("maxConcurrent必须大于0");
+        }
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    /**
+     * 提交异步任务，任务在获得许可后才会被调用
+     */
+    <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        queued.incrementAndGet();
+        waiting.add(() -> {
+            queued.decrementAndGet();
+            CompletableFuture<T> started;
+            try {
+                started = task.get();
+            } catch (Throwable e) {
+                started = CompletableFuture.failedFuture(e);
+            }
+            // 先归还许可再完成结果：同步完成的任务在排空循环内只记下一次待处理，不会递归启动下一个任务
+            started.whenComplete((value, error) -> {
+                release();
+                if (error != null) {
+                    result.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error);
+                } else {
+                    result.complete(value);
+                }
+            });
+        });
+        drain();
+        return result;
+    }
+
+    int getActive() {
+        return active.get();
+    }
+
+    int getQueued() {
+        return queued.get();
+    }
+
+    private void release() {
+        active.decrementAndGet();
+        drain();
+    }
+
+    /**
+     * 启动等待中的任务，同一时刻只有一个线程在排空队列；其他线程（包括任务同步完成时的回调）
+     * 只增加待处理计数，由正在排空的线程多循环一轮，调用栈深度与队列长度无关
+     */
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            while (active.get() < maxConcurrent) {
+                Runnable next = waiting.poll();
+                if (next == null) {
+                    break;
+                }
+                active.incrementAndGet();
+                next.run();
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+}
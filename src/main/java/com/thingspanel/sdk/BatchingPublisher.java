@@ -0,0 +1,397 @@
+package com.thingspanel.sdk;
+
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 批量流水线MQTT发布器
+ * 发布请求先写入有界环形缓冲区，由后台线程在攒够批量大小或等待超过linger时间后统一刷出。
+ * 刷出时不等待单条消息的确认，而是通过在途窗口限制未确认消息数，使吞吐量取决于网络而非往返时延。
+ */
+public class BatchingPublisher {
+    private static final Logger logger = Logger.getLogger(BatchingPublisher.class.getName());
+
+    private static final long IDLE_POLL_MS = 100;
+
+    private final MqttTransport transport;
+    private final ArrayBlockingQueue<OutboundMessage> ring;
+    private final Semaphore inFlight;
+    private final int batchSize;
+    private final int maxInFlight;
+    private final long lingerNanos;
+    private final long enqueueTimeoutMillis;
+    private final MqttTransport.PublishCallback completion = this::onComplete;
+    private final Thread drainer;
+    private volatile boolean running = true;
+    private volatile MqttTransport.UndeliveredHandler undelivered;
+
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder published = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+
+    /**
+     * 创建并启动批量发布器
+     * @param transport MQTT传输层
+     * @param options 批量参数
+     */
+    public BatchingPublisher(MqttTransport transport, Options options) {
+        this.transport = transport;
+        this.ring = new ArrayBlockingQueue<>(options.capacity);
+        this.batchSize = options.batchSize;
+        this.maxInFlight = options.maxInFlight;
+        this.inFlight = new Semaphore(options.maxInFlight);
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(options.lingerMillis);
+        this.enqueueTimeoutMillis = options.enqueueTimeoutMillis;
+        this.drainer = new Thread(this::drainLoop, "tp-mqtt-publisher");
+        this.drainer.setDaemon(true);
+        this.drainer.start();
+    }
+
+    /**
+     * 设置未送达消息的去向：刷出后发布失败或关闭时仍在缓冲区中的消息交给该处理器，由其完成回调；
+     * 未设置时这些消息以失败完成回调
+     * @param handler 未送达消息的去向，如写入离线发件箱
+     * @return 当前发布器
+     */
+    public BatchingPublisher setUndeliveredHandler(MqttTransport.UndeliveredHandler handler) {
+        this.undelivered = handler;
+        return this;
+    }
+
+    /**
+     * 提交一条待发布消息
+     * 缓冲区已满时最多等待enqueueTimeoutMillis，仍无空位则丢弃
+     * @return 是否成功入队
+     */
+    public boolean offer(String topic, byte[] payload, int qos, boolean retained) {
+        return offer(topic, payload, qos, retained, null);
+    }
+
+    /**
+     * 提交一条待发布消息，发布完成或失败时回调
+     * @param callback 完成回调，可为null；在传输层的回调线程或刷出线程上执行，不应阻塞；入队失败时不回调
+     * @return 是否成功入队
+     */
+    public boolean offer(String topic, byte[] payload, int qos, boolean retained, MqttTransport.PublishCallback callback) {
+        if (!running) {
+            dropped.increment();
+            return false;
+        }
+        OutboundMessage message = new OutboundMessage(topic, payload, qos, retained, callback);
+        boolean accepted;
+        try {
+            accepted = enqueueTimeoutMillis > 0
+                    ? ring.offer(message, enqueueTimeoutMillis, TimeUnit.MILLISECONDS)
+                    : ring.offer(message);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            accepted = false;
+        }
+        if (accepted) {
+            enqueued.increment();
+        } else {
+            dropped.increment();
+        }
+        return accepted;
+    }
+
+    /**
+     * 停止接收新消息，刷出缓冲区并等待在途消息完成
+     * 超时仍未刷出的消息交给{@link #setUndeliveredHandler}设置的处理器，未设置时以失败完成回调
+     * @param timeoutMillis 最长等待时间
+     * @return 是否在超时前全部完成
+     */
+    public boolean close(long timeoutMillis) {
+        running = false;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        try {
+            drainer.join(Math.max(1, timeoutMillis));
+            if (drainer.isAlive()) {
+                drainer.interrupt();
+                List<OutboundMessage> unsent = new ArrayList<>();
+                ring.drainTo(unsent);
+                abandon(unsent);
+                return false;
+            }
+            long remaining = Math.max(0, deadline - System.nanoTime());
+            if (!inFlight.tryAcquire(maxInFlight, remaining, TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+            inFlight.release(maxInFlight);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * 获取发布统计
+     */
+    public Stats getStats() {
+        return new Stats(enqueued.sum(), published.sum(), failed.sum(), dropped.sum(), batches.sum(),
+                ring.size(), maxInFlight - inFlight.availablePermits());
+    }
+
+    private void drainLoop() {
+        List<OutboundMessage> batch = new ArrayList<>(batchSize);
+        while (running || !ring.isEmpty()) {
+            try {
+                OutboundMessage first = ring.poll(IDLE_POLL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + lingerNanos;
+                while (batch.size() < batchSize) {
+                    if (ring.drainTo(batch, batchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0 || !running) {
+                        break;
+                    }
+                    OutboundMessage next = ring.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                // 关闭超时，已取出但未发出的消息不静默丢弃
+                abandon(batch);
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 逐条发出，等待在途窗口时被中断则从batch中移除已发出的消息后抛出，batch只剩未发出的消息
+     */
+    private void flush(List<OutboundMessage> batch) throws InterruptedException {
+        for (int i = 0; i < batch.size(); i++) {
+            OutboundMessage message = batch.get(i);
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                batch.subList(0, i).clear();
+                throw e;
+            }
+            try {
+                // 设置了未送达处理器时消息自身作为回调，失败时才能交出消息内容
+                transport.publish(message.topic, message.payload, message.qos, message.retained,
+                        message.callback == null && undelivered == null ? completion : message);
+            } catch (MqttException e) {
+                inFlight.release();
+                failed.increment();
+                logger.log(Level.FINE, "MQTT发布失败: " + message.topic, e);
+                undeliverable(message, e);
+            }
+        }
+        batches.increment();
+    }
+
+    /**
+     * 关闭时未能发出的消息计为丢弃
+     */
+    private void abandon(List<OutboundMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        IllegalStateException error = new IllegalStateException("发布器已关闭，消息未发出");
+        for (OutboundMessage message : messages) {
+            dropped.increment();
+            undeliverable(message, error);
+        }
+    }
+
+    private void undeliverable(OutboundMessage message, Throwable error) {
+        MqttTransport.UndeliveredHandler handler = undelivered;
+        if (handler != null) {
+            handler.onUndelivered(message.topic, message.payload, message.qos, message.retained, message.callback);
+        } else if (message.callback != null) {
+            message.callback.onComplete(error);
+        }
+    }
+
+    private void onComplete(Throwable error) {
+        inFlight.release();
+        if (error == null) {
+            published.increment();
+        } else {
+            failed.increment();
+            logger.log(Level.FINE, "MQTT发布未确认", error);
+        }
+    }
+
+    /**
+     * 待发布消息，带回调或设置了未送达处理器时自身作为传输层的完成回调，不再另行包装
+     */
+    private final class OutboundMessage implements MqttTransport.PublishCallback {
+        final String topic;
+        final byte[] payload;
+        final int qos;
+        final boolean retained;
+        final MqttTransport.PublishCallback callback;
+
+        OutboundMessage(String topic, byte[] payload, int qos, boolean retained, MqttTransport.PublishCallback callback) {
+            this.topic = topic;
+            this.payload = payload;
+            this.qos = qos;
+            this.retained = retained;
+            this.callback = callback;
+        }
+
+        @Override
+        public void onComplete(Throwable error) {
+            BatchingPublisher.this.onComplete(error);
+            if (error != null) {
+                undeliverable(this, error);
+            } else if (callback != null) {
+                callback.onComplete(null);
+            }
+        }
+    }
+
+    /**
+     * 批量发布参数
+     */
+    public static class Options {
+        private int capacity = 8192;
+        private int batchSize = 256;
+        private long lingerMillis = 5;
+        private int maxInFlight = 1000;
+        private long enqueueTimeoutMillis = 1000;
+
+        /**
+         * 环形缓冲区容量
+         */
+        public Options setCapacity(int capacity) {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("capacity必须大于0");
+            }
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * 单批最大消息数
+         */
+        public Options setBatchSize(int batchSize) {
+            if (batchSize <= 0) {
+                throw new IllegalArgumentException("batchSize必须大于0");
+            }
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * 未攒够一批时的最长等待时间（毫秒）
+         */
+        public Options setLingerMillis(long lingerMillis) {
+            this.lingerMillis = Math.max(0, lingerMillis);
+            return this;
+        }
+
+        /**
+         * 最大在途（已发出未确认）消息数，同时作为Paho的maxInflight
+         */
+        public Options setMaxInFlight(int maxInFlight) {
+            if (maxInFlight <= 0) {
+                throw new IllegalArgumentException("maxInFlight必须大于0");
+            }
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        /**
+         * 缓冲区满时入队的最长等待时间（毫秒），0表示不等待直接丢弃
+         */
+        public Options setEnqueueTimeoutMillis(long enqueueTimeoutMillis) {
+            this.enqueueTimeoutMillis = Math.max(0, enqueueTimeoutMillis);
+            return this;
+        }
+
+        public int getMaxInFlight() {
+            return maxInFlight;
+        }
+    }
+
+    /**
+     * 发布统计快照
+     */
+    public static class Stats {
+        private final long enqueued;
+        private final long published;
+        private final long failed;
+        private final long dropped;
+        private final long batches;
+        private final int queueDepth;
+        private final int inFlight;
+
+        public Stats(long enqueued, long published, long failed, long dropped, long batches, int queueDepth, int inFlight) {
+            this.enqueued = enqueued;
+            this.published = published;
+            this.failed = failed;
+            this.dropped = dropped;
+            this.batches = batches;
+            this.queueDepth = queueDepth;
+            this.inFlight = inFlight;
+        }
+
+        public long getEnqueued() {
+            return enqueued;
+        }
+
+        public long getPublished() {
+            return published;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        public long getDropped() {
+            return dropped;
+        }
+
+        public long getBatches() {
+            return batches;
+        }
+
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        public int getInFlight() {
+            return inFlight;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "enqueued=" + enqueued +
+                    ", published=" + published +
+                    ", failed=" + failed +
+                    ", dropped=" + dropped +
+                    ", batches=" + batches +
+                    ", queueDepth=" + queueDepth +
+                    ", inFlight=" + inFlight +
+                    '}';
+        }
+    }
+}
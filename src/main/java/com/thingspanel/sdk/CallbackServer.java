@@ -0,0 +1,245 @@
+package com.thingspanel.sdk;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * TPHandler内置HTTP回调服务器，基于JDK自带的com.sun.net.httpserver
+ *
+ * 分两级线程：少量分发线程负责解析请求头并做准入判断，
+ * 用户处理函数在工作执行器（虚拟线程或有界线程池）中运行，慢处理函数不会阻塞连接接入。
+ * 并发请求数超过上限时立即返回503并带Retry-After，请求体超过上限返回413。
+ */
+final class CallbackServer {
+    private static final Logger logger = Logger.getLogger(CallbackServer.class.getName());
+
+    private static final String CONTENT_TYPE_JSON = "application/json; charset=utf-8";
+
+    private final TPHandler handler;
+    private final TPHandler.ServerOptions options;
+    private final Semaphore permits;
+    private HttpServer server;
+    private ExecutorService dispatchExecutor;
+    private ExecutorService workerExecutor;
+
+    private final LongAdder handled = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder tooLarge = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    CallbackServer(TPHandler handler, TPHandler.ServerOptions options) {
+        this.handler = handler;
+        this.options = options;
+        this.permits = new Semaphore(options.getMaxConcurrentRequests());
+    }
+
+    void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), options.getBacklog());
+        dispatchExecutor = Executors.newFixedThreadPool(options.getDispatchThreads(),
+                SdkExecutors.daemonThreadFactory("tp-callback-dispatch"));
+        workerExecutor = options.isUseVirtualThreads()
+                ? SdkExecutors.newTaskExecutor("tp-callback-worker", options.getWorkerThreads())
+                : Executors.newFixedThreadPool(options.getWorkerThreads(), SdkExecutors.daemonThreadFactory("tp-callback-worker"));
+        server.setExecutor(dispatchExecutor);
+
+        route("/api/v1/form/config", "GET", this::formConfig);
+        route("/api/v1/device/disconnect", "POST", this::deviceDisconnect);
+        route("/api/v1/plugin/notification", "POST", this::notification);
+        route("/api/v1/plugin/device/list", "GET", this::deviceList);
+        server.start();
+    }
+
+    void stop(int delaySeconds) {
+        if (server == null) {
+            return;
+        }
+        server.stop(delaySeconds);
+        dispatchExecutor.shutdown();
+        workerExecutor.shutdown();
+        try {
+            workerExecutor.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workerExecutor.shutdownNow();
+        server = null;
+    }
+
+    int getPort() {
+        return server == null ? -1 : server.getAddress().getPort();
+    }
+
+    TPHandler.ServerStats getStats() {
+        return new TPHandler.ServerStats(handled.sum(), rejected.sum(), tooLarge.sum(), failed.sum(),
+                options.getMaxConcurrentRequests() - permits.availablePermits());
+    }
+
+    private void route(String path, String method, Route route) {
+        server.createContext(path, exchange -> admit(exchange, path, method, route));
+    }
+
+    /**
+     * 在分发线程上执行：只做准入判断，不调用用户代码
+     */
+    private void admit(HttpExchange exchange, String path, String method, Route route) {
+        long start = System.nanoTime();
+        if (!permits.tryAcquire()) {
+            rejected.increment();
+            exchange.getResponseHeaders().set("Retry-After", String.valueOf(options.getRetryAfterSeconds()));
+            respond(exchange, path, start, 503, JsonCodec.writeEnvelope(503, "服务繁忙，请稍后重试", null));
+            return;
+        }
+        try {
+            workerExecutor.execute(() -> {
+                try {
+                    serve(exchange, path, start, method, route);
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            permits.release();
+            rejected.increment();
+            respond(exchange, path, start, 503, JsonCodec.writeEnvelope(503, "服务正在关闭", null));
+        }
+    }
+
+    private void serve(HttpExchange exchange, String path, long start, String method, Route route) {
+        if (!method.equalsIgnoreCase(exchange.getRequestMethod())) {
+            respond(exchange, path, start, 405, JsonCodec.writeEnvelope(405, "不支持的请求方法", null));
+            return;
+        }
+        try {
+            byte[] body = readBody(exchange);
+            if (body == null) {
+                tooLarge.increment();
+                respond(exchange, path, start, 413, JsonCodec.writeEnvelope(413, "请求体过大", null));
+                return;
+            }
+            Object data = route.handle(parseQuery(exchange.getRequestURI().getRawQuery()), body);
+            handled.increment();
+            respond(exchange, path, start, 200, JsonCodec.writeEnvelope(200, "success", data));
+        } catch (IOException e) {
+            failed.increment();
+            logger.log(Level.WARNING, "回调请求解析失败: " + exchange.getRequestURI().getPath(), e);
+            respond(exchange, path, start, 400, JsonCodec.writeEnvelope(400, "请求格式错误", null));
+        } catch (Exception e) {
+            failed.increment();
+            logger.log(Level.SEVERE, "回调处理失败: " + exchange.getRequestURI().getPath(), e);
+            respond(exchange, path, start, 500, JsonCodec.writeEnvelope(500, "内部错误", null));
+        }
+    }
+
+    private Object formConfig(Map<String, String> query, byte[] body) {
+        return handler.handleFormConfig(query.get("protocol_type"), query.get("device_type"), query.get("form_type"));
+    }
+
+    private Object deviceDisconnect(Map<String, String> query, byte[] body) throws IOException {
+        Map<String, Object> request = JsonCodec.readObjectMap(body);
+        handler.handleDeviceDisconnect(asString(request.get("device_id")), asString(request.get("voucher")));
+        return null;
+    }
+
+    private Object notification(Map<String, String> query, byte[] body) throws IOException {
+        handler.handleNotification(JsonCodec.readObjectMap(body));
+        return null;
+    }
+
+    private Object deviceList(Map<String, String> query, byte[] body) {
+        return handler.handleDeviceList(query.get("voucher"), query.get("service_identifier"),
+                parseInt(query.get("page"), 1), parseInt(query.get("page_size"), 10));
+    }
+
+    /**
+     * 读取请求体，超过上限时返回null
+     */
+    private byte[] readBody(HttpExchange exchange) throws IOException {
+        int limit = options.getMaxRequestBytes();
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (contentLength != null && parseInt(contentLength, 0) > limit) {
+            return null;
+        }
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[Math.min(limit + 1, 8192)];
+            int length = 0;
+            int read;
+            while ((read = in.read(buffer, length, buffer.length - length)) != -1) {
+                length += read;
+                if (length > limit) {
+                    return null;
+                }
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, Math.min(limit + 1, buffer.length * 2));
+                }
+            }
+            return length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
+        }
+    }
+
+    /**
+     * 以固定长度写出响应，使连接可以保持复用；耗时从请求进入分发线程起算，包含排队时间
+     */
+    private void respond(HttpExchange exchange, String path, long start, int status, byte[] body) {
+        try (OutputStream out = exchange.getResponseBody()) {
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE_JSON);
+            exchange.sendResponseHeaders(status, body.length);
+            out.write(body);
+        } catch (IOException e) {
+            logger.log(Level.FINE, "回调响应写出失败", e);
+        } finally {
+            exchange.close();
+        }
+        handler.getMetrics().callbackHandled(path, status, System.nanoTime() - start);
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return params;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static String asString(Object value) {
+        return value == null ? null : value.toString();
+    }
+
+    @FunctionalInterface
+    private interface Route {
+        Object handle(Map<String, String> query, byte[] body) throws Exception;
+    }
+}
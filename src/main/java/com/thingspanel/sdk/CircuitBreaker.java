@@ -0,0 +1,113 @@
+package com.thingspanel.sdk;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * 熔断器
+ * 连续失败达到阈值后打开，打开期间直接拒绝请求；冷却时间过后放行一个探测请求（半开），
+ * 探测成功则关闭，失败则重新打开。
+ */
+public class CircuitBreaker {
+    private static final Logger logger = Logger.getLogger(CircuitBreaker.class.getName());
+
+    /**
+     * 熔断器状态
+     */
+    public enum State {
+        /** 正常放行 */
+        CLOSED,
+        /** 拒绝请求 */
+        OPEN,
+        /** 放行单个探测请求 */
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    // 状态与打开时间放在同一个不可变对象里原子切换，避免读到新状态配旧时间
+    private final AtomicReference<Phase> phase = new AtomicReference<>(Phase.CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final LongAdder opens = new LongAdder();
+
+    /**
+     * @param failureThreshold 打开熔断器的连续失败次数
+     * @param openMillis 打开后的冷却时间（毫秒）
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        if (failureThreshold <= 0) {
+            throw new IllegalArgumentException("failureThreshold必须大于0");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+    /**
+     * 请求是否可以发出
+     */
+    public boolean tryAcquire() {
+        Phase current = phase.get();
+        if (current.state == State.CLOSED) {
+            return true;
+        }
+        if (current.state == State.OPEN && System.nanoTime() - current.openedAt >= openNanos) {
+            // 只有一个线程能切换到半开并发出探测请求
+            return phase.compareAndSet(current, new Phase(State.HALF_OPEN, current.openedAt));
+        }
+        return false;
+    }
+
+    /**
+     * 记录一次成功
+     */
+    public void onSuccess() {
+        consecutiveFailures.set(0);
+        if (phase.get() != Phase.CLOSED && phase.getAndSet(Phase.CLOSED) != Phase.CLOSED) {
+            logger.info("熔断器已关闭");
+        }
+    }
+
+    /**
+     * 记录一次失败
+     */
+    public void onFailure() {
+        int failures = consecutiveFailures.incrementAndGet();
+        Phase current = phase.get();
+        boolean trip = current.state == State.HALF_OPEN
+                || (current.state == State.CLOSED && failures >= failureThreshold);
+        if (trip && phase.compareAndSet(current, new Phase(State.OPEN, System.nanoTime()))) {
+            opens.increment();
+            logger.warning("熔断器已打开，连续失败次数: " + failures);
+        }
+    }
+
+    public State getState() {
+        return phase.get().state;
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures.get();
+    }
+
+    /**
+     * 熔断器累计打开次数
+     */
+    public long getOpenCount() {
+        return opens.sum();
+    }
+
+    private static final class Phase {
+        static final Phase CLOSED = new Phase(State.CLOSED, 0);
+
+        final State state;
+        final long openedAt;
+
+        Phase(State state, long openedAt) {
+            this.state = state;
+            this.openedAt = openedAt;
+        }
+    }
+}
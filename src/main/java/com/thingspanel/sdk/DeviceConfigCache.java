@@ -0,0 +1,363 @@
+package com.thingspanel.sdk;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * 设备配置缓存
+ * 位于TPAPIClient.getDeviceConfig之前，按设备ID（缺少时按设备编号，两者键空间互不重叠）加凭证缓存成功的配置响应：
+ * 凭证不同的请求互不命中，容量有上限（LRU淘汰），条目超过TTL后失效；同一设备的并发未命中只发起一次HTTP请求。
+ * 可通过{@link #bindTo(TPHandler)}在收到设备断开通知时自动失效该设备的全部条目（包括按设备编号缓存的条目）。
+ */
+public class DeviceConfigCache {
+    private static final Logger logger = Logger.getLogger(DeviceConfigCache.class.getName());
+    private static final String ID_PREFIX = "id:";
+    private static final String NUMBER_PREFIX = "num:";
+    private static final char VOUCHER_SEPARATOR = '\u0000';
+
+    private final TPAPIClient apiClient;
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LinkedHashMap<String, CachedConfig> entries;
+    // 设备ID -> 该设备的全部缓存键，加载完成时登记，与entries共用同一把锁
+    private final Map<String, Set<String>> keysByDevice = new HashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<TPAPIClient.APIResponse<Device>>> loading = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder totalLoadNanos = new LongAdder();
+
+    /**
+     * @param apiClient API客户端
+     * @param maxSize 最大缓存设备数
+     * @param ttl 条目有效期
+     */
+    public DeviceConfigCache(TPAPIClient apiClient, int maxSize, Duration ttl) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize必须大于0");
+        }
+        this.apiClient = apiClient;
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl.toNanos();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedConfig> eldest) {
+                if (size() > DeviceConfigCache.this.maxSize) {
+                    evictions.increment();
+                    unlink(eldest.getKey(), eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * 在处理器收到设备断开通知时失效对应设备的缓存
+     * @param handler HTTP回调处理器
+     * @return 当前缓存实例
+     */
+    public DeviceConfigCache bindTo(TPHandler handler) {
+        handler.addDeviceDisconnectListener((deviceId, voucher) -> invalidate(deviceId));
+        return this;
+    }
+
+    /**
+     * 获取设备配置，未命中时同步加载
+     */
+    public TPAPIClient.APIResponse<Device> get(TPAPIClient.DeviceConfigRequest request) {
+        String key = keyOf(request);
+        if (key == null) {
+            return apiClient.getDeviceConfig(request);
+        }
+        TPAPIClient.APIResponse<Device> cached = lookup(key);
+        if (cached != null) {
+            return cached;
+        }
+        CompletableFuture<TPAPIClient.APIResponse<Device>> promise = new CompletableFuture<>();
+        CompletableFuture<TPAPIClient.APIResponse<Device>> existing = loading.putIfAbsent(key, promise);
+        if (existing != null) {
+            coalesced.increment();
+            return existing.join();
+        }
+        long start = System.nanoTime();
+        TPAPIClient.APIResponse<Device> response;
+        try {
+            response = apiClient.getDeviceConfig(request);
+        } catch (RuntimeException e) {
+            response = new TPAPIClient.APIResponse<>(false, e.getMessage(), null);
+        } catch (Error e) {
+            // 不留下永远不会完成的加载，等待中的调用方收到同一个错误
+            loading.remove(key, promise);
+            promise.completeExceptionally(e);
+            throw e;
+        }
+        complete(key, request, promise, response, start);
+        return response;
+    }
+
+    /**
+     * 异步获取设备配置，未命中时通过getDeviceConfigAsync加载
+     */
+    public CompletableFuture<TPAPIClient.APIResponse<Device>> getAsync(TPAPIClient.DeviceConfigRequest request) {
+        String key = keyOf(request);
+        if (key == null) {
+            return apiClient.getDeviceConfigAsync(request);
+        }
+        TPAPIClient.APIResponse<Device> cached = lookup(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        CompletableFuture<TPAPIClient.APIResponse<Device>> promise = new CompletableFuture<>();
+        CompletableFuture<TPAPIClient.APIResponse<Device>> existing = loading.putIfAbsent(key, promise);
+        if (existing != null) {
+            coalesced.increment();
+            return existing;
+        }
+        long start = System.nanoTime();
+        CompletableFuture<TPAPIClient.APIResponse<Device>> load;
+        try {
+            load = apiClient.getDeviceConfigAsync(request);
+        } catch (RuntimeException e) {
+            load = CompletableFuture.failedFuture(e);
+        }
+        load.whenComplete((response, error) -> complete(key, request, promise,
+                error != null ? new TPAPIClient.APIResponse<>(false, error.getMessage(), null) : response, start));
+        return promise;
+    }
+
+    /**
+     * 失效指定设备的缓存，包括按设备编号缓存的条目；按设备ID进行中的加载结果也不会写入缓存
+     * @param deviceId 设备ID
+     */
+    public void invalidate(String deviceId) {
+        if (deviceId == null) {
+            return;
+        }
+        String idPrefix = ID_PREFIX + deviceId + VOUCHER_SEPARATOR;
+        loading.keySet().removeIf(key -> key.startsWith(idPrefix));
+        synchronized (entries) {
+            Set<String> keys = keysByDevice.remove(deviceId);
+            if (keys != null) {
+                for (String key : keys) {
+                    entries.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void invalidateAll() {
+        loading.clear();
+        synchronized (entries) {
+            entries.clear();
+            keysByDevice.clear();
+        }
+    }
+
+    /**
+     * 当前缓存条目数
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * 获取缓存统计
+     */
+    public Stats getStats() {
+        return new Stats(hits.sum(), misses.sum(), coalesced.sum(), loads.sum(), loadFailures.sum(),
+                evictions.sum(), totalLoadNanos.sum(), size());
+    }
+
+    private TPAPIClient.APIResponse<Device> lookup(String key) {
+        synchronized (entries) {
+            CachedConfig entry = entries.get(key);
+            if (entry != null) {
+                if (System.nanoTime() - entry.loadedAtNanos < ttlNanos) {
+                    hits.increment();
+                    return entry.response;
+                }
+                entries.remove(key);
+                unlink(key, entry);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    private void complete(String key, TPAPIClient.DeviceConfigRequest request,
+                          CompletableFuture<TPAPIClient.APIResponse<Device>> promise,
+                          TPAPIClient.APIResponse<Device> response, long startNanos) {
+        long now = System.nanoTime();
+        loads.increment();
+        totalLoadNanos.add(now - startNanos);
+        boolean cacheable = response != null && response.isSuccess() && response.getData() != null;
+        if (!cacheable) {
+            loadFailures.increment();
+        }
+        // 加载期间被失效时remove返回false，此时结果只返回给调用方而不写入缓存
+        if (loading.remove(key, promise) && cacheable) {
+            // 按编号请求时设备ID取自响应，之后按设备ID失效也能找到这个条目
+            String deviceId = request.deviceId != null ? request.deviceId : response.getData().getDeviceId();
+            synchronized (entries) {
+                CachedConfig previous = entries.put(key, new CachedConfig(response, now, deviceId));
+                if (previous != null) {
+                    unlink(key, previous);
+                }
+                if (deviceId != null) {
+                    keysByDevice.computeIfAbsent(deviceId, k -> new HashSet<>()).add(key);
+                }
+            }
+        }
+        promise.complete(response);
+    }
+
+    /**
+     * 从设备索引中移除已不在缓存里的键，调用方持有entries锁
+     */
+    private void unlink(String key, CachedConfig entry) {
+        if (entry.deviceId == null) {
+            return;
+        }
+        Set<String> keys = keysByDevice.get(entry.deviceId);
+        if (keys != null && keys.remove(key) && keys.isEmpty()) {
+            keysByDevice.remove(entry.deviceId);
+        }
+    }
+
+    /**
+     * 缓存键，设备ID与设备编号加不同前缀，避免某设备的ID与另一设备的编号相同时串用配置；
+     * 凭证也是键的一部分，凭证不同的调用方拿不到别人缓存的配置
+     * @return 两者都缺少时为null，此时不经过缓存
+     */
+    private static String keyOf(TPAPIClient.DeviceConfigRequest request) {
+        String voucher = request.voucher == null ? "" : request.voucher;
+        if (request.deviceId != null) {
+            return ID_PREFIX + request.deviceId + VOUCHER_SEPARATOR + voucher;
+        }
+        if (request.deviceNumber != null) {
+            return NUMBER_PREFIX + request.deviceNumber + VOUCHER_SEPARATOR + voucher;
+        }
+        logger.warning("设备配置请求缺少deviceId和deviceNumber，不使用缓存");
+        return null;
+    }
+
+    private static final class CachedConfig {
+        final TPAPIClient.APIResponse<Device> response;
+        final long loadedAtNanos;
+        final String deviceId;
+
+        CachedConfig(TPAPIClient.APIResponse<Device> response, long loadedAtNanos, String deviceId) {
+            this.response = response;
+            this.loadedAtNanos = loadedAtNanos;
+            this.deviceId = deviceId;
+        }
+    }
+
+    /**
+     * 缓存统计快照
+     */
+    public static class Stats {
+        private final long hits;
+        private final long misses;
+        private final long coalesced;
+        private final long loads;
+        private final long loadFailures;
+        private final long evictions;
+        private final long totalLoadNanos;
+        private final int size;
+
+        public Stats(long hits, long misses, long coalesced, long loads, long loadFailures,
+                     long evictions, long totalLoadNanos, int size) {
+            this.hits = hits;
+            this.misses = misses;
+            this.coalesced = coalesced;
+            this.loads = loads;
+            this.loadFailures = loadFailures;
+            this.evictions = evictions;
+            this.totalLoadNanos = totalLoadNanos;
+            this.size = size;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * 与进行中的加载合并的未命中次数
+         */
+        public long getCoalesced() {
+            return coalesced;
+        }
+
+        /**
+         * 实际发起的HTTP加载次数
+         */
+        public long getLoads() {
+            return loads;
+        }
+
+        public long getLoadFailures() {
+            return loadFailures;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public long getTotalLoadNanos() {
+            return totalLoadNanos;
+        }
+
+        /**
+         * 平均加载耗时（毫秒）
+         */
+        public double getAverageLoadMillis() {
+            return loads == 0 ? 0 : totalLoadNanos / 1_000_000.0 / loads;
+        }
+
+        public double getHitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "hits=" + hits +
+                    ", misses=" + misses +
+                    ", coalesced=" + coalesced +
+                    ", loads=" + loads +
+                    ", loadFailures=" + loadFailures +
+                    ", evictions=" + evictions +
+                    ", averageLoadMillis=" + getAverageLoadMillis() +
+                    ", size=" + size +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,409 @@
+package com.thingspanel.sdk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * 批量设备接入
+ * 每台设备依次执行设备动态认证和获取设备配置，不同设备之间流水线并行：
+ * 某台设备认证完成后立即发起其配置请求，无需等待整批认证结束。
+ * 运行在Java 21+时每台设备一个虚拟线程执行阻塞调用，否则使用{@link TPAPIClient}的异步接口；
+ * 两种方式都以信号量限制同时处理的设备数，设备编号按需从迭代器读取，不会一次性展开整个流。
+ */
+public class DeviceOnboarder {
+    private static final Logger logger = Logger.getLogger(DeviceOnboarder.class.getName());
+
+    private final TPAPIClient apiClient;
+    private final int maxConcurrency;
+    private final boolean useVirtualThreads;
+    private final DeviceRegistry registry;
+
+    /**
+     * @param apiClient API客户端，建议启用容错层以便对获取配置自动重试
+     * @param options 接入参数
+     */
+    public DeviceOnboarder(TPAPIClient apiClient, Options options) {
+        if (apiClient == null) {
+            throw new IllegalArgumentException("API客户端不能为空");
+        }
+        this.apiClient = apiClient;
+        this.maxConcurrency = options.maxConcurrency;
+        this.useVirtualThreads = options.useVirtualThreads && SdkExecutors.virtualThreadsAvailable();
+        this.registry = options.registry;
+    }
+
+    /**
+     * 接入一批设备，阻塞直到全部完成
+     * @param templateSecret 模板密钥
+     * @param deviceNumbers 设备编号
+     * @param listener 进度回调，可为null；在处理设备的线程上调用，需线程安全
+     * @return 接入结果，单台设备失败不影响其他设备
+     */
+    public Result onboard(String templateSecret, Iterable<String> deviceNumbers, ProgressListener listener) throws InterruptedException {
+        return onboard(templateSecret, deviceNumbers.iterator(), listener);
+    }
+
+    /**
+     * 接入设备编号流中的设备，阻塞直到全部完成
+     */
+    public Result onboard(String templateSecret, Stream<String> deviceNumbers, ProgressListener listener) throws InterruptedException {
+        return onboard(templateSecret, deviceNumbers.iterator(), listener);
+    }
+
+    private Result onboard(String templateSecret, Iterator<String> deviceNumbers, ProgressListener listener) throws InterruptedException {
+        Run run = new Run(templateSecret, listener);
+        long start = System.nanoTime();
+        if (useVirtualThreads) {
+            ExecutorService executor = SdkExecutors.newTaskExecutor("tp-onboard", maxConcurrency);
+            try {
+                while (deviceNumbers.hasNext()) {
+                    String deviceNumber = deviceNumbers.next();
+                    run.permits.acquire();
+                    executor.execute(() -> {
+                        try {
+                            run.onboardBlocking(deviceNumber);
+                        } finally {
+                            run.permits.release();
+                        }
+                    });
+                }
+            } finally {
+                executor.shutdown();
+            }
+        } else {
+            while (deviceNumbers.hasNext()) {
+                String deviceNumber = deviceNumbers.next();
+                run.permits.acquire();
+                run.onboardAsync(deviceNumber).whenComplete((ignored, error) -> run.permits.release());
+            }
+        }
+        // 取回全部许可即表示所有设备处理完毕
+        run.permits.acquire(maxConcurrency);
+        run.permits.release(maxConcurrency);
+        Result result = new Result(run.devices, new ArrayList<>(run.failures),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        logger.info("设备接入完成 - 成功: " + result.getDevices().size() + ", 失败: " + result.getFailures().size()
+                + ", 耗时: " + result.getElapsedMillis() + "ms");
+        return result;
+    }
+
+    /**
+     * 单次批量接入的状态
+     */
+    private final class Run {
+        final String templateSecret;
+        final ProgressListener listener;
+        final Semaphore permits = new Semaphore(maxConcurrency);
+        final Map<String, Device> devices = new ConcurrentHashMap<>();
+        final ConcurrentLinkedQueue<Failure> failures = new ConcurrentLinkedQueue<>();
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+
+        Run(String templateSecret, ProgressListener listener) {
+            this.templateSecret = templateSecret;
+            this.listener = listener;
+        }
+
+        void onboardBlocking(String deviceNumber) {
+            TPAPIClient.APIResponse<Map<String, String>> auth;
+            try {
+                auth = apiClient.deviceDynamicAuth(authRequest(deviceNumber));
+            } catch (RuntimeException e) {
+                fail(deviceNumber, Stage.AUTH, e);
+                return;
+            }
+            TPAPIClient.DeviceConfigRequest request = configRequest(deviceNumber, auth);
+            if (request == null) {
+                return;
+            }
+            try {
+                onConfig(deviceNumber, apiClient.getDeviceConfig(request));
+            } catch (RuntimeException e) {
+                fail(deviceNumber, Stage.CONFIG, e);
+            }
+        }
+
+        /**
+         * 每个阶段在自己的回调中处理异常，失败记录到实际出错的阶段
+         */
+        CompletableFuture<Void> onboardAsync(String deviceNumber) {
+            return call(() -> apiClient.deviceDynamicAuthAsync(authRequest(deviceNumber)))
+                    .handle((auth, error) -> {
+                        if (error != null) {
+                            fail(deviceNumber, Stage.AUTH, error);
+                            return null;
+                        }
+                        return configRequest(deviceNumber, auth);
+                    })
+                    .thenCompose(request -> {
+                        if (request == null) {
+                            return CompletableFuture.completedFuture(null);
+                        }
+                        return call(() -> apiClient.getDeviceConfigAsync(request))
+                                .handle((config, error) -> {
+                                    if (error != null) {
+                                        fail(deviceNumber, Stage.CONFIG, error);
+                                    } else {
+                                        onConfig(deviceNumber, config);
+                                    }
+                                    return null;
+                                });
+                    });
+        }
+
+        /**
+         * 发起异步调用，调用本身同步抛出的异常也转为失败的Future
+         */
+        private <T> CompletableFuture<T> call(Supplier<CompletableFuture<T>> request) {
+            try {
+                return request.get();
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        private TPAPIClient.DeviceDynamicAuthRequest authRequest(String deviceNumber) {
+            TPAPIClient.DeviceDynamicAuthRequest request = new TPAPIClient.DeviceDynamicAuthRequest();
+            request.templateSecret = templateSecret;
+            request.deviceNumber = deviceNumber;
+            return request;
+        }
+
+        /**
+         * 由认证结果构造配置请求，认证失败时记录失败并返回null
+         */
+        private TPAPIClient.DeviceConfigRequest configRequest(String deviceNumber, TPAPIClient.APIResponse<Map<String, String>> auth) {
+            if (!auth.isSuccess()) {
+                fail(deviceNumber, Stage.AUTH, auth.getMessage(), auth.getStatusCode());
+                return null;
+            }
+            Map<String, String> data = auth.getData();
+            String deviceId = data == null ? null : data.get("device_id");
+            if (deviceId == null) {
+                fail(deviceNumber, Stage.AUTH, "认证响应缺少device_id", auth.getStatusCode());
+                return null;
+            }
+            TPAPIClient.DeviceConfigRequest request = new TPAPIClient.DeviceConfigRequest();
+            request.deviceId = deviceId;
+            request.voucher = data.get("voucher");
+            request.deviceNumber = deviceNumber;
+            return request;
+        }
+
+        private void onConfig(String deviceNumber, TPAPIClient.APIResponse<Device> config) {
+            if (!config.isSuccess() || config.getData() == null) {
+                fail(deviceNumber, Stage.CONFIG, config.getMessage(), config.getStatusCode());
+                return;
+            }
+            Device device = config.getData();
+            if (device.getDeviceNumber() == null) {
+                device.setDeviceNumber(deviceNumber);
+            }
+            devices.put(deviceNumber, device);
+            if (registry != null && device.getDeviceId() != null) {
+                registry.put(device);
+            }
+            progress(deviceNumber, true);
+        }
+
+        /**
+         * 记录调用异常，异步阶段的CompletionException解包为实际原因；未收到响应，状态码为0
+         */
+        private void fail(String deviceNumber, Stage stage, Throwable error) {
+            Throwable cause = error;
+            while ((cause instanceof CompletionException || cause instanceof ExecutionException)
+                    && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            String message = cause.getMessage() != null ? cause.getMessage() : cause.getClass().getName();
+            fail(deviceNumber, stage, message, 0);
+        }
+
+        private void fail(String deviceNumber, Stage stage, String message, int statusCode) {
+            failures.add(new Failure(deviceNumber, stage, message, statusCode));
+            failed.incrementAndGet();
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("设备接入失败 - 设备编号: " + deviceNumber + ", 阶段: " + stage + ", 原因: " + message);
+            }
+            progress(deviceNumber, false);
+        }
+
+        private void progress(String deviceNumber, boolean success) {
+            long done = completed.incrementAndGet();
+            if (listener == null) {
+                return;
+            }
+            try {
+                listener.onProgress(deviceNumber, success, done, failed.get());
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "接入进度回调异常", e);
+            }
+        }
+    }
+
+    /**
+     * 接入进度回调
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+        /**
+         * 每台设备处理完成时调用
+         * @param deviceNumber 设备编号
+         * @param success 是否接入成功
+         * @param completed 已完成（含失败）的设备数
+         * @param failed 已失败的设备数
+         */
+        void onProgress(String deviceNumber, boolean success, long completed, long failed);
+    }
+
+    /**
+     * 失败所在阶段
+     */
+    public enum Stage {
+        /** 设备动态认证 */
+        AUTH,
+        /** 获取设备配置 */
+        CONFIG
+    }
+
+    /**
+     * 单台设备的接入失败
+     */
+    public static class Failure {
+        private final String deviceNumber;
+        private final Stage stage;
+        private final String message;
+        private final int statusCode;
+
+        public Failure(String deviceNumber, Stage stage, String message, int statusCode) {
+            this.deviceNumber = deviceNumber;
+            this.stage = stage;
+            this.message = message;
+            this.statusCode = statusCode;
+        }
+
+        public String getDeviceNumber() {
+            return deviceNumber;
+        }
+
+        public Stage getStage() {
+            return stage;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * HTTP状态码，未收到响应时为0
+         */
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        @Override
+        public String toString() {
+            return "Failure{" +
+                    "deviceNumber='" + deviceNumber + '\'' +
+                    ", stage=" + stage +
+                    ", message='" + message + '\'' +
+                    ", statusCode=" + statusCode +
+                    '}';
+        }
+    }
+
+    /**
+     * 批量接入结果
+     */
+    public static class Result {
+        private final Map<String, Device> devices;
+        private final List<Failure> failures;
+        private final long elapsedMillis;
+
+        public Result(Map<String, Device> devices, List<Failure> failures, long elapsedMillis) {
+            this.devices = Collections.unmodifiableMap(devices);
+            this.failures = Collections.unmodifiableList(failures);
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /**
+         * 接入成功的设备，以设备编号为键
+         */
+        public Map<String, Device> getDevices() {
+            return devices;
+        }
+
+        public Device getDevice(String deviceNumber) {
+            return devices.get(deviceNumber);
+        }
+
+        public List<Failure> getFailures() {
+            return failures;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" +
+                    "devices=" + devices.size() +
+                    ", failures=" + failures.size() +
+                    ", elapsedMillis=" + elapsedMillis +
+                    '}';
+        }
+    }
+
+    /**
+     * 接入参数
+     */
+    public static class Options {
+        private int maxConcurrency = 64;
+        private boolean useVirtualThreads = true;
+        private DeviceRegistry registry;
+
+        /**
+         * 同时处理的最大设备数，同时也受{@link TPAPIClient}最大并发请求数限制
+         */
+        public Options setMaxConcurrency(int maxConcurrency) {
+            if (maxConcurrency <= 0) {
+                throw new IllegalArgumentException("maxConcurrency必须大于0");
+            }
+            this.maxConcurrency = maxConcurrency;
+            return this;
+        }
+
+        /**
+         * 运行在Java 21+时是否用虚拟线程执行阻塞调用，否则使用异步接口
+         */
+        public Options setUseVirtualThreads(boolean useVirtualThreads) {
+            this.useVirtualThreads = useVirtualThreads;
+            return this;
+        }
+
+        /**
+         * 接入成功的设备同时登记到该注册表
+         */
+        public Options setRegistry(DeviceRegistry registry) {
+            this.registry = registry;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package com.thingspanel.sdk;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ObjLongConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 设备注册表
+ * 按设备ID、设备编号、子设备ID及网关下的子设备地址索引设备，读取为无锁的ConcurrentHashMap查找。
+ * 各索引指向同一个条目对象，键直接使用Device/SubDevice中的字符串实例，不另行复制；
+ * 子设备地址索引在登记时构造为不可变映射，读取时无需加锁。
+ * 写入按设备ID串行化，更换设备编号或子设备列表时旧索引会被一并清除。
+ *
+ * 可通过{@link #bindTo(TPHandler)}在收到设备断开通知时移除设备，
+ * 通过{@link #refreshAsync(String)}从{@link TPAPIClient#getDeviceConfigAsync}重新加载配置。
+ */
+public class DeviceRegistry {
+    private static final Logger logger = Logger.getLogger(DeviceRegistry.class.getName());
+
+    private final TPAPIClient apiClient;
+    private final ConcurrentHashMap<String, Entry> byId;
+    private final ConcurrentHashMap<String, Entry> byNumber;
+    private final ConcurrentHashMap<String, Entry> bySubDeviceId;
+
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder refreshFailures = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public DeviceRegistry() {
+        this(null, 16);
+    }
+
+    /**
+     * @param apiClient 刷新配置使用的API客户端，为null时不支持刷新
+     * @param expectedDevices 预计设备数，用于预先确定索引容量，避免大规模登记时反复扩容
+     */
+    public DeviceRegistry(TPAPIClient apiClient, int expectedDevices) {
+        if (expectedDevices <= 0) {
+            throw new IllegalArgumentException("expectedDevices必须大于0");
+        }
+        this.apiClient = apiClient;
+        this.byId = new ConcurrentHashMap<>(expectedDevices);
+        this.byNumber = new ConcurrentHashMap<>(expectedDevices);
+        this.bySubDeviceId = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * 在处理器收到设备断开通知时移除对应设备
+     * @param handler HTTP回调处理器
+     * @return 当前注册表实例
+     */
+    public DeviceRegistry bindTo(TPHandler handler) {
+        handler.addDeviceDisconnectListener((deviceId, voucher) -> {
+            if (remove(deviceId) != null) {
+                evictions.increment();
+            }
+        });
+        return this;
+    }
+
+    /**
+     * 登记或替换设备；之后修改Device的设备编号或子设备列表需重新登记才会反映到索引
+     * @param device 设备，设备ID不能为空
+     */
+    public void put(Device device) {
+        put(device, System.currentTimeMillis());
+    }
+
+    /**
+     * 登记设备并指定其配置的获取时间，供快照恢复使用
+     */
+    void put(Device device, long updatedAtMillis) {
+        String deviceId = device.getDeviceId();
+        if (deviceId == null) {
+            throw new IllegalArgumentException("设备ID不能为空");
+        }
+        Entry created = new Entry(device, updatedAtMillis);
+        byId.compute(deviceId, (key, old) -> {
+            if (old != null) {
+                unindex(old);
+            }
+            index(created);
+            return created;
+        });
+    }
+
+    /**
+     * 批量登记设备
+     */
+    public void putAll(Collection<Device> devices) {
+        for (Device device : devices) {
+            put(device);
+        }
+    }
+
+    /**
+     * 移除设备及其子设备索引
+     * @return 被移除的设备，不存在时为null
+     */
+    public Device remove(String deviceId) {
+        if (deviceId == null) {
+            return null;
+        }
+        Entry[] removed = new Entry[1];
+        byId.computeIfPresent(deviceId, (key, old) -> {
+            unindex(old);
+            removed[0] = old;
+            return null;
+        });
+        return removed[0] == null ? null : removed[0].device;
+    }
+
+    /**
+     * 按设备ID查找
+     */
+    public Device get(String deviceId) {
+        Entry entry = deviceId == null ? null : byId.get(deviceId);
+        return entry == null ? null : entry.device;
+    }
+
+    /**
+     * 按设备编号查找
+     */
+    public Device getByNumber(String deviceNumber) {
+        Entry entry = deviceNumber == null ? null : byNumber.get(deviceNumber);
+        return entry == null ? null : entry.device;
+    }
+
+    /**
+     * 按网关设备ID和子设备地址查找子设备
+     */
+    public SubDevice getSubDevice(String gatewayId, String address) {
+        Entry entry = gatewayId == null ? null : byId.get(gatewayId);
+        return entry == null || address == null ? null : entry.subDevicesByAddress.get(address);
+    }
+
+    /**
+     * 按子设备ID查找其所属网关设备
+     */
+    public Device getGateway(String subDeviceId) {
+        Entry entry = subDeviceId == null ? null : bySubDeviceId.get(subDeviceId);
+        return entry == null ? null : entry.device;
+    }
+
+    public boolean contains(String deviceId) {
+        return deviceId != null && byId.containsKey(deviceId);
+    }
+
+    /**
+     * 当前登记的设备数（不含子设备）
+     */
+    public int size() {
+        return byId.size();
+    }
+
+    /**
+     * 所有设备的快照
+     */
+    public List<Device> getDevices() {
+        List<Device> devices = new ArrayList<>(byId.size());
+        for (Entry entry : byId.values()) {
+            devices.add(entry.device);
+        }
+        return devices;
+    }
+
+    public void clear() {
+        for (String deviceId : byId.keySet()) {
+            remove(deviceId);
+        }
+    }
+
+    /**
+     * 使用已登记的凭证和设备编号重新获取设备配置，成功后替换条目；失败时保留原条目
+     * @param deviceId 设备ID
+     * @return 配置响应，设备未登记时为null
+     */
+    public CompletableFuture<TPAPIClient.APIResponse<Device>> refreshAsync(String deviceId) {
+        if (apiClient == null) {
+            throw new IllegalStateException("未设置API客户端，无法刷新设备配置");
+        }
+        Device current = get(deviceId);
+        if (current == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        TPAPIClient.DeviceConfigRequest request = new TPAPIClient.DeviceConfigRequest();
+        request.deviceId = deviceId;
+        request.voucher = current.getVoucher();
+        request.deviceNumber = current.getDeviceNumber();
+        refreshes.increment();
+        return apiClient.getDeviceConfigAsync(request).thenApply(response -> {
+            Device loaded = response.getData();
+            if (response.isSuccess() && loaded != null) {
+                if (loaded.getDeviceId() == null) {
+                    loaded.setDeviceId(deviceId);
+                }
+                // 期间设备已断开则不再登记
+                Entry created = new Entry(loaded, System.currentTimeMillis());
+                byId.computeIfPresent(deviceId, (key, old) -> {
+                    unindex(old);
+                    index(created);
+                    return created;
+                });
+            } else {
+                refreshFailures.increment();
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine("设备配置刷新失败 - 设备: " + deviceId + ", 原因: " + response.getMessage());
+                }
+            }
+            return response;
+        });
+    }
+
+    /**
+     * 刷新所有已登记设备，并发受API客户端最大并发请求数限制
+     * @return 全部刷新完成时完成的Future
+     */
+    public CompletableFuture<Void> refreshAllAsync() {
+        List<CompletableFuture<?>> futures = new ArrayList<>(byId.size());
+        for (String deviceId : byId.keySet()) {
+            futures.add(refreshAsync(deviceId));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * 刷新配置获取时间早于maxAgeMillis之前的设备，用于快照恢复后的后台校验
+     * @param maxAgeMillis 配置最长有效时间（毫秒）
+     * @return 全部刷新完成时完成的Future
+     */
+    public CompletableFuture<Void> refreshStaleAsync(long maxAgeMillis) {
+        long threshold = System.currentTimeMillis() - maxAgeMillis;
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+        for (Map.Entry<String, Entry> entry : byId.entrySet()) {
+            if (entry.getValue().updatedAtMillis < threshold) {
+                futures.add(refreshAsync(entry.getKey()));
+            }
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * 遍历所有设备及其配置获取时间
+     */
+    void forEach(ObjLongConsumer<Device> visitor) {
+        for (Entry entry : byId.values()) {
+            visitor.accept(entry.device, entry.updatedAtMillis);
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(byId.size(), bySubDeviceId.size(), refreshes.sum(), refreshFailures.sum(), evictions.sum());
+    }
+
+    private void index(Entry entry) {
+        if (entry.deviceNumber != null) {
+            byNumber.put(entry.deviceNumber, entry);
+        }
+        for (String subDeviceId : entry.subDeviceIds) {
+            bySubDeviceId.put(subDeviceId, entry);
+        }
+    }
+
+    private void unindex(Entry entry) {
+        if (entry.deviceNumber != null) {
+            byNumber.remove(entry.deviceNumber, entry);
+        }
+        for (String subDeviceId : entry.subDeviceIds) {
+            bySubDeviceId.remove(subDeviceId, entry);
+        }
+    }
+
+    /**
+     * 注册表条目，登记时固定设备编号和子设备索引
+     */
+    private static final class Entry {
+        final Device device;
+        final String deviceNumber;
+        final Map<String, SubDevice> subDevicesByAddress;
+        final String[] subDeviceIds;
+        final long updatedAtMillis;
+
+        Entry(Device device, long updatedAtMillis) {
+            this.device = device;
+            this.updatedAtMillis = updatedAtMillis;
+            this.deviceNumber = device.getDeviceNumber();
+            List<SubDevice> subDevices = device.getSubDevices();
+            if (subDevices == null || subDevices.isEmpty()) {
+                this.subDevicesByAddress = Collections.emptyMap();
+                this.subDeviceIds = new String[0];
+                return;
+            }
+            Map<String, SubDevice> byAddress = new HashMap<>(subDevices.size() * 2);
+            List<String> ids = new ArrayList<>(subDevices.size());
+            for (SubDevice subDevice : subDevices) {
+                if (subDevice.getAddress() != null) {
+                    byAddress.put(subDevice.getAddress(), subDevice);
+                }
+                if (subDevice.getDeviceId() != null) {
+                    ids.add(subDevice.getDeviceId());
+                }
+            }
+            this.subDevicesByAddress = Collections.unmodifiableMap(byAddress);
+            this.subDeviceIds = ids.toArray(new String[0]);
+        }
+    }
+
+    /**
+     * 注册表统计快照
+     */
+    public static class Stats {
+        private final int devices;
+        private final int subDevices;
+        private final long refreshes;
+        private final long refreshFailures;
+        private final long evictions;
+
+        public Stats(int devices, int subDevices, long refreshes, long refreshFailures, long evictions) {
+            this.devices = devices;
+            this.subDevices = subDevices;
+            this.refreshes = refreshes;
+            this.refreshFailures = refreshFailures;
+            this.evictions = evictions;
+        }
+
+        public int getDevices() {
+            return devices;
+        }
+
+        public int getSubDevices() {
+            return subDevices;
+        }
+
+        public long getRefreshes() {
+            return refreshes;
+        }
+
+        public long getRefreshFailures() {
+            return refreshFailures;
+        }
+
+        /**
+         * 因设备断开通知被移除的设备数
+         */
+        public long getEvictions() {
+            return evictions;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "devices=" + devices +
+                    ", subDevices=" + subDevices +
+                    ", refreshes=" + refreshes +
+                    ", refreshFailures=" + refreshFailures +
+                    ", evictions=" + evictions +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.thingspanel.sdk;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * 设备注册表快照
+ * 将{@link DeviceRegistry}中的设备、子设备及各自配置的获取时间写入紧凑的二进制文件，
+ * 启动时以内存映射方式读取并恢复，插件无需等待逐台获取配置即可处理消息；
+ * 随后在后台刷新超过有效期的设备（见{@link #warmStart}）。
+ *
+ * 文件格式：[魔数 int][版本 short][保存时间 long][设备数 int][设备记录...][CRC32 int]，
+ * 字符串为[长度 int][UTF-8字节]，长度-1表示null；设备配置以JSON字节保存。
+ * 写入先落到临时文件再原子替换，进程中途退出不会留下半个快照。
+ *
+ * 快照中包含设备凭证（voucher等配置内容），以明文保存：支持POSIX权限的文件系统上
+ * 文件只对属主可读写，其他平台需自行将快照放在受保护的目录中。
+ */
+public final class DeviceSnapshot {
+    private static final Logger logger = Logger.getLogger(DeviceSnapshot.class.getName());
+
+    private static final int MAGIC = 0x54504453;
+    private static final short VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 2 + 8 + 4;
+    private static final int TRAILER_BYTES = 4;
+
+    private DeviceSnapshot() {}
+
+    /**
+     * 保存注册表快照
+     * @param registry 设备注册表
+     * @param file 快照文件
+     * @return 写入的设备数
+     */
+    public static int save(DeviceRegistry registry, Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        List<Device> devices = new ArrayList<>(registry.size());
+        List<Long> updatedAt = new ArrayList<>(registry.size());
+        registry.forEach((device, updatedAtMillis) -> {
+            devices.add(device);
+            updatedAt.add(updatedAtMillis);
+        });
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        createOwnerOnly(temp);
+        CRC32 crc = new CRC32();
+        try (OutputStream raw = Files.newOutputStream(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(raw, 64 * 1024), crc);
+             DataOutputStream out = new DataOutputStream(checked)) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(devices.size());
+            for (int i = 0; i < devices.size(); i++) {
+                writeDevice(out, devices.get(i), updatedAt.get(i));
+            }
+            out.flush();
+            // 校验和不计入自身
+            out.writeInt((int) crc.getValue());
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return devices.size();
+    }
+
+    /**
+     * 新建只对属主可读写的空文件，替换后快照文件沿用该权限；不支持POSIX权限时使用默认权限
+     */
+    private static void createOwnerOnly(Path temp) throws IOException {
+        Files.deleteIfExists(temp);
+        if (Files.getFileStore(temp.toAbsolutePath().getParent()).supportsFileAttributeView(PosixFileAttributeView.class)) {
+            Files.createFile(temp, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(temp);
+        }
+    }
+
+    /**
+     * 读取快照并登记到注册表，设备保留快照中记录的配置获取时间
+     * @param file 快照文件
+     * @param registry 设备注册表
+     * @return 恢复的设备数，文件不存在时为0
+     * @throws IOException 读取失败或文件损坏
+     */
+    public static int load(Path file, DeviceRegistry registry) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES + TRAILER_BYTES || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("快照文件长度异常: " + channel.size());
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int bodyLength = buffer.capacity() - TRAILER_BYTES;
+        CRC32 crc = new CRC32();
+        ByteBuffer body = buffer.duplicate();
+        body.limit(bodyLength);
+        crc.update(body);
+        if ((int) crc.getValue() != buffer.getInt(bodyLength)) {
+            throw new IOException("快照文件校验失败: " + file);
+        }
+        if (buffer.getInt() != MAGIC || buffer.getShort() != VERSION) {
+            throw new IOException("不支持的快照文件格式: " + file);
+        }
+        buffer.getLong();
+        int count = buffer.getInt();
+        Reader reader = new Reader(buffer);
+        for (int i = 0; i < count; i++) {
+            long updatedAtMillis = buffer.getLong();
+            registry.put(reader.readDevice(), updatedAtMillis);
+        }
+        return count;
+    }
+
+    /**
+     * 快速启动：恢复快照后立即返回，在后台刷新配置获取时间超过maxAgeMillis的设备；
+     * 快照不存在或损坏时记录日志并以空注册表启动
+     * @param file 快照文件
+     * @param registry 设备注册表，需设置API客户端
+     * @param maxAgeMillis 配置有效期（毫秒）
+     * @return 后台刷新完成时完成的Future
+     */
+    public static CompletableFuture<Void> warmStart(Path file, DeviceRegistry registry, long maxAgeMillis) {
+        long start = System.nanoTime();
+        try {
+            int loaded = load(file, registry);
+            logger.info("设备快照已恢复 - 设备数: " + loaded + ", 耗时: "
+                    + (System.nanoTime() - start) / 1_000_000 + "ms");
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "设备快照恢复失败，将以空注册表启动: " + file, e);
+            return CompletableFuture.completedFuture(null);
+        }
+        return registry.refreshStaleAsync(maxAgeMillis);
+    }
+
+    private static void writeDevice(DataOutputStream out, Device device, long updatedAtMillis) throws IOException {
+        out.writeLong(updatedAtMillis);
+        writeString(out, device.getDeviceId());
+        writeString(out, device.getVoucher());
+        writeString(out, device.getDeviceNumber());
+        writeString(out, device.getDeviceType());
+        writeString(out, device.getProtocolType());
+        if (device.getConfig() == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] config = JsonCodec.writer().writeValueAsBytes(device.getConfig());
+            out.writeInt(config.length);
+            out.write(config);
+        }
+        List<SubDevice> subDevices = device.getSubDevices();
+        int subCount = subDevices == null ? 0 : subDevices.size();
+        out.writeInt(subCount);
+        for (int i = 0; i < subCount; i++) {
+            SubDevice subDevice = subDevices.get(i);
+            writeString(out, subDevice.getDeviceId());
+            writeString(out, subDevice.getVoucher());
+            writeString(out, subDevice.getDeviceNumber());
+            writeString(out, subDevice.getAddress());
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * 从映射缓冲区读取记录，字符串解码复用同一个暂存数组
+     */
+    private static final class Reader {
+        private final ByteBuffer buffer;
+        private byte[] scratch = new byte[256];
+
+        Reader(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        Device readDevice() throws IOException {
+            Device device = new Device(readString(), readString(), readString(), readString(), readString());
+            int configLength = readLength();
+            if (configLength >= 0) {
+                byte[] config = new byte[configLength];
+                buffer.get(config);
+                device.setConfig(JsonCodec.readObjectMap(config));
+            }
+            int subCount = readLength();
+            List<SubDevice> subDevices = new ArrayList<>(subCount);
+            for (int i = 0; i < subCount; i++) {
+                subDevices.add(new SubDevice(readString(), readString(), readString(), readString()));
+            }
+            device.setSubDevices(subDevices);
+            return device;
+        }
+
+        private String readString() throws IOException {
+            int length = readLength();
+            if (length < 0) {
+                return null;
+            }
+            if (length > scratch.length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            buffer.get(scratch, 0, length);
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+
+        private int readLength() throws IOException {
+            int length = buffer.getInt();
+            if (length < -1 || length > buffer.remaining()) {
+                throw new IOException("快照记录长度异常: " + length);
+            }
+            return length;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.thingspanel.sdk;
+
+/**
+ * 设备主题句柄
+ * 预先构造并缓存某个服务下某个设备的上报主题，调用方持有句柄后发布时无需再拼接主题
+ */
+public final class DeviceTopics {
+    private final String serviceIdentifier;
+    private final String deviceId;
+    private final String dataTopic;
+    private final String statusTopic;
+    /** 出站调度按设备和服务限流时使用的键 */
+    final long deviceKey;
+    final long serviceKey;
+
+    DeviceTopics(String serviceIdentifier, String deviceId) {
+        this.serviceIdentifier = serviceIdentifier;
+        this.deviceId = deviceId;
+        this.dataTopic = "plugin/" + serviceIdentifier + "/devices/" + deviceId + "/datas";
+        this.statusTopic = "devices/status/" + deviceId;
+        this.deviceKey = TokenBuckets.key(deviceId);
+        this.serviceKey = TokenBuckets.key(serviceIdentifier);
+    }
+
+    public String getServiceIdentifier() {
+        return serviceIdentifier;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    /**
+     * 数据上报主题 plugin/{服务标识符}/devices/{device_id}/datas
+     */
+    public String getDataTopic() {
+        return dataTopic;
+    }
+
+    /**
+     * 状态上报主题 devices/status/{device_id}
+     */
+    public String getStatusTopic() {
+        return statusTopic;
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceTopics{" +
+                "serviceIdentifier='" + serviceIdentifier + '\'' +
+                ", deviceId='" + deviceId + '\'' +
+                '}';
+    }
+}
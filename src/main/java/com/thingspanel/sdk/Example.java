@@ -1,5 +1,6 @@
 package com.thingspanel.sdk;
 
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 /**
@@ -28,11 +29,18 @@ public class Example {
     public static void fullClientExample() {
         System.out.println("\n--- 完整客户端示例 ---");
         
+        // 心跳调度器可被同一进程内的多个服务共享
+        TPAPIClient apiClient = new TPAPIClient("http://localhost:8080");
+        HeartbeatScheduler heartbeat = new HeartbeatScheduler(apiClient, new HeartbeatScheduler.Options());
+
         // 创建完整客户端（包含MQTT和API功能）
-        TPClient client = new TPClient("tcp://localhost:1883", "http://localhost:8080")
+        TPClient client = new TPClient("tcp://localhost:1883", apiClient)
             .setAuth("username", "password")
             .setClientId("my-plugin-001")
-            .setServiceIdentifier("my-service");
+            .setServiceIdentifier("my-service")
+            .enableHeartbeat(heartbeat)
+            .setMessageListener((deviceId, topic, payload) ->
+                System.out.println("收到设备" + deviceId + "的下行消息: " + new String(payload, StandardCharsets.UTF_8)));
 
         // 连接（会自动发送心跳）
         if (client.connect()) {
@@ -55,12 +63,14 @@ public class Example {
             // 4. 订阅下行消息
             client.subscribe("plugin/my-service/devices/+/commands");
             
-            // 5. 发送心跳
+            // 5. 手动发送一次心跳
             TPAPIClient.APIResponse<String> heartbeatResponse = client.sendHeartbeat();
             System.out.println("心跳响应: " + heartbeatResponse);
+            System.out.println("心跳统计: " + heartbeat.getStats());
             
             client.disconnect();
         }
+        heartbeat.close();
     }
 
     /**
@@ -142,6 +152,9 @@ public class Example {
         notification.put("type", "device_online");
         notification.put("device_id", "device-001");
         handler.handleNotification(notification);
+
+        // 停止HTTP服务器
+        handler.stop(0);
     }
 
     /**
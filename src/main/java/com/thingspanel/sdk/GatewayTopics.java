@@ -0,0 +1,287 @@
+package com.thingspanel.sdk;
+
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 网关主题句柄
+ * 按网关设备的子设备列表预先建立 地址 → 子设备 的索引，每个子设备持有自己的{@link DeviceTopics}和
+ * 预先编码好的JSON键（"地址":），网关一次轮询的读数按地址解析后可以：
+ * <ul>
+ *     <li>{@link FanOut#AGGREGATED}：拼成一条网关消息
+ *     {"gateway_data":{...},"sub_device_data":{"地址":{...},...}}，发往网关的数据主题；</li>
+ *     <li>{@link FanOut#PER_SUB_DEVICE}：每个子设备的读数原样发往该子设备自己的数据主题。</li>
+ * </ul>
+ * 读数是调用方已编码的JSON对象（如{@link TelemetryBuilder#build()}的结果），两种方式都不会再次序列化，
+ * 聚合消息只是按预计算长度一次分配后拼接字节。
+ * 句柄由{@link TopicRegistry#gateway(String, Device)}缓存，网关的子设备列表被替换（如重新获取配置）后自动重建。
+ */
+public final class GatewayTopics {
+    private static final Logger logger = Logger.getLogger(GatewayTopics.class.getName());
+
+    private static final byte[] GATEWAY_PREFIX = "{\"gateway_data\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SUB_DEVICE_PREFIX = "\"sub_device_data\":{".getBytes(StandardCharsets.UTF_8);
+    private static final int MAX_RETAINED_SCRATCH = 4096;
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    /**
+     * 子设备读数的发布方式
+     */
+    public enum FanOut {
+        /** 一条网关消息，读数按地址放在sub_device_data中 */
+        AGGREGATED,
+        /** 每个子设备一条消息，发往子设备自己的数据主题 */
+        PER_SUB_DEVICE
+    }
+
+    private final DeviceTopics gateway;
+    private final List<SubDevice> source;
+    private final int sourceSize;
+    private final Map<String, Member> byAddress;
+    private final LongAdder unresolved = new LongAdder();
+
+    GatewayTopics(DeviceTopics gateway, List<SubDevice> subDevices, TopicRegistry registry) {
+        this.gateway = gateway;
+        this.source = subDevices;
+        this.sourceSize = subDevices == null ? 0 : subDevices.size();
+        if (sourceSize == 0) {
+            this.byAddress = Collections.emptyMap();
+            return;
+        }
+        Map<String, Member> members = new HashMap<>(sourceSize * 4 / 3 + 1);
+        for (SubDevice subDevice : subDevices) {
+            if (subDevice.getAddress() == null || subDevice.getDeviceId() == null) {
+                continue;
+            }
+            members.put(subDevice.getAddress(), new Member(subDevice,
+                    registry.get(gateway.getServiceIdentifier(), subDevice.getDeviceId())));
+        }
+        this.byAddress = Collections.unmodifiableMap(members);
+    }
+
+    /**
+     * 子设备列表是否仍是建立索引时的同一个列表
+     */
+    boolean isCurrent(List<SubDevice> subDevices) {
+        return subDevices == source && (subDevices == null ? 0 : subDevices.size()) == sourceSize;
+    }
+
+    public String getServiceIdentifier() {
+        return gateway.getServiceIdentifier();
+    }
+
+    public String getDeviceId() {
+        return gateway.getDeviceId();
+    }
+
+    /**
+     * 网关自身的主题句柄，聚合消息发往其数据主题
+     */
+    public DeviceTopics getGatewayTopics() {
+        return gateway;
+    }
+
+    /**
+     * 按地址查找子设备
+     * @return 子设备，地址未知时为null
+     */
+    public SubDevice getSubDevice(String address) {
+        Member member = address == null ? null : byAddress.get(address);
+        return member == null ? null : member.subDevice;
+    }
+
+    /**
+     * 按地址查找子设备的主题句柄
+     * @return 主题句柄，地址未知时为null
+     */
+    public DeviceTopics getSubDeviceTopics(String address) {
+        Member member = address == null ? null : byAddress.get(address);
+        return member == null ? null : member.topics;
+    }
+
+    /**
+     * 已建立索引的子设备数
+     */
+    public int size() {
+        return byAddress.size();
+    }
+
+    /**
+     * 累计因地址不在子设备列表中而被跳过的读数
+     */
+    public long getUnresolved() {
+        return unresolved.sum();
+    }
+
+    private Member member(String address) {
+        Member member = address == null ? null : byAddress.get(address);
+        if (member == null) {
+            unresolved.increment();
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("网关下没有该地址的子设备，读数被跳过 - 网关: " + gateway.getDeviceId() + ", 地址: " + address);
+            }
+        }
+        return member;
+    }
+
+    /**
+     * 按发布方式发出一次轮询的读数
+     * @param gatewayReading 网关自身的JSON读数，可为null
+     * @param readings 子设备地址 → JSON读数
+     * @param fanOut 发布方式
+     * @param sink 按（设备主题句柄，负载）发布到设备的数据主题
+     * @return 已发布读数的子设备数
+     */
+    int publish(byte[] gatewayReading, Map<String, byte[]> readings, FanOut fanOut, BiConsumer<DeviceTopics, byte[]> sink) {
+        if (fanOut == FanOut.AGGREGATED) {
+            return aggregate(gatewayReading, readings, sink);
+        }
+        if (gatewayReading != null) {
+            sink.accept(gateway, gatewayReading);
+        }
+        int published = 0;
+        for (Map.Entry<String, byte[]> entry : readings.entrySet()) {
+            byte[] reading = entry.getValue();
+            if (reading == null) {
+                continue;
+            }
+            Member member = member(entry.getKey());
+            if (member != null) {
+                sink.accept(member.topics, reading);
+                published++;
+            }
+        }
+        return published;
+    }
+
+    /**
+     * 拼接聚合消息：一遍解析地址并累计长度，再按准确长度一次分配并复制各段字节；
+     * 网关读数为null时省略gateway_data，没有可解析的子设备读数且网关读数为null时不发布
+     */
+    private int aggregate(byte[] gatewayReading, Map<String, byte[]> readings, BiConsumer<DeviceTopics, byte[]> sink) {
+        Scratch scratch = SCRATCH.get();
+        int count = 0;
+        // {"sub_device_data":{}} 或 {"gateway_data":X,"sub_device_data":{}}
+        int length = gatewayReading == null
+                ? 1 + SUB_DEVICE_PREFIX.length + 2
+                : GATEWAY_PREFIX.length + gatewayReading.length + 1 + SUB_DEVICE_PREFIX.length + 2;
+        try {
+            for (Map.Entry<String, byte[]> entry : readings.entrySet()) {
+                byte[] reading = entry.getValue();
+                if (reading == null) {
+                    continue;
+                }
+                Member member = member(entry.getKey());
+                if (member == null) {
+                    continue;
+                }
+                scratch.add(count++, member.key, reading);
+                length += member.key.length + reading.length + 1;
+            }
+            if (count == 0 && gatewayReading == null) {
+                return 0;
+            }
+            if (count > 0) {
+                // 最后一个读数后没有逗号
+                length--;
+            }
+            byte[] payload = new byte[length];
+            int position;
+            if (gatewayReading == null) {
+                payload[0] = '{';
+                position = 1;
+            } else {
+                position = put(payload, 0, GATEWAY_PREFIX);
+                position = put(payload, position, gatewayReading);
+                payload[position++] = ',';
+            }
+            position = put(payload, position, SUB_DEVICE_PREFIX);
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    payload[position++] = ',';
+                }
+                position = put(payload, position, scratch.keys[i]);
+                position = put(payload, position, scratch.readings[i]);
+            }
+            payload[position++] = '}';
+            payload[position] = '}';
+            sink.accept(gateway, payload);
+            return count;
+        } finally {
+            scratch.clear(count);
+        }
+    }
+
+    private static int put(byte[] target, int position, byte[] source) {
+        System.arraycopy(source, 0, target, position, source.length);
+        return position + source.length;
+    }
+
+    @Override
+    public String toString() {
+        return "GatewayTopics{" +
+                "serviceIdentifier='" + gateway.getServiceIdentifier() + '\'' +
+                ", deviceId='" + gateway.getDeviceId() + '\'' +
+                ", subDevices=" + byAddress.size() +
+                '}';
+    }
+
+    /**
+     * 子设备索引条目
+     */
+    private static final class Member {
+        final SubDevice subDevice;
+        final DeviceTopics topics;
+        /** "地址": 的UTF-8编码，地址按JSON规则转义 */
+        final byte[] key;
+
+        Member(SubDevice subDevice, DeviceTopics topics) {
+            this.subDevice = subDevice;
+            this.topics = topics;
+            byte[] quoted = new SerializedString(subDevice.getAddress()).asQuotedUTF8();
+            this.key = new byte[quoted.length + 3];
+            key[0] = '"';
+            System.arraycopy(quoted, 0, key, 1, quoted.length);
+            key[key.length - 2] = '"';
+            key[key.length - 1] = ':';
+        }
+    }
+
+    /**
+     * 线程内复用的解析结果，拼接完成后清空引用，不持有调用方的读数
+     */
+    private static final class Scratch {
+        byte[][] keys = new byte[64][];
+        byte[][] readings = new byte[64][];
+
+        void add(int index, byte[] key, byte[] reading) {
+            if (index == keys.length) {
+                keys = Arrays.copyOf(keys, index * 2);
+                readings = Arrays.copyOf(readings, index * 2);
+            }
+            keys[index] = key;
+            readings[index] = reading;
+        }
+
+        void clear(int count) {
+            Arrays.fill(readings, 0, count, null);
+            if (keys.length > MAX_RETAINED_SCRATCH) {
+                keys = new byte[64][];
+                readings = new byte[64][];
+            } else {
+                Arrays.fill(keys, 0, count, null);
+            }
+        }
+    }
+}
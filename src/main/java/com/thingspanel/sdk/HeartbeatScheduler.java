@@ -0,0 +1,399 @@
+package com.thingspanel.sdk;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 共享心跳调度器
+ * 所有服务标识符的心跳挂在同一个哈希时间轮上，由一个线程推进，不为每个服务创建线程或定时器。
+ * 首次心跳在一个周期内随机分散，之后每次带抖动；心跳通过共享的{@link TPAPIClient}异步发送，复用同一个HTTP/2连接。
+ * 失败后按指数退避重试（带随机抖动），成功后恢复正常周期。
+ */
+public class HeartbeatScheduler implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(HeartbeatScheduler.class.getName());
+
+    private final TPAPIClient apiClient;
+    private final long intervalMillis;
+    private final long tickMillis;
+    private final double jitterRatio;
+    private final long minRetryMillis;
+    private final long maxBackoffMillis;
+
+    // 时间轮只由调度线程访问，其他线程通过pending队列提交
+    private final List<Task>[] wheel;
+    private final int mask;
+    private final ConcurrentLinkedQueue<Task> pending = new ConcurrentLinkedQueue<>();
+    private final ConcurrentHashMap<String, Task> tasks = new ConcurrentHashMap<>();
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    private final LatencyHistogram rtt = new LatencyHistogram();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder succeeded = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * @param apiClient 发送心跳使用的API客户端，多个服务共用
+     * @param options 调度参数
+     */
+    @SuppressWarnings("unchecked")
+    public HeartbeatScheduler(TPAPIClient apiClient, Options options) {
+        if (apiClient == null) {
+            throw new IllegalArgumentException("API客户端不能为空");
+        }
+        this.apiClient = apiClient;
+        this.intervalMillis = options.intervalMillis;
+        this.tickMillis = options.tickMillis;
+        this.jitterRatio = options.jitterRatio;
+        this.minRetryMillis = options.minRetryMillis;
+        this.maxBackoffMillis = options.maxBackoffMillis;
+        int size = Integer.highestOneBit(Math.max(1, options.wheelSize - 1)) << 1;
+        this.wheel = new List[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new ArrayList<>();
+        }
+        this.mask = size - 1;
+        this.worker = new Thread(this::run, "tp-heartbeat-wheel");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * 注册服务标识符，首次心跳在一个周期内随机时刻发送
+     * 注册按次计数，多个客户端（如同一连接池中的各连接）注册同一服务标识符时只发一份心跳，
+     * 全部注销后才停止。
+     * @param serviceIdentifier 服务标识符
+     * @return 是否为新注册
+     */
+    public boolean register(String serviceIdentifier) {
+        if (!running) {
+            throw new IllegalStateException("心跳调度器已关闭");
+        }
+        Task created = new Task(serviceIdentifier);
+        Task task = tasks.merge(serviceIdentifier, created, (existing, ignored) -> {
+            existing.references++;
+            return existing;
+        });
+        if (task != created) {
+            return false;
+        }
+        schedule(created, ThreadLocalRandom.current().nextLong(tickMillis, Math.max(tickMillis + 1, intervalMillis)));
+        logger.info("注册心跳服务: " + serviceIdentifier);
+        return true;
+    }
+
+    /**
+     * 注销一次服务标识符的注册，最后一次注册被注销时停止心跳
+     * @param serviceIdentifier 服务标识符
+     * @return 是否存在该注册
+     */
+    public boolean unregister(String serviceIdentifier) {
+        boolean[] stopped = new boolean[1];
+        Task remaining = tasks.computeIfPresent(serviceIdentifier, (key, existing) -> {
+            if (--existing.references > 0) {
+                return existing;
+            }
+            existing.cancelled = true;
+            stopped[0] = true;
+            return null;
+        });
+        if (stopped[0]) {
+            logger.info("取消心跳服务: " + serviceIdentifier);
+        }
+        return remaining != null || stopped[0];
+    }
+
+    /**
+     * 服务当前连续失败次数，未注册时返回-1
+     */
+    public int getConsecutiveFailures(String serviceIdentifier) {
+        Task task = tasks.get(serviceIdentifier);
+        return task == null ? -1 : task.failures;
+    }
+
+    /**
+     * 获取心跳统计
+     */
+    public Stats getStats() {
+        int backingOff = 0;
+        for (Task task : tasks.values()) {
+            if (task.failures > 0) {
+                backingOff++;
+            }
+        }
+        return new Stats(tasks.size(), backingOff, sent.sum(), succeeded.sum(), failed.sum(), rtt.snapshot());
+    }
+
+    /**
+     * 停止调度线程，已发出的心跳不受影响
+     */
+    @Override
+    public void close() {
+        running = false;
+        worker.interrupt();
+        try {
+            worker.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        tasks.clear();
+    }
+
+    private void schedule(Task task, long delayMillis) {
+        task.delayMillis = delayMillis;
+        pending.offer(task);
+    }
+
+    private void run() {
+        long tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        long start = System.nanoTime();
+        long tick = 0;
+        while (running) {
+            long wait = start + (tick + 1) * tickNanos - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+                continue;
+            }
+            tick++;
+            expire(wheel[(int) (tick & mask)]);
+            transferPending(tick);
+        }
+    }
+
+    /**
+     * 把新提交的任务放入时间轮，在处理完当前槽之后执行，目标槽最早在下一刻度被访问
+     */
+    private void transferPending(long tick) {
+        Task task;
+        while ((task = pending.poll()) != null) {
+            if (task.cancelled) {
+                continue;
+            }
+            long ticks = Math.max(1, (task.delayMillis + tickMillis - 1) / tickMillis);
+            task.rounds = (ticks - 1) / wheel.length;
+            wheel[(int) ((tick + ticks) & mask)].add(task);
+        }
+    }
+
+    private void expire(List<Task> bucket) {
+        Iterator<Task> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            Task task = iterator.next();
+            if (task.cancelled) {
+                iterator.remove();
+            } else if (task.rounds > 0) {
+                task.rounds--;
+            } else {
+                iterator.remove();
+                fire(task);
+            }
+        }
+    }
+
+    private void fire(Task task) {
+        sent.increment();
+        long startNanos = System.nanoTime();
+        try {
+            apiClient.sendHeartbeatAsync(task.request).whenComplete((response, error) -> {
+                rtt.record(System.nanoTime() - startNanos);
+                complete(task, error == null && response.isSuccess(), error != null ? error.toString() : response.getMessage());
+            });
+        } catch (RuntimeException e) {
+            complete(task, false, e.toString());
+        }
+    }
+
+    private void complete(Task task, boolean success, String message) {
+        if (success) {
+            succeeded.increment();
+            task.failures = 0;
+        } else {
+            failed.increment();
+            task.failures++;
+            logger.log(Level.WARNING, "心跳失败 - 服务: " + task.request.serviceIdentifier
+                    + ", 连续失败: " + task.failures + ", 原因: " + message);
+        }
+        if (!task.cancelled && running) {
+            schedule(task, nextDelay(task.failures));
+        }
+    }
+
+    /**
+     * 成功时为周期加减抖动；失败时从minRetry开始指数增长，上限maxBackoff，取其一半到全部之间的随机值
+     */
+    private long nextDelay(int failures) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (failures == 0) {
+            double jitter = jitterRatio * (2 * random.nextDouble() - 1);
+            return Math.max(tickMillis, (long) (intervalMillis * (1 + jitter)));
+        }
+        long backoff = minRetryMillis << Math.min(failures - 1, 30);
+        backoff = Math.min(maxBackoffMillis, backoff < 0 ? maxBackoffMillis : backoff);
+        return Math.max(tickMillis, backoff / 2 + random.nextLong(backoff / 2 + 1));
+    }
+
+    private static final class Task {
+        final TPAPIClient.HeartbeatRequest request = new TPAPIClient.HeartbeatRequest();
+        volatile boolean cancelled;
+        volatile int failures;
+        /** 注册次数，只在tasks的merge/computeIfPresent中修改 */
+        int references = 1;
+        // 以下字段由提交线程写入后经pending队列发布给调度线程
+        long delayMillis;
+        long rounds;
+
+        Task(String serviceIdentifier) {
+            request.serviceIdentifier = serviceIdentifier;
+        }
+    }
+
+    /**
+     * 心跳调度参数
+     */
+    public static class Options {
+        private long intervalMillis = 30_000;
+        private long tickMillis = 100;
+        private int wheelSize = 512;
+        private double jitterRatio = 0.1;
+        private long minRetryMillis = 1_000;
+        private long maxBackoffMillis = 300_000;
+
+        /**
+         * 正常心跳周期（毫秒）
+         */
+        public Options setIntervalMillis(long intervalMillis) {
+            if (intervalMillis <= 0) {
+                throw new IllegalArgumentException("intervalMillis必须大于0");
+            }
+            this.intervalMillis = intervalMillis;
+            return this;
+        }
+
+        /**
+         * 时间轮刻度（毫秒），决定调度精度
+         */
+        public Options setTickMillis(long tickMillis) {
+            if (tickMillis <= 0) {
+                throw new IllegalArgumentException("tickMillis必须大于0");
+            }
+            this.tickMillis = tickMillis;
+            return this;
+        }
+
+        /**
+         * 时间轮槽数，向上取整为2的幂
+         */
+        public Options setWheelSize(int wheelSize) {
+            if (wheelSize <= 0) {
+                throw new IllegalArgumentException("wheelSize必须大于0");
+            }
+            this.wheelSize = wheelSize;
+            return this;
+        }
+
+        /**
+         * 周期抖动比例，取值0~1，例如0.1表示在周期的±10%内随机
+         */
+        public Options setJitterRatio(double jitterRatio) {
+            if (jitterRatio < 0 || jitterRatio > 1) {
+                throw new IllegalArgumentException("jitterRatio必须在0到1之间");
+            }
+            this.jitterRatio = jitterRatio;
+            return this;
+        }
+
+        /**
+         * 首次失败后的重试间隔（毫秒），之后每次翻倍
+         */
+        public Options setMinRetryMillis(long minRetryMillis) {
+            if (minRetryMillis <= 0) {
+                throw new IllegalArgumentException("minRetryMillis必须大于0");
+            }
+            this.minRetryMillis = minRetryMillis;
+            return this;
+        }
+
+        /**
+         * 失败退避上限（毫秒）
+         */
+        public Options setMaxBackoffMillis(long maxBackoffMillis) {
+            if (maxBackoffMillis <= 0) {
+                throw new IllegalArgumentException("maxBackoffMillis必须大于0");
+            }
+            this.maxBackoffMillis = maxBackoffMillis;
+            return this;
+        }
+    }
+
+    /**
+     * 心跳统计快照
+     */
+    public static class Stats {
+        private final int registered;
+        private final int backingOff;
+        private final long sent;
+        private final long succeeded;
+        private final long failed;
+        private final LatencyHistogram.Snapshot rtt;
+
+        public Stats(int registered, int backingOff, long sent, long succeeded, long failed, LatencyHistogram.Snapshot rtt) {
+            this.registered = registered;
+            this.backingOff = backingOff;
+            this.sent = sent;
+            this.succeeded = succeeded;
+            this.failed = failed;
+            this.rtt = rtt;
+        }
+
+        public int getRegistered() {
+            return registered;
+        }
+
+        /**
+         * 当前处于失败退避中的服务数
+         */
+        public int getBackingOff() {
+            return backingOff;
+        }
+
+        public long getSent() {
+            return sent;
+        }
+
+        public long getSucceeded() {
+            return succeeded;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        /**
+         * 心跳往返耗时分布
+         */
+        public LatencyHistogram.Snapshot getRtt() {
+            return rtt;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "registered=" + registered +
+                    ", backingOff=" + backingOff +
+                    ", sent=" + sent +
+                    ", succeeded=" + succeeded +
+                    ", failed=" + failed +
+                    ", rtt=" + rtt +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.thingspanel.sdk;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * HTTP传输层抽象
+ * 默认实现为基于JDK HttpClient的{@link JdkHttpTransport}，高扇出场景可使用基于Apache HttpClient 5的{@link ApacheHttpTransport}。
+ * 同一个实例可被多个{@link TPAPIClient}共享，从而共用连接池。
+ */
+public interface HttpTransport extends AutoCloseable {
+
+    /**
+     * 同步发送JSON POST请求
+     * @param uri 请求地址
+     * @param body JSON请求体
+     * @param decoder 响应解码器
+     */
+    <T> T post(URI uri, byte[] body, ResponseDecoder<T> decoder) throws IOException, InterruptedException;
+
+    /**
+     * 异步发送JSON POST请求，不为请求占用线程
+     * @param uri 请求地址
+     * @param body JSON请求体
+     * @param decoder 响应解码器，在响应体接收完成后调用
+     */
+    <T> CompletableFuture<T> postAsync(URI uri, byte[] body, ResponseDecoder<T> decoder);
+
+    /**
+     * 释放连接池等资源
+     */
+    @Override
+    void close();
+
+    /**
+     * 响应解码器
+     */
+    @FunctionalInterface
+    interface ResponseDecoder<T> {
+        /**
+         * @param statusCode HTTP状态码
+         * @param body 响应体
+         */
+        T decode(int statusCode, byte[] body);
+    }
+}
@@ -0,0 +1,165 @@
+package com.thingspanel.sdk;
+
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 在途消息窗口
+ * 包装传输层，限制已发出未确认的消息数：窗口已满时发布立即以{@link MqttException#REASON_CODE_MAX_INFLIGHT}失败，
+ * 不阻塞调用线程，直接发布转入离线发件箱或以失败完成，发件箱重放稍后重试。直接发布与离线发件箱重放共用同一窗口，
+ * 批量发布器自带窗口，不经过本类。
+ * 每个在途位置是预先分配的完成回调，发布时不分配对象。
+ */
+final class InFlightWindow implements MqttTransport {
+    private final MqttTransport delegate;
+    private final Slot[] slots;
+    private final ArrayBlockingQueue<Slot> free;
+    private volatile boolean closed;
+
+    InFlightWindow(MqttTransport delegate, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity必须大于0");
+        }
+        this.delegate = delegate;
+        this.slots = new Slot[capacity];
+        this.free = new ArrayBlockingQueue<>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Slot();
+            free.offer(slots[i]);
+        }
+    }
+
+    @Override
+    public void publish(String topic, byte[] payload, int qos, boolean retained, PublishCallback callback) throws MqttException {
+        publish(topic, payload, qos, retained, callback, null);
+    }
+
+    /**
+     * 发布消息，发出后失败（如连接在Paho察觉前已断开）或窗口关闭时仍未确认的消息交给undelivered，
+     * 由其完成回调；未发出时抛出异常，不交给undelivered
+     * @param undelivered 未送达消息的去向，为null时以失败完成回调
+     */
+    void publish(String topic, byte[] payload, int qos, boolean retained, PublishCallback callback,
+                 UndeliveredHandler undelivered) throws MqttException {
+        if (closed) {
+            throw new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED);
+        }
+        Slot slot = free.poll();
+        if (slot == null) {
+            throw new MqttException(MqttException.REASON_CODE_MAX_INFLIGHT);
+        }
+        slot.topic = topic;
+        slot.payload = payload;
+        slot.qos = qos;
+        slot.retained = retained;
+        slot.undelivered = undelivered;
+        slot.callback.set(callback);
+        try {
+            delegate.publish(topic, payload, qos, retained, slot);
+        } catch (MqttException | RuntimeException e) {
+            // 未发出的消息由调用方处理异常，不再回调
+            if (slot.callback.getAndSet(null) != null) {
+                slot.clear();
+                free.offer(slot);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 当前在途消息数
+     */
+    int inFlight() {
+        return slots.length - free.size();
+    }
+
+    /**
+     * 关闭窗口并以失败完成仍未确认的消息（发布时指定了undelivered的交给undelivered），之后的发布直接失败
+     * 持久会话下断开连接时Paho不会完成这些消息的投递令牌，不这样做调用方的句柄永远不会完成。
+     * 迟到的确认被忽略；窗口关闭后位置不再复用，迟到的确认不会误完成其他消息。
+     * @param error 失败原因
+     */
+    void close(Throwable error) {
+        closed = true;
+        for (Slot slot : slots) {
+            slot.onComplete(error);
+        }
+    }
+
+    @Override
+    public void connect(MqttConnectOptions options) throws MqttException {
+        delegate.connect(options);
+    }
+
+    @Override
+    public boolean isConnected() {
+        return delegate.isConnected();
+    }
+
+    @Override
+    public void subscribe(String[] topics, int[] qos) throws MqttException {
+        delegate.subscribe(topics, qos);
+    }
+
+    @Override
+    public void setMessageHandler(MessageHandler handler) {
+        delegate.setMessageHandler(handler);
+    }
+
+    @Override
+    public void disconnect() {
+        delegate.disconnect();
+    }
+
+    @Override
+    public void setConnectionListener(ConnectionListener listener) {
+        delegate.setConnectionListener(listener);
+    }
+
+    /**
+     * 在途位置，交给传输层作为完成回调；每条消息只完成一次，先归还位置再通知调用方。
+     * 消息字段在设置callback之前写入、取走callback之后读取，由callback的原子操作保证可见性。
+     */
+    private final class Slot implements PublishCallback {
+        final AtomicReference<PublishCallback> callback = new AtomicReference<>();
+        String topic;
+        byte[] payload;
+        int qos;
+        boolean retained;
+        UndeliveredHandler undelivered;
+
+        @Override
+        public void onComplete(Throwable error) {
+            PublishCallback current = callback.getAndSet(null);
+            if (current == null) {
+                return;
+            }
+            String failedTopic = topic;
+            byte[] failedPayload = payload;
+            int failedQos = qos;
+            boolean failedRetained = retained;
+            UndeliveredHandler handler = undelivered;
+            clear();
+            if (!closed) {
+                free.offer(this);
+            }
+            if (error != null && handler != null) {
+                handler.onUndelivered(failedTopic, failedPayload, failedQos, failedRetained, current);
+            } else {
+                current.onComplete(error);
+            }
+        }
+
+        /**
+         * 不再持有已完成消息的内容
+         */
+        void clear() {
+            topic = null;
+            payload = null;
+            undelivered = null;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.thingspanel.sdk;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * 基于JDK HttpClient的HTTP传输
+ * 默认优先HTTP/2，同一主机的并发请求在一个连接上多路复用；服务端不支持时自动回退HTTP/1.1。
+ */
+public class JdkHttpTransport implements HttpTransport {
+
+    private final HttpClient httpClient;
+    private final Duration requestTimeout;
+
+    public JdkHttpTransport() {
+        this(new Options());
+    }
+
+    /**
+     * @param options 传输参数
+     */
+    public JdkHttpTransport(Options options) {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(options.version)
+                .connectTimeout(Duration.ofMillis(options.connectTimeoutMillis));
+        if (options.executor != null) {
+            builder.executor(options.executor);
+        }
+        this.httpClient = builder.build();
+        this.requestTimeout = Duration.ofMillis(options.requestTimeoutMillis);
+    }
+
+    /**
+     * 使用已有的HttpClient，便于与应用中其他组件共享连接
+     * @param httpClient 共享的HttpClient
+     * @param requestTimeoutMillis 单个请求超时时间（毫秒）
+     */
+    public JdkHttpTransport(HttpClient httpClient, long requestTimeoutMillis) {
+        this.httpClient = httpClient;
+        this.requestTimeout = Duration.ofMillis(requestTimeoutMillis);
+    }
+
+    /**
+     * 进程内共享的默认传输，未指定传输的TPAPIClient共用它的连接池
+     */
+    public static JdkHttpTransport shared() {
+        return SharedHolder.INSTANCE;
+    }
+
+    @Override
+    public <T> T post(URI uri, byte[] body, ResponseDecoder<T> decoder) throws IOException, InterruptedException {
+        return httpClient.send(request(uri, body), bodyHandler(decoder)).body();
+    }
+
+    @Override
+    public <T> CompletableFuture<T> postAsync(URI uri, byte[] body, ResponseDecoder<T> decoder) {
+        return httpClient.sendAsync(request(uri, body), bodyHandler(decoder)).thenApply(HttpResponse::body);
+    }
+
+    /**
+     * JDK HttpClient没有显式关闭方法，连接在空闲超时后由JDK回收
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * 获取底层HttpClient
+     */
+    public HttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    private HttpRequest request(URI uri, byte[] body) {
+        return HttpRequest.newBuilder()
+                .uri(uri)
+                .timeout(requestTimeout)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+    }
+
+    /**
+     * 响应体以字节接收后直接解码，解析在响应完成时进行，不占用额外线程
+     */
+    private static <T> HttpResponse.BodyHandler<T> bodyHandler(ResponseDecoder<T> decoder) {
+        return info -> HttpResponse.BodySubscribers.mapping(
+                HttpResponse.BodySubscribers.ofByteArray(),
+                bytes -> decoder.decode(info.statusCode(), bytes));
+    }
+
+    private static final class SharedHolder {
+        static final JdkHttpTransport INSTANCE = new JdkHttpTransport();
+    }
+
+    /**
+     * JDK HTTP传输参数
+     */
+    public static class Options {
+        private HttpClient.Version version = HttpClient.Version.HTTP_2;
+        private long connectTimeoutMillis = 10_000;
+        private long requestTimeoutMillis = 30_000;
+        private Executor executor;
+
+        /**
+         * HTTP版本，默认HTTP/2
+         */
+        public Options setVersion(HttpClient.Version version) {
+            this.version = version;
+            return this;
+        }
+
+        /**
+         * 连接超时时间（毫秒）
+         */
+        public Options setConnectTimeoutMillis(long connectTimeoutMillis) {
+            if (connectTimeoutMillis <= 0) {
+                throw new IllegalArgumentException("connectTimeoutMillis必须大于0");
+            }
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * 单个请求超时时间（毫秒），从发出请求到收到响应头
+         */
+        public Options setRequestTimeoutMillis(long requestTimeoutMillis) {
+            if (requestTimeoutMillis <= 0) {
+                throw new IllegalArgumentException("requestTimeoutMillis必须大于0");
+            }
+            this.requestTimeoutMillis = requestTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * HttpClient使用的执行器，多个传输可共享同一个执行器
+         */
+        public Options setExecutor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package com.thingspanel.sdk;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于Jackson的JSON编解码
+ * 全局共享预先配置好的ObjectMapper/ObjectReader/ObjectWriter（均为线程安全），
+ * 请求体用JsonGenerator直接写成UTF-8字节，响应用JsonParser从字节流直接绑定到Device/SubDevice，
+ * 不经过中间String或树模型。
+ */
+public final class JsonCodec {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private static final JsonFactory FACTORY = MAPPER.getFactory();
+    private static final ObjectReader OBJECT_MAP_READER = MAPPER.readerFor(new TypeReference<Map<String, Object>>() {});
+    private static final ObjectWriter WRITER = MAPPER.writer();
+
+    /** 平台接口成功时的业务码 */
+    private static final int CODE_SUCCESS = 200;
+
+    private JsonCodec() {}
+
+    /**
+     * 共享的ObjectMapper，调用方不应修改其配置
+     */
+    public static ObjectMapper mapper() {
+        return MAPPER;
+    }
+
+    /**
+     * 共享的ObjectWriter
+     */
+    public static ObjectWriter writer() {
+        return WRITER;
+    }
+
+    /**
+     * 将键值对编码为扁平JSON对象的UTF-8字节，null值编码为JSON null
+     * @param keyValues 依次排列的键和值
+     */
+    public static byte[] writeObject(String... keyValues) {
+        if (keyValues.length % 2 != 0) {
+            throw new IllegalArgumentException("键值对数量必须为偶数");
+        }
+        try (ByteArrayBuilder out = new ByteArrayBuilder();
+             JsonGenerator generator = FACTORY.createGenerator(out)) {
+            generator.writeStartObject();
+            for (int i = 0; i < keyValues.length; i += 2) {
+                generator.writeStringField(keyValues[i], keyValues[i + 1]);
+            }
+            generator.writeEndObject();
+            generator.flush();
+            return out.toByteArray();
+        } catch (IOException e) {
+            // 写入内存缓冲区不会发生IO异常
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 编码平台统一响应格式，data为null时省略该字段
+     */
+    public static byte[] writeEnvelope(int code, String message, Object data) {
+        try (ByteArrayBuilder out = new ByteArrayBuilder();
+             JsonGenerator generator = FACTORY.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeNumberField("code", code);
+            generator.writeStringField("message", message);
+            if (data != null) {
+                generator.writeFieldName("data");
+                WRITER.writeValue(generator, data);
+            }
+            generator.writeEndObject();
+            generator.flush();
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 将JSON对象字节解析为Map
+     */
+    public static Map<String, Object> readObjectMap(byte[] body) throws IOException {
+        return OBJECT_MAP_READER.readValue(body);
+    }
+
+    /**
+     * 解析平台统一响应格式{"code":200,"message":"...","data":...}
+     * @param body 响应体字节
+     * @param dataReader data字段的读取方式
+     */
+    public static <T> Result<T> readResponse(byte[] body, DataReader<T> dataReader) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(body)) {
+            return readResponse(parser, dataReader);
+        }
+    }
+
+    /**
+     * 从输入流解析平台统一响应格式
+     */
+    public static <T> Result<T> readResponse(InputStream body, DataReader<T> dataReader) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(body)) {
+            return readResponse(parser, dataReader);
+        }
+    }
+
+    private static <T> Result<T> readResponse(JsonParser parser, DataReader<T> dataReader) throws IOException {
+        expect(parser.nextToken(), JsonToken.START_OBJECT, parser);
+        Integer code = null;
+        String message = null;
+        T data = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "code":
+                    code = value == JsonToken.VALUE_NULL ? null : parser.getValueAsInt();
+                    break;
+                case "message":
+                case "msg":
+                    message = parser.getValueAsString();
+                    break;
+                case "data":
+                    data = value == JsonToken.VALUE_NULL ? null : dataReader.read(parser);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return new Result<>(code, message, data);
+    }
+
+    /**
+     * 读取设备配置对象
+     */
+    public static Device readDevice(JsonParser parser) throws IOException {
+        expect(parser.currentToken(), JsonToken.START_OBJECT, parser);
+        Device device = new Device();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "id":
+                case "device_id":
+                    device.setDeviceId(readText(parser));
+                    break;
+                case "voucher":
+                    device.setVoucher(readText(parser));
+                    break;
+                case "device_number":
+                    device.setDeviceNumber(readText(parser));
+                    break;
+                case "device_type":
+                    device.setDeviceType(readText(parser));
+                    break;
+                case "protocol_type":
+                    device.setProtocolType(readText(parser));
+                    break;
+                case "config":
+                    device.setConfig(value == JsonToken.START_OBJECT ? readObjectMap(parser) : skip(parser));
+                    break;
+                case "sub_devices":
+                    device.setSubDevices(value == JsonToken.START_ARRAY ? readSubDevices(parser) : skip(parser));
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return device;
+    }
+
+    /**
+     * 读取子设备对象
+     */
+    public static SubDevice readSubDevice(JsonParser parser) throws IOException {
+        expect(parser.currentToken(), JsonToken.START_OBJECT, parser);
+        SubDevice subDevice = new SubDevice();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "id":
+                case "device_id":
+                    subDevice.setDeviceId(readText(parser));
+                    break;
+                case "voucher":
+                    subDevice.setVoucher(readText(parser));
+                    break;
+                case "device_number":
+                    subDevice.setDeviceNumber(readText(parser));
+                    break;
+                case "sub_device_addr":
+                case "address":
+                    subDevice.setAddress(readText(parser));
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return subDevice;
+    }
+
+    /**
+     * 读取值均为字符串的对象，非字符串标量按文本读取
+     */
+    public static Map<String, String> readStringMap(JsonParser parser) throws IOException {
+        expect(parser.currentToken(), JsonToken.START_OBJECT, parser);
+        Map<String, String> result = new HashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            result.put(field, readText(parser));
+        }
+        return result;
+    }
+
+    /**
+     * 读取任意JSON对象为Map
+     */
+    public static Map<String, Object> readObjectMap(JsonParser parser) throws IOException {
+        return OBJECT_MAP_READER.readValue(parser);
+    }
+
+    /**
+     * 读取子设备数组，跳过null等非对象元素
+     */
+    private static List<SubDevice> readSubDevices(JsonParser parser) throws IOException {
+        List<SubDevice> subDevices = new ArrayList<>();
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token == null) {
+                throw new JsonParseException(parser, "sub_devices数组未结束");
+            }
+            if (token == JsonToken.START_OBJECT) {
+                subDevices.add(readSubDevice(parser));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return subDevices;
+    }
+
+    /**
+     * 读取文本值：标量按文本返回，对象或数组（如部分平台版本中的voucher）按紧凑JSON文本返回
+     */
+    private static String readText(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+            return WRITER.writeValueAsString(MAPPER.readTree(parser));
+        }
+        return parser.getValueAsString();
+    }
+
+    private static <T> T skip(JsonParser parser) throws IOException {
+        parser.skipChildren();
+        return null;
+    }
+
+    private static void expect(JsonToken actual, JsonToken expected, JsonParser parser) throws IOException {
+        if (actual != expected) {
+            throw new JsonParseException(parser, "期望" + expected + "，实际为" + actual);
+        }
+    }
+
+    /**
+     * data字段读取函数，调用时解析器位于data值的第一个token上
+     */
+    @FunctionalInterface
+    public interface DataReader<T> {
+        T read(JsonParser parser) throws IOException;
+    }
+
+    /**
+     * 平台统一响应
+     */
+    public static class Result<T> {
+        private final Integer code;
+        private final String message;
+        private final T data;
+
+        public Result(Integer code, String message, T data) {
+            this.code = code;
+            this.message = message;
+            this.data = data;
+        }
+
+        /**
+         * 业务码表示成功，响应中没有code字段时视为成功
+         */
+        public boolean isSuccessCode() {
+            return code == null || code == CODE_SUCCESS || code == 0;
+        }
+
+        public Integer getCode() {
+            return code;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public T getData() {
+            return data;
+        }
+    }
+}
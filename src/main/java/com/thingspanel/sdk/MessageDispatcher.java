@@ -0,0 +1,334 @@
+package com.thingspanel.sdk;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 入站消息分发引擎
+ * 从主题中解析设备ID，按设备ID哈希到固定条带，每个条带是一个无锁队列，同一时刻最多由一个任务顺序消费。
+ * 同一设备的消息保持顺序，不同条带的设备在多个核心上并行处理；传输层回调线程只做入队，不会被处理函数阻塞。
+ */
+public class MessageDispatcher {
+    private static final Logger logger = Logger.getLogger(MessageDispatcher.class.getName());
+
+    private static final String DEVICES_SEGMENT = "devices/";
+
+    private final MessageListener listener;
+    private final Stripe[] stripes;
+    private final int maxQueuedPerStripe;
+    private final int drainBatch;
+    private final ExecutorService executor;
+    private final LatencyHistogram queueLatency = new LatencyHistogram();
+    private final LatencyHistogram handlerLatency = new LatencyHistogram();
+    private final LongAdder dispatched = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * @param listener 消息监听器
+     * @param options 分发参数
+     */
+    public MessageDispatcher(MessageListener listener, Options options) {
+        if (listener == null) {
+            throw new IllegalArgumentException("消息监听器不能为空");
+        }
+        this.listener = listener;
+        this.stripes = new Stripe[options.stripes];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+        this.maxQueuedPerStripe = options.maxQueuedPerStripe;
+        this.drainBatch = options.drainBatch;
+        this.executor = SdkExecutors.newTaskExecutor("tp-mqtt-dispatch", options.stripes);
+    }
+
+    /**
+     * 入站消息入队，可直接作为{@link MqttTransport.MessageHandler}使用
+     * @param topic 消息主题
+     * @param payload 消息内容
+     * @return 是否入队成功，条带队列已满时丢弃并返回false
+     */
+    public boolean dispatch(String topic, byte[] payload) {
+        String deviceId = parseDeviceId(topic);
+        int hash = deviceId != null ? deviceId.hashCode() : topic.hashCode();
+        Stripe stripe = stripes[Math.floorMod(hash ^ (hash >>> 16), stripes.length)];
+        if (stripe.depth.get() >= maxQueuedPerStripe) {
+            dropped.increment();
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("分发队列已满，消息被丢弃 - 主题: " + topic);
+            }
+            return false;
+        }
+        stripe.queue.offer(new Inbound(deviceId, topic, payload, System.nanoTime()));
+        // 计数从0变为1的线程负责调度消费任务，入队先于计数，消费者看到计数时一定能取到消息
+        if (stripe.depth.getAndIncrement() == 0) {
+            try {
+                executor.execute(stripe::drain);
+            } catch (RejectedExecutionException e) {
+                // 分发器已关闭（例如监听器被替换时仍有消息在途），丢弃而不是把异常抛回传输层的回调线程
+                stripe.queue.clear();
+                stripe.depth.set(0);
+                dropped.increment();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 从主题中解析设备ID
+     * 取"devices/"段之后的一段，例如 plugin/{服务标识符}/devices/{设备ID}/commands，不使用正则
+     * @param topic 消息主题
+     * @return 设备ID，主题中没有设备段时返回null
+     */
+    public static String parseDeviceId(String topic) {
+        int start;
+        if (topic.startsWith(DEVICES_SEGMENT)) {
+            start = DEVICES_SEGMENT.length();
+        } else {
+            int index = topic.indexOf("/" + DEVICES_SEGMENT);
+            if (index < 0) {
+                return null;
+            }
+            start = index + 1 + DEVICES_SEGMENT.length();
+        }
+        int end = topic.indexOf('/', start);
+        if (end < 0) {
+            end = topic.length();
+        }
+        return end > start ? topic.substring(start, end) : null;
+    }
+
+    /**
+     * 停止分发，等待已入队消息处理完成
+     * @param timeoutMillis 最长等待时间（毫秒）
+     * @return 是否在超时前处理完成
+     */
+    public boolean close(long timeoutMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (getQueued() > 0 && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        executor.shutdown();
+        return getQueued() == 0;
+    }
+
+    /**
+     * 所有条带中待处理的消息数
+     */
+    public int getQueued() {
+        int queued = 0;
+        for (Stripe stripe : stripes) {
+            queued += stripe.depth.get();
+        }
+        return queued;
+    }
+
+    /**
+     * 获取分发统计
+     */
+    public Stats getStats() {
+        int[] depths = new int[stripes.length];
+        for (int i = 0; i < stripes.length; i++) {
+            depths[i] = stripes[i].depth.get();
+        }
+        return new Stats(dispatched.sum(), dropped.sum(), failed.sum(), depths,
+                queueLatency.snapshot(), handlerLatency.snapshot());
+    }
+
+    private void handle(Inbound message) {
+        long start = System.nanoTime();
+        queueLatency.record(start - message.enqueuedNanos);
+        try {
+            listener.onMessage(message.deviceId, message.topic, message.payload);
+            dispatched.increment();
+        } catch (Exception e) {
+            failed.increment();
+            logger.log(Level.WARNING, "消息处理函数异常 - 主题: " + message.topic, e);
+        } finally {
+            handlerLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    private final class Stripe {
+        final ConcurrentLinkedQueue<Inbound> queue = new ConcurrentLinkedQueue<>();
+        final AtomicInteger depth = new AtomicInteger();
+
+        void drain() {
+            int processed = 0;
+            do {
+                handle(queue.poll());
+                // 连续处理一批后让出线程，避免单个繁忙条带长期占用
+                if (++processed >= drainBatch && depth.get() > 1) {
+                    depth.decrementAndGet();
+                    try {
+                        executor.execute(this::drain);
+                    } catch (RejectedExecutionException e) {
+                        // 处理途中分发器已关闭，剩余消息按丢弃计数，计数归零以免一直显示积压
+                        queue.clear();
+                        dropped.add(depth.getAndSet(0));
+                    }
+                    return;
+                }
+            } while (depth.decrementAndGet() > 0);
+        }
+    }
+
+    private static final class Inbound {
+        final String deviceId;
+        final String topic;
+        final byte[] payload;
+        final long enqueuedNanos;
+
+        Inbound(String deviceId, String topic, byte[] payload, long enqueuedNanos) {
+            this.deviceId = deviceId;
+            this.topic = topic;
+            this.payload = payload;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+
+    /**
+     * 入站消息监听器
+     */
+    @FunctionalInterface
+    public interface MessageListener {
+        /**
+         * 处理一条入站消息，同一设备的消息按到达顺序串行调用
+         * @param deviceId 从主题解析出的设备ID，主题中没有设备段时为null
+         * @param topic 消息主题
+         * @param payload 消息内容
+         */
+        void onMessage(String deviceId, String topic, byte[] payload) throws Exception;
+    }
+
+    /**
+     * 分发参数
+     */
+    public static class Options {
+        private int stripes = Runtime.getRuntime().availableProcessors();
+        private int maxQueuedPerStripe = 10_000;
+        private int drainBatch = 64;
+
+        /**
+         * 条带数，默认为CPU核数
+         */
+        public Options setStripes(int stripes) {
+            if (stripes <= 0) {
+                throw new IllegalArgumentException("stripes必须大于0");
+            }
+            this.stripes = stripes;
+            return this;
+        }
+
+        /**
+         * 每个条带最多排队的消息数，超出时丢弃
+         */
+        public Options setMaxQueuedPerStripe(int maxQueuedPerStripe) {
+            if (maxQueuedPerStripe <= 0) {
+                throw new IllegalArgumentException("maxQueuedPerStripe必须大于0");
+            }
+            this.maxQueuedPerStripe = maxQueuedPerStripe;
+            return this;
+        }
+
+        /**
+         * 消费任务连续处理的最大消息数，之后重新调度以公平让出线程
+         */
+        public Options setDrainBatch(int drainBatch) {
+            if (drainBatch <= 0) {
+                throw new IllegalArgumentException("drainBatch必须大于0");
+            }
+            this.drainBatch = drainBatch;
+            return this;
+        }
+    }
+
+    /**
+     * 分发统计快照
+     */
+    public static class Stats {
+        private final long dispatched;
+        private final long dropped;
+        private final long failed;
+        private final int[] queueDepths;
+        private final LatencyHistogram.Snapshot queueLatency;
+        private final LatencyHistogram.Snapshot handlerLatency;
+
+        public Stats(long dispatched, long dropped, long failed, int[] queueDepths,
+                     LatencyHistogram.Snapshot queueLatency, LatencyHistogram.Snapshot handlerLatency) {
+            this.dispatched = dispatched;
+            this.dropped = dropped;
+            this.failed = failed;
+            this.queueDepths = queueDepths;
+            this.queueLatency = queueLatency;
+            this.handlerLatency = handlerLatency;
+        }
+
+        public long getDispatched() {
+            return dispatched;
+        }
+
+        /**
+         * 因条带队列已满被丢弃的消息数
+         */
+        public long getDropped() {
+            return dropped;
+        }
+
+        /**
+         * 处理函数抛出异常的消息数
+         */
+        public long getFailed() {
+            return failed;
+        }
+
+        /**
+         * 各条带当前队列深度
+         */
+        public int[] getQueueDepths() {
+            return queueDepths.clone();
+        }
+
+        /**
+         * 入队到开始处理的等待时间分布
+         */
+        public LatencyHistogram.Snapshot getQueueLatency() {
+            return queueLatency;
+        }
+
+        /**
+         * 处理函数耗时分布
+         */
+        public LatencyHistogram.Snapshot getHandlerLatency() {
+            return handlerLatency;
+        }
+
+        @Override
+        public String toString() {
+            int queued = 0;
+            for (int depth : queueDepths) {
+                queued += depth;
+            }
+            return "Stats{" +
+                    "dispatched=" + dispatched +
+                    ", dropped=" + dropped +
+                    ", failed=" + failed +
+                    ", queued=" + queued +
+                    ", queueLatency=" + queueLatency +
+                    ", handlerLatency=" + handlerLatency +
+                    '}';
+        }
+    }
+}
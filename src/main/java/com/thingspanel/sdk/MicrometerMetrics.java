@@ -0,0 +1,144 @@
+package com.thingspanel.sdk;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.DoubleSupplier;
+
+/**
+ * 基于Micrometer的指标实现
+ * 计数器和计时器在首次使用时按标签创建并缓存，之后记录指标不再查找注册表。
+ * micrometer-core在pom.xml中为可选依赖，使用本类时需自行引入。
+ *
+ * 指标：
+ * tp.mqtt.published / tp.mqtt.published.bytes / tp.mqtt.publish.failures - 发布次数、字节数、失败数
+ * tp.mqtt.connected{client} - 连接状态（1已连接，0未连接）
+ * tp.mqtt.connection.transitions{state} - 连接状态变化次数
+ * tp.mqtt.reconnect.outage / tp.mqtt.reconnect.attempts - 自动重连的断线时长、每次恢复的尝试次数
+ * tp.api.requests{endpoint,outcome} - API调用耗时
+ * tp.callback.requests{path,status} - 回调处理耗时
+ */
+public class MicrometerMetrics implements SdkMetrics {
+
+    private final MeterRegistry registry;
+    private final Counter published;
+    private final Counter publishedBytes;
+    private final Counter publishFailures;
+    private final Counter connects;
+    private final Counter disconnects;
+    private final Timer reconnectOutage;
+    private final DistributionSummary reconnectAttempts;
+    private final ConcurrentHashMap<String, Timer[]> apiTimers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ConcurrentHashMap<Integer, Timer>> callbackTimers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AtomicInteger> connectionStates = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, List<Gauge>> clientGauges = new ConcurrentHashMap<>();
+
+    /**
+     * @param registry Micrometer注册表
+     */
+    public MicrometerMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.published = Counter.builder("tp.mqtt.published").description("已提交发布的MQTT消息数").register(registry);
+        this.publishedBytes = Counter.builder("tp.mqtt.published.bytes").baseUnit("bytes").register(registry);
+        this.publishFailures = Counter.builder("tp.mqtt.publish.failures").register(registry);
+        this.connects = Counter.builder("tp.mqtt.connection.transitions").tag("state", "connected").register(registry);
+        this.disconnects = Counter.builder("tp.mqtt.connection.transitions").tag("state", "disconnected").register(registry);
+        this.reconnectOutage = Timer.builder("tp.mqtt.reconnect.outage").publishPercentileHistogram().register(registry);
+        this.reconnectAttempts = DistributionSummary.builder("tp.mqtt.reconnect.attempts").register(registry);
+    }
+
+    @Override
+    public void publish(int bytes) {
+        published.increment();
+        publishedBytes.increment(bytes);
+    }
+
+    @Override
+    public void publishFailed() {
+        publishFailures.increment();
+    }
+
+    @Override
+    public void apiCall(String endpoint, long nanos, boolean success) {
+        Timer[] timers = apiTimers.get(endpoint);
+        if (timers == null) {
+            timers = apiTimers.computeIfAbsent(endpoint, key -> new Timer[]{
+                    apiTimer(key, "success"), apiTimer(key, "failure")});
+        }
+        timers[success ? 0 : 1].record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void callbackHandled(String path, int status, long nanos) {
+        ConcurrentHashMap<Integer, Timer> byStatus = callbackTimers.get(path);
+        if (byStatus == null) {
+            byStatus = callbackTimers.computeIfAbsent(path, key -> new ConcurrentHashMap<>());
+        }
+        Timer timer = byStatus.get(status);
+        if (timer == null) {
+            timer = byStatus.computeIfAbsent(status, key -> Timer.builder("tp.callback.requests")
+                    .tag("path", path)
+                    .tag("status", String.valueOf(key))
+                    .publishPercentileHistogram()
+                    .register(registry));
+        }
+        timer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void connectionStateChanged(String clientId, boolean connected) {
+        (connected ? connects : disconnects).increment();
+        connectionStates.computeIfAbsent(clientId, key -> {
+            AtomicInteger state = new AtomicInteger();
+            Gauge.builder("tp.mqtt.connected", state, AtomicInteger::get)
+                    .tag("client", key)
+                    .register(registry);
+            return state;
+        }).set(connected ? 1 : 0);
+    }
+
+    @Override
+    public void reconnected(String clientId, long outageNanos, int attempts) {
+        reconnectOutage.record(outageNanos, TimeUnit.NANOSECONDS);
+        reconnectAttempts.record(attempts);
+    }
+
+    /**
+     * 取值函数只被注册表强引用，客户端断开时经{@link #removeGauges(String)}注销，
+     * 否则注册表会一直持有客户端，且同一clientId的新客户端会拿到旧的指标
+     */
+    @Override
+    public void gauge(String name, String clientId, DoubleSupplier value) {
+        Gauge gauge = Gauge.builder(name, value, DoubleSupplier::getAsDouble)
+                .tag("client", clientId)
+                .strongReference(true)
+                .register(registry);
+        clientGauges.computeIfAbsent(clientId, key -> new CopyOnWriteArrayList<>()).add(gauge);
+    }
+
+    @Override
+    public void removeGauges(String clientId) {
+        List<Gauge> gauges = clientGauges.remove(clientId);
+        if (gauges != null) {
+            for (Gauge gauge : gauges) {
+                registry.remove(gauge);
+            }
+        }
+    }
+
+    private Timer apiTimer(String endpoint, String outcome) {
+        return Timer.builder("tp.api.requests")
+                .tag("endpoint", endpoint)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+}
@@ -0,0 +1,106 @@
+package com.thingspanel.sdk;
+
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+/**
+ * MQTT传输层抽象
+ * 默认实现为基于Eclipse Paho异步客户端的{@link PahoMqttTransport}，
+ * 测试或自定义场景可通过{@link TPClient#setTransport(MqttTransport)}替换
+ */
+public interface MqttTransport {
+
+    /**
+     * 建立连接，阻塞直到连接完成或失败
+     * @param options 连接参数
+     */
+    void connect(MqttConnectOptions options) throws MqttException;
+
+    /**
+     * 是否已连接
+     */
+    boolean isConnected();
+
+    /**
+     * 异步发布消息，发布完成（QoS 0写入网络，QoS 1/2收到确认）后回调
+     * @param topic 主题
+     * @param payload 消息内容
+     * @param qos 服务质量等级
+     * @param retained 是否保留消息
+     * @param callback 完成回调，不能为空
+     */
+    void publish(String topic, byte[] payload, int qos, boolean retained, PublishCallback callback) throws MqttException;
+
+    /**
+     * 订阅主题
+     * @param topics 主题列表
+     * @param qos 对应的服务质量等级
+     */
+    void subscribe(String[] topics, int[] qos) throws MqttException;
+
+    /**
+     * 设置入站消息处理器，在连接之前设置；处理器在传输层的回调线程上执行，不应阻塞
+     * @param handler 入站消息处理器，为null时丢弃入站消息
+     */
+    void setMessageHandler(MessageHandler handler);
+
+    /**
+     * 断开连接，之后可再次调用connect
+     */
+    void disconnect();
+
+    /**
+     * 设置连接断开监听器，连接意外断开（非调用disconnect）时回调；
+     * 未实现该方法的传输层不支持{@link TPClient#enableAutoReconnect}
+     * @param listener 断开监听器，为null时不通知
+     */
+    default void setConnectionListener(ConnectionListener listener) {
+    }
+
+    /**
+     * 发布完成回调
+     */
+    @FunctionalInterface
+    interface PublishCallback {
+        /**
+         * @param error 发布失败时的异常，成功时为null
+         */
+        void onComplete(Throwable error);
+    }
+
+    /**
+     * 未能送达的消息的去向，如写入离线发件箱
+     */
+    @FunctionalInterface
+    interface UndeliveredHandler {
+        /**
+         * 在传输层的回调线程或发布器线程上执行
+         * @param callback 原消息的完成回调，由处理方完成，可为null
+         */
+        void onUndelivered(String topic, byte[] payload, int qos, boolean retained, PublishCallback callback);
+    }
+
+    /**
+     * 连接断开监听器
+     */
+    @FunctionalInterface
+    interface ConnectionListener {
+        /**
+         * 在传输层的回调线程上执行，不应阻塞
+         * @param cause 断开原因，可能为null
+         */
+        void onConnectionLost(Throwable cause);
+    }
+
+    /**
+     * 入站消息处理器
+     */
+    @FunctionalInterface
+    interface MessageHandler {
+        /**
+         * @param topic 消息主题
+         * @param payload 消息内容
+         */
+        void onMessage(String topic, byte[] payload);
+    }
+}
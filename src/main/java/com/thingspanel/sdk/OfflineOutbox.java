@@ -0,0 +1,885 @@
+package com.thingspanel.sdk;
+
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * 磁盘持久化离线发件箱
+ * MQTT不可用时发布的消息追加写入内存映射的分段日志，连接恢复后按写入顺序限速重放。
+ *
+ * 记录格式：[长度 int][CRC32 int][时间戳 long][qos byte][retained byte][主题长度 short][主题][消息内容]，
+ * 长度和CRC只覆盖长度字段之后的部分，长度为0表示段内数据结束。
+ * 段文件写满后轮转，总段数受maxTotalBytes限制（超出时丢弃最旧的段），超过maxAge的记录在重放时跳过。
+ * 重放以窗口方式流水线发送，进度只在代理确认后推进：确认按发送顺序连续累积，某条记录发布失败时从最早未确认的记录重发，
+ * 段文件在其中的记录全部确认后才删除。进度定期写入checkpoint文件，进程重启后从上次进度继续，
+ * 未记录进度的部分可能重复发送（至少一次）。
+ * 数据位于页缓存和磁盘上，不占用堆内存。
+ */
+public class OfflineOutbox implements Closeable {
+    private static final Logger logger = Logger.getLogger(OfflineOutbox.class.getName());
+
+    private static final int HEADER_BYTES = 8;
+    private static final int FIXED_BODY_BYTES = 8 + 1 + 1 + 2;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int CHECKPOINT_EVERY = 1000;
+    private static final long IDLE_WAIT_MS = 100;
+    private static final long RETRY_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final int SENT = 0;
+    private static final int ACKED = 1;
+    private static final int FAILED = 2;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final long maxAgeMillis;
+    private final long replayIntervalNanos;
+    private final int replayWindow;
+
+    private final Object lock = new Object();
+    private final TreeMap<Long, SegmentInfo> segments = new TreeMap<>();
+    private WriteSegment writer;
+    private boolean closed;
+
+    // 发送进度，仅由重放线程推进，读写均在lock内
+    private long readSegment;
+    private int readOffset;
+    private int readRecords;
+    private MappedByteBuffer readBuffer;
+    private long readBufferSegment = -1;
+    private int sinceCheckpoint;
+    // 已发出、等待确认的记录，按发送顺序排列；确认进度即队首记录的位置，队列为空时与发送进度相同
+    private final ArrayDeque<Record> inFlight = new ArrayDeque<>();
+    private volatile boolean replayFailed;
+
+    private final AtomicLong pendingRecords = new AtomicLong();
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder replayed = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder droppedSegments = new LongAdder();
+    private final LongAdder corrupted = new LongAdder();
+
+    private volatile Thread replayer;
+    private volatile boolean replaying;
+
+    private OfflineOutbox(Options options) {
+        this.directory = options.directory;
+        this.segmentBytes = options.segmentBytes;
+        this.maxSegments = (int) Math.max(2, options.maxTotalBytes / options.segmentBytes);
+        this.maxAgeMillis = options.maxAgeMillis;
+        this.replayIntervalNanos = options.replayRatePerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / options.replayRatePerSecond : 0;
+        this.replayWindow = options.replayWindow;
+    }
+
+    /**
+     * 打开（或恢复）指定目录下的发件箱
+     * @param options 发件箱参数
+     */
+    public static OfflineOutbox open(Options options) throws IOException {
+        if (options.directory == null) {
+            throw new IllegalArgumentException("未设置发件箱目录");
+        }
+        OfflineOutbox outbox = new OfflineOutbox(options);
+        outbox.recover();
+        return outbox;
+    }
+
+    /**
+     * 追加一条消息
+     * @return 是否写入成功，发件箱已关闭或单条消息超过段大小时返回false
+     */
+    public boolean append(String topic, byte[] payload, int qos, boolean retained) {
+        byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        int bodyLength = FIXED_BODY_BYTES + topicBytes.length + payload.length;
+        int recordLength = HEADER_BYTES + bodyLength;
+        if (recordLength > segmentBytes || topicBytes.length > Short.MAX_VALUE) {
+            rejected.increment();
+            logger.warning("消息过大，无法写入发件箱 - 主题: " + topic + ", 字节数: " + payload.length);
+            return false;
+        }
+        synchronized (lock) {
+            if (closed) {
+                rejected.increment();
+                return false;
+            }
+            try {
+                if (writer.position + recordLength > segmentBytes) {
+                    rotate();
+                }
+            } catch (IOException e) {
+                rejected.increment();
+                logger.log(Level.SEVERE, "发件箱段轮转失败", e);
+                return false;
+            }
+            long now = System.currentTimeMillis();
+            MappedByteBuffer buffer = writer.buffer;
+            int start = writer.position;
+            int bodyStart = start + HEADER_BYTES;
+            buffer.putLong(bodyStart, now);
+            buffer.put(bodyStart + 8, (byte) qos);
+            buffer.put(bodyStart + 9, (byte) (retained ? 1 : 0));
+            buffer.putShort(bodyStart + 10, (short) topicBytes.length);
+            ByteBuffer view = buffer.duplicate();
+            view.position(bodyStart + FIXED_BODY_BYTES);
+            view.put(topicBytes);
+            view.put(payload);
+            buffer.putInt(start + 4, crc(buffer, bodyStart, bodyLength));
+            // 最后写长度，写到一半时长度仍为0，恢复时视为段结束
+            buffer.putInt(start, bodyLength);
+
+            writer.position += recordLength;
+            SegmentInfo info = segments.get(writer.index);
+            info.usedBytes = writer.position;
+            info.records++;
+            info.lastTimestamp = now;
+            appended.increment();
+            pendingRecords.incrementAndGet();
+            lock.notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * 是否有尚未重放的消息
+     */
+    public boolean hasBacklog() {
+        return pendingRecords.get() > 0;
+    }
+
+    /**
+     * 启动重放线程，按写入顺序把积压消息发布到传输层
+     * @param transport MQTT传输层
+     */
+    public synchronized void startReplay(MqttTransport transport) {
+        if (replaying) {
+            return;
+        }
+        replaying = true;
+        replayer = new Thread(() -> replayLoop(transport), "tp-outbox-replay");
+        replayer.setDaemon(true);
+        replayer.start();
+    }
+
+    /**
+     * 停止重放线程并保存进度
+     */
+    public synchronized void stopReplay() {
+        if (!replaying) {
+            return;
+        }
+        replaying = false;
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+        LockSupport.unpark(replayer);
+        try {
+            replayer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        replayer = null;
+        synchronized (lock) {
+            writeCheckpoint();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        stopReplay();
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            writeCheckpoint();
+            writer.buffer.force();
+            writer.channel.close();
+            readBuffer = null;
+        }
+    }
+
+    /**
+     * 获取发件箱统计
+     */
+    public Stats getStats() {
+        synchronized (lock) {
+            return new Stats(appended.sum(), replayed.sum(), expired.sum(), rejected.sum(), droppedSegments.sum(),
+                    corrupted.sum(), pendingRecords.get() + inFlight.size(), segments.size());
+        }
+    }
+
+    private void replayLoop(MqttTransport transport) {
+        long nextSendAt = System.nanoTime();
+        while (replaying) {
+            try {
+                settle();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "删除已重放的发件箱段失败", e);
+            }
+            if (inFlightCount() >= replayWindow) {
+                // 窗口已满，等待确认回调唤醒
+                LockSupport.parkNanos(RETRY_BACKOFF_NANOS);
+                continue;
+            }
+            Record record;
+            try {
+                record = peek();
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "读取发件箱失败", e);
+                LockSupport.parkNanos(RETRY_BACKOFF_NANOS);
+                continue;
+            }
+            if (record == null) {
+                if (inFlightCount() > 0) {
+                    LockSupport.parkNanos(RETRY_BACKOFF_NANOS);
+                    continue;
+                }
+                synchronized (lock) {
+                    if (replaying && pendingRecords.get() == 0) {
+                        try {
+                            lock.wait(IDLE_WAIT_MS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            break;
+                        }
+                    }
+                }
+                continue;
+            }
+            if (maxAgeMillis > 0 && System.currentTimeMillis() - record.timestamp > maxAgeMillis) {
+                expired.increment();
+                advance(record, false);
+                continue;
+            }
+            if (!transport.isConnected()) {
+                LockSupport.parkNanos(RETRY_BACKOFF_NANOS);
+                continue;
+            }
+            if (replayIntervalNanos > 0) {
+                long wait = nextSendAt - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                nextSendAt = Math.max(nextSendAt, System.nanoTime() - replayIntervalNanos) + replayIntervalNanos;
+            }
+            try {
+                transport.publish(record.topic, record.payload, record.qos, record.retained, record);
+            } catch (MqttException e) {
+                // 未发出的消息不推进进度，稍后重试
+                LockSupport.parkNanos(RETRY_BACKOFF_NANOS);
+                continue;
+            }
+            advance(record, true);
+        }
+        // 停止时回退到最早未确认的记录，下次启动或重启进程后从该处重发
+        synchronized (lock) {
+            try {
+                settle();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "删除已重放的发件箱段失败", e);
+            }
+            rewind();
+        }
+    }
+
+    private int inFlightCount() {
+        synchronized (lock) {
+            return inFlight.size();
+        }
+    }
+
+    /**
+     * 移出队首已确认的记录并删除已全部确认的段；有记录发布失败时回退到最早未确认的记录重发
+     */
+    private void settle() throws IOException {
+        synchronized (lock) {
+            int acked = 0;
+            Record head;
+            while ((head = inFlight.peekFirst()) != null && head.state == ACKED) {
+                inFlight.pollFirst();
+                acked++;
+            }
+            if (acked > 0) {
+                replayed.add(acked);
+                sinceCheckpoint += acked;
+                releaseSegments();
+                if (sinceCheckpoint >= CHECKPOINT_EVERY) {
+                    writeCheckpoint();
+                }
+            }
+            if (replayFailed) {
+                replayFailed = false;
+                rewind();
+            }
+        }
+    }
+
+    /**
+     * 放弃所有在途记录，把发送进度移回其中最早一条（所在段已被容量策略删除的除外），并重新统计待重放数
+     */
+    private void rewind() {
+        Record first = null;
+        for (Record record : inFlight) {
+            record.abandoned = true;
+            if (first == null && segments.containsKey(record.segment)) {
+                first = record;
+            }
+        }
+        inFlight.clear();
+        if (first == null) {
+            return;
+        }
+        moveReader(first.segment);
+        readOffset = first.offset;
+        readRecords = first.index;
+        long pending = segments.get(readSegment).records - readRecords;
+        for (SegmentInfo info : segments.tailMap(readSegment, false).values()) {
+            pending += info.records;
+        }
+        pendingRecords.set(pending);
+    }
+
+    /**
+     * 删除最早未确认记录所在段之前的段，这些段中的记录已全部确认或被跳过
+     */
+    private void releaseSegments() throws IOException {
+        Record head = inFlight.peekFirst();
+        long ackSegment = head == null ? readSegment : head.segment;
+        while (!segments.isEmpty()) {
+            long first = segments.firstKey();
+            if (first >= ackSegment || first == writer.index) {
+                break;
+            }
+            Files.deleteIfExists(segments.pollFirstEntry().getValue().path);
+        }
+    }
+
+    /**
+     * 读取下一条未重放的记录但不推进进度，没有记录时返回null
+     */
+    private Record peek() throws IOException {
+        synchronized (lock) {
+            while (!closed) {
+                Map.Entry<Long, SegmentInfo> first = segments.firstEntry();
+                if (first == null) {
+                    return null;
+                }
+                if (readSegment < first.getKey() || !segments.containsKey(readSegment)) {
+                    Long next = segments.ceilingKey(readSegment);
+                    moveReader(next == null ? first.getKey() : next);
+                }
+                if (readBufferSegment != readSegment) {
+                    readBuffer = readSegment == writer.index
+                            ? writer.buffer : map(segments.get(readSegment).path, FileChannel.MapMode.READ_ONLY);
+                    readBufferSegment = readSegment;
+                }
+                boolean active = readSegment == writer.index;
+                int limit = active ? writer.position : segments.get(readSegment).usedBytes;
+                if (readOffset + HEADER_BYTES > limit) {
+                    if (active) {
+                        return null;
+                    }
+                    finishReadSegment();
+                    continue;
+                }
+                int bodyLength = readBuffer.getInt(readOffset);
+                int bodyStart = readOffset + HEADER_BYTES;
+                if (bodyLength < FIXED_BODY_BYTES || bodyStart + bodyLength > limit
+                        || readBuffer.getInt(readOffset + 4) != crc(readBuffer, bodyStart, bodyLength)) {
+                    corrupted.increment();
+                    logger.warning("发件箱段" + readSegment + "在偏移" + readOffset + "处校验失败，跳过该段剩余数据");
+                    if (active) {
+                        // 跳过的记录不再重放，从待重放数中扣除，否则积压永远不会清零
+                        SegmentInfo info = segments.get(readSegment);
+                        pendingRecords.addAndGet(-(info.records - readRecords));
+                        readRecords = info.records;
+                        readOffset = limit;
+                        return null;
+                    }
+                    finishReadSegment();
+                    continue;
+                }
+                return decode(readBuffer, readOffset, bodyLength);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 推进发送进度到指定记录之后
+     * @param sent 记录已发出、等待确认；为false时记录被跳过
+     */
+    private void advance(Record record, boolean sent) {
+        synchronized (lock) {
+            if (sent) {
+                // 即使所在段已被删除也要跟踪，确认进度按发送顺序推进
+                inFlight.addLast(record);
+            }
+            if (record.segment != readSegment || record.offset != readOffset) {
+                // 记录所在段已被保留策略删除，进度已由peek重新定位
+                return;
+            }
+            readOffset += HEADER_BYTES + record.bodyLength;
+            readRecords++;
+            pendingRecords.decrementAndGet();
+            if (!sent && ++sinceCheckpoint >= CHECKPOINT_EVERY) {
+                writeCheckpoint();
+            }
+        }
+    }
+
+    /**
+     * 发送进度移到下一个段；段文件保留到其中的记录全部确认
+     */
+    private void finishReadSegment() throws IOException {
+        SegmentInfo info = segments.get(readSegment);
+        if (info != null) {
+            pendingRecords.addAndGet(-(info.records - readRecords));
+        }
+        Long next = segments.higherKey(readSegment);
+        moveReader(next == null ? writer.index : next);
+        releaseSegments();
+        writeCheckpoint();
+    }
+
+    private void moveReader(long segment) {
+        readSegment = segment;
+        readOffset = 0;
+        readRecords = 0;
+        readBuffer = null;
+        readBufferSegment = -1;
+    }
+
+    private void rotate() throws IOException {
+        writer.buffer.force();
+        writer.channel.close();
+        long index = writer.index + 1;
+        openWriter(index, 0);
+        while (segments.size() > maxSegments) {
+            long unread = dropOldestSegment();
+            droppedSegments.increment();
+            logger.warning("发件箱超出容量上限，丢弃最旧的段，未重放消息数: " + unread);
+        }
+        if (maxAgeMillis > 0) {
+            long cutoff = System.currentTimeMillis() - maxAgeMillis;
+            while (segments.size() > 1 && segments.firstEntry().getValue().lastTimestamp < cutoff) {
+                expired.add(dropOldestSegment());
+            }
+        }
+    }
+
+    /**
+     * 删除最旧的段，返回其中尚未重放的消息数
+     */
+    private long dropOldestSegment() throws IOException {
+        Map.Entry<Long, SegmentInfo> oldest = segments.pollFirstEntry();
+        SegmentInfo info = oldest.getValue();
+        long unread;
+        if (oldest.getKey() > readSegment) {
+            unread = info.records;
+        } else if (oldest.getKey() == readSegment) {
+            unread = info.records - readRecords;
+            moveReader(segments.firstKey());
+        } else {
+            unread = 0;
+        }
+        pendingRecords.addAndGet(-unread);
+        Files.deleteIfExists(info.path);
+        return unread;
+    }
+
+    private void openWriter(long index, int position) throws IOException {
+        Path path = segmentPath(index);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        writer = new WriteSegment(index, channel, buffer, position);
+        segments.computeIfAbsent(index, key -> new SegmentInfo(path)).usedBytes = position;
+    }
+
+    private void recover() throws IOException {
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    long index = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                    segments.put(index, new SegmentInfo(path));
+                } catch (NumberFormatException e) {
+                    logger.warning("忽略无法识别的发件箱文件: " + path);
+                }
+            }
+        }
+        long checkpointSegment = -1;
+        int checkpointOffset = 0;
+        Path checkpoint = directory.resolve(CHECKPOINT_FILE);
+        if (Files.exists(checkpoint)) {
+            ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(checkpoint));
+            if (data.remaining() >= 12) {
+                checkpointSegment = data.getLong();
+                checkpointOffset = data.getInt();
+            }
+        }
+        // 已完整重放的段直接删除
+        while (!segments.isEmpty() && segments.firstKey() < checkpointSegment) {
+            Files.deleteIfExists(segments.pollFirstEntry().getValue().path);
+        }
+        for (Map.Entry<Long, SegmentInfo> entry : segments.entrySet()) {
+            scan(entry.getKey(), entry.getValue(), entry.getKey() == checkpointSegment ? checkpointOffset : 0);
+        }
+        if (segments.isEmpty()) {
+            openWriter(Math.max(0, checkpointSegment), 0);
+        } else {
+            Map.Entry<Long, SegmentInfo> last = segments.lastEntry();
+            openWriter(last.getKey(), last.getValue().usedBytes);
+            if (last.getValue().truncated) {
+                // 清除截断点之后的残留数据，避免后续追加的记录之后出现旧记录
+                for (int i = writer.position; i < segmentBytes; i++) {
+                    writer.buffer.put(i, (byte) 0);
+                }
+            }
+        }
+        moveReader(segments.firstKey());
+        if (readSegment == checkpointSegment) {
+            readOffset = Math.min(checkpointOffset, segments.get(readSegment).usedBytes);
+            readRecords = segments.get(readSegment).readBeforeCheckpoint;
+        }
+        long pending = 0;
+        for (SegmentInfo info : segments.values()) {
+            pending += info.records;
+        }
+        pendingRecords.set(pending - readRecords);
+        if (pendingRecords.get() > 0) {
+            logger.info("发件箱恢复完成，待重放消息数: " + pendingRecords.get());
+        }
+    }
+
+    /**
+     * 扫描段内有效记录，统计记录数、已用字节和最后时间戳，遇到未写完或损坏的记录即视为段结束
+     */
+    private void scan(long index, SegmentInfo info, int checkpointOffset) throws IOException {
+        MappedByteBuffer buffer = map(info.path, FileChannel.MapMode.READ_ONLY);
+        int limit = buffer.capacity();
+        int offset = 0;
+        while (offset + HEADER_BYTES <= limit) {
+            int bodyLength = buffer.getInt(offset);
+            int bodyStart = offset + HEADER_BYTES;
+            if (bodyLength < FIXED_BODY_BYTES || bodyStart + bodyLength > limit
+                    || buffer.getInt(offset + 4) != crc(buffer, bodyStart, bodyLength)) {
+                if (bodyLength != 0) {
+                    info.truncated = true;
+                    corrupted.increment();
+                    logger.warning("发件箱段" + index + "在偏移" + offset + "处数据不完整，截断");
+                }
+                break;
+            }
+            if (offset < checkpointOffset) {
+                info.readBeforeCheckpoint++;
+            }
+            info.records++;
+            info.lastTimestamp = buffer.getLong(bodyStart);
+            offset = bodyStart + bodyLength;
+        }
+        info.usedBytes = offset;
+    }
+
+    /**
+     * 写入确认进度：最早未确认记录的位置，没有在途记录时为发送进度
+     */
+    private void writeCheckpoint() {
+        sinceCheckpoint = 0;
+        Record head = inFlight.peekFirst();
+        ByteBuffer data = ByteBuffer.allocate(12)
+                .putLong(head == null ? readSegment : head.segment)
+                .putInt(head == null ? readOffset : head.offset);
+        data.flip();
+        Path checkpoint = directory.resolve(CHECKPOINT_FILE);
+        try (FileChannel channel = FileChannel.open(checkpoint, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(data);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "写入发件箱进度失败", e);
+        }
+    }
+
+    private MappedByteBuffer map(Path path, FileChannel.MapMode mode) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(mode, 0, Math.min(channel.size(), segmentBytes));
+        }
+    }
+
+    private Path segmentPath(long index) {
+        return directory.resolve(String.format("%020d%s", index, SEGMENT_SUFFIX));
+    }
+
+    private Record decode(ByteBuffer buffer, int offset, int bodyLength) {
+        int bodyStart = offset + HEADER_BYTES;
+        long timestamp = buffer.getLong(bodyStart);
+        int qos = buffer.get(bodyStart + 8);
+        boolean retained = buffer.get(bodyStart + 9) != 0;
+        int topicLength = buffer.getShort(bodyStart + 10);
+        byte[] topic = new byte[topicLength];
+        byte[] payload = new byte[bodyLength - FIXED_BODY_BYTES - topicLength];
+        ByteBuffer view = buffer.duplicate();
+        view.position(bodyStart + FIXED_BODY_BYTES);
+        view.get(topic);
+        view.get(payload);
+        return new Record(readSegment, offset, readRecords, bodyLength, timestamp,
+                new String(topic, StandardCharsets.UTF_8), payload, qos, retained);
+    }
+
+    private static int crc(ByteBuffer buffer, int start, int length) {
+        CRC32 crc = new CRC32();
+        ByteBuffer view = buffer.duplicate();
+        view.limit(start + length);
+        view.position(start);
+        crc.update(view);
+        return (int) crc.getValue();
+    }
+
+    private static final class WriteSegment {
+        final long index;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        int position;
+
+        WriteSegment(long index, FileChannel channel, MappedByteBuffer buffer, int position) {
+            this.index = index;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.position = position;
+        }
+    }
+
+    private static final class SegmentInfo {
+        final Path path;
+        int usedBytes;
+        int records;
+        int readBeforeCheckpoint;
+        long lastTimestamp;
+        boolean truncated;
+
+        SegmentInfo(Path path) {
+            this.path = path;
+        }
+    }
+
+    /**
+     * 读出的记录，兼作发布完成回调
+     */
+    private final class Record implements MqttTransport.PublishCallback {
+        final long segment;
+        final int offset;
+        /** 段内序号，即之前的记录数 */
+        final int index;
+        final int bodyLength;
+        final long timestamp;
+        final String topic;
+        final byte[] payload;
+        final int qos;
+        final boolean retained;
+        volatile int state = SENT;
+        /** 回退后不再跟踪，迟到的回调被忽略 */
+        volatile boolean abandoned;
+
+        Record(long segment, int offset, int index, int bodyLength, long timestamp, String topic, byte[] payload,
+               int qos, boolean retained) {
+            this.segment = segment;
+            this.offset = offset;
+            this.index = index;
+            this.bodyLength = bodyLength;
+            this.timestamp = timestamp;
+            this.topic = topic;
+            this.payload = payload;
+            this.qos = qos;
+            this.retained = retained;
+        }
+
+        @Override
+        public void onComplete(Throwable error) {
+            if (abandoned) {
+                return;
+            }
+            if (error == null) {
+                state = ACKED;
+            } else {
+                state = FAILED;
+                replayFailed = true;
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.log(Level.FINE, "发件箱重放消息未确认，将重新发送 - 主题: " + topic, error);
+                }
+            }
+            Thread thread = replayer;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    /**
+     * 发件箱参数
+     */
+    public static class Options {
+        private Path directory;
+        private int segmentBytes = 64 * 1024 * 1024;
+        private long maxTotalBytes = 1024L * 1024 * 1024;
+        private long maxAgeMillis = TimeUnit.HOURS.toMillis(24);
+        private int replayRatePerSecond = 1000;
+        private int replayWindow = 64;
+
+        /**
+         * 段文件所在目录
+         */
+        public Options setDirectory(Path directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        /**
+         * 单个段文件大小，也是单条消息的上限
+         */
+        public Options setSegmentBytes(int segmentBytes) {
+            if (segmentBytes < 1024) {
+                throw new IllegalArgumentException("segmentBytes不能小于1024");
+            }
+            this.segmentBytes = segmentBytes;
+            return this;
+        }
+
+        /**
+         * 全部段文件的总大小上限，超出时丢弃最旧的段（至少保留2个段）
+         */
+        public Options setMaxTotalBytes(long maxTotalBytes) {
+            this.maxTotalBytes = maxTotalBytes;
+            return this;
+        }
+
+        /**
+         * 消息最长保留时间（毫秒），重放时跳过更早的消息，0表示不限制
+         */
+        public Options setMaxAgeMillis(long maxAgeMillis) {
+            this.maxAgeMillis = Math.max(0, maxAgeMillis);
+            return this;
+        }
+
+        /**
+         * 每秒最多重放的消息数，0表示不限速
+         */
+        public Options setReplayRatePerSecond(int replayRatePerSecond) {
+            this.replayRatePerSecond = Math.max(0, replayRatePerSecond);
+            return this;
+        }
+
+        /**
+         * 重放时最多等待确认的消息数；经TPClient重放时还与直接发布共用{@link TPClient#setMaxInFlight}的窗口
+         */
+        public Options setReplayWindow(int replayWindow) {
+            if (replayWindow <= 0) {
+                throw new IllegalArgumentException("replayWindow必须大于0");
+            }
+            this.replayWindow = replayWindow;
+            return this;
+        }
+    }
+
+    /**
+     * 发件箱统计快照
+     */
+    public static class Stats {
+        private final long appended;
+        private final long replayed;
+        private final long expired;
+        private final long rejected;
+        private final long droppedSegments;
+        private final long corrupted;
+        private final long pending;
+        private final int segments;
+
+        public Stats(long appended, long replayed, long expired, long rejected, long droppedSegments,
+                     long corrupted, long pending, int segments) {
+            this.appended = appended;
+            this.replayed = replayed;
+            this.expired = expired;
+            this.rejected = rejected;
+            this.droppedSegments = droppedSegments;
+            this.corrupted = corrupted;
+            this.pending = pending;
+            this.segments = segments;
+        }
+
+        public long getAppended() {
+            return appended;
+        }
+
+        public long getReplayed() {
+            return replayed;
+        }
+
+        /**
+         * 超过保留时间被跳过的消息数
+         */
+        public long getExpired() {
+            return expired;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        /**
+         * 因容量上限被丢弃的段数
+         */
+        public long getDroppedSegments() {
+            return droppedSegments;
+        }
+
+        public long getCorrupted() {
+            return corrupted;
+        }
+
+        /**
+         * 待重放的消息数
+         */
+        public long getPending() {
+            return pending;
+        }
+
+        public int getSegments() {
+            return segments;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "appended=" + appended +
+                    ", replayed=" + replayed +
+                    ", expired=" + expired +
+                    ", rejected=" + rejected +
+                    ", droppedSegments=" + droppedSegments +
+                    ", corrupted=" + corrupted +
+                    ", pending=" + pending +
+                    ", segments=" + segments +
+                    '}';
+        }
+    }
+}
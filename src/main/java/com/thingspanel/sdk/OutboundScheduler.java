@@ -0,0 +1,707 @@
+package com.thingspanel.sdk;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 出站消息调度器
+ * 发布请求按通道排队：告警、状态、遥测三个通道各自有界，调度线程总是先发高优先级通道，
+ * 状态变化不会排在大批遥测之后。所有消息共用一个全局令牌桶以遵守代理配额；遥测通道还受
+ * 按设备、按服务的令牌桶限制，并按设备分队列轮转发送：超速设备只占一个轮转位置，无论其积压多少条
+ * 都不会挡住其他设备（同一设备内保持顺序），单个高频设备无法占满出站带宽。告警和状态消息只受全局令牌桶限制，但会计入设备和服务的用量，
+ * 之后该设备的遥测相应推迟。
+ * 通道满时按溢出策略处理：丢弃最新、丢弃最旧，或合并为同一主题（即同一设备）的最新值。
+ */
+public class OutboundScheduler {
+    private static final Logger logger = Logger.getLogger(OutboundScheduler.class.getName());
+
+    private static final long GLOBAL_KEY = 1;
+    /** 未关联设备的遥测消息共用的队列键 */
+    private static final long NO_DEVICE = TokenBuckets.key(null);
+    /** 遥测通道中已发出但仍留在到达顺序队列里的消息超过该数且超过排队数时压缩 */
+    private static final int COMPACT_THRESHOLD = 1024;
+    /** 无法计算等待时间时的最长休眠，避免错过时钟推进 */
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * 出站通道，按优先级从高到低排列
+     */
+    public enum Lane {
+        /** 告警，最先发送 */
+        ALARM,
+        /** 设备状态 */
+        STATUS,
+        /** 遥测数据，受按设备、按服务限流 */
+        TELEMETRY
+    }
+
+    /**
+     * 通道满时的处理方式
+     */
+    public enum OverflowPolicy {
+        /** 拒绝新消息 */
+        DROP_NEWEST,
+        /** 丢弃队首最旧的消息后接收新消息 */
+        DROP_OLDEST,
+        /** 同一主题已有排队消息时用新消息覆盖其内容（保留原排队位置），否则丢弃最旧的消息 */
+        COALESCE_LATEST
+    }
+
+    private static final Lane[] LANES = Lane.values();
+
+    private final String clientId;
+    private final Sink sink;
+    private final LaneQueue[] lanes = new LaneQueue[LANES.length];
+    private final TokenBuckets global;
+    private final TokenBuckets perDevice;
+    private final TokenBuckets perService;
+    private final int scanDepth;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition wakeup = lock.newCondition();
+    private final Thread worker;
+    private boolean waiting;
+    /** 没有可发送的消息但有排队时距离最早可发送的时长，仅调度线程持锁读写 */
+    private long parkNanos;
+    /** 自上次发出遥测消息以来连续检查到的被限流设备数及其中最早可发送的时刻，跨越多次调度累计，仅调度线程持锁读写 */
+    private int throttledScanned;
+    private long throttledUntil = Long.MAX_VALUE;
+    private volatile boolean running = true;
+
+    private final LongAdder throttled = new LongAdder();
+
+    /**
+     * @param clientId 客户端ID，用于线程名和日志
+     * @param sink 调度后的实际发布
+     * @param options 调度参数
+     */
+    OutboundScheduler(String clientId, Sink sink, Options options) {
+        this.clientId = clientId;
+        this.sink = sink;
+        for (Lane lane : LANES) {
+            lanes[lane.ordinal()] = new LaneQueue(options.capacities.get(lane), options.policies.get(lane),
+                    lane == Lane.TELEMETRY);
+        }
+        this.global = options.globalRate > 0 ? new TokenBuckets(options.globalRate, options.globalBurst) : null;
+        this.perDevice = options.deviceRate > 0 ? new TokenBuckets(options.deviceRate, options.deviceBurst) : null;
+        this.perService = options.serviceRate > 0 ? new TokenBuckets(options.serviceRate, options.serviceBurst) : null;
+        this.scanDepth = options.scanDepth;
+        this.worker = SdkExecutors.daemonThreadFactory("tp-mqtt-scheduler").newThread(this::runLoop);
+        this.worker.start();
+    }
+
+    /**
+     * 提交一条消息，不阻塞；通道满时按溢出策略处理，被丢弃的消息通过{@link Sink#dropped}以失败完成，
+     * 被合并覆盖的消息视为已由最新值取代，其句柄以成功完成
+     * @param device 设备主题句柄，为null时只受全局令牌桶限制
+     */
+    void offer(DeviceTopics device, Lane lane, String topic, byte[] payload, int qos, boolean retained, PublishToken token) {
+        LaneQueue queue = lanes[lane.ordinal()];
+        Pending victim = null;
+        PublishToken superseded = null;
+        lock.lock();
+        try {
+            if (!running) {
+                victim = new Pending(device, topic, payload, qos, retained, token);
+            } else if (queue.size < queue.capacity) {
+                queue.add(new Pending(device, topic, payload, qos, retained, token));
+            } else if (queue.policy == OverflowPolicy.DROP_NEWEST) {
+                victim = new Pending(device, topic, payload, qos, retained, token);
+            } else {
+                Pending latest = queue.policy == OverflowPolicy.COALESCE_LATEST ? queue.latest.get(topic) : null;
+                if (latest != null) {
+                    superseded = latest.token;
+                    latest.payload = payload;
+                    latest.qos = qos;
+                    latest.retained = retained;
+                    latest.token = token;
+                    queue.coalesced.increment();
+                } else {
+                    victim = queue.poll();
+                    queue.add(new Pending(device, topic, payload, qos, retained, token));
+                }
+            }
+            if (waiting && victim == null) {
+                wakeup.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (superseded != null) {
+            superseded.onComplete(null);
+        }
+        if (victim != null) {
+            queue.dropped.increment();
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("出站通道已满，消息被丢弃 - 通道: " + lane + ", 主题: " + victim.topic);
+            }
+            sink.dropped(victim.token, new IllegalStateException(running ? "出站通道已满" : "出站调度器已关闭"));
+        }
+    }
+
+    /**
+     * 停止接收新消息，在超时前按限速继续发出已排队的消息，剩余消息以失败完成
+     * @param timeoutMillis 最长等待时间
+     * @return 是否在超时前全部发出
+     */
+    boolean close(long timeoutMillis) {
+        lock.lock();
+        try {
+            running = false;
+            wakeup.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            worker.join(Math.max(1, timeoutMillis));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!worker.isAlive()) {
+            return true;
+        }
+        worker.interrupt();
+        List<Pending> abandoned = new ArrayList<>();
+        lock.lock();
+        try {
+            for (LaneQueue queue : lanes) {
+                Pending pending;
+                while ((pending = queue.poll()) != null) {
+                    queue.dropped.increment();
+                    abandoned.add(pending);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        IllegalStateException reason = new IllegalStateException("出站调度器已关闭");
+        for (Pending pending : abandoned) {
+            sink.dropped(pending.token, reason);
+        }
+        logger.warning("出站队列未能在超时前发出，丢弃 " + abandoned.size() + " 条消息 - 客户端: " + clientId);
+        return false;
+    }
+
+    /**
+     * 各通道排队消息总数
+     */
+    public int getQueued() {
+        lock.lock();
+        try {
+            int queued = 0;
+            for (LaneQueue queue : lanes) {
+                queued += queue.size;
+            }
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Stats getStats() {
+        Map<Lane, LaneStats> byLane = new EnumMap<>(Lane.class);
+        lock.lock();
+        try {
+            for (Lane lane : LANES) {
+                LaneQueue queue = lanes[lane.ordinal()];
+                byLane.put(lane, new LaneStats(queue.enqueued.sum(), queue.sent.sum(), queue.dropped.sum(),
+                        queue.coalesced.sum(), queue.size, queue.wait.snapshot()));
+            }
+        } finally {
+            lock.unlock();
+        }
+        return new Stats(byLane, throttled.sum());
+    }
+
+    private void runLoop() {
+        try {
+            while (true) {
+                Pending next;
+                lock.lock();
+                try {
+                    next = select(System.nanoTime());
+                    if (next == null) {
+                        if (!running && isEmpty()) {
+                            return;
+                        }
+                        waiting = true;
+                        try {
+                            if (parkNanos > 0) {
+                                throttled.increment();
+                                wakeup.awaitNanos(Math.min(parkNanos, MAX_PARK_NANOS));
+                            } else if (isEmpty()) {
+                                wakeup.awaitNanos(MAX_PARK_NANOS);
+                            }
+                        } finally {
+                            waiting = false;
+                        }
+                        continue;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                try {
+                    sink.dispatch(next.topic, next.payload, next.qos, next.retained, next.token);
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "出站消息发布异常 - 主题: " + next.topic, e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 选出下一条可发送的消息并扣减令牌，持锁调用；没有可发送的消息时设置parkNanos
+     */
+    private Pending select(long now) {
+        parkNanos = 0;
+        if (global != null) {
+            long wait = global.waitNanos(GLOBAL_KEY, now);
+            if (wait > 0) {
+                parkNanos = isEmpty() ? 0 : wait;
+                return null;
+            }
+        }
+        for (int i = 0; i < Lane.TELEMETRY.ordinal(); i++) {
+            Pending pending = lanes[i].poll();
+            if (pending != null) {
+                if (pending.device != null) {
+                    if (perDevice != null) {
+                        perDevice.debit(pending.device.deviceKey, now);
+                    }
+                    if (perService != null) {
+                        perService.debit(pending.device.serviceKey, now);
+                    }
+                }
+                return sent(lanes[i], pending, now);
+            }
+        }
+        LaneQueue telemetry = lanes[Lane.TELEMETRY.ordinal()];
+        // 按设备轮转，每台设备只看队首消息；被限流的设备移到环尾，只占一个扫描名额
+        int remaining = telemetry.ring.size();
+        for (int scanned = 0; remaining > 0 && scanned < scanDepth; remaining--) {
+            DeviceQueue queue = telemetry.ring.pollFirst();
+            Pending pending = queue.pending.peekFirst();
+            if (pending == null) {
+                // 已被溢出策略取空并从设备表移除
+                continue;
+            }
+            scanned++;
+            long wait = 0;
+            if (pending.device != null) {
+                if (perDevice != null) {
+                    wait = perDevice.waitNanos(pending.device.deviceKey, now);
+                }
+                if (wait == 0 && perService != null) {
+                    wait = perService.waitNanos(pending.device.serviceKey, now);
+                }
+            }
+            if (wait > 0) {
+                telemetry.ring.addLast(queue);
+                throttledScanned++;
+                throttledUntil = Math.min(throttledUntil, now + wait);
+                if (throttledScanned >= telemetry.ring.size()) {
+                    break;
+                }
+                continue;
+            }
+            throttledScanned = 0;
+            throttledUntil = Long.MAX_VALUE;
+            queue.pending.pollFirst();
+            if (queue.pending.isEmpty()) {
+                telemetry.devices.remove(queue.key);
+            } else {
+                telemetry.ring.addLast(queue);
+            }
+            telemetry.dispatched(pending);
+            if (pending.device != null) {
+                if (perDevice != null) {
+                    perDevice.take(pending.device.deviceKey, now);
+                }
+                if (perService != null) {
+                    perService.take(pending.device.serviceKey, now);
+                }
+            }
+            return sent(telemetry, pending, now);
+        }
+        if (throttledScanned >= telemetry.ring.size()) {
+            // 整个环都被限流才休眠到最早可发送的时刻；只达到扫描深度时释放锁后立即继续扫描其余设备
+            parkNanos = throttledUntil == Long.MAX_VALUE ? 0 : Math.max(1, throttledUntil - now);
+            throttledScanned = 0;
+            throttledUntil = Long.MAX_VALUE;
+        }
+        return null;
+    }
+
+    private Pending sent(LaneQueue queue, Pending pending, long now) {
+        if (global != null) {
+            global.take(GLOBAL_KEY, now);
+        }
+        queue.sent.increment();
+        queue.wait.record(now - pending.enqueuedAt);
+        return pending;
+    }
+
+    private boolean isEmpty() {
+        for (LaneQueue queue : lanes) {
+            if (queue.size > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 调度后的发布出口
+     */
+    interface Sink {
+        /**
+         * 在调度线程上发布一条消息
+         */
+        void dispatch(String topic, byte[] payload, int qos, boolean retained, PublishToken token);
+
+        /**
+         * 消息因通道溢出或关闭被丢弃
+         * @param token 完成句柄，可为null
+         */
+        void dropped(PublishToken token, Throwable reason);
+    }
+
+    /**
+     * 排队中的消息，合并时就地覆盖内容
+     */
+    private static final class Pending {
+        final DeviceTopics device;
+        final String topic;
+        final long enqueuedAt = System.nanoTime();
+        /** 已从设备队列发出，到达顺序队列中的残留条目 */
+        boolean dispatched;
+        byte[] payload;
+        int qos;
+        boolean retained;
+        PublishToken token;
+
+        Pending(DeviceTopics device, String topic, byte[] payload, int qos, boolean retained, PublishToken token) {
+            this.device = device;
+            this.topic = topic;
+            this.payload = payload;
+            this.qos = qos;
+            this.retained = retained;
+            this.token = token;
+        }
+    }
+
+    /**
+     * 单个通道：有界双端队列，合并策略下另维护 主题 → 最新排队消息 的索引。
+     * 遥测通道另按设备分队列，轮转环中是有排队消息的设备；到达顺序队列只用于溢出时丢弃最旧的消息，
+     * 从设备队列发出的消息在其中标记后延迟清除。
+     */
+    private static final class LaneQueue {
+        final ArrayDeque<Pending> deque;
+        final int capacity;
+        final OverflowPolicy policy;
+        final Map<String, Pending> latest;
+        final Map<Long, DeviceQueue> devices;
+        final ArrayDeque<DeviceQueue> ring;
+        final LatencyHistogram wait = new LatencyHistogram();
+        final LongAdder enqueued = new LongAdder();
+        final LongAdder sent = new LongAdder();
+        final LongAdder dropped = new LongAdder();
+        final LongAdder coalesced = new LongAdder();
+        /** 排队消息数，不含到达顺序队列中已发出的残留条目 */
+        int size;
+        int stale;
+
+        LaneQueue(int capacity, OverflowPolicy policy, boolean perDevice) {
+            this.deque = new ArrayDeque<>(Math.min(capacity, 1024));
+            this.capacity = capacity;
+            this.policy = policy;
+            this.latest = policy == OverflowPolicy.COALESCE_LATEST ? new HashMap<>() : null;
+            this.devices = perDevice ? new HashMap<>() : null;
+            this.ring = perDevice ? new ArrayDeque<>() : null;
+        }
+
+        void add(Pending pending) {
+            deque.addLast(pending);
+            size++;
+            if (devices != null) {
+                long key = pending.device == null ? NO_DEVICE : pending.device.deviceKey;
+                DeviceQueue queue = devices.get(key);
+                if (queue == null) {
+                    queue = new DeviceQueue(key);
+                    devices.put(key, queue);
+                    ring.addLast(queue);
+                }
+                queue.pending.addLast(pending);
+            }
+            if (latest != null) {
+                latest.put(pending.topic, pending);
+            }
+            enqueued.increment();
+        }
+
+        /**
+         * 取出到达最早的排队消息
+         */
+        Pending poll() {
+            Pending pending = deque.pollFirst();
+            while (pending != null && pending.dispatched) {
+                stale--;
+                pending = deque.pollFirst();
+            }
+            if (pending == null) {
+                return null;
+            }
+            size--;
+            if (devices != null) {
+                // 同一设备内按到达顺序排队，最早的消息必在其设备队列的队首；取空的设备队列留在环中由调度时丢弃
+                long key = pending.device == null ? NO_DEVICE : pending.device.deviceKey;
+                DeviceQueue queue = devices.get(key);
+                queue.pending.pollFirst();
+                if (queue.pending.isEmpty()) {
+                    devices.remove(key);
+                }
+            }
+            unindex(pending);
+            return pending;
+        }
+
+        /**
+         * 消息已从设备队列发出，到达顺序队列中的条目留待丢弃或压缩时清除
+         */
+        void dispatched(Pending pending) {
+            pending.dispatched = true;
+            size--;
+            stale++;
+            unindex(pending);
+            if (stale > COMPACT_THRESHOLD && stale > size) {
+                deque.removeIf(queued -> queued.dispatched);
+                stale = 0;
+            }
+        }
+
+        void unindex(Pending pending) {
+            if (latest != null) {
+                latest.remove(pending.topic, pending);
+            }
+        }
+    }
+
+    /**
+     * 遥测通道中单台设备的排队消息
+     */
+    private static final class DeviceQueue {
+        final long key;
+        final ArrayDeque<Pending> pending = new ArrayDeque<>();
+
+        DeviceQueue(long key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * 单个通道的统计
+     */
+    public static class LaneStats {
+        private final long enqueued;
+        private final long sent;
+        private final long dropped;
+        private final long coalesced;
+        private final int queueDepth;
+        private final LatencyHistogram.Snapshot wait;
+
+        public LaneStats(long enqueued, long sent, long dropped, long coalesced, int queueDepth,
+                         LatencyHistogram.Snapshot wait) {
+            this.enqueued = enqueued;
+            this.sent = sent;
+            this.dropped = dropped;
+            this.coalesced = coalesced;
+            this.queueDepth = queueDepth;
+            this.wait = wait;
+        }
+
+        public long getEnqueued() {
+            return enqueued;
+        }
+
+        public long getSent() {
+            return sent;
+        }
+
+        /**
+         * 因通道溢出或关闭被丢弃的消息数
+         */
+        public long getDropped() {
+            return dropped;
+        }
+
+        /**
+         * 通道满时被同一主题的新消息覆盖的消息数
+         */
+        public long getCoalesced() {
+            return coalesced;
+        }
+
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        /**
+         * 从入队到发出的排队耗时分布
+         */
+        public LatencyHistogram.Snapshot getWait() {
+            return wait;
+        }
+
+        @Override
+        public String toString() {
+            return "LaneStats{" +
+                    "enqueued=" + enqueued +
+                    ", sent=" + sent +
+                    ", dropped=" + dropped +
+                    ", coalesced=" + coalesced +
+                    ", queueDepth=" + queueDepth +
+                    ", wait=" + wait +
+                    '}';
+        }
+    }
+
+    /**
+     * 调度统计快照
+     */
+    public static class Stats {
+        private final Map<Lane, LaneStats> lanes;
+        private final long throttled;
+
+        public Stats(Map<Lane, LaneStats> lanes, long throttled) {
+            this.lanes = lanes;
+            this.throttled = throttled;
+        }
+
+        public LaneStats getLane(Lane lane) {
+            return lanes.get(lane);
+        }
+
+        /**
+         * 有排队消息但因令牌不足而等待的次数
+         */
+        public long getThrottled() {
+            return throttled;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "lanes=" + lanes +
+                    ", throttled=" + throttled +
+                    '}';
+        }
+    }
+
+    /**
+     * 调度参数，速率为0表示不限
+     */
+    public static class Options {
+        private long globalRate = 0;
+        private long globalBurst = 1;
+        private long deviceRate = 0;
+        private long deviceBurst = 1;
+        private long serviceRate = 0;
+        private long serviceBurst = 1;
+        private int scanDepth = 64;
+        private final Map<Lane, Integer> capacities = new EnumMap<>(Lane.class);
+        private final Map<Lane, OverflowPolicy> policies = new EnumMap<>(Lane.class);
+
+        public Options() {
+            capacities.put(Lane.ALARM, 1024);
+            capacities.put(Lane.STATUS, 4096);
+            capacities.put(Lane.TELEMETRY, 8192);
+            policies.put(Lane.ALARM, OverflowPolicy.DROP_NEWEST);
+            policies.put(Lane.STATUS, OverflowPolicy.COALESCE_LATEST);
+            policies.put(Lane.TELEMETRY, OverflowPolicy.DROP_OLDEST);
+        }
+
+        /**
+         * 全局速率（条/秒）与突发量，对应代理对单个连接的发布配额
+         */
+        public Options setGlobalRate(long messagesPerSecond, long burst) {
+            checkRate(messagesPerSecond, burst);
+            this.globalRate = messagesPerSecond;
+            this.globalBurst = burst;
+            return this;
+        }
+
+        /**
+         * 单个设备的遥测速率（条/秒）与突发量
+         */
+        public Options setDeviceRate(long messagesPerSecond, long burst) {
+            checkRate(messagesPerSecond, burst);
+            this.deviceRate = messagesPerSecond;
+            this.deviceBurst = burst;
+            return this;
+        }
+
+        /**
+         * 单个服务标识符下所有设备的遥测速率（条/秒）与突发量
+         */
+        public Options setServiceRate(long messagesPerSecond, long burst) {
+            checkRate(messagesPerSecond, burst);
+            this.serviceRate = messagesPerSecond;
+            this.serviceBurst = burst;
+            return this;
+        }
+
+        /**
+         * 通道容量
+         */
+        public Options setCapacity(Lane lane, int capacity) {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("capacity必须大于0");
+            }
+            capacities.put(lane, capacity);
+            return this;
+        }
+
+        /**
+         * 通道满时的处理方式，默认告警丢弃最新、状态合并最新值、遥测丢弃最旧
+         */
+        public Options setOverflowPolicy(Lane lane, OverflowPolicy policy) {
+            if (policy == null) {
+                throw new IllegalArgumentException("policy不能为空");
+            }
+            policies.put(lane, policy);
+            return this;
+        }
+
+        /**
+         * 遥测通道每次调度最多检查的设备数，被检查过的设备轮转到队尾；
+         * 达到上限时释放锁后继续扫描，整个环都被限流时才休眠
+         */
+        public Options setScanDepth(int scanDepth) {
+            if (scanDepth <= 0) {
+                throw new IllegalArgumentException("scanDepth必须大于0");
+            }
+            this.scanDepth = scanDepth;
+            return this;
+        }
+
+        private static void checkRate(long messagesPerSecond, long burst) {
+            if (messagesPerSecond < 0 || messagesPerSecond > 1_000_000_000L) {
+                throw new IllegalArgumentException("速率必须在0到1000000000之间");
+            }
+            if (burst <= 0 || burst > 1_000_000_000L) {
+                throw new IllegalArgumentException("突发量必须在1到1000000000之间");
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.thingspanel.sdk;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 基于Eclipse Paho异步客户端的MQTT传输实现
+ */
+public class PahoMqttTransport implements MqttTransport {
+    private static final Logger logger = Logger.getLogger(PahoMqttTransport.class.getName());
+
+    private static final long CONNECT_TIMEOUT_MS = 30_000;
+    private static final long DISCONNECT_QUIESCE_MS = 5_000;
+    // 所有发布共用一个监听器，完成回调作为令牌的userContext传入，发布时不分配监听器
+    private static final IMqttActionListener PUBLISH_LISTENER = new IMqttActionListener() {
+        @Override
+        public void onSuccess(IMqttToken token) {
+            ((PublishCallback) token.getUserContext()).onComplete(null);
+        }
+
+        @Override
+        public void onFailure(IMqttToken token, Throwable error) {
+            ((PublishCallback) token.getUserContext()).onComplete(error);
+        }
+    };
+
+    private final MqttAsyncClient client;
+    private volatile MessageHandler messageHandler;
+    private volatile ConnectionListener connectionListener;
+
+    public PahoMqttTransport(String serverURI, String clientId) throws MqttException {
+        this.client = new MqttAsyncClient(serverURI, clientId, new MemoryPersistence());
+        this.client.setCallback(new MqttCallback() {
+            @Override
+            public void connectionLost(Throwable cause) {
+                ConnectionListener listener = connectionListener;
+                if (listener != null) {
+                    listener.onConnectionLost(cause);
+                } else {
+                    logger.log(Level.WARNING, "MQTT连接断开", cause);
+                }
+            }
+
+            @Override
+            public void messageArrived(String topic, MqttMessage message) {
+                MessageHandler handler = messageHandler;
+                if (handler != null) {
+                    handler.onMessage(topic, message.getPayload());
+                }
+            }
+
+            @Override
+            public void deliveryComplete(IMqttDeliveryToken token) {
+            }
+        });
+    }
+
+    @Override
+    public void connect(MqttConnectOptions options) throws MqttException {
+        client.connect(options).waitForCompletion(CONNECT_TIMEOUT_MS);
+    }
+
+    @Override
+    public boolean isConnected() {
+        return client.isConnected();
+    }
+
+    @Override
+    public void publish(String topic, byte[] payload, int qos, boolean retained, PublishCallback callback) throws MqttException {
+        client.publish(topic, payload, qos, retained, callback, PUBLISH_LISTENER);
+    }
+
+    @Override
+    public void subscribe(String[] topics, int[] qos) throws MqttException {
+        client.subscribe(topics, qos).waitForCompletion(CONNECT_TIMEOUT_MS);
+    }
+
+    @Override
+    public void setMessageHandler(MessageHandler handler) {
+        this.messageHandler = handler;
+    }
+
+    @Override
+    public void setConnectionListener(ConnectionListener listener) {
+        this.connectionListener = listener;
+    }
+
+    @Override
+    public void disconnect() {
+        try {
+            if (client.isConnected()) {
+                client.disconnect(DISCONNECT_QUIESCE_MS).waitForCompletion(DISCONNECT_QUIESCE_MS * 2);
+            }
+        } catch (MqttException e) {
+            logger.log(Level.WARNING, "MQTT断开连接异常", e);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.thingspanel.sdk;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MQTT发布完成句柄
+ * 句柄本身即传给传输层的完成回调，QoS 0写入网络、QoS 1/2收到代理确认（Paho投递令牌完成）时完成。
+ * 句柄从客户端的对象池取出，读取结果后调用{@link #release()}归还即可复用；不归还只是失去复用，不会泄漏。
+ * 归还后句柄会被其他发布复用，不能再读取。
+ */
+public final class PublishToken implements MqttTransport.PublishCallback {
+    private static final int PENDING = 0;
+    private static final int SUCCEEDED = 1;
+    private static final int FAILED = 2;
+
+    private final Pool pool;
+    private MqttTransport.PublishCallback listener;
+    private boolean autoRelease;
+    private boolean pooled;
+    private int state;
+    private Throwable error;
+
+    private PublishToken(Pool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void onComplete(Throwable error) {
+        MqttTransport.PublishCallback current;
+        boolean recycle;
+        synchronized (this) {
+            if (state != PENDING) {
+                return;
+            }
+            this.error = error;
+            this.state = error == null ? SUCCEEDED : FAILED;
+            current = listener;
+            recycle = autoRelease;
+            notifyAll();
+        }
+        pool.observer.onComplete(error);
+        if (current != null) {
+            current.onComplete(error);
+        }
+        if (recycle) {
+            release();
+        }
+    }
+
+    /**
+     * 是否已完成（成功或失败）
+     */
+    public synchronized boolean isDone() {
+        return state != PENDING;
+    }
+
+    /**
+     * 是否已成功完成
+     */
+    public synchronized boolean isSuccess() {
+        return state == SUCCEEDED;
+    }
+
+    /**
+     * 失败原因，未完成或成功时为null
+     */
+    public synchronized Throwable getError() {
+        return error;
+    }
+
+    /**
+     * 等待发布完成
+     * @param timeoutMillis 最长等待时间（毫秒）
+     * @return 是否在超时前完成
+     */
+    public synchronized boolean await(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (state == PENDING) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * 归还句柄，之后不能再读取；重复归还被忽略
+     * @throws IllegalStateException 发布尚未完成
+     */
+    public void release() {
+        synchronized (this) {
+            if (pooled) {
+                return;
+            }
+            if (state == PENDING) {
+                throw new IllegalStateException("发布尚未完成，不能归还句柄");
+            }
+            pooled = true;
+            listener = null;
+            error = null;
+        }
+        pool.free.offer(this);
+    }
+
+    private synchronized void reset(MqttTransport.PublishCallback listener, boolean autoRelease) {
+        this.listener = listener;
+        this.autoRelease = autoRelease;
+        this.pooled = false;
+        this.state = PENDING;
+        this.error = null;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PublishToken{" +
+                "state=" + (state == PENDING ? "PENDING" : state == SUCCEEDED ? "SUCCEEDED" : "FAILED") +
+                ", error=" + error +
+                '}';
+    }
+
+    /**
+     * 句柄池，容量满时归还的句柄交给GC
+     */
+    static final class Pool {
+        private final ArrayBlockingQueue<PublishToken> free;
+        private final MqttTransport.PublishCallback observer;
+
+        /**
+         * @param capacity 池中最多保留的空闲句柄数
+         * @param observer 每个句柄完成时先于监听器调用，用于统计
+         */
+        Pool(int capacity, MqttTransport.PublishCallback observer) {
+            this.free = new ArrayBlockingQueue<>(capacity);
+            this.observer = observer;
+        }
+
+        /**
+         * 取出调用方持有的句柄，由调用方release
+         */
+        PublishToken acquire() {
+            return acquire(null, false);
+        }
+
+        /**
+         * 取出包装监听器的句柄，完成并通知监听器后自动归还
+         */
+        PublishToken wrap(MqttTransport.PublishCallback listener) {
+            return acquire(listener, true);
+        }
+
+        private PublishToken acquire(MqttTransport.PublishCallback listener, boolean autoRelease) {
+            PublishToken token = free.poll();
+            if (token == null) {
+                token = new PublishToken(this);
+            }
+            token.reset(listener, autoRelease);
+            return token;
+        }
+
+        int idle() {
+            return free.size();
+        }
+    }
+}
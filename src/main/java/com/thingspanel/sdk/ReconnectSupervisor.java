@@ -0,0 +1,295 @@
+package com.thingspanel.sdk;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * MQTT自动重连
+ * 传输层报告连接断开后按指数退避重连：第n次尝试前等待[0, min(上限, 初始间隔*2^n))之间的随机时长（全抖动），
+ * 第一次尝试同样随机延迟，代理重启时同一批客户端的重连被打散，不会同时涌向代理。
+ * 重连本身（建立连接、恢复订阅、重启离线重放）由{@link TPClient}完成，本类只负责调度和统计。
+ */
+public class ReconnectSupervisor {
+    private static final Logger logger = Logger.getLogger(ReconnectSupervisor.class.getName());
+
+    private final String clientId;
+    private final Attempt attempt;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final int maxAttempts;
+    private final ScheduledExecutorService scheduler;
+    private final boolean ownsScheduler;
+    private final AtomicBoolean reconnecting = new AtomicBoolean();
+    private volatile boolean stopped;
+    private volatile long lostAtNanos;
+    private volatile SdkMetrics metrics = SdkMetrics.NOOP;
+
+    private final LatencyHistogram outages = new LatencyHistogram();
+    private final LongAdder connectionLosses = new LongAdder();
+    private final LongAdder attempts = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+    private final LongAdder abandoned = new LongAdder();
+
+    /**
+     * @param clientId 客户端ID，用于日志和指标
+     * @param attempt 单次重连动作
+     * @param options 重连参数
+     */
+    ReconnectSupervisor(String clientId, Attempt attempt, Options options) {
+        this.clientId = clientId;
+        this.attempt = attempt;
+        this.initialDelayMillis = options.initialDelayMillis;
+        this.maxDelayMillis = options.maxDelayMillis;
+        this.maxAttempts = options.maxAttempts;
+        this.ownsScheduler = options.scheduler == null;
+        this.scheduler = ownsScheduler
+                ? Executors.newSingleThreadScheduledExecutor(SdkExecutors.daemonThreadFactory("tp-mqtt-reconnect"))
+                : options.scheduler;
+    }
+
+    void setMetrics(SdkMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * 传输层报告连接断开，已在重连中时忽略
+     */
+    void connectionLost(Throwable cause) {
+        if (stopped || !reconnecting.compareAndSet(false, true)) {
+            return;
+        }
+        connectionLosses.increment();
+        lostAtNanos = System.nanoTime();
+        logger.log(Level.WARNING, "MQTT连接断开，开始自动重连 - 客户端: " + clientId, cause);
+        schedule(0);
+    }
+
+    /**
+     * 停止重连，进行中的尝试完成后不再调度；自建的调度线程随之关闭
+     */
+    void stop() {
+        stopped = true;
+        if (ownsScheduler) {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * 当前是否处于断开后的重连过程中
+     */
+    public boolean isReconnecting() {
+        return reconnecting.get();
+    }
+
+    public Stats getStats() {
+        return new Stats(connectionLosses.sum(), attempts.sum(), reconnects.sum(), abandoned.sum(), outages.snapshot());
+    }
+
+    private void schedule(int retry) {
+        try {
+            scheduler.schedule(() -> run(retry), delayMillis(retry), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            reconnecting.set(false);
+        }
+    }
+
+    private void run(int retry) {
+        if (stopped) {
+            reconnecting.set(false);
+            return;
+        }
+        attempts.increment();
+        boolean success;
+        try {
+            success = attempt.reconnect();
+        } catch (Exception e) {
+            success = false;
+            if (logger.isLoggable(Level.FINE)) {
+                logger.log(Level.FINE, "MQTT重连失败 - 客户端: " + clientId + ", 第" + (retry + 1) + "次", e);
+            }
+        }
+        if (success) {
+            long outageNanos = System.nanoTime() - lostAtNanos;
+            outages.record(outageNanos);
+            reconnects.increment();
+            reconnecting.set(false);
+            metrics.reconnected(clientId, outageNanos, retry + 1);
+            logger.info("MQTT重连成功 - 客户端: " + clientId + ", 尝试次数: " + (retry + 1)
+                    + ", 断线时长: " + TimeUnit.NANOSECONDS.toMillis(outageNanos) + "ms");
+            return;
+        }
+        if (maxAttempts > 0 && retry + 1 >= maxAttempts) {
+            abandoned.increment();
+            reconnecting.set(false);
+            logger.severe("MQTT重连次数已达上限，停止重连 - 客户端: " + clientId);
+            return;
+        }
+        schedule(retry + 1);
+    }
+
+    /**
+     * 全抖动：在0到min(上限, 初始间隔*2^重试次数)之间随机
+     */
+    private long delayMillis(int retry) {
+        long ceiling = Math.min(maxDelayMillis, initialDelayMillis << Math.min(retry, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * 单次重连动作
+     */
+    @FunctionalInterface
+    interface Attempt {
+        /**
+         * @return 是否已恢复连接（客户端已被主动断开时也返回true以结束重连）
+         */
+        boolean reconnect() throws Exception;
+    }
+
+    /**
+     * 重连统计快照
+     */
+    public static class Stats {
+        private final long connectionLosses;
+        private final long attempts;
+        private final long reconnects;
+        private final long abandoned;
+        private final LatencyHistogram.Snapshot outage;
+
+        public Stats(long connectionLosses, long attempts, long reconnects, long abandoned, LatencyHistogram.Snapshot outage) {
+            this.connectionLosses = connectionLosses;
+            this.attempts = attempts;
+            this.reconnects = reconnects;
+            this.abandoned = abandoned;
+            this.outage = outage;
+        }
+
+        /**
+         * 传输层报告的连接断开次数
+         */
+        public long getConnectionLosses() {
+            return connectionLosses;
+        }
+
+        public long getAttempts() {
+            return attempts;
+        }
+
+        public long getReconnects() {
+            return reconnects;
+        }
+
+        /**
+         * 达到最大尝试次数后放弃的次数
+         */
+        public long getAbandoned() {
+            return abandoned;
+        }
+
+        /**
+         * 从检测到断开到重连完成的耗时分布
+         */
+        public LatencyHistogram.Snapshot getOutage() {
+            return outage;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "connectionLosses=" + connectionLosses +
+                    ", attempts=" + attempts +
+                    ", reconnects=" + reconnects +
+                    ", abandoned=" + abandoned +
+                    ", outage=" + outage +
+                    '}';
+        }
+    }
+
+    /**
+     * 重连参数
+     */
+    public static class Options {
+        private long initialDelayMillis = 500;
+        private long maxDelayMillis = 30_000;
+        private int maxAttempts = 0;
+        private boolean cleanSession = false;
+        private int subscribeBatchSize = 32;
+        private ScheduledExecutorService scheduler;
+
+        /**
+         * 初始重连间隔（毫秒），第n次重试的等待上限为 初始间隔*2^n
+         */
+        public Options setInitialDelayMillis(long initialDelayMillis) {
+            if (initialDelayMillis <= 0) {
+                throw new IllegalArgumentException("initialDelayMillis必须大于0");
+            }
+            this.initialDelayMillis = initialDelayMillis;
+            return this;
+        }
+
+        /**
+         * 单次重连等待上限（毫秒）
+         */
+        public Options setMaxDelayMillis(long maxDelayMillis) {
+            if (maxDelayMillis <= 0) {
+                throw new IllegalArgumentException("maxDelayMillis必须大于0");
+            }
+            this.maxDelayMillis = maxDelayMillis;
+            return this;
+        }
+
+        /**
+         * 单次断线的最大重连尝试次数，0表示不限
+         */
+        public Options setMaxAttempts(int maxAttempts) {
+            if (maxAttempts < 0) {
+                throw new IllegalArgumentException("maxAttempts不能小于0");
+            }
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * 是否使用清除会话，默认false：代理保留订阅和未确认的QoS 1/2消息，
+         * 重连后Paho客户端重发会话中未完成的发布；需保证客户端ID固定
+         */
+        public Options setCleanSession(boolean cleanSession) {
+            this.cleanSession = cleanSession;
+            return this;
+        }
+
+        /**
+         * 重连后恢复订阅时每个SUBSCRIBE报文包含的主题数
+         */
+        public Options setSubscribeBatchSize(int subscribeBatchSize) {
+            if (subscribeBatchSize <= 0) {
+                throw new IllegalArgumentException("subscribeBatchSize必须大于0");
+            }
+            this.subscribeBatchSize = subscribeBatchSize;
+            return this;
+        }
+
+        /**
+         * 共享的调度线程池，大量客户端可共用以免每个客户端一个重连线程；由调用方关闭
+         */
+        public Options setScheduler(ScheduledExecutorService scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        public boolean isCleanSession() {
+            return cleanSession;
+        }
+
+        public int getSubscribeBatchSize() {
+            return subscribeBatchSize;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.thingspanel.sdk;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SDK内部线程池工具
+ * SDK以Java 11为编译目标，运行在Java 21+时通过反射使用虚拟线程，否则退化为有界平台线程池
+ */
+final class SdkExecutors {
+
+    private SdkExecutors() {}
+
+    /**
+     * 创建任务执行器：优先每任务一个虚拟线程，不可用时使用固定大小的守护线程池
+     * @param namePrefix 平台线程名前缀
+     * @param fallbackThreads 平台线程池大小
+     */
+    static ExecutorService newTaskExecutor(String namePrefix, int fallbackThreads) {
+        ExecutorService virtual = newVirtualThreadExecutor();
+        if (virtual != null) {
+            return virtual;
+        }
+        return Executors.newFixedThreadPool(fallbackThreads, daemonThreadFactory(namePrefix));
+    }
+
+    /**
+     * 当前运行时是否支持虚拟线程
+     */
+    static boolean virtualThreadsAvailable() {
+        ExecutorService probe = newVirtualThreadExecutor();
+        if (probe == null) {
+            return false;
+        }
+        probe.shutdown();
+        return true;
+    }
+
+    /**
+     * 创建命名的守护线程工厂
+     */
+    static ThreadFactory daemonThreadFactory(String namePrefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.thingspanel.sdk;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * SDK指标接口
+ * 方法均有空的默认实现，热路径上只传递基本类型，实现类应避免在回调中分配对象或加锁。
+ * 默认使用{@link #NOOP}，接入Micrometer可使用{@link MicrometerMetrics}。
+ */
+public interface SdkMetrics {
+
+    /** 不记录任何指标 */
+    SdkMetrics NOOP = new SdkMetrics() {
+    };
+
+    /**
+     * MQTT消息已提交发布（直接发布、进入批量队列或写入离线发件箱）
+     * @param bytes 消息字节数
+     */
+    default void publish(int bytes) {
+    }
+
+    /**
+     * MQTT消息发布失败或被丢弃
+     */
+    default void publishFailed() {
+    }
+
+    /**
+     * 平台API调用完成
+     * @param endpoint 接口路径
+     * @param nanos 耗时（纳秒）
+     * @param success 是否成功
+     */
+    default void apiCall(String endpoint, long nanos, boolean success) {
+    }
+
+    /**
+     * HTTP回调请求处理完成
+     * @param path 回调路径
+     * @param status 响应状态码
+     * @param nanos 从请求进入服务器到响应写出的耗时（纳秒）
+     */
+    default void callbackHandled(String path, int status, long nanos) {
+    }
+
+    /**
+     * MQTT连接状态变化
+     * @param clientId 客户端ID
+     * @param connected 变化后是否已连接
+     */
+    default void connectionStateChanged(String clientId, boolean connected) {
+    }
+
+    /**
+     * MQTT连接断开后自动重连成功
+     * @param clientId 客户端ID
+     * @param outageNanos 从检测到断开到重连完成（含订阅恢复）的耗时（纳秒）
+     * @param attempts 本次恢复用去的连接尝试次数
+     */
+    default void reconnected(String clientId, long outageNanos, int attempts) {
+    }
+
+    /**
+     * 注册瞬时值指标（如队列深度），由实现在采集时读取
+     * @param name 指标名
+     * @param clientId 客户端ID
+     * @param value 取值函数
+     */
+    default void gauge(String name, String clientId, DoubleSupplier value) {
+    }
+
+    /**
+     * 注销客户端注册的全部瞬时值指标，客户端断开时调用
+     * 实现应释放对取值函数的引用，取值函数会持有客户端本身
+     * @param clientId 客户端ID
+     */
+    default void removeGauges(String clientId) {
+    }
+}
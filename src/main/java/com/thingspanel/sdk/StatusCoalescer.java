@@ -0,0 +1,306 @@
+package com.thingspanel.sdk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 设备状态最新值合并
+ * 每台设备在并发槽位表中占一个槽位，状态更新只覆盖槽位中待发送的值；刷新线程每个窗口把有待发送值的槽位
+ * 各发出一次。设备在网络抖动时一秒内上下线几十次，代理在每个窗口内最多收到该设备的一条状态，且总是最后的状态。
+ * 有待发送值的槽位同时排在一个无锁队列中，刷新只遍历本窗口内有更新的设备，不扫描整张表。
+ * 发出后又空闲了一个完整窗口的槽位被移除，槽位表只保留近期活跃的设备，不会长期持有已下线设备的主题句柄。
+ *
+ * 用法：
+ * <pre>
+ * StatusCoalescer coalescer = new StatusCoalescer(client::sendStatus, new StatusCoalescer.Options().setWindowMillis(200));
+ * coalescer.update(client.deviceTopics("my-service", "device-001"), "1".getBytes(StandardCharsets.UTF_8));
+ * </pre>
+ * 也可通过{@link TPClient#enableStatusCoalescing}让sendStatus直接使用合并模式。
+ */
+public class StatusCoalescer implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(StatusCoalescer.class.getName());
+    /** 槽位已被移除的标记，按引用比较 */
+    private static final byte[] RETIRED = new byte[0];
+
+    private final Sink sink;
+    private final ConcurrentHashMap<String, Slot> slots = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Slot> dirty = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger dirtyCount = new AtomicInteger();
+    /** 上一轮刷新发出的槽位，本轮开始时仍无新值则移除；只在flushLock内访问 */
+    private List<Slot> flushed = new ArrayList<>();
+    private final ScheduledExecutorService flusher;
+    private final boolean ownsFlusher;
+    private final ScheduledFuture<?> task;
+    private final Object flushLock = new Object();
+    private volatile boolean running = true;
+
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * @param sink 合并后状态的发布端，例如{@code client::sendStatus}或{@code pool::sendStatus}
+     * @param options 合并参数
+     */
+    public StatusCoalescer(Sink sink, Options options) {
+        if (sink == null) {
+            throw new IllegalArgumentException("发布端不能为空");
+        }
+        this.sink = sink;
+        this.ownsFlusher = options.scheduler == null;
+        this.flusher = ownsFlusher
+                ? Executors.newSingleThreadScheduledExecutor(SdkExecutors.daemonThreadFactory("tp-status-flush"))
+                : options.scheduler;
+        this.task = flusher.scheduleAtFixedRate(this::flushQuietly, options.windowMillis, options.windowMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 更新设备状态，覆盖该设备在当前窗口内尚未发送的状态
+     * @param device 设备主题句柄
+     * @param status 已编码的状态值，发送前调用方不应修改
+     */
+    public void update(DeviceTopics device, byte[] status) {
+        if (!running) {
+            throw new IllegalStateException("状态合并器已关闭");
+        }
+        if (status == null) {
+            throw new IllegalArgumentException("状态不能为空");
+        }
+        String topic = device.getStatusTopic();
+        Slot slot = slots.get(topic);
+        byte[] previous;
+        while (true) {
+            if (slot == null) {
+                slot = slots.computeIfAbsent(topic, key -> new Slot(device));
+            }
+            previous = slot.pending.get();
+            if (previous == RETIRED) {
+                // 槽位正因空闲被移除，协助移除后换用新槽位
+                slots.remove(topic, slot);
+                slot = null;
+                continue;
+            }
+            if (slot.pending.compareAndSet(previous, status)) {
+                break;
+            }
+        }
+        updates.increment();
+        // 槽位从空变为有值的一方负责入队，队列中每个槽位至多出现一次
+        if (previous == null) {
+            dirty.offer(slot);
+            dirtyCount.incrementAndGet();
+        } else {
+            coalesced.increment();
+        }
+    }
+
+    /**
+     * 立即发出所有待发送的状态
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            retireIdle();
+            // 只处理刷新开始时已入队的槽位，本轮发出后再次更新的槽位排在队尾，留到下一个窗口
+            int count = dirtyCount.get();
+            for (int i = 0; i < count; i++) {
+                Slot slot = dirty.poll();
+                if (slot == null) {
+                    break;
+                }
+                dirtyCount.decrementAndGet();
+                byte[] status = slot.pending.getAndSet(null);
+                if (status == null) {
+                    continue;
+                }
+                flushed.add(slot);
+                try {
+                    sink.publish(slot.device, status);
+                    sent.increment();
+                } catch (RuntimeException e) {
+                    failed.increment();
+                    logger.log(Level.WARNING, "设备状态发布失败 - 设备: " + slot.device.getDeviceId(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 发出剩余状态并停止定时刷新；自建的刷新线程随之关闭
+     */
+    @Override
+    public void close() {
+        running = false;
+        task.cancel(false);
+        if (ownsFlusher) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    public Stats getStats() {
+        return new Stats(slots.size(), updates.sum(), coalesced.sum(), sent.sum(), failed.sum(), dirtyCount.get());
+    }
+
+    /**
+     * 移除上一轮发出后一直没有新值的槽位；持flushLock调用
+     */
+    private void retireIdle() {
+        if (flushed.isEmpty()) {
+            return;
+        }
+        List<Slot> previous = flushed;
+        flushed = new ArrayList<>(previous.size());
+        for (Slot slot : previous) {
+            // 槽位不在待发送队列中时才可能为空，标记后更新方不会再写入该槽位
+            if (slot.pending.compareAndSet(null, RETIRED)) {
+                slots.remove(slot.device.getStatusTopic(), slot);
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "设备状态刷新失败", e);
+        }
+    }
+
+    /**
+     * 单台设备的槽位
+     */
+    private static final class Slot {
+        final DeviceTopics device;
+        final AtomicReference<byte[]> pending = new AtomicReference<>();
+
+        Slot(DeviceTopics device) {
+            this.device = device;
+        }
+    }
+
+    /**
+     * 合并后状态的发布端
+     */
+    @FunctionalInterface
+    public interface Sink {
+        void publish(DeviceTopics device, byte[] status);
+    }
+
+    /**
+     * 合并统计快照
+     */
+    public static class Stats {
+        private final int devices;
+        private final long updates;
+        private final long coalesced;
+        private final long sent;
+        private final long failed;
+        private final int pending;
+
+        public Stats(int devices, long updates, long coalesced, long sent, long failed, int pending) {
+            this.devices = devices;
+            this.updates = updates;
+            this.coalesced = coalesced;
+            this.sent = sent;
+            this.failed = failed;
+            this.pending = pending;
+        }
+
+        /**
+         * 当前持有槽位（近期有状态更新）的设备数
+         */
+        public int getDevices() {
+            return devices;
+        }
+
+        public long getUpdates() {
+            return updates;
+        }
+
+        /**
+         * 被同一窗口内更新的状态覆盖而未发送的次数
+         */
+        public long getCoalesced() {
+            return coalesced;
+        }
+
+        public long getSent() {
+            return sent;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        /**
+         * 等待下一个窗口发送的设备数
+         */
+        public int getPending() {
+            return pending;
+        }
+
+        /**
+         * 合并比：状态更新数/实际发送数
+         */
+        public double getCoalescingRatio() {
+            return sent == 0 ? 0 : (double) updates / sent;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "devices=" + devices +
+                    ", updates=" + updates +
+                    ", coalesced=" + coalesced +
+                    ", sent=" + sent +
+                    ", failed=" + failed +
+                    ", pending=" + pending +
+                    '}';
+        }
+    }
+
+    /**
+     * 合并参数
+     */
+    public static class Options {
+        private long windowMillis = 100;
+        private ScheduledExecutorService scheduler;
+
+        /**
+         * 合并窗口（毫秒），状态最多延迟一个窗口发出
+         */
+        public Options setWindowMillis(long windowMillis) {
+            if (windowMillis <= 0) {
+                throw new IllegalArgumentException("windowMillis必须大于0");
+            }
+            this.windowMillis = windowMillis;
+            return this;
+        }
+
+        /**
+         * 共享的调度线程池，大量客户端可共用；由调用方关闭
+         */
+        public Options setScheduler(ScheduledExecutorService scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+    }
+}
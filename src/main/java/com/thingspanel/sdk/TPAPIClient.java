@@ -1,169 +1,294 @@
 package com.thingspanel.sdk;
 
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
+import java.io.IOException;
 import java.net.URI;
-import java.time.Duration;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.LongConsumer;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
 /**
  * ThingsPanel HTTP API客户端
+ * 每个接口同时提供同步方法和返回CompletableFuture的*Async方法，
+ * 异步方法基于{@link HttpTransport#postAsync}，不为每个请求占用线程；
+ * 未指定传输层时所有实例共享{@link JdkHttpTransport#shared()}的HTTP/2连接
  */
 public class TPAPIClient {
     private static final Logger logger = Logger.getLogger(TPAPIClient.class.getName());
+
+    /** 默认最大并发异步请求数 */
+    public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 256;
     
     private String baseURL;
-    private HttpClient httpClient;
+    private final HttpTransport transport;
+    private final AsyncLimiter limiter;
+    private volatile ApiResilience resilience;
+    private volatile SdkMetrics metrics = SdkMetrics.NOOP;
 
     public TPAPIClient(String baseURL) {
+        this(baseURL, JdkHttpTransport.shared(), DEFAULT_MAX_CONCURRENT_REQUESTS);
+    }
+
+    /**
+     * @param baseURL API服务器地址
+     * @param executor HttpClient使用的执行器，为null时使用默认执行器
+     * @param maxConcurrentRequests 最大并发异步请求数，超出部分排队等待
+     */
+    public TPAPIClient(String baseURL, Executor executor, int maxConcurrentRequests) {
+        this(baseURL, new JdkHttpTransport(new JdkHttpTransport.Options().setExecutor(executor)), maxConcurrentRequests);
+    }
+
+    /**
+     * 使用指定的HTTP传输层，同一传输层可被多个客户端共享
+     * @param baseURL API服务器地址
+     * @param transport HTTP传输层
+     * @param maxConcurrentRequests 最大并发异步请求数，超出部分排队等待
+     */
+    public TPAPIClient(String baseURL, HttpTransport transport, int maxConcurrentRequests) {
+        if (transport == null) {
+            throw new IllegalArgumentException("HTTP传输层不能为空");
+        }
         this.baseURL = baseURL.endsWith("/") ? baseURL.substring(0, baseURL.length() - 1) : baseURL;
-        this.httpClient = HttpClient.newBuilder()
-                .connectTimeout(Duration.ofSeconds(10))
-                .build();
+        this.transport = transport;
+        this.limiter = new AsyncLimiter(maxConcurrentRequests);
+    }
+
+    /**
+     * 启用容错层：熔断、幂等调用（获取设备配置、获取服务接入点）的退避重试及可选的对冲请求
+     * @param options 容错参数
+     * @return 当前客户端实例
+     */
+    public TPAPIClient enableResilience(ApiResilience.Options options) {
+        this.resilience = new ApiResilience(options, limiter::getQueued);
+        return this;
+    }
+
+    /**
+     * 设置指标实现，按接口记录每次请求的耗时和结果
+     * @param metrics 指标实现，默认不记录
+     * @return 当前客户端实例
+     */
+    public TPAPIClient setMetrics(SdkMetrics metrics) {
+        this.metrics = metrics == null ? SdkMetrics.NOOP : metrics;
+        return this;
+    }
+
+    /**
+     * 获取容错层，可查看熔断器状态和重试统计；未启用时为null
+     */
+    public ApiResilience getResilience() {
+        return resilience;
     }
 
     /**
      * 获取设备配置
      */
     public APIResponse<Device> getDeviceConfig(DeviceConfigRequest request) {
-        try {
-            String url = baseURL + "/api/v1/plugin/device/config";
-            String jsonBody = String.format(
-                "{\"device_id\":\"%s\",\"voucher\":\"%s\",\"device_number\":\"%s\"}",
-                request.deviceId, request.voucher, request.deviceNumber
-            );
-
-            HttpRequest httpRequest = HttpRequest.newBuilder()
-                    .uri(URI.create(url))
-                    .header("Content-Type", "application/json")
-                    .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
-                    .build();
-
-            HttpResponse<String> response = httpClient.send(httpRequest, HttpResponse.BodyHandlers.ofString());
-            
-            logger.info("获取设备配置响应: " + response.body());
-            
-            // 简化的JSON解析，实际应使用Jackson或Gson
-            Device device = parseDeviceFromJson(response.body());
-            
-            return new APIResponse<>(response.statusCode() == 200, response.body(), device);
-        } catch (Exception e) {
-            logger.log(Level.SEVERE, "获取设备配置失败", e);
-            return new APIResponse<>(false, e.getMessage(), null);
-        }
+        return execute(deviceConfigCall(request));
+    }
+
+    /**
+     * 异步获取设备配置
+     */
+    public CompletableFuture<APIResponse<Device>> getDeviceConfigAsync(DeviceConfigRequest request) {
+        return executeAsync(deviceConfigCall(request));
+    }
+
+    private Call<Device> deviceConfigCall(DeviceConfigRequest request) {
+        byte[] body = JsonCodec.writeObject(
+            "device_id", request.deviceId,
+            "voucher", request.voucher,
+            "device_number", request.deviceNumber
+        );
+        return new Call<>("/api/v1/plugin/device/config", body, "获取设备配置", JsonCodec::readDevice, null, true);
     }
 
     /**
      * 设备动态认证
      */
     public APIResponse<Map<String, String>> deviceDynamicAuth(DeviceDynamicAuthRequest request) {
-        try {
-            String url = baseURL + "/api/v1/device/auth";
-            String jsonBody = String.format(
-                "{\"template_secret\":\"%s\",\"device_number\":\"%s\"}",
-                request.templateSecret, request.deviceNumber
-            );
-
-            HttpRequest httpRequest = HttpRequest.newBuilder()
-                    .uri(URI.create(url))
-                    .header("Content-Type", "application/json")
-                    .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
-                    .build();
-
-            HttpResponse<String> response = httpClient.send(httpRequest, HttpResponse.BodyHandlers.ofString());
-            
-            logger.info("设备动态认证响应: " + response.body());
-            
-            // 简化的JSON解析
-            Map<String, String> result = parseMapFromJson(response.body());
-            
-            return new APIResponse<>(response.statusCode() == 200, response.body(), result);
-        } catch (Exception e) {
-            logger.log(Level.SEVERE, "设备动态认证失败", e);
-            return new APIResponse<>(false, e.getMessage(), null);
-        }
+        return execute(deviceDynamicAuthCall(request));
+    }
+
+    /**
+     * 异步设备动态认证
+     */
+    public CompletableFuture<APIResponse<Map<String, String>>> deviceDynamicAuthAsync(DeviceDynamicAuthRequest request) {
+        return executeAsync(deviceDynamicAuthCall(request));
+    }
+
+    private Call<Map<String, String>> deviceDynamicAuthCall(DeviceDynamicAuthRequest request) {
+        byte[] body = JsonCodec.writeObject(
+            "template_secret", request.templateSecret,
+            "device_number", request.deviceNumber
+        );
+        return new Call<>("/api/v1/device/auth", body, "设备动态认证", JsonCodec::readStringMap, null, false);
     }
 
     /**
      * 获取服务接入点
      */
     public APIResponse<Map<String, Object>> getServiceAccess(ServiceAccessRequest request) {
-        try {
-            String url = baseURL + "/api/v1/plugin/service/access";
-            String jsonBody = String.format(
-                "{\"service_identifier\":\"%s\"}",
-                request.serviceIdentifier
-            );
-
-            HttpRequest httpRequest = HttpRequest.newBuilder()
-                    .uri(URI.create(url))
-                    .header("Content-Type", "application/json")
-                    .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
-                    .build();
-
-            HttpResponse<String> response = httpClient.send(httpRequest, HttpResponse.BodyHandlers.ofString());
-            
-            logger.info("获取服务接入点响应: " + response.body());
-            
-            // 简化的JSON解析
-            Map<String, Object> result = parseObjectMapFromJson(response.body());
-            
-            return new APIResponse<>(response.statusCode() == 200, response.body(), result);
-        } catch (Exception e) {
-            logger.log(Level.SEVERE, "获取服务接入点失败", e);
-            return new APIResponse<>(false, e.getMessage(), null);
-        }
+        return execute(serviceAccessCall(request));
+    }
+
+    /**
+     * 异步获取服务接入点
+     */
+    public CompletableFuture<APIResponse<Map<String, Object>>> getServiceAccessAsync(ServiceAccessRequest request) {
+        return executeAsync(serviceAccessCall(request));
+    }
+
+    private Call<Map<String, Object>> serviceAccessCall(ServiceAccessRequest request) {
+        byte[] body = JsonCodec.writeObject("service_identifier", request.serviceIdentifier);
+        return new Call<>("/api/v1/plugin/service/access", body, "获取服务接入点", JsonCodec::readObjectMap, null, true);
     }
 
     /**
      * 发送心跳
      */
     public APIResponse<String> sendHeartbeat(HeartbeatRequest request) {
+        return execute(heartbeatCall(request));
+    }
+
+    /**
+     * 异步发送心跳
+     */
+    public CompletableFuture<APIResponse<String>> sendHeartbeatAsync(HeartbeatRequest request) {
+        return executeAsync(heartbeatCall(request));
+    }
+
+    private Call<String> heartbeatCall(HeartbeatRequest request) {
+        byte[] body = JsonCodec.writeObject("service_identifier", request.serviceIdentifier);
+        return new Call<>("/api/v1/plugin/heartbeat", body, "发送心跳", parser -> {
+            parser.skipChildren();
+            return "success";
+        }, "success", false);
+    }
+
+    /**
+     * 当前正在执行的异步请求数
+     */
+    public int getActiveAsyncRequests() {
+        return limiter.getActive();
+    }
+
+    /**
+     * 当前排队等待的异步请求数
+     */
+    public int getQueuedAsyncRequests() {
+        return limiter.getQueued();
+    }
+
+    /**
+     * 获取HTTP传输层
+     */
+    public HttpTransport getTransport() {
+        return transport;
+    }
+
+    private <T> APIResponse<T> execute(Call<T> call) {
+        ApiResilience current = resilience;
+        if (current != null) {
+            return current.execute(call.idempotent, () -> executeOnce(call));
+        }
+        return executeOnce(call);
+    }
+
+    private <T> CompletableFuture<APIResponse<T>> executeAsync(Call<T> call) {
+        ApiResilience current = resilience;
+        if (current != null) {
+            return current.executeAsync(call.idempotent, sent -> executeOnceAsync(call, sent));
+        }
+        return executeOnceAsync(call, null);
+    }
+
+    private <T> APIResponse<T> executeOnce(Call<T> call) {
+        long start = System.nanoTime();
+        APIResponse<T> response;
         try {
-            String url = baseURL + "/api/v1/plugin/heartbeat";
-            String jsonBody = String.format(
-                "{\"service_identifier\":\"%s\"}",
-                request.serviceIdentifier
-            );
-
-            HttpRequest httpRequest = HttpRequest.newBuilder()
-                    .uri(URI.create(url))
-                    .header("Content-Type", "application/json")
-                    .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
-                    .build();
-
-            HttpResponse<String> response = httpClient.send(httpRequest, HttpResponse.BodyHandlers.ofString());
-            
-            logger.info("发送心跳响应: " + response.body());
-            
-            return new APIResponse<>(response.statusCode() == 200, response.body(), "success");
+            response = transport.post(call.uri(), call.body, call::decode);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.log(Level.SEVERE, call.description + "失败", e);
+            response = new APIResponse<>(false, e.getMessage(), null);
         } catch (Exception e) {
-            logger.log(Level.SEVERE, "发送心跳失败", e);
-            return new APIResponse<>(false, e.getMessage(), null);
+            logger.log(Level.SEVERE, call.description + "失败", e);
+            response = new APIResponse<>(false, e.getMessage(), null);
         }
+        metrics.apiCall(call.path, System.nanoTime() - start, response.isSuccess());
+        return response;
     }
 
-    // 简化的JSON解析方法（实际应使用专业的JSON库）
-    private Device parseDeviceFromJson(String json) {
-        Device device = new Device();
-        // 这里应该使用真正的JSON解析库
-        // 当前是模拟实现
-        device.setDeviceId("parsed-device-id");
-        device.setVoucher("parsed-voucher");
-        return device;
+    /**
+     * @param sent 请求真正发出时回调发出时刻，可为null
+     */
+    private <T> CompletableFuture<APIResponse<T>> executeOnceAsync(Call<T> call, LongConsumer sent) {
+        // 耗时从请求真正发出时算起，不包含在限流器中排队的时间
+        long[] start = new long[1];
+        return limiter.submit(() -> {
+                    start[0] = System.nanoTime();
+                    if (sent != null) {
+                        sent.accept(start[0]);
+                    }
+                    return transport.postAsync(call.uri(), call.body, call::decode);
+                })
+                .handle((response, error) -> {
+                    if (error != null) {
+                        logger.log(Level.SEVERE, call.description + "失败", error);
+                        response = new APIResponse<>(false, error.getMessage(), null);
+                    }
+                    long nanos = start[0] == 0 ? 0 : System.nanoTime() - start[0];
+                    metrics.apiCall(call.path, nanos, response.isSuccess());
+                    return response;
+                });
     }
 
-    private Map<String, String> parseMapFromJson(String json) {
-        // 简化实现，实际应使用JSON库
-        return new java.util.HashMap<>();
-    }
+    /**
+     * 单次API调用的描述：路径、请求体及响应data字段的读取方式
+     */
+    private final class Call<T> {
+        final String path;
+        final byte[] body;
+        final String description;
+        final JsonCodec.DataReader<T> dataReader;
+        final T defaultData;
+        final boolean idempotent;
+
+        /**
+         * @param defaultData 调用成功但响应中没有data字段时返回的数据
+         * @param idempotent 是否幂等，只有幂等调用会被重试和对冲
+         */
+        Call(String path, byte[] body, String description, JsonCodec.DataReader<T> dataReader, T defaultData, boolean idempotent) {
+            this.path = path;
+            this.body = body;
+            this.description = description;
+            this.dataReader = dataReader;
+            this.defaultData = defaultData;
+            this.idempotent = idempotent;
+        }
+
+        URI uri() {
+            return URI.create(baseURL + path);
+        }
 
-    private Map<String, Object> parseObjectMapFromJson(String json) {
-        // 简化实现，实际应使用JSON库
-        return new java.util.HashMap<>();
+        APIResponse<T> decode(int statusCode, byte[] bytes) {
+            try {
+                JsonCodec.Result<T> result = JsonCodec.readResponse(bytes, dataReader);
+                boolean success = statusCode == 200 && result.isSuccessCode();
+                T data = result.getData() == null && success ? defaultData : result.getData();
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine(description + "响应: HTTP " + statusCode + ", code=" + result.getCode()
+                            + ", message=" + result.getMessage());
+                }
+                return new APIResponse<>(success, result.getMessage(), data, statusCode);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, description + "响应解析失败，HTTP " + statusCode, e);
+                return new APIResponse<>(false, "HTTP " + statusCode + ": " + e.getMessage(), null, statusCode);
+            }
+        }
     }
 
     // 请求类
@@ -191,11 +316,20 @@ public class TPAPIClient {
         private boolean success;
         private String message;
         private T data;
+        private int statusCode;
 
         public APIResponse(boolean success, String message, T data) {
+            this(success, message, data, 0);
+        }
+
+        /**
+         * @param statusCode HTTP状态码，未收到响应时为0
+         */
+        public APIResponse(boolean success, String message, T data, int statusCode) {
             this.success = success;
             this.message = message;
             this.data = data;
+            this.statusCode = statusCode;
         }
 
         public boolean isSuccess() {
@@ -210,6 +344,13 @@ public class TPAPIClient {
             return data;
         }
 
+        /**
+         * HTTP状态码，请求未收到响应（网络异常、超时、熔断）时为0
+         */
+        public int getStatusCode() {
+            return statusCode;
+        }
+
         @Override
         public String toString() {
             return "APIResponse{" +
@@ -1,5 +1,20 @@
 package com.thingspanel.sdk;
 
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
@@ -9,16 +24,79 @@ import java.util.logging.Level;
  */
 public class TPClient {
     private static final Logger logger = Logger.getLogger(TPClient.class.getName());
+
+    private static final int DEFAULT_QOS = 1;
+    private static final long PUBLISHER_CLOSE_TIMEOUT_MS = 10_000;
+    private static final int TOKEN_POOL_SIZE = 4096;
+    private static final int DEFAULT_MAX_IN_FLIGHT = 1000;
+    private static final long DROP_WARNING_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
     
     private String mqttBroker;
     private String clientId;
     private String username;
     private String password;
-    private boolean connected = false;
+    private volatile boolean connected = false;
+
+    // MQTT传输与发布
+    private MqttTransport transport;
+    private BatchingPublisher.Options batchingOptions;
+    private BatchingPublisher publisher;
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private volatile InFlightWindow inFlightWindow;
+    private final TopicRegistry topicRegistry = new TopicRegistry();
+    private volatile SdkMetrics metrics = SdkMetrics.NOOP;
+    private boolean gaugesRegistered;
+    private OfflineOutbox offlineOutbox;
+    private MessageDispatcher messageDispatcher;
+    private OutboundScheduler.Options schedulerOptions;
+    private volatile OutboundScheduler scheduler;
+    private StatusCoalescer.Options coalescingOptions;
+    private volatile StatusCoalescer statusCoalescer;
+    private ReconnectSupervisor.Options reconnectOptions;
+    private volatile ReconnectSupervisor reconnector;
+    private final Set<String> subscriptions = ConcurrentHashMap.newKeySet();
+    private final LongAdder acceptedMessages = new LongAdder();
+    private final LongAdder rejectedMessages = new LongAdder();
+    // 队列满时每秒最多输出一条WARNING，其余丢弃只累计条数
+    private final LongAdder droppedSinceWarning = new LongAdder();
+    private final AtomicLong lastDropWarningAt = new AtomicLong(System.nanoTime() - DROP_WARNING_INTERVAL_NANOS);
+    private final MqttTransport.PublishCallback directPublishCallback = error -> {
+        if (error != null) {
+            metrics.publishFailed();
+            logger.log(Level.WARNING, "MQTT发布失败", error);
+        }
+    };
+    // 带句柄的发布由调用方处理失败，这里只计数
+    private final PublishToken.Pool tokens = new PublishToken.Pool(TOKEN_POOL_SIZE, error -> {
+        if (error != null) {
+            metrics.publishFailed();
+            if (logger.isLoggable(Level.FINE)) {
+                logger.log(Level.FINE, "MQTT发布失败", error);
+            }
+        }
+    });
+    // 启用离线发件箱时，发出后失败或断开时未发出、未确认的消息转入发件箱
+    private final MqttTransport.UndeliveredHandler undeliveredHandler = this::spillToOutbox;
+    // 网关扇出以默认QoS发布到各设备的数据主题
+    private final BiConsumer<DeviceTopics, byte[]> gatewaySink =
+            (device, payload) -> submit(device, OutboundScheduler.Lane.TELEMETRY, device.getDataTopic(), payload, DEFAULT_QOS, false, null);
+    private final OutboundScheduler.Sink schedulerSink = new OutboundScheduler.Sink() {
+        @Override
+        public void dispatch(String topic, byte[] payload, int qos, boolean retained, PublishToken token) {
+            TPClient.this.dispatch(topic, payload, qos, retained, token);
+        }
+
+        @Override
+        public void dropped(PublishToken token, Throwable reason) {
+            fail(token, reason);
+        }
+    };
     
     // API客户端
     private TPAPIClient apiClient;
     private String serviceIdentifier;
+    private DeviceConfigCache deviceConfigCache;
+    private HeartbeatScheduler heartbeatScheduler;
 
     /**
      * 创建MQTT客户端
@@ -40,6 +118,17 @@ public class TPClient {
         this.apiClient = new TPAPIClient(apiBaseURL);
     }
 
+    /**
+     * 使用已配置的API客户端创建完整客户端，多个TPClient可共享同一个TPAPIClient
+     * @param mqttBroker MQTT服务器地址
+     * @param apiClient API客户端
+     */
+    public TPClient(String mqttBroker, TPAPIClient apiClient) {
+        this.mqttBroker = mqttBroker;
+        this.clientId = "tp-client-" + System.currentTimeMillis();
+        this.apiClient = apiClient;
+    }
+
     /**
      * 设置MQTT认证信息
      * @param username 用户名
@@ -73,44 +162,346 @@ public class TPClient {
     }
 
     /**
-     * 连接到MQTT服务器
+     * 设置MQTT传输层，未设置时连接时使用Paho异步客户端
+     * @param transport 传输层实现
+     * @return 当前客户端实例
+     */
+    public TPClient setTransport(MqttTransport transport) {
+        this.transport = transport;
+        return this;
+    }
+
+    /**
+     * 启用批量流水线发布，需在connect之前调用
+     * @param options 批量参数
+     * @return 当前客户端实例
+     */
+    public TPClient enableBatching(BatchingPublisher.Options options) {
+        this.batchingOptions = options;
+        return this;
+    }
+
+    /**
+     * 设置直接发布与离线发件箱重放共用的在途窗口（已发出未确认的消息数），窗口已满时直接发布不等待：
+     * 启用离线发件箱时写入发件箱，否则以失败完成；需在connect之前调用。
+     * Paho的maxInflight取该值与批量发布器的maxInFlight之和。
+     * @param maxInFlight 最大在途消息数，默认1000，应不小于发件箱的replayWindow
+     * @return 当前客户端实例
+     */
+    public TPClient setMaxInFlight(int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight必须大于0");
+        }
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    /**
+     * 设置指标实现，记录发布次数与字节数、连接状态变化及队列深度；需在connect之前调用
+     * @param metrics 指标实现，默认不记录
+     * @return 当前客户端实例
+     */
+    public TPClient setMetrics(SdkMetrics metrics) {
+        this.metrics = metrics == null ? SdkMetrics.NOOP : metrics;
+        return this;
+    }
+
+    /**
+     * 设置入站消息监听器，订阅主题收到的消息按设备分发，同一设备的消息顺序处理
+     * @param listener 消息监听器
+     * @return 当前客户端实例
+     */
+    public TPClient setMessageListener(MessageDispatcher.MessageListener listener) {
+        return setMessageListener(listener, new MessageDispatcher.Options());
+    }
+
+    /**
+     * 设置入站消息监听器
+     * @param listener 消息监听器
+     * @param options 分发参数
+     * @return 当前客户端实例
+     */
+    public TPClient setMessageListener(MessageDispatcher.MessageListener listener, MessageDispatcher.Options options) {
+        // 先安装新的分发器再关闭旧的，切换期间到达的消息不会交给已关闭的分发器
+        MessageDispatcher previous = messageDispatcher;
+        MessageDispatcher dispatcher = new MessageDispatcher(listener, options);
+        this.messageDispatcher = dispatcher;
+        if (transport != null) {
+            transport.setMessageHandler(dispatcher::dispatch);
+        }
+        if (previous != null) {
+            previous.close(0);
+        }
+        return this;
+    }
+
+    /**
+     * 启用离线发件箱，MQTT未连接或发布失败时消息写入磁盘，连接后按顺序重放；发出后未被确认就失败、
+     * 断开连接时仍在发布队列中或仍未确认的消息同样转入发件箱（至少一次，持久会话下可能与Paho的重发重复）。
+     * 重放期间新消息直接发送，不排在积压之后，实时流量不受重放速率限制
+     * 发件箱的生命周期由调用方管理，disconnect只停止重放不关闭发件箱
+     * @param outbox 已打开的发件箱
+     * @return 当前客户端实例
+     */
+    public TPClient enableOfflineOutbox(OfflineOutbox outbox) {
+        this.offlineOutbox = outbox;
+        return this;
+    }
+
+    /**
+     * 启用自动心跳，connect时注册服务标识符，disconnect时取消；调度器可被多个客户端共享
+     * @param scheduler 心跳调度器
+     * @return 当前客户端实例
+     */
+    public TPClient enableHeartbeat(HeartbeatScheduler scheduler) {
+        this.heartbeatScheduler = scheduler;
+        return this;
+    }
+
+    /**
+     * 启用自动重连，需在connect之前调用
+     * 连接意外断开后按带抖动的指数退避重连，默认使用持久会话；重连后分批恢复已订阅的主题，
+     * 离线发件箱在断线期间接收新消息并于恢复后继续重放。
+     * @param options 重连参数
+     * @return 当前客户端实例
+     */
+    public TPClient enableAutoReconnect(ReconnectSupervisor.Options options) {
+        this.reconnectOptions = options;
+        return this;
+    }
+
+    /**
+     * 启用出站调度，需在connect之前调用
+     * 告警、状态、遥测分通道排队并按优先级发送，受全局、按设备和按服务的令牌桶限速，通道满时按溢出策略处理；
+     * 离线发件箱接收的消息及其重放不经过调度。
+     * @param options 调度参数
+     * @return 当前客户端实例
+     */
+    public TPClient enableOutboundScheduler(OutboundScheduler.Options options) {
+        this.schedulerOptions = options;
+        return this;
+    }
+
+    /**
+     * 启用设备状态合并，需在connect之前调用
+     * sendStatus只覆盖该设备尚未发出的状态，每个合并窗口内每台设备最多发出一条最新状态；
+     * 带完成句柄的sendStatusAsync不参与合并。
+     * @param options 合并参数
+     * @return 当前客户端实例
+     */
+    public TPClient enableStatusCoalescing(StatusCoalescer.Options options) {
+        this.coalescingOptions = options;
+        return this;
+    }
+
+    /**
+     * 启用设备配置缓存，之后getDeviceConfig优先从缓存读取
+     * @param maxSize 最大缓存设备数
+     * @param ttl 缓存有效期
+     * @return 当前客户端实例
+     */
+    public TPClient enableDeviceConfigCache(int maxSize, Duration ttl) {
+        requireApiClient();
+        this.deviceConfigCache = new DeviceConfigCache(apiClient, maxSize, ttl);
+        return this;
+    }
+
+    /**
+     * 连接到MQTT服务器，已连接时直接返回
      * @return 连接是否成功
      */
     public boolean connect() {
+        if (connected) {
+            if (isTransportConnected()) {
+                return true;
+            }
+            // 连接已丢失，先关闭上次连接的发布器和调度器，避免线程泄漏和在途计数分裂
+            disconnect();
+        }
         try {
             logger.info("连接到MQTT服务器: " + mqttBroker);
             logger.info("客户端ID: " + clientId);
-            
-            // 这里应该使用真正的MQTT客户端库，如Eclipse Paho
-            // 当前是模拟实现
+
+            if (transport == null) {
+                transport = new PahoMqttTransport(mqttBroker, clientId);
+            }
+            if (messageDispatcher != null) {
+                transport.setMessageHandler(messageDispatcher::dispatch);
+            }
+            stopReconnector();
+            if (reconnectOptions != null) {
+                ReconnectSupervisor supervisor = new ReconnectSupervisor(clientId, this::reconnectOnce, reconnectOptions);
+                supervisor.setMetrics(metrics);
+                reconnector = supervisor;
+                transport.setConnectionListener(this::onConnectionLost);
+            }
+            transport.connect(buildConnectOptions());
+            inFlightWindow = new InFlightWindow(transport, maxInFlight);
+            if (batchingOptions != null) {
+                publisher = new BatchingPublisher(transport, batchingOptions);
+                if (offlineOutbox != null) {
+                    publisher.setUndeliveredHandler(undeliveredHandler);
+                }
+            }
+            if (schedulerOptions != null) {
+                scheduler = new OutboundScheduler(clientId, schedulerSink, schedulerOptions);
+            }
+            if (coalescingOptions != null && statusCoalescer == null) {
+                statusCoalescer = new StatusCoalescer(
+                        (device, status) -> publish(device, OutboundScheduler.Lane.STATUS, device.getStatusTopic(), status),
+                        coalescingOptions);
+            }
             connected = true;
+            replaySubscriptions();
+            if (offlineOutbox != null) {
+                offlineOutbox.startReplay(inFlightWindow);
+            }
+            if (heartbeatScheduler != null && serviceIdentifier != null) {
+                heartbeatScheduler.register(serviceIdentifier);
+            }
+            registerGauges();
+            metrics.connectionStateChanged(clientId, true);
             
             logger.info("MQTT连接成功");
             return true;
         } catch (Exception e) {
             logger.log(Level.SEVERE, "MQTT连接失败", e);
+            stopReconnector();
             return false;
         }
     }
 
+    /**
+     * 传输层回调：连接意外断开
+     */
+    private void onConnectionLost(Throwable cause) {
+        ReconnectSupervisor supervisor = reconnector;
+        if (!connected || supervisor == null) {
+            return;
+        }
+        metrics.connectionStateChanged(clientId, false);
+        supervisor.connectionLost(cause);
+    }
+
+    /**
+     * 由重连调度线程调用：重新建立连接并恢复订阅
+     * @return 是否已恢复；客户端已被主动断开时返回true以结束重连
+     */
+    private boolean reconnectOnce() throws MqttException {
+        if (!connected) {
+            return true;
+        }
+        if (!transport.isConnected()) {
+            transport.connect(buildConnectOptions());
+            if (!connected) {
+                // 连接期间客户端被主动断开
+                transport.disconnect();
+                return true;
+            }
+        }
+        replaySubscriptions();
+        metrics.connectionStateChanged(clientId, true);
+        return true;
+    }
+
+    /**
+     * 分批重新订阅已记录的主题，单批失败不影响其他批次
+     */
+    private void replaySubscriptions() {
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+        int batchSize = reconnectOptions == null ? Integer.MAX_VALUE : reconnectOptions.getSubscribeBatchSize();
+        String[] topics = subscriptions.toArray(new String[0]);
+        for (int from = 0; from < topics.length; from += batchSize) {
+            int count = Math.min(batchSize, topics.length - from);
+            String[] batch = new String[count];
+            int[] qos = new int[count];
+            System.arraycopy(topics, from, batch, 0, count);
+            Arrays.fill(qos, DEFAULT_QOS);
+            try {
+                transport.subscribe(batch, qos);
+            } catch (MqttException e) {
+                logger.log(Level.WARNING, "恢复订阅失败 - 主题数: " + count, e);
+            }
+        }
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("已恢复订阅 - 主题数: " + topics.length);
+        }
+    }
+
+    private void stopReconnector() {
+        ReconnectSupervisor supervisor = reconnector;
+        if (supervisor != null) {
+            supervisor.stop();
+            if (transport != null) {
+                transport.setConnectionListener(null);
+            }
+        }
+    }
+
+    /**
+     * 首次连接时注册队列深度类指标，取值时读取当前的发布器、发件箱和分发器
+     */
+    private void registerGauges() {
+        if (gaugesRegistered || metrics == SdkMetrics.NOOP) {
+            return;
+        }
+        gaugesRegistered = true;
+        metrics.gauge("tp.mqtt.publisher.queue", clientId, () -> {
+            BatchingPublisher current = publisher;
+            return current == null ? 0 : current.getStats().getQueueDepth();
+        });
+        metrics.gauge("tp.mqtt.publisher.inflight", clientId, this::getInFlight);
+        metrics.gauge("tp.mqtt.scheduler.queue", clientId, () -> {
+            OutboundScheduler current = scheduler;
+            return current == null ? 0 : current.getQueued();
+        });
+        metrics.gauge("tp.mqtt.status.pending", clientId, () -> {
+            StatusCoalescer current = statusCoalescer;
+            return current == null ? 0 : current.getStats().getPending();
+        });
+        metrics.gauge("tp.mqtt.outbox.pending", clientId, () -> {
+            OfflineOutbox current = offlineOutbox;
+            return current == null ? 0 : current.getStats().getPending();
+        });
+        metrics.gauge("tp.mqtt.inbound.queue", clientId, () -> {
+            MessageDispatcher current = messageDispatcher;
+            return current == null ? 0 : current.getQueued();
+        });
+    }
+
+    private MqttConnectOptions buildConnectOptions() {
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setCleanSession(reconnectOptions == null || reconnectOptions.isCleanSession());
+        if (username != null) {
+            options.setUserName(username);
+        }
+        if (password != null) {
+            options.setPassword(password.toCharArray());
+        }
+        // 批量发布器与在途窗口各自限流，两者之和不会超过Paho的上限
+        options.setMaxInflight(maxInFlight + (batchingOptions == null ? 0 : batchingOptions.getMaxInFlight()));
+        return options;
+    }
+
     /**
      * 发送设备状态
      * @param deviceId 设备ID
      * @param status 状态值
      */
     public void sendStatus(String deviceId, String status) {
-        if (!connected) {
+        if (!connected && offlineOutbox == null) {
             logger.warning("MQTT未连接，无法发送状态");
             return;
         }
 
-        String topic = "devices/status/" + deviceId;
-        String payload = status;
-        
-        logger.info("发送设备状态 - 主题: " + topic + ", 数据: " + payload);
-        
-        // 这里应该使用真正的MQTT发布
-        // mqttClient.publish(topic, payload.getBytes());
+        DeviceTopics device = topicRegistry.get(serviceIdentifier, deviceId);
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("发送设备状态 - 主题: " + device.getStatusTopic() + ", 数据: " + status);
+        }
+
+        publishStatus(device, status.getBytes(StandardCharsets.UTF_8));
     }
 
     /**
@@ -120,33 +511,364 @@ public class TPClient {
      * @param data 数据内容
      */
     public void sendData(String serviceIdentifier, String deviceId, String data) {
-        if (!connected) {
+        if (!connected && offlineOutbox == null) {
+            logger.warning("MQTT未连接，无法发送数据");
+            return;
+        }
+
+        DeviceTopics device = topicRegistry.get(serviceIdentifier, deviceId);
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("发送设备数据 - 主题: " + device.getDataTopic() + ", 数据: " + data);
+        }
+
+        publish(device, OutboundScheduler.Lane.TELEMETRY, device.getDataTopic(), data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 获取设备主题句柄，持有句柄后可使用零拼接的发布重载
+     * @param serviceIdentifier 服务标识符
+     * @param deviceId 设备ID
+     * @return 设备主题句柄
+     */
+    public DeviceTopics deviceTopics(String serviceIdentifier, String deviceId) {
+        return topicRegistry.get(serviceIdentifier, deviceId);
+    }
+
+    /**
+     * 使用主题句柄发送设备数据，不拼接主题、不编码字符串
+     * @param device 设备主题句柄
+     * @param payload 已编码的数据内容，发布完成前调用方不应修改
+     */
+    public void sendData(DeviceTopics device, byte[] payload) {
+        sendData(device, payload, OutboundScheduler.Lane.TELEMETRY);
+    }
+
+    /**
+     * 使用主题句柄经指定出站通道发送设备数据，如告警数据走{@link OutboundScheduler.Lane#ALARM}优先发出；
+     * 未启用出站调度时与{@link #sendData(DeviceTopics, byte[])}相同
+     * @param device 设备主题句柄
+     * @param payload 已编码的数据内容，发布完成前调用方不应修改
+     * @param lane 出站通道
+     */
+    public void sendData(DeviceTopics device, byte[] payload, OutboundScheduler.Lane lane) {
+        if (!connected && offlineOutbox == null) {
             logger.warning("MQTT未连接，无法发送数据");
             return;
         }
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("发送设备数据 - 主题: " + device.getDataTopic() + ", 字节数: " + payload.length);
+        }
+        publish(device, lane, device.getDataTopic(), payload);
+    }
+
+    /**
+     * 使用主题句柄发送设备数据
+     * 缓冲区为完整的堆数组时直接使用其底层数组，否则复制position到limit之间的内容
+     * @param device 设备主题句柄
+     * @param payload 数据内容
+     */
+    public void sendData(DeviceTopics device, ByteBuffer payload) {
+        sendData(device, toArray(payload));
+    }
+
+    /**
+     * 使用主题句柄发送类型化遥测数据，负载由构建器直接编码，调用后构建器归还，不能再使用
+     * @param device 设备主题句柄
+     * @param telemetry 遥测数据构建器
+     */
+    public void sendData(DeviceTopics device, TelemetryBuilder telemetry) {
+        sendData(device, telemetry.build());
+    }
+
+    /**
+     * 使用主题句柄发送设备状态
+     * @param device 设备主题句柄
+     * @param status 已编码的状态值
+     */
+    public void sendStatus(DeviceTopics device, byte[] status) {
+        if (!connected && offlineOutbox == null) {
+            logger.warning("MQTT未连接，无法发送状态");
+            return;
+        }
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("发送设备状态 - 主题: " + device.getStatusTopic() + ", 字节数: " + status.length);
+        }
+        publishStatus(device, status);
+    }
+
+    /**
+     * 启用状态合并时写入合并槽位，否则立即发布
+     */
+    private void publishStatus(DeviceTopics device, byte[] status) {
+        StatusCoalescer coalescer = statusCoalescer;
+        if (coalescer != null) {
+            coalescer.update(device, status);
+            return;
+        }
+        publish(device, OutboundScheduler.Lane.STATUS, device.getStatusTopic(), status);
+    }
+
+    /**
+     * 获取网关主题句柄，子设备按地址预先建立索引
+     * @param serviceIdentifier 服务标识符
+     * @param gateway 网关设备
+     * @return 网关主题句柄
+     */
+    public GatewayTopics gatewayTopics(String serviceIdentifier, Device gateway) {
+        return topicRegistry.gateway(serviceIdentifier, gateway);
+    }
+
+    /**
+     * 发送网关及其子设备一次轮询的数据，使用客户端的服务标识符
+     * @see #sendGatewayData(GatewayTopics, byte[], Map, GatewayTopics.FanOut)
+     */
+    public int sendGatewayData(Device gateway, byte[] gatewayReading, Map<String, byte[]> subDeviceReadings,
+                               GatewayTopics.FanOut fanOut) {
+        return sendGatewayData(topicRegistry.gateway(serviceIdentifier, gateway), gatewayReading, subDeviceReadings, fanOut);
+    }
+
+    /**
+     * 发送网关及其子设备一次轮询的数据
+     * 读数按地址经预先建立的索引解析，地址不在子设备列表中的读数被跳过并计入{@link GatewayTopics#getUnresolved()}。
+     * 聚合方式只发一条网关消息；逐子设备方式在一次遍历中把读数依次交给发布队列，网关读数（如有）发往网关自身的数据主题。
+     * @param gateway 网关主题句柄
+     * @param gatewayReading 网关自身的JSON读数，可为null
+     * @param subDeviceReadings 子设备地址 → 已编码的JSON读数，发布完成前调用方不应修改
+     * @param fanOut 发布方式
+     * @return 已发布读数的子设备数
+     */
+    public int sendGatewayData(GatewayTopics gateway, byte[] gatewayReading, Map<String, byte[]> subDeviceReadings,
+                               GatewayTopics.FanOut fanOut) {
+        if (!connected && offlineOutbox == null) {
+            logger.warning("MQTT未连接，无法发送网关数据");
+            return 0;
+        }
+        int published = gateway.publish(gatewayReading, subDeviceReadings, fanOut, gatewaySink);
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("发送网关数据 - 网关: " + gateway.getDeviceId() + ", 方式: " + fanOut + ", 子设备数: " + published);
+        }
+        return published;
+    }
+
+    /**
+     * 以指定QoS和保留标志发布，返回完成句柄，不阻塞
+     * QoS 0在写入网络后完成，QoS 1/2在收到代理确认后完成；进入批量发布队列时受在途窗口限制，
+     * 写入离线发件箱时在持久化后完成。未连接且未启用发件箱、队列或在途窗口已满等情况句柄以失败完成。
+     * @param topic 主题
+     * @param payload 消息内容，完成前调用方不应修改
+     * @param qos 服务质量等级，0、1或2
+     * @param retained 是否保留消息
+     * @return 完成句柄，读取结果后可调用release归还
+     */
+    public PublishToken publish(String topic, byte[] payload, int qos, boolean retained) {
+        return publish(null, OutboundScheduler.Lane.TELEMETRY, topic, payload, qos, retained);
+    }
+
+    /**
+     * 以指定QoS和保留标志发布，完成时回调，不阻塞
+     * 回调可以是调用方复用的同一个实例，SDK使用池化的句柄包装，不为每条消息分配对象
+     * @param callback 完成回调，每条消息恰好调用一次；在传输层的回调线程上执行，不应阻塞
+     */
+    public void publish(String topic, byte[] payload, int qos, boolean retained, MqttTransport.PublishCallback callback) {
+        checkQos(qos);
+        submit(null, OutboundScheduler.Lane.TELEMETRY, topic, payload, qos, retained, tokens.wrap(callback));
+    }
+
+    /**
+     * 使用主题句柄以指定QoS发送设备数据
+     * @return 完成句柄
+     */
+    public PublishToken sendDataAsync(DeviceTopics device, byte[] payload, int qos) {
+        return publish(device, OutboundScheduler.Lane.TELEMETRY, device.getDataTopic(), payload, qos, false);
+    }
+
+    /**
+     * 使用主题句柄以指定QoS经指定出站通道发送设备数据
+     * @return 完成句柄
+     */
+    public PublishToken sendDataAsync(DeviceTopics device, byte[] payload, int qos, OutboundScheduler.Lane lane) {
+        return publish(device, lane, device.getDataTopic(), payload, qos, false);
+    }
+
+    /**
+     * 使用主题句柄以指定QoS发送设备状态，状态可作为保留消息以便新订阅者立即获得最新状态
+     * @return 完成句柄
+     */
+    public PublishToken sendStatusAsync(DeviceTopics device, byte[] status, int qos, boolean retained) {
+        return publish(device, OutboundScheduler.Lane.STATUS, device.getStatusTopic(), status, qos, retained);
+    }
+
+    private PublishToken publish(DeviceTopics device, OutboundScheduler.Lane lane, String topic, byte[] payload,
+                                 int qos, boolean retained) {
+        checkQos(qos);
+        PublishToken token = tokens.acquire();
+        submit(device, lane, topic, payload, qos, retained, token);
+        return token;
+    }
+
+    private static void checkQos(int qos) {
+        if (qos < 0 || qos > 2) {
+            throw new IllegalArgumentException("qos必须为0、1或2");
+        }
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0
+                && buffer.remaining() == buffer.array().length) {
+            return buffer.array();
+        }
+        byte[] copy = new byte[buffer.remaining()];
+        buffer.duplicate().get(copy);
+        return copy;
+    }
+
+    private void publish(DeviceTopics device, OutboundScheduler.Lane lane, String topic, byte[] payload) {
+        submit(device, lane, topic, payload, DEFAULT_QOS, false, null);
+    }
+
+    /**
+     * 发布消息，启用出站调度时先进入对应通道排队
+     * @param device 设备主题句柄，用于按设备和服务限流，可为null
+     * @param lane 出站通道
+     * @param token 完成句柄，为null时失败只记录日志和指标
+     */
+    private void submit(DeviceTopics device, OutboundScheduler.Lane lane, String topic, byte[] payload,
+                        int qos, boolean retained, PublishToken token) {
+        if (!connected && offlineOutbox == null) {
+            fail(token, new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED));
+            return;
+        }
+        // 连接可用时新消息直接发送，积压由重放线程并行限速发出，两者之间不保证顺序
+        if (offlineOutbox != null && (!connected || !transport.isConnected())) {
+            appendToOutbox(topic, payload, qos, retained, token);
+            return;
+        }
+        OutboundScheduler current = scheduler;
+        if (current != null) {
+            current.offer(device, lane, topic, payload, qos, retained, token);
+            return;
+        }
+        dispatch(topic, payload, qos, retained, token);
+    }
+
+    /**
+     * 交给批量发布器或直接经传输层发布；启用出站调度时在调度线程上调用
+     */
+    private void dispatch(String topic, byte[] payload, int qos, boolean retained, PublishToken token) {
+        if (publisher != null) {
+            if (publisher.offer(topic, payload, qos, retained, token)) {
+                accepted(payload.length);
+            } else {
+                queueFull(topic);
+                fail(token, new IllegalStateException("发布队列已满"));
+            }
+            return;
+        }
+        try {
+            inFlightWindow.publish(topic, payload, qos, retained, token == null ? directPublishCallback : token,
+                    offlineOutbox == null ? null : undeliveredHandler);
+            accepted(payload.length);
+        } catch (MqttException e) {
+            if (offlineOutbox != null) {
+                appendToOutbox(topic, payload, qos, retained, token);
+                return;
+            }
+            if (e.getReasonCode() == MqttException.REASON_CODE_MAX_INFLIGHT) {
+                queueFull(topic);
+            } else {
+                logger.log(Level.WARNING, "MQTT发布失败 - 主题: " + topic, e);
+            }
+            fail(token, e);
+        }
+    }
+
+    private void appendToOutbox(String topic, byte[] payload, int qos, boolean retained, PublishToken token) {
+        if (offlineOutbox.append(topic, payload, qos, retained)) {
+            accepted(payload.length);
+            if (token != null) {
+                token.onComplete(null);
+            }
+        } else {
+            logger.warning("写入离线发件箱失败，消息被丢弃 - 主题: " + topic);
+            fail(token, new IllegalStateException("写入离线发件箱失败"));
+        }
+    }
+
+    /**
+     * 已被接收但未能送达的消息写入离线发件箱，回调在持久化后成功完成；在传输层回调线程或发布器线程上调用
+     */
+    private void spillToOutbox(String topic, byte[] payload, int qos, boolean retained,
+                               MqttTransport.PublishCallback callback) {
+        OfflineOutbox outbox = offlineOutbox;
+        Throwable error = null;
+        if (outbox == null || !outbox.append(topic, payload, qos, retained)) {
+            rejectedMessages.increment();
+            logger.warning("写入离线发件箱失败，消息被丢弃 - 主题: " + topic);
+            error = new IllegalStateException("写入离线发件箱失败");
+        } else if (logger.isLoggable(Level.FINE)) {
+            logger.fine("消息未送达，已转入离线发件箱 - 主题: " + topic);
+        }
+        if (callback != null) {
+            callback.onComplete(error);
+        } else if (error != null) {
+            metrics.publishFailed();
+        }
+    }
+
+    /**
+     * 记录一次队列满丢弃，汇总后限频输出WARNING
+     */
+    private void queueFull(String topic) {
+        droppedSinceWarning.increment();
+        long last = lastDropWarningAt.get();
+        long now = System.nanoTime();
+        if (now - last >= DROP_WARNING_INTERVAL_NANOS && lastDropWarningAt.compareAndSet(last, now)) {
+            logger.warning("发布队列已满，" + droppedSinceWarning.sumThenReset() + "条消息被丢弃 - 最近主题: " + topic);
+        } else if (logger.isLoggable(Level.FINE)) {
+            logger.fine("发布队列已满，消息被丢弃 - 主题: " + topic);
+        }
+    }
 
-        String topic = "plugin/" + serviceIdentifier + "/devices/" + deviceId + "/datas";
-        
-        logger.info("发送设备数据 - 主题: " + topic + ", 数据: " + data);
-        
-        // 这里应该使用真正的MQTT发布
-        // mqttClient.publish(topic, data.getBytes());
+    /**
+     * 记录消息已被发布器、传输层或发件箱接收
+     */
+    private void accepted(int bytes) {
+        acceptedMessages.increment();
+        metrics.publish(bytes);
     }
 
     /**
-     * 订阅主题
+     * 记录发布失败，带句柄时由句柄池统一计数
+     */
+    private void fail(PublishToken token, Throwable error) {
+        if (error != null) {
+            rejectedMessages.increment();
+        }
+        if (token == null) {
+            metrics.publishFailed();
+        } else {
+            token.onComplete(error);
+        }
+    }
+
+    /**
+     * 订阅主题，主题会被记录，重新连接后自动恢复订阅
      * @param topic 主题
      */
     public void subscribe(String topic) {
+        subscriptions.add(topic);
         if (!connected) {
-            logger.warning("MQTT未连接，无法订阅主题");
+            logger.info("MQTT未连接，将在连接后订阅主题: " + topic);
             return;
         }
 
         logger.info("订阅主题: " + topic);
-        
-        // 这里应该使用真正的MQTT订阅
-        // mqttClient.subscribe(topic);
+
+        try {
+            transport.subscribe(new String[]{topic}, new int[]{DEFAULT_QOS});
+        } catch (MqttException e) {
+            logger.log(Level.WARNING, "订阅主题失败: " + topic, e);
+        }
     }
 
     /**
@@ -155,10 +877,41 @@ public class TPClient {
     public void disconnect() {
         if (connected) {
             logger.info("断开MQTT连接");
+            if (statusCoalescer != null) {
+                // 断开前发出尚在窗口中的最新状态
+                statusCoalescer.close();
+                statusCoalescer = null;
+            }
             connected = false;
-            
-            // 这里应该使用真正的MQTT断开
-            // mqttClient.disconnect();
+            ReconnectSupervisor supervisor = reconnector;
+            // 重连过程中断开状态已经上报过
+            if (supervisor == null || !supervisor.isReconnecting()) {
+                metrics.connectionStateChanged(clientId, false);
+            }
+            stopReconnector();
+
+            if (heartbeatScheduler != null && serviceIdentifier != null) {
+                heartbeatScheduler.unregister(serviceIdentifier);
+            }
+            if (offlineOutbox != null) {
+                offlineOutbox.stopReplay();
+            }
+            if (scheduler != null) {
+                scheduler.close(PUBLISHER_CLOSE_TIMEOUT_MS);
+                scheduler = null;
+            }
+            if (publisher != null) {
+                if (!publisher.close(PUBLISHER_CLOSE_TIMEOUT_MS)) {
+                    logger.warning("发布队列未能在超时前刷出: " + publisher.getStats());
+                }
+                publisher = null;
+            }
+            transport.disconnect();
+            // 持久会话下Paho不会完成未确认消息的投递令牌，以失败完成，调用方的句柄不会一直挂起
+            inFlightWindow.close(new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED));
+            // 注销瞬时值指标，指标库不再持有本客户端，重新连接时再注册
+            metrics.removeGauges(clientId);
+            gaugesRegistered = false;
         }
     }
 
@@ -172,16 +925,36 @@ public class TPClient {
      * @return API响应
      */
     public TPAPIClient.APIResponse<Device> getDeviceConfig(String deviceId, String voucher, String deviceNumber) {
-        if (apiClient == null) {
-            throw new IllegalStateException("API客户端未初始化，请使用包含apiBaseURL的构造函数");
+        requireApiClient();
+        TPAPIClient.DeviceConfigRequest request = new TPAPIClient.DeviceConfigRequest();
+        request.deviceId = deviceId;
+        request.voucher = voucher;
+        request.deviceNumber = deviceNumber;
+
+        if (deviceConfigCache != null) {
+            return deviceConfigCache.get(request);
         }
+        return apiClient.getDeviceConfig(request);
+    }
 
+    /**
+     * 异步获取设备配置
+     * @param deviceId 设备ID
+     * @param voucher 凭证
+     * @param deviceNumber 设备编号
+     * @return API响应Future
+     */
+    public CompletableFuture<TPAPIClient.APIResponse<Device>> getDeviceConfigAsync(String deviceId, String voucher, String deviceNumber) {
+        requireApiClient();
         TPAPIClient.DeviceConfigRequest request = new TPAPIClient.DeviceConfigRequest();
         request.deviceId = deviceId;
         request.voucher = voucher;
         request.deviceNumber = deviceNumber;
 
-        return apiClient.getDeviceConfig(request);
+        if (deviceConfigCache != null) {
+            return deviceConfigCache.getAsync(request);
+        }
+        return apiClient.getDeviceConfigAsync(request);
     }
 
     /**
@@ -190,11 +963,8 @@ public class TPClient {
      * @param deviceNumber 设备编号
      * @return API响应
      */
-    public TPAPIClient.APIResponse<java.util.Map<String, String>> deviceDynamicAuth(String templateSecret, String deviceNumber) {
-        if (apiClient == null) {
-            throw new IllegalStateException("API客户端未初始化，请使用包含apiBaseURL的构造函数");
-        }
-
+    public TPAPIClient.APIResponse<Map<String, String>> deviceDynamicAuth(String templateSecret, String deviceNumber) {
+        requireApiClient();
         TPAPIClient.DeviceDynamicAuthRequest request = new TPAPIClient.DeviceDynamicAuthRequest();
         request.templateSecret = templateSecret;
         request.deviceNumber = deviceNumber;
@@ -202,36 +972,75 @@ public class TPClient {
         return apiClient.deviceDynamicAuth(request);
     }
 
+    /**
+     * 异步设备动态认证
+     * @param templateSecret 模板密钥
+     * @param deviceNumber 设备编号
+     * @return API响应Future
+     */
+    public CompletableFuture<TPAPIClient.APIResponse<Map<String, String>>> deviceDynamicAuthAsync(String templateSecret, String deviceNumber) {
+        requireApiClient();
+        TPAPIClient.DeviceDynamicAuthRequest request = new TPAPIClient.DeviceDynamicAuthRequest();
+        request.templateSecret = templateSecret;
+        request.deviceNumber = deviceNumber;
+
+        return apiClient.deviceDynamicAuthAsync(request);
+    }
+
     /**
      * 获取服务接入点信息
      * @return API响应
      */
-    public TPAPIClient.APIResponse<java.util.Map<String, Object>> getServiceAccess() {
-        if (apiClient == null) {
-            throw new IllegalStateException("API客户端未初始化，请使用包含apiBaseURL的构造函数");
-        }
-
+    public TPAPIClient.APIResponse<Map<String, Object>> getServiceAccess() {
+        requireApiClient();
         TPAPIClient.ServiceAccessRequest request = new TPAPIClient.ServiceAccessRequest();
         request.serviceIdentifier = this.serviceIdentifier;
 
         return apiClient.getServiceAccess(request);
     }
 
+    /**
+     * 异步获取服务接入点信息
+     * @return API响应Future
+     */
+    public CompletableFuture<TPAPIClient.APIResponse<Map<String, Object>>> getServiceAccessAsync() {
+        requireApiClient();
+        TPAPIClient.ServiceAccessRequest request = new TPAPIClient.ServiceAccessRequest();
+        request.serviceIdentifier = this.serviceIdentifier;
+
+        return apiClient.getServiceAccessAsync(request);
+    }
+
     /**
      * 发送心跳
      * @return API响应
      */
     public TPAPIClient.APIResponse<String> sendHeartbeat() {
-        if (apiClient == null) {
-            throw new IllegalStateException("API客户端未初始化，请使用包含apiBaseURL的构造函数");
-        }
-
+        requireApiClient();
         TPAPIClient.HeartbeatRequest request = new TPAPIClient.HeartbeatRequest();
         request.serviceIdentifier = this.serviceIdentifier;
 
         return apiClient.sendHeartbeat(request);
     }
 
+    /**
+     * 异步发送心跳
+     * @return API响应Future
+     */
+    public CompletableFuture<TPAPIClient.APIResponse<String>> sendHeartbeatAsync() {
+        requireApiClient();
+        TPAPIClient.HeartbeatRequest request = new TPAPIClient.HeartbeatRequest();
+        request.serviceIdentifier = this.serviceIdentifier;
+
+        return apiClient.sendHeartbeatAsync(request);
+    }
+
+    private void requireApiClient() {
+        if (apiClient == null) {
+            throw new IllegalStateException("API客户端未初始化，请使用包含apiBaseURL的构造函数");
+        }
+    }
+
     // Getter方法
     public boolean isConnected() {
         return connected;
@@ -244,4 +1053,99 @@ public class TPClient {
     public String getServiceIdentifier() {
         return serviceIdentifier;
     }
+
+    /**
+     * 获取设备配置缓存，未启用时为null
+     */
+    public DeviceConfigCache getDeviceConfigCache() {
+        return deviceConfigCache;
+    }
+
+    /**
+     * 获取设备主题注册表，可调用bindTo(handler)在设备断开时清理
+     */
+    public TopicRegistry getTopicRegistry() {
+        return topicRegistry;
+    }
+
+    /**
+     * 获取批量发布器，未启用批量发布或未连接时为null
+     */
+    public BatchingPublisher getBatchingPublisher() {
+        return publisher;
+    }
+
+    /**
+     * 已被发布器、传输层或发件箱接收的消息数，用于连接池的分片统计
+     */
+    long getAcceptedMessages() {
+        return acceptedMessages.sum();
+    }
+
+    /**
+     * 因未连接、队列已满、通道溢出等原因未被接收的消息数
+     */
+    long getRejectedMessages() {
+        return rejectedMessages.sum();
+    }
+
+    /**
+     * 底层传输当前是否可用，用于连接池判断分片健康
+     */
+    boolean isTransportConnected() {
+        return connected && transport != null && transport.isConnected();
+    }
+
+    /**
+     * 获取自动重连管理器，未启用自动重连或未连接过时为null
+     */
+    public ReconnectSupervisor getReconnectSupervisor() {
+        return reconnector;
+    }
+
+    /**
+     * 获取状态合并器，未启用状态合并或未连接时为null
+     */
+    public StatusCoalescer getStatusCoalescer() {
+        return statusCoalescer;
+    }
+
+    /**
+     * 已发出未确认的消息数，包括批量发布器和直接发布的在途窗口
+     */
+    int getInFlight() {
+        BatchingPublisher current = publisher;
+        InFlightWindow window = inFlightWindow;
+        return (current == null ? 0 : current.getStats().getInFlight()) + (window == null ? 0 : window.inFlight());
+    }
+
+    /**
+     * 尚未交给传输层的出站消息数，包括出站调度通道和批量发布队列
+     */
+    int getQueueDepth() {
+        BatchingPublisher current = publisher;
+        OutboundScheduler queued = scheduler;
+        return (current == null ? 0 : current.getStats().getQueueDepth()) + (queued == null ? 0 : queued.getQueued());
+    }
+
+    /**
+     * 获取出站调度器，未启用出站调度或未连接时为null
+     */
+    public OutboundScheduler getOutboundScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * 获取入站消息分发器，未设置监听器时为null
+     */
+    public MessageDispatcher getMessageDispatcher() {
+        return messageDispatcher;
+    }
+
+    /**
+     * 获取离线发件箱，未启用时返回null
+     */
+    public OfflineOutbox getOfflineOutbox() {
+        return offlineOutbox;
+    }
 } 
\ No newline at end of file
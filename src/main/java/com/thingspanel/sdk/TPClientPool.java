@@ -0,0 +1,481 @@
+package com.thingspanel.sdk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 多连接MQTT客户端池
+ * 打开N个使用派生客户端ID的TPClient，按设备ID一致性哈希分片，同一设备的消息始终经同一连接发出以保证顺序。
+ * 某个连接断开时，其设备沿哈希环顺延到下一个可用连接，其他设备的分片不变；连接恢复后自动迁回。
+ */
+public class TPClientPool {
+    private static final Logger logger = Logger.getLogger(TPClientPool.class.getName());
+
+    /** 每个连接在哈希环上的虚拟节点数 */
+    private static final int VIRTUAL_NODES = 128;
+
+    private final String mqttBroker;
+    private final TPClient[] clients;
+    private final long[] ringHashes;
+    private final int[] ringOwners;
+    private final TopicRegistry topicRegistry = new TopicRegistry();
+    private String clientIdPrefix;
+    private Function<String, MqttTransport> transportFactory;
+
+    // 上次获取统计时的计数，用于计算吞吐
+    private final long[] lastSent;
+    private long lastStatsNanos;
+
+    /**
+     * 创建连接池
+     * @param mqttBroker MQTT服务器地址
+     * @param connections 连接数
+     */
+    public TPClientPool(String mqttBroker, int connections) {
+        if (connections <= 0) {
+            throw new IllegalArgumentException("连接数必须大于0");
+        }
+        this.mqttBroker = mqttBroker;
+        this.clientIdPrefix = "tp-pool-" + System.currentTimeMillis();
+        this.clients = new TPClient[connections];
+        for (int i = 0; i < connections; i++) {
+            clients[i] = new TPClient(mqttBroker).setClientId(clientIdPrefix + "-" + i);
+        }
+        this.lastSent = new long[connections];
+        this.lastStatsNanos = System.nanoTime();
+
+        // 虚拟节点位置只取决于分片序号，连接数不变时分片结果稳定
+        int nodes = connections * VIRTUAL_NODES;
+        long[] hashes = new long[nodes];
+        for (int i = 0; i < connections; i++) {
+            for (int v = 0; v < VIRTUAL_NODES; v++) {
+                hashes[i * VIRTUAL_NODES + v] = hash("shard-" + i + "#" + v);
+            }
+        }
+        Integer[] order = new Integer[nodes];
+        for (int n = 0; n < nodes; n++) {
+            order[n] = n;
+        }
+        Arrays.sort(order, Comparator.comparingLong(n -> hashes[n]));
+        this.ringHashes = new long[nodes];
+        this.ringOwners = new int[nodes];
+        for (int i = 0; i < nodes; i++) {
+            ringHashes[i] = hashes[order[i]];
+            ringOwners[i] = order[i] / VIRTUAL_NODES;
+        }
+    }
+
+    /**
+     * 设置MQTT认证信息，应用到所有连接
+     */
+    public TPClientPool setAuth(String username, String password) {
+        for (TPClient client : clients) {
+            client.setAuth(username, password);
+        }
+        return this;
+    }
+
+    /**
+     * 设置客户端ID前缀，各连接的客户端ID为 前缀-序号
+     */
+    public TPClientPool setClientIdPrefix(String clientIdPrefix) {
+        this.clientIdPrefix = clientIdPrefix;
+        for (int i = 0; i < clients.length; i++) {
+            clients[i].setClientId(clientIdPrefix + "-" + i);
+        }
+        return this;
+    }
+
+    /**
+     * 设置服务标识符，应用到所有连接
+     */
+    public TPClientPool setServiceIdentifier(String serviceIdentifier) {
+        for (TPClient client : clients) {
+            client.setServiceIdentifier(serviceIdentifier);
+        }
+        return this;
+    }
+
+    /**
+     * 为每个连接启用批量流水线发布，需在connect之前调用
+     */
+    public TPClientPool enableBatching(BatchingPublisher.Options options) {
+        for (TPClient client : clients) {
+            client.enableBatching(options);
+        }
+        return this;
+    }
+
+    /**
+     * 设置每个连接的在途窗口，需在connect之前调用
+     */
+    public TPClientPool setMaxInFlight(int maxInFlight) {
+        for (TPClient client : clients) {
+            client.setMaxInFlight(maxInFlight);
+        }
+        return this;
+    }
+
+    /**
+     * 为每个连接启用自动重连，需在connect之前调用；
+     * 各连接的重连延迟独立随机，可通过{@link ReconnectSupervisor.Options#setScheduler}共用调度线程
+     */
+    public TPClientPool enableAutoReconnect(ReconnectSupervisor.Options options) {
+        for (TPClient client : clients) {
+            client.enableAutoReconnect(options);
+        }
+        return this;
+    }
+
+    /**
+     * 为每个连接启用出站调度，需在connect之前调用；令牌桶按连接独立计算，全局速率应按单个连接的代理配额设置
+     */
+    public TPClientPool enableOutboundScheduler(OutboundScheduler.Options options) {
+        for (TPClient client : clients) {
+            client.enableOutboundScheduler(options);
+        }
+        return this;
+    }
+
+    /**
+     * 为每个连接启用设备状态合并，需在connect之前调用；同一设备始终经同一连接发出，合并效果与单连接相同
+     */
+    public TPClientPool enableStatusCoalescing(StatusCoalescer.Options options) {
+        for (TPClient client : clients) {
+            client.enableStatusCoalescing(options);
+        }
+        return this;
+    }
+
+    /**
+     * 为所有连接设置指标实现，队列深度等指标以各连接的客户端ID区分
+     */
+    public TPClientPool setMetrics(SdkMetrics metrics) {
+        for (TPClient client : clients) {
+            client.setMetrics(metrics);
+        }
+        return this;
+    }
+
+    /**
+     * 设置传输层工厂，参数为派生的客户端ID，未设置时各连接使用Paho异步客户端
+     */
+    public TPClientPool setTransportFactory(Function<String, MqttTransport> transportFactory) {
+        this.transportFactory = transportFactory;
+        return this;
+    }
+
+    /**
+     * 连接所有连接
+     * @return 是否至少有一个连接成功
+     */
+    public boolean connect() {
+        int connectedCount = 0;
+        for (int i = 0; i < clients.length; i++) {
+            if (transportFactory != null) {
+                clients[i].setTransport(transportFactory.apply(clientIdPrefix + "-" + i));
+            }
+            if (clients[i].connect()) {
+                connectedCount++;
+            }
+        }
+        logger.info("连接池已连接 " + connectedCount + "/" + clients.length + " - " + mqttBroker);
+        if (connectedCount < clients.length) {
+            logger.warning("连接池部分连接失败，其设备将分配到其他连接");
+        }
+        return connectedCount > 0;
+    }
+
+    /**
+     * 重新连接已断开的连接，恢复后其设备自动迁回
+     * @return 重新连接成功的数量
+     */
+    public int reconnectDropped() {
+        int reconnected = 0;
+        for (TPClient client : clients) {
+            if (!client.isTransportConnected()) {
+                client.disconnect();
+                if (client.connect()) {
+                    reconnected++;
+                }
+            }
+        }
+        return reconnected;
+    }
+
+    /**
+     * 发送设备状态
+     */
+    public void sendStatus(String deviceId, String status) {
+        int shard = shardFor(deviceId);
+        clients[shard].sendStatus(deviceId, status);
+    }
+
+    /**
+     * 发送设备数据
+     */
+    public void sendData(String serviceIdentifier, String deviceId, String data) {
+        int shard = shardFor(deviceId);
+        clients[shard].sendData(serviceIdentifier, deviceId, data);
+    }
+
+    /**
+     * 获取设备主题句柄，各连接共用
+     */
+    public DeviceTopics deviceTopics(String serviceIdentifier, String deviceId) {
+        return topicRegistry.get(serviceIdentifier, deviceId);
+    }
+
+    /**
+     * 使用主题句柄发送设备数据
+     */
+    public void sendData(DeviceTopics device, byte[] payload) {
+        int shard = shardFor(device.getDeviceId());
+        clients[shard].sendData(device, payload);
+    }
+
+    /**
+     * 使用主题句柄经指定出站通道发送设备数据
+     */
+    public void sendData(DeviceTopics device, byte[] payload, OutboundScheduler.Lane lane) {
+        int shard = shardFor(device.getDeviceId());
+        clients[shard].sendData(device, payload, lane);
+    }
+
+    /**
+     * 使用主题句柄发送类型化遥测数据，调用后构建器归还，不能再使用
+     */
+    public void sendData(DeviceTopics device, TelemetryBuilder telemetry) {
+        sendData(device, telemetry.build());
+    }
+
+    /**
+     * 使用主题句柄发送设备状态
+     */
+    public void sendStatus(DeviceTopics device, byte[] status) {
+        int shard = shardFor(device.getDeviceId());
+        clients[shard].sendStatus(device, status);
+    }
+
+    /**
+     * 获取网关主题句柄，各连接共用
+     */
+    public GatewayTopics gatewayTopics(String serviceIdentifier, Device gateway) {
+        return topicRegistry.gateway(serviceIdentifier, gateway);
+    }
+
+    /**
+     * 发送网关及其子设备一次轮询的数据，按网关设备ID分片，同一网关的所有消息经同一连接发出
+     * @return 已发布读数的子设备数
+     */
+    public int sendGatewayData(GatewayTopics gateway, byte[] gatewayReading, Map<String, byte[]> subDeviceReadings,
+                               GatewayTopics.FanOut fanOut) {
+        int shard = shardFor(gateway.getDeviceId());
+        return clients[shard].sendGatewayData(gateway, gatewayReading, subDeviceReadings, fanOut);
+    }
+
+    /**
+     * 使用主题句柄以指定QoS发送设备数据，返回完成句柄
+     */
+    public PublishToken sendDataAsync(DeviceTopics device, byte[] payload, int qos) {
+        int shard = shardFor(device.getDeviceId());
+        return clients[shard].sendDataAsync(device, payload, qos);
+    }
+
+    /**
+     * 使用主题句柄以指定QoS经指定出站通道发送设备数据，返回完成句柄
+     */
+    public PublishToken sendDataAsync(DeviceTopics device, byte[] payload, int qos, OutboundScheduler.Lane lane) {
+        int shard = shardFor(device.getDeviceId());
+        return clients[shard].sendDataAsync(device, payload, qos, lane);
+    }
+
+    /**
+     * 使用主题句柄以指定QoS和保留标志发送设备状态，返回完成句柄
+     */
+    public PublishToken sendStatusAsync(DeviceTopics device, byte[] status, int qos, boolean retained) {
+        int shard = shardFor(device.getDeviceId());
+        return clients[shard].sendStatusAsync(device, status, qos, retained);
+    }
+
+    /**
+     * 断开所有连接
+     */
+    public void disconnect() {
+        for (TPClient client : clients) {
+            try {
+                client.disconnect();
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "断开连接失败: " + client.getClientId(), e);
+            }
+        }
+    }
+
+    /**
+     * 计算设备当前所在的分片
+     * 从设备在哈希环上的位置顺时针查找第一个可用连接；全部不可用时返回原始分片
+     * @param deviceId 设备ID
+     * @return 分片序号
+     */
+    public int shardFor(String deviceId) {
+        int index = Arrays.binarySearch(ringHashes, hash(deviceId));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        int nodes = ringHashes.length;
+        int home = ringOwners[index % nodes];
+        if (clients[home].isTransportConnected()) {
+            return home;
+        }
+        for (int step = 1; step < nodes; step++) {
+            int owner = ringOwners[(index + step) % nodes];
+            if (owner != home && clients[owner].isTransportConnected()) {
+                return owner;
+            }
+        }
+        return home;
+    }
+
+    /**
+     * 连接数
+     */
+    public int size() {
+        return clients.length;
+    }
+
+    /**
+     * 获取指定分片的客户端
+     */
+    public TPClient getClient(int shard) {
+        return clients[shard];
+    }
+
+    /**
+     * 获取各分片统计，吞吐为距上次调用以来的平均值
+     */
+    public synchronized List<ShardStats> getShardStats() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1e-9, (now - lastStatsNanos) / 1e9);
+        List<ShardStats> stats = new ArrayList<>(clients.length);
+        for (int i = 0; i < clients.length; i++) {
+            long total = clients[i].getAcceptedMessages();
+            double rate = (total - lastSent[i]) / seconds;
+            lastSent[i] = total;
+            stats.add(new ShardStats(i, clients[i].getClientId(), clients[i].isTransportConnected(), total,
+                    clients[i].getRejectedMessages(), rate, clients[i].getQueueDepth(), clients[i].getInFlight()));
+        }
+        lastStatsNanos = now;
+        return Collections.unmodifiableList(stats);
+    }
+
+    /**
+     * 64位FNV-1a哈希加MurmurHash3的fmix64扰动，直接遍历字符不分配对象
+     */
+    static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * 分片统计快照
+     */
+    public static class ShardStats {
+        private final int shard;
+        private final String clientId;
+        private final boolean connected;
+        private final long sent;
+        private final long rejected;
+        private final double sentPerSecond;
+        private final int queueDepth;
+        private final int inFlight;
+
+        public ShardStats(int shard, String clientId, boolean connected, long sent, long rejected, double sentPerSecond,
+                          int queueDepth, int inFlight) {
+            this.shard = shard;
+            this.clientId = clientId;
+            this.connected = connected;
+            this.sent = sent;
+            this.rejected = rejected;
+            this.sentPerSecond = sentPerSecond;
+            this.queueDepth = queueDepth;
+            this.inFlight = inFlight;
+        }
+
+        public int getShard() {
+            return shard;
+        }
+
+        public String getClientId() {
+            return clientId;
+        }
+
+        public boolean isConnected() {
+            return connected;
+        }
+
+        /**
+         * 经该分片发送的消息总数，只统计已被发布队列、传输层或离线发件箱接收的消息
+         */
+        public long getSent() {
+            return sent;
+        }
+
+        /**
+         * 该分片因未连接、队列已满、通道溢出等原因丢弃的消息数
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        /**
+         * 距上次获取统计以来每秒发送的消息数
+         */
+        public double getSentPerSecond() {
+            return sentPerSecond;
+        }
+
+        /**
+         * 尚未交给传输层的消息数，包括出站调度通道和批量发布队列
+         */
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        /**
+         * 已发出未确认的消息数，包括批量发布器和直接发布的在途窗口
+         */
+        public int getInFlight() {
+            return inFlight;
+        }
+
+        @Override
+        public String toString() {
+            return "ShardStats{" +
+                    "shard=" + shard +
+                    ", clientId='" + clientId + '\'' +
+                    ", connected=" + connected +
+                    ", sent=" + sent +
+                    ", rejected=" + rejected +
+                    ", sentPerSecond=" + String.format("%.1f", sentPerSecond) +
+                    ", queueDepth=" + queueDepth +
+                    ", inFlight=" + inFlight +
+                    '}';
+        }
+    }
+}
@@ -1,10 +1,17 @@
 package com.thingspanel.sdk;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * ThingsPanel HTTP回调处理器
+ * 调用start后在内置HTTP服务器上提供平台回调接口，也可以只使用handle*方法接入已有的Web框架
  */
 public class TPHandler {
     private static final Logger logger = Logger.getLogger(TPHandler.class.getName());
@@ -12,6 +19,10 @@ public class TPHandler {
     private FormConfigHandler formConfigHandler;
     private DeviceDisconnectHandler deviceDisconnectHandler;
     private NotificationHandler notificationHandler;
+    private DeviceListHandler deviceListHandler;
+    private CallbackServer server;
+    private volatile SdkMetrics metrics = SdkMetrics.NOOP;
+    private final List<DeviceDisconnectHandler> deviceDisconnectListeners = new CopyOnWriteArrayList<>();
 
     /**
      * 设置表单配置处理函数
@@ -27,6 +38,28 @@ public class TPHandler {
         this.deviceDisconnectHandler = handler;
     }
 
+    /**
+     * 设置设备列表处理函数
+     */
+    public void setDeviceListHandler(DeviceListHandler handler) {
+        this.deviceListHandler = handler;
+    }
+
+    /**
+     * 添加设备断开监听器
+     * 与设置的处理函数相互独立，供缓存、注册表等SDK组件在设备断开时清理状态
+     */
+    public void addDeviceDisconnectListener(DeviceDisconnectHandler listener) {
+        deviceDisconnectListeners.add(listener);
+    }
+
+    /**
+     * 移除设备断开监听器
+     */
+    public void removeDeviceDisconnectListener(DeviceDisconnectHandler listener) {
+        deviceDisconnectListeners.remove(listener);
+    }
+
     /**
      * 设置通知处理函数
      */
@@ -34,16 +67,46 @@ public class TPHandler {
         this.notificationHandler = handler;
     }
 
+    /**
+     * 设置指标实现，内置HTTP服务器按接口路径和状态码记录回调耗时
+     */
+    public void setMetrics(SdkMetrics metrics) {
+        this.metrics = metrics == null ? SdkMetrics.NOOP : metrics;
+    }
+
+    /**
+     * 获取指标实现，未设置时为{@link SdkMetrics#NOOP}
+     */
+    public SdkMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * 启动HTTP服务器
-     * @param port 端口号
+     * @param port 端口号，0表示随机端口
      */
     public void start(int port) {
+        start(port, new ServerOptions());
+    }
+
+    /**
+     * 使用指定参数启动HTTP服务器
+     * @param port 端口号，0表示随机端口
+     * @param options 服务器参数
+     */
+    public synchronized void start(int port, ServerOptions options) {
+        if (server != null) {
+            throw new IllegalStateException("HTTP服务器已启动");
+        }
         logger.info("启动HTTP服务器，端口: " + port);
-        
-        // 这里应该启动真正的HTTP服务器
-        // 建议使用Spring Boot或Servlet容器
-        // 当前是模拟实现
+
+        CallbackServer callbackServer = new CallbackServer(this, options);
+        try {
+            callbackServer.start(port);
+        } catch (IOException e) {
+            throw new IllegalStateException("HTTP服务器启动失败，端口: " + port, e);
+        }
+        server = callbackServer;
         
         logger.info("HTTP服务器启动成功");
         logger.info("回调接口:");
@@ -53,6 +116,31 @@ public class TPHandler {
         logger.info("  GET  /api/v1/plugin/device/list - 获取设备列表");
     }
 
+    /**
+     * 停止HTTP服务器，最多等待delaySeconds秒让进行中的请求完成
+     */
+    public synchronized void stop(int delaySeconds) {
+        if (server != null) {
+            server.stop(delaySeconds);
+            server = null;
+            logger.info("HTTP服务器已停止");
+        }
+    }
+
+    /**
+     * HTTP服务器实际监听的端口，未启动时为-1
+     */
+    public synchronized int getPort() {
+        return server == null ? -1 : server.getPort();
+    }
+
+    /**
+     * 获取HTTP服务器统计，未启动时为null
+     */
+    public synchronized ServerStats getServerStats() {
+        return server == null ? null : server.getStats();
+    }
+
     /**
      * 处理表单配置请求
      */
@@ -71,6 +159,13 @@ public class TPHandler {
      * 处理设备断开通知
      */
     public void handleDeviceDisconnect(String deviceId, String voucher) {
+        for (DeviceDisconnectHandler listener : deviceDisconnectListeners) {
+            try {
+                listener.handle(deviceId, voucher);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "设备断开监听器执行失败: " + deviceId, e);
+            }
+        }
         if (deviceDisconnectHandler != null) {
             deviceDisconnectHandler.handle(deviceId, voucher);
         } else {
@@ -89,6 +184,21 @@ public class TPHandler {
         }
     }
 
+    /**
+     * 处理设备列表请求
+     */
+    public Map<String, Object> handleDeviceList(String voucher, String serviceIdentifier, int page, int pageSize) {
+        if (deviceListHandler != null) {
+            return deviceListHandler.handle(voucher, serviceIdentifier, page, pageSize);
+        }
+
+        // 默认返回空列表
+        Map<String, Object> result = new HashMap<>();
+        result.put("total", 0);
+        result.put("list", new ArrayList<>());
+        return result;
+    }
+
     // 回调接口定义
     @FunctionalInterface
     public interface FormConfigHandler {
@@ -104,4 +214,168 @@ public class TPHandler {
     public interface NotificationHandler {
         void handle(Map<String, Object> notification);
     }
-} 
\ No newline at end of file
+
+    @FunctionalInterface
+    public interface DeviceListHandler {
+        Map<String, Object> handle(String voucher, String serviceIdentifier, int page, int pageSize);
+    }
+
+    /**
+     * 内置HTTP服务器参数
+     */
+    public static class ServerOptions {
+        private int maxConcurrentRequests = 1024;
+        private int maxRequestBytes = 1024 * 1024;
+        private int workerThreads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        private int dispatchThreads = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+        private boolean useVirtualThreads = true;
+        private int retryAfterSeconds = 1;
+        private int backlog = 0;
+
+        /**
+         * 同时处理和排队的最大请求数，超出时返回503
+         */
+        public ServerOptions setMaxConcurrentRequests(int maxConcurrentRequests) {
+            if (maxConcurrentRequests <= 0) {
+                throw new IllegalArgumentException("maxConcurrentRequests必须大于0");
+            }
+            this.maxConcurrentRequests = maxConcurrentRequests;
+            return this;
+        }
+
+        /**
+         * 请求体最大字节数，超出时返回413
+         */
+        public ServerOptions setMaxRequestBytes(int maxRequestBytes) {
+            if (maxRequestBytes <= 0) {
+                throw new IllegalArgumentException("maxRequestBytes必须大于0");
+            }
+            this.maxRequestBytes = maxRequestBytes;
+            return this;
+        }
+
+        /**
+         * 不使用虚拟线程时的工作线程数
+         */
+        public ServerOptions setWorkerThreads(int workerThreads) {
+            this.workerThreads = Math.max(1, workerThreads);
+            return this;
+        }
+
+        /**
+         * 解析请求头和准入判断的分发线程数
+         */
+        public ServerOptions setDispatchThreads(int dispatchThreads) {
+            this.dispatchThreads = Math.max(1, dispatchThreads);
+            return this;
+        }
+
+        /**
+         * 运行在Java 21+时是否用虚拟线程执行处理函数
+         */
+        public ServerOptions setUseVirtualThreads(boolean useVirtualThreads) {
+            this.useVirtualThreads = useVirtualThreads;
+            return this;
+        }
+
+        /**
+         * 503响应中的Retry-After秒数
+         */
+        public ServerOptions setRetryAfterSeconds(int retryAfterSeconds) {
+            this.retryAfterSeconds = Math.max(0, retryAfterSeconds);
+            return this;
+        }
+
+        /**
+         * TCP连接等待队列长度，0表示使用系统默认值
+         */
+        public ServerOptions setBacklog(int backlog) {
+            this.backlog = Math.max(0, backlog);
+            return this;
+        }
+
+        public int getMaxConcurrentRequests() {
+            return maxConcurrentRequests;
+        }
+
+        public int getMaxRequestBytes() {
+            return maxRequestBytes;
+        }
+
+        public int getWorkerThreads() {
+            return workerThreads;
+        }
+
+        public int getDispatchThreads() {
+            return dispatchThreads;
+        }
+
+        public boolean isUseVirtualThreads() {
+            return useVirtualThreads;
+        }
+
+        public int getRetryAfterSeconds() {
+            return retryAfterSeconds;
+        }
+
+        public int getBacklog() {
+            return backlog;
+        }
+    }
+
+    /**
+     * 内置HTTP服务器统计快照
+     */
+    public static class ServerStats {
+        private final long handled;
+        private final long rejected;
+        private final long tooLarge;
+        private final long failed;
+        private final int active;
+
+        public ServerStats(long handled, long rejected, long tooLarge, long failed, int active) {
+            this.handled = handled;
+            this.rejected = rejected;
+            this.tooLarge = tooLarge;
+            this.failed = failed;
+            this.active = active;
+        }
+
+        public long getHandled() {
+            return handled;
+        }
+
+        /**
+         * 因并发已满返回503的请求数
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        public long getTooLarge() {
+            return tooLarge;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        /**
+         * 当前正在处理或排队的请求数
+         */
+        public int getActive() {
+            return active;
+        }
+
+        @Override
+        public String toString() {
+            return "ServerStats{" +
+                    "handled=" + handled +
+                    ", rejected=" + rejected +
+                    ", tooLarge=" + tooLarge +
+                    ", failed=" + failed +
+                    ", active=" + active +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,498 @@
+package com.thingspanel.sdk;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 遥测聚合降采样
+ * 高频采样先按设备、按字段累积在基本类型数组中（最小值、最大值、总和、最新值、样本数），
+ * 每个刷新周期每台设备合并为一条消息，经{@link TelemetryBuilder}编码后交给发布端。
+ * 字段可配置死区：聚合值与上次上报值之差不超过死区时不上报，死区为0即仅变化时上报；
+ * 超过最长静默时间后即使未变化也会上报一次。
+ *
+ * 用法：
+ * <pre>
+ * TelemetryAggregator aggregator = new TelemetryAggregator(client::sendData, new TelemetryAggregator.Options()
+ *         .setFlushIntervalMillis(1000)
+ *         .setAggregation("temperature", TelemetryAggregator.Aggregation.AVG)
+ *         .setDeadband("switch", 0));
+ * aggregator.record(client.deviceTopics("my-service", "device-001"), "temperature", 25.5);
+ * </pre>
+ */
+public class TelemetryAggregator implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(TelemetryAggregator.class.getName());
+
+    /** 小于该值的整数结果按整数编码，与调用方原始JSON中的整数写法一致 */
+    private static final double MAX_EXACT_INTEGER = 9007199254740992d;
+
+    private final Sink sink;
+    private final TelemetrySchema schema;
+    private final TelemetryBuilder.Encoding encoding;
+    private final Aggregation defaultAggregation;
+    private final Map<String, Aggregation> aggregations;
+    private final Map<String, Double> deadbands;
+    private final long maxSilenceMillis;
+    private final long idleTimeoutMillis;
+
+    private final ConcurrentHashMap<String, Slot> slotsByName = new ConcurrentHashMap<>();
+    private volatile Slot[] slots = new Slot[0];
+    // 按数据主题索引，同一设备的不同DeviceTopics实例共用一个窗口
+    private final ConcurrentHashMap<String, Window> windows = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+    private volatile boolean running = true;
+
+    private final LongAdder samples = new LongAdder();
+    private final LongAdder published = new LongAdder();
+    private final LongAdder suppressed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * @param sink 聚合后消息的发布端，例如{@code client::sendData}或{@code pool::sendData}
+     * @param options 聚合参数
+     */
+    public TelemetryAggregator(Sink sink, Options options) {
+        if (sink == null) {
+            throw new IllegalArgumentException("发布端不能为空");
+        }
+        this.sink = sink;
+        this.schema = options.schema;
+        this.encoding = options.encoding;
+        this.defaultAggregation = options.defaultAggregation;
+        this.aggregations = new HashMap<>(options.aggregations);
+        this.deadbands = new HashMap<>(options.deadbands);
+        this.maxSilenceMillis = options.maxSilenceMillis;
+        this.idleTimeoutMillis = options.idleTimeoutMillis;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(SdkExecutors.daemonThreadFactory("tp-telemetry-flush"));
+        flusher.scheduleAtFixedRate(this::flushQuietly, options.flushIntervalMillis, options.flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 记录一个采样值，NaN被忽略
+     * @param device 设备主题句柄
+     * @param field 字段名
+     * @param value 采样值
+     */
+    public void record(DeviceTopics device, String field, double value) {
+        if (!running) {
+            throw new IllegalStateException("遥测聚合器已关闭");
+        }
+        if (Double.isNaN(value)) {
+            return;
+        }
+        Slot slot = slotsByName.get(field);
+        if (slot == null) {
+            slot = slot(field);
+        }
+        // 空闲窗口可能恰好被刷新线程释放，此时重新创建
+        String topic = device.getDataTopic();
+        Window window = windows.get(topic);
+        while (window == null || !window.add(slot.index, value)) {
+            window = windows.computeIfAbsent(topic, key -> new Window(device));
+        }
+        samples.increment();
+    }
+
+    /**
+     * 立即刷新所有设备的当前窗口
+     */
+    public void flush() {
+        long now = System.currentTimeMillis();
+        for (Window window : windows.values()) {
+            byte[] payload;
+            synchronized (window) {
+                if (window.pending == 0) {
+                    if (now - window.lastSampleMillis > idleTimeoutMillis) {
+                        window.released = true;
+                        windows.remove(window.device.getDataTopic(), window);
+                    }
+                    continue;
+                }
+                payload = window.drain(now);
+            }
+            if (payload == null) {
+                continue;
+            }
+            try {
+                sink.publish(window.device, payload);
+                published.increment();
+            } catch (RuntimeException e) {
+                failed.increment();
+                logger.log(Level.WARNING, "聚合数据发布失败 - 设备: " + window.device.getDeviceId(), e);
+            }
+        }
+    }
+
+    /**
+     * 刷新剩余数据并停止刷新线程
+     */
+    @Override
+    public void close() {
+        running = false;
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    public Stats getStats() {
+        return new Stats(windows.size(), samples.sum(), published.sum(), suppressed.sum(), failed.sum());
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "遥测聚合刷新失败", e);
+        }
+    }
+
+    private Slot slot(String field) {
+        if (field == null) {
+            throw new IllegalArgumentException("字段名不能为空");
+        }
+        synchronized (slotsByName) {
+            Slot slot = slotsByName.get(field);
+            if (slot != null) {
+                return slot;
+            }
+            Double deadband = deadbands.get(field);
+            slot = new Slot(slots.length, schema.field(field), aggregations.getOrDefault(field, defaultAggregation),
+                    deadband == null ? -1 : deadband);
+            Slot[] grown = Arrays.copyOf(slots, slots.length + 1);
+            grown[slot.index] = slot;
+            slots = grown;
+            slotsByName.put(field, slot);
+            return slot;
+        }
+    }
+
+    /**
+     * 字段槽位，同一字段在所有设备窗口中使用相同下标
+     */
+    private static final class Slot {
+        final int index;
+        final TelemetrySchema.Field field;
+        final Aggregation aggregation;
+        /** 小于0表示不启用死区 */
+        final double deadband;
+
+        Slot(int index, TelemetrySchema.Field field, Aggregation aggregation, double deadband) {
+            this.index = index;
+            this.field = field;
+            this.aggregation = aggregation;
+            this.deadband = deadband;
+        }
+    }
+
+    /**
+     * 单台设备的当前窗口，各字段的累积量按槽位下标存放在并列数组中
+     */
+    private final class Window {
+        final DeviceTopics device;
+        double[] min = new double[0];
+        double[] max = new double[0];
+        double[] sum = new double[0];
+        double[] last = new double[0];
+        long[] count = new long[0];
+        double[] reported = new double[0];
+        long[] reportedAt = new long[0];
+        int pending;
+        boolean released;
+        long lastSampleMillis = System.currentTimeMillis();
+
+        Window(DeviceTopics device) {
+            this.device = device;
+        }
+
+        /**
+         * @return 窗口已被释放时返回false
+         */
+        synchronized boolean add(int slot, double value) {
+            if (released) {
+                return false;
+            }
+            if (slot >= count.length) {
+                grow(slot + 1);
+            }
+            if (count[slot] == 0) {
+                min[slot] = value;
+                max[slot] = value;
+                sum[slot] = value;
+            } else {
+                if (value < min[slot]) {
+                    min[slot] = value;
+                }
+                if (value > max[slot]) {
+                    max[slot] = value;
+                }
+                sum[slot] += value;
+            }
+            last[slot] = value;
+            count[slot]++;
+            pending++;
+            lastSampleMillis = System.currentTimeMillis();
+            return true;
+        }
+
+        /**
+         * 编码有样本的字段并清空窗口，所有字段都被死区抑制时返回null；调用方持有窗口锁
+         */
+        byte[] drain(long now) {
+            // 样本写入前其槽位已发布，持锁读取可以看到所有有样本的槽位
+            Slot[] current = slots;
+            TelemetryBuilder builder = null;
+            for (int i = 0; i < count.length; i++) {
+                long n = count[i];
+                if (n == 0) {
+                    continue;
+                }
+                count[i] = 0;
+                Slot slot = current[i];
+                double value;
+                switch (slot.aggregation) {
+                    case MIN:
+                        value = min[i];
+                        break;
+                    case MAX:
+                        value = max[i];
+                        break;
+                    case LAST:
+                        value = last[i];
+                        break;
+                    default:
+                        value = sum[i] / n;
+                }
+                if (slot.deadband >= 0 && !Double.isNaN(reported[i])
+                        && Math.abs(value - reported[i]) <= slot.deadband
+                        && now - reportedAt[i] < maxSilenceMillis) {
+                    suppressed.increment();
+                    continue;
+                }
+                reported[i] = value;
+                reportedAt[i] = now;
+                if (builder == null) {
+                    builder = TelemetryBuilder.acquire(schema, encoding);
+                }
+                if (value == Math.rint(value) && Math.abs(value) < MAX_EXACT_INTEGER) {
+                    builder.put(slot.field, (long) value);
+                } else {
+                    builder.put(slot.field, value);
+                }
+            }
+            pending = 0;
+            return builder == null ? null : builder.build();
+        }
+
+        private void grow(int size) {
+            int capacity = Math.max(size, count.length * 2);
+            int old = reported.length;
+            min = Arrays.copyOf(min, capacity);
+            max = Arrays.copyOf(max, capacity);
+            sum = Arrays.copyOf(sum, capacity);
+            last = Arrays.copyOf(last, capacity);
+            count = Arrays.copyOf(count, capacity);
+            reported = Arrays.copyOf(reported, capacity);
+            reportedAt = Arrays.copyOf(reportedAt, capacity);
+            Arrays.fill(reported, old, capacity, Double.NaN);
+        }
+    }
+
+    /**
+     * 窗口内的聚合方式
+     */
+    public enum Aggregation {
+        /** 平均值 */
+        AVG,
+        /** 最小值 */
+        MIN,
+        /** 最大值 */
+        MAX,
+        /** 窗口内最后一个值 */
+        LAST
+    }
+
+    /**
+     * 聚合后消息的发布端
+     */
+    @FunctionalInterface
+    public interface Sink {
+        void publish(DeviceTopics device, byte[] payload);
+    }
+
+    /**
+     * 聚合参数
+     */
+    public static class Options {
+        private long flushIntervalMillis = 1_000;
+        private long maxSilenceMillis = 60_000;
+        private long idleTimeoutMillis = 600_000;
+        private TelemetrySchema schema = TelemetrySchema.forDeviceType(null);
+        private TelemetryBuilder.Encoding encoding = TelemetryBuilder.Encoding.JSON;
+        private Aggregation defaultAggregation = Aggregation.AVG;
+        private final Map<String, Aggregation> aggregations = new HashMap<>();
+        private final Map<String, Double> deadbands = new HashMap<>();
+
+        /**
+         * 刷新周期（毫秒），每台设备每个周期最多发布一条消息
+         */
+        public Options setFlushIntervalMillis(long flushIntervalMillis) {
+            if (flushIntervalMillis <= 0) {
+                throw new IllegalArgumentException("flushIntervalMillis必须大于0");
+            }
+            this.flushIntervalMillis = flushIntervalMillis;
+            return this;
+        }
+
+        /**
+         * 死区抑制的最长时间（毫秒），超过后即使未变化也上报一次
+         */
+        public Options setMaxSilenceMillis(long maxSilenceMillis) {
+            if (maxSilenceMillis <= 0) {
+                throw new IllegalArgumentException("maxSilenceMillis必须大于0");
+            }
+            this.maxSilenceMillis = maxSilenceMillis;
+            return this;
+        }
+
+        /**
+         * 设备无新样本超过该时间（毫秒）后释放其窗口
+         */
+        public Options setIdleTimeoutMillis(long idleTimeoutMillis) {
+            if (idleTimeoutMillis <= 0) {
+                throw new IllegalArgumentException("idleTimeoutMillis必须大于0");
+            }
+            this.idleTimeoutMillis = idleTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * 编码使用的字段字典，默认为{@link TelemetrySchema#DEFAULT_DEVICE_TYPE}
+         */
+        public Options setSchema(TelemetrySchema schema) {
+            if (schema == null) {
+                throw new IllegalArgumentException("字段字典不能为空");
+            }
+            this.schema = schema;
+            return this;
+        }
+
+        /**
+         * 消息编码，默认为JSON
+         */
+        public Options setEncoding(TelemetryBuilder.Encoding encoding) {
+            if (encoding == null) {
+                throw new IllegalArgumentException("编码不能为空");
+            }
+            this.encoding = encoding;
+            return this;
+        }
+
+        /**
+         * 未单独配置的字段使用的聚合方式，默认为平均值
+         */
+        public Options setDefaultAggregation(Aggregation aggregation) {
+            if (aggregation == null) {
+                throw new IllegalArgumentException("聚合方式不能为空");
+            }
+            this.defaultAggregation = aggregation;
+            return this;
+        }
+
+        /**
+         * 设置字段的聚合方式
+         */
+        public Options setAggregation(String field, Aggregation aggregation) {
+            if (aggregation == null) {
+                throw new IllegalArgumentException("聚合方式不能为空");
+            }
+            aggregations.put(field, aggregation);
+            return this;
+        }
+
+        /**
+         * 设置字段死区，聚合值与上次上报值之差不超过死区时不上报；0表示仅变化时上报
+         */
+        public Options setDeadband(String field, double deadband) {
+            if (deadband < 0 || Double.isNaN(deadband)) {
+                throw new IllegalArgumentException("deadband不能小于0");
+            }
+            deadbands.put(field, deadband);
+            return this;
+        }
+    }
+
+    /**
+     * 聚合统计快照
+     */
+    public static class Stats {
+        private final int devices;
+        private final long samples;
+        private final long published;
+        private final long suppressed;
+        private final long failed;
+
+        public Stats(int devices, long samples, long published, long suppressed, long failed) {
+            this.devices = devices;
+            this.samples = samples;
+            this.published = published;
+            this.suppressed = suppressed;
+            this.failed = failed;
+        }
+
+        /**
+         * 当前持有窗口的设备数
+         */
+        public int getDevices() {
+            return devices;
+        }
+
+        public long getSamples() {
+            return samples;
+        }
+
+        public long getPublished() {
+            return published;
+        }
+
+        /**
+         * 被死区抑制的字段数
+         */
+        public long getSuppressed() {
+            return suppressed;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+
+        /**
+         * 采样数与发布消息数之比
+         */
+        public double getReductionRatio() {
+            return published == 0 ? 0 : (double) samples / published;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "devices=" + devices +
+                    ", samples=" + samples +
+                    ", published=" + published +
+                    ", suppressed=" + suppressed +
+                    ", failed=" + failed +
+                    '}';
+        }
+    }
+}
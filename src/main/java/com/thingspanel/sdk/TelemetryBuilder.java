@@ -0,0 +1,414 @@
+package com.thingspanel.sdk;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.core.io.NumberOutput;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 类型化遥测数据构建器
+ * 基本类型字段直接写入线程内复用的ByteBuffer，字段名取自{@link TelemetrySchema}中预先编码的字节，
+ * 不经过JSON字符串拼接和整体UTF-8编码。JSON编码与平台现有格式一致；CBOR和MessagePack更紧凑，
+ * 需要接收端按对应格式解码。
+ *
+ * 用法：
+ * <pre>
+ * byte[] payload = TelemetryBuilder.acquire(schema, TelemetryBuilder.Encoding.JSON)
+ *         .put("temperature", 25.5)
+ *         .put("humidity", 60)
+ *         .build();
+ * </pre>
+ * build后构建器归还给当前线程，不能再使用。
+ */
+public final class TelemetryBuilder {
+
+    /** 映射头预留的字节数，足以容纳32位长度的CBOR/MessagePack映射头 */
+    private static final int HEADER_RESERVE = 5;
+    private static final int INITIAL_CAPACITY = 256;
+    /** 归还时超过该容量的缓冲区被丢弃，避免偶发的大消息长期占用内存 */
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private static final ThreadLocal<TelemetryBuilder> POOL = ThreadLocal.withInitial(() -> new TelemetryBuilder(true));
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+
+    /**
+     * 遥测数据编码
+     */
+    public enum Encoding {
+        /** JSON对象，与sendData的字符串格式兼容 */
+        JSON,
+        /** CBOR映射（RFC 8949） */
+        CBOR,
+        /** MessagePack映射 */
+        MSGPACK
+    }
+
+    private final boolean pooled;
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+    private TelemetrySchema schema;
+    private Encoding encoding;
+    private int fieldCount;
+    private boolean active;
+
+    private TelemetryBuilder(boolean pooled) {
+        this.pooled = pooled;
+    }
+
+    /**
+     * 从当前线程的池中取出构建器；同一线程上一个构建器尚未build时返回新实例
+     * @param schema 字段字典
+     * @param encoding 编码
+     */
+    public static TelemetryBuilder acquire(TelemetrySchema schema, Encoding encoding) {
+        if (schema == null || encoding == null) {
+            throw new IllegalArgumentException("字段字典和编码不能为空");
+        }
+        TelemetryBuilder builder = POOL.get();
+        if (builder.active) {
+            builder = new TelemetryBuilder(false);
+        }
+        builder.start(schema, encoding);
+        return builder;
+    }
+
+    /**
+     * 按设备类型取出JSON编码的构建器
+     */
+    public static TelemetryBuilder acquire(Device device) {
+        return acquire(TelemetrySchema.forDevice(device), Encoding.JSON);
+    }
+
+    private void start(TelemetrySchema schema, Encoding encoding) {
+        this.schema = schema;
+        this.encoding = encoding;
+        this.fieldCount = 0;
+        this.active = true;
+        buffer.clear();
+        buffer.position(encoding == Encoding.JSON ? 0 : HEADER_RESERVE);
+    }
+
+    public Encoding getEncoding() {
+        return encoding;
+    }
+
+    public TelemetryBuilder put(String name, double value) {
+        return put(field(name), value);
+    }
+
+    public TelemetryBuilder put(String name, long value) {
+        return put(field(name), value);
+    }
+
+    public TelemetryBuilder put(String name, boolean value) {
+        return put(field(name), value);
+    }
+
+    /**
+     * @param value 字符串值，为null时编码为null
+     */
+    public TelemetryBuilder put(String name, String value) {
+        return put(field(name), value);
+    }
+
+    private TelemetrySchema.Field field(String name) {
+        checkActive();
+        return schema.field(name);
+    }
+
+    /**
+     * 写入浮点字段；JSON中NaN和无穷大编码为null，CBOR/MessagePack在不损失精度时使用单精度
+     */
+    public TelemetryBuilder put(TelemetrySchema.Field field, double value) {
+        writeName(field);
+        switch (encoding) {
+            case JSON:
+                if (Double.isNaN(value) || Double.isInfinite(value)) {
+                    writeBytes(NULL);
+                } else {
+                    writeAscii(Double.toString(value));
+                }
+                break;
+            case CBOR:
+                if ((double) (float) value == value || Double.isNaN(value)) {
+                    ensure(5);
+                    buffer.put((byte) 0xFA).putFloat((float) value);
+                } else {
+                    ensure(9);
+                    buffer.put((byte) 0xFB).putDouble(value);
+                }
+                break;
+            default:
+                if ((double) (float) value == value || Double.isNaN(value)) {
+                    ensure(5);
+                    buffer.put((byte) 0xCA).putFloat((float) value);
+                } else {
+                    ensure(9);
+                    buffer.put((byte) 0xCB).putDouble(value);
+                }
+        }
+        return this;
+    }
+
+    public TelemetryBuilder put(TelemetrySchema.Field field, long value) {
+        writeName(field);
+        switch (encoding) {
+            case JSON:
+                ensure(20);
+                buffer.position(NumberOutput.outputLong(value, buffer.array(), buffer.position()));
+                break;
+            case CBOR:
+                if (value >= 0) {
+                    writeCborHead(0x00, value);
+                } else {
+                    writeCborHead(0x20, -1 - value);
+                }
+                break;
+            default:
+                writeMsgpackInt(value);
+        }
+        return this;
+    }
+
+    public TelemetryBuilder put(TelemetrySchema.Field field, boolean value) {
+        writeName(field);
+        switch (encoding) {
+            case JSON:
+                writeBytes(value ? TRUE : FALSE);
+                break;
+            case CBOR:
+                ensure(1);
+                buffer.put((byte) (value ? 0xF5 : 0xF4));
+                break;
+            default:
+                ensure(1);
+                buffer.put((byte) (value ? 0xC3 : 0xC2));
+        }
+        return this;
+    }
+
+    public TelemetryBuilder put(TelemetrySchema.Field field, String value) {
+        writeName(field);
+        if (value == null) {
+            if (encoding == Encoding.JSON) {
+                writeBytes(NULL);
+            } else {
+                ensure(1);
+                buffer.put((byte) (encoding == Encoding.CBOR ? 0xF6 : 0xC0));
+            }
+            return this;
+        }
+        switch (encoding) {
+            case JSON:
+                byte[] escaped = JsonStringEncoder.getInstance().quoteAsUTF8(value);
+                ensure(escaped.length + 2);
+                buffer.put((byte) '"').put(escaped).put((byte) '"');
+                break;
+            case CBOR:
+                byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+                writeCborHead(0x60, utf8.length);
+                writeBytes(utf8);
+                break;
+            default:
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                writeMsgpackStrHeader(bytes.length);
+                writeBytes(bytes);
+        }
+        return this;
+    }
+
+    /**
+     * 已写入的字段数
+     */
+    public int size() {
+        return fieldCount;
+    }
+
+    /**
+     * 完成编码并返回负载字节，构建器随即归还，不能再使用
+     */
+    public byte[] build() {
+        checkActive();
+        int start;
+        if (encoding == Encoding.JSON) {
+            if (fieldCount == 0) {
+                ensure(1);
+                buffer.put((byte) '{');
+            }
+            ensure(1);
+            buffer.put((byte) '}');
+            start = 0;
+        } else {
+            start = writeMapHeader();
+        }
+        byte[] payload = new byte[buffer.position() - start];
+        System.arraycopy(buffer.array(), start, payload, 0, payload.length);
+        release();
+        return payload;
+    }
+
+    private void release() {
+        active = false;
+        schema = null;
+        if (buffer.capacity() > MAX_RETAINED_CAPACITY) {
+            buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+        }
+        if (!pooled) {
+            buffer = null;
+        }
+    }
+
+    private void checkActive() {
+        if (!active) {
+            throw new IllegalStateException("构建器已完成，请重新acquire");
+        }
+    }
+
+    private void writeName(TelemetrySchema.Field field) {
+        checkActive();
+        switch (encoding) {
+            case JSON:
+                ensure(field.json.length + 1);
+                buffer.put((byte) (fieldCount == 0 ? '{' : ','));
+                buffer.put(field.json);
+                break;
+            case CBOR:
+                writeBytes(field.cbor);
+                break;
+            default:
+                writeBytes(field.msgpack);
+        }
+        fieldCount++;
+    }
+
+    /**
+     * 在预留区内右对齐写入映射头，返回负载起始位置
+     */
+    private int writeMapHeader() {
+        byte[] array = buffer.array();
+        int n = fieldCount;
+        if (encoding == Encoding.CBOR) {
+            if (n < 24) {
+                array[4] = (byte) (0xA0 | n);
+                return 4;
+            }
+            if (n < 0x100) {
+                array[3] = (byte) 0xB8;
+                array[4] = (byte) n;
+                return 3;
+            }
+            if (n < 0x10000) {
+                array[2] = (byte) 0xB9;
+                array[3] = (byte) (n >>> 8);
+                array[4] = (byte) n;
+                return 2;
+            }
+            array[0] = (byte) 0xBA;
+        } else {
+            if (n < 16) {
+                array[4] = (byte) (0x80 | n);
+                return 4;
+            }
+            if (n < 0x10000) {
+                array[2] = (byte) 0xDE;
+                array[3] = (byte) (n >>> 8);
+                array[4] = (byte) n;
+                return 2;
+            }
+            array[0] = (byte) 0xDF;
+        }
+        array[1] = (byte) (n >>> 24);
+        array[2] = (byte) (n >>> 16);
+        array[3] = (byte) (n >>> 8);
+        array[4] = (byte) n;
+        return 0;
+    }
+
+    /**
+     * CBOR数据项头部：主类型与无符号参数
+     */
+    private void writeCborHead(int majorType, long value) {
+        ensure(9);
+        if (value < 24) {
+            buffer.put((byte) (majorType | value));
+        } else if (value < 0x100) {
+            buffer.put((byte) (majorType | 24)).put((byte) value);
+        } else if (value < 0x10000) {
+            buffer.put((byte) (majorType | 25)).putShort((short) value);
+        } else if (value < 0x100000000L) {
+            buffer.put((byte) (majorType | 26)).putInt((int) value);
+        } else {
+            buffer.put((byte) (majorType | 27)).putLong(value);
+        }
+    }
+
+    private void writeMsgpackInt(long value) {
+        ensure(9);
+        if (value >= 0) {
+            if (value < 0x80) {
+                buffer.put((byte) value);
+            } else if (value < 0x100) {
+                buffer.put((byte) 0xCC).put((byte) value);
+            } else if (value < 0x10000) {
+                buffer.put((byte) 0xCD).putShort((short) value);
+            } else if (value < 0x100000000L) {
+                buffer.put((byte) 0xCE).putInt((int) value);
+            } else {
+                buffer.put((byte) 0xCF).putLong(value);
+            }
+        } else if (value >= -32) {
+            buffer.put((byte) value);
+        } else if (value >= Byte.MIN_VALUE) {
+            buffer.put((byte) 0xD0).put((byte) value);
+        } else if (value >= Short.MIN_VALUE) {
+            buffer.put((byte) 0xD1).putShort((short) value);
+        } else if (value >= Integer.MIN_VALUE) {
+            buffer.put((byte) 0xD2).putInt((int) value);
+        } else {
+            buffer.put((byte) 0xD3).putLong(value);
+        }
+    }
+
+    private void writeMsgpackStrHeader(int length) {
+        ensure(5);
+        if (length < 32) {
+            buffer.put((byte) (0xA0 | length));
+        } else if (length < 0x100) {
+            buffer.put((byte) 0xD9).put((byte) length);
+        } else if (length < 0x10000) {
+            buffer.put((byte) 0xDA).putShort((short) length);
+        } else {
+            buffer.put((byte) 0xDB).putInt(length);
+        }
+    }
+
+    private void writeBytes(byte[] bytes) {
+        ensure(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private void writeAscii(String text) {
+        int length = text.length();
+        ensure(length);
+        for (int i = 0; i < length; i++) {
+            buffer.put((byte) text.charAt(i));
+        }
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+        int capacity = buffer.capacity();
+        int required = buffer.position() + bytes;
+        while (capacity < required) {
+            capacity *= 2;
+        }
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+    }
+}
@@ -0,0 +1,144 @@
+package com.thingspanel.sdk;
+
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 遥测字段字典
+ * 按设备类型缓存字段名在各编码下的字节形式（JSON为带引号和冒号的名称，CBOR/MessagePack为带长度头的字符串），
+ * 同一类型的设备共享一份字典，编码时直接复制字节，不再逐次转义和编码字段名。
+ */
+public final class TelemetrySchema {
+
+    /** 未指定设备类型时使用的字典 */
+    public static final String DEFAULT_DEVICE_TYPE = "default";
+
+    private static final ConcurrentHashMap<String, TelemetrySchema> SCHEMAS = new ConcurrentHashMap<>();
+
+    /** 每个字典缓存的字段数上限，超出后新字段每次临时编码，防止动态字段名使字典无限增长 */
+    static final int MAX_FIELDS = 1024;
+
+    private final String deviceType;
+    private final ConcurrentHashMap<String, Field> fields = new ConcurrentHashMap<>();
+
+    private TelemetrySchema(String deviceType) {
+        this.deviceType = deviceType;
+    }
+
+    /**
+     * 获取设备类型对应的字段字典，同一类型返回同一实例
+     * @param deviceType 设备类型，为null时使用默认字典
+     */
+    public static TelemetrySchema forDeviceType(String deviceType) {
+        String key = deviceType == null || deviceType.isEmpty() ? DEFAULT_DEVICE_TYPE : deviceType;
+        TelemetrySchema schema = SCHEMAS.get(key);
+        return schema != null ? schema : SCHEMAS.computeIfAbsent(key, TelemetrySchema::new);
+    }
+
+    /**
+     * 按{@link Device#getDeviceType()}获取字段字典
+     */
+    public static TelemetrySchema forDevice(Device device) {
+        return forDeviceType(device == null ? null : device.getDeviceType());
+    }
+
+    public String getDeviceType() {
+        return deviceType;
+    }
+
+    /**
+     * 获取字段句柄，调用方可持有句柄以省去每次按名称查找
+     * @param name 字段名
+     */
+    public Field field(String name) {
+        Field field = fields.get(name);
+        if (field != null) {
+            return field;
+        }
+        if (name == null) {
+            throw new IllegalArgumentException("字段名不能为空");
+        }
+        if (fields.size() >= MAX_FIELDS) {
+            return new Field(name);
+        }
+        return fields.computeIfAbsent(name, Field::new);
+    }
+
+    /**
+     * 已缓存的字段数
+     */
+    public int size() {
+        return fields.size();
+    }
+
+    @Override
+    public String toString() {
+        return "TelemetrySchema{" +
+                "deviceType='" + deviceType + '\'' +
+                ", fields=" + fields.size() +
+                '}';
+    }
+
+    /**
+     * 字段句柄，持有字段名在各编码下预先编码好的字节
+     */
+    public static final class Field {
+        private final String name;
+        final byte[] json;
+        final byte[] cbor;
+        final byte[] msgpack;
+
+        Field(String name) {
+            this.name = name;
+            byte[] quoted = new SerializedString(name).asQuotedUTF8();
+            this.json = new byte[quoted.length + 3];
+            json[0] = '"';
+            System.arraycopy(quoted, 0, json, 1, quoted.length);
+            json[json.length - 2] = '"';
+            json[json.length - 1] = ':';
+
+            byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+            this.cbor = withHeader(cborTextHeader(utf8.length), utf8);
+            this.msgpack = withHeader(msgpackStrHeader(utf8.length), utf8);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        private static byte[] withHeader(byte[] header, byte[] utf8) {
+            byte[] result = new byte[header.length + utf8.length];
+            System.arraycopy(header, 0, result, 0, header.length);
+            System.arraycopy(utf8, 0, result, header.length, utf8.length);
+            return result;
+        }
+
+        private static byte[] cborTextHeader(int length) {
+            if (length < 24) {
+                return new byte[]{(byte) (0x60 | length)};
+            }
+            if (length < 0x100) {
+                return new byte[]{0x78, (byte) length};
+            }
+            if (length < 0x10000) {
+                return new byte[]{0x79, (byte) (length >>> 8), (byte) length};
+            }
+            return new byte[]{0x7A, (byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length};
+        }
+
+        private static byte[] msgpackStrHeader(int length) {
+            if (length < 32) {
+                return new byte[]{(byte) (0xA0 | length)};
+            }
+            if (length < 0x100) {
+                return new byte[]{(byte) 0xD9, (byte) length};
+            }
+            if (length < 0x10000) {
+                return new byte[]{(byte) 0xDA, (byte) (length >>> 8), (byte) length};
+            }
+            return new byte[]{(byte) 0xDB, (byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length};
+        }
+    }
+}
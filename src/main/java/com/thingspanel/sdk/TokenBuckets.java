@@ -0,0 +1,152 @@
+package com.thingspanel.sdk;
+
+/**
+ * 按键分组的令牌桶
+ * 以GCRA（通用信元速率算法）实现：每个桶只保存一个"理论到达时间"，速率为r、容量为b时，
+ * 理论到达时间不超过 当前时间+(b-1)/r 即可放行，放行后推后1/r。桶满（理论到达时间已过）与不存在等价，
+ * 因此只需记录最近有流量的键。键与理论到达时间存放在开放寻址的两个long数组中，每个键16字节，
+ * 扩容时顺带清除已满的桶。非线程安全，由{@link OutboundScheduler}的调度线程独占使用。
+ */
+final class TokenBuckets {
+    private static final long EMPTY = 0;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    /** 强制扣减（优先通道）时理论到达时间最多领先的时长，相当于允许欠下一整桶令牌 */
+    private final long debtNanos;
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private long[] arrivals = new long[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * @param ratePerSecond 每秒令牌数
+     * @param burst 桶容量
+     */
+    TokenBuckets(long ratePerSecond, long burst) {
+        this.intervalNanos = Math.max(1, 1_000_000_000L / ratePerSecond);
+        this.toleranceNanos = (burst - 1) * intervalNanos;
+        this.debtNanos = toleranceNanos + burst * intervalNanos;
+    }
+
+    /**
+     * 计算键为字符串的64位哈希（FNV-1a），结果不为0
+     */
+    static long key(String value) {
+        if (value == null) {
+            return EMPTY;
+        }
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash == EMPTY ? 1 : hash;
+    }
+
+    /**
+     * 距离该键下一个令牌可用还需等待的时长
+     * @return 0表示当前可取
+     */
+    long waitNanos(long key, long now) {
+        int slot = find(key);
+        if (slot < 0) {
+            return 0;
+        }
+        return Math.max(0, arrivals[slot] - now - toleranceNanos);
+    }
+
+    /**
+     * 取一个令牌，调用前应已确认{@link #waitNanos}为0
+     */
+    void take(long key, long now) {
+        int slot = findOrInsert(key, now);
+        arrivals[slot] = Math.max(arrivals[slot], now) + intervalNanos;
+    }
+
+    /**
+     * 强制扣减一个令牌，令牌不足时记为欠账，之后该键的普通流量相应推迟；欠账最多一整桶
+     */
+    void debit(long key, long now) {
+        int slot = findOrInsert(key, now);
+        arrivals[slot] = Math.min(Math.max(arrivals[slot], now) + intervalNanos, now + debtNanos);
+    }
+
+    /**
+     * 当前记录的键数（含已满但尚未清除的桶）
+     */
+    int size() {
+        return size;
+    }
+
+    private int find(long key) {
+        int mask = keys.length - 1;
+        for (int slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+            long current = keys[slot];
+            if (current == key) {
+                return slot;
+            }
+            if (current == EMPTY) {
+                return -1;
+            }
+        }
+    }
+
+    private int findOrInsert(long key, long now) {
+        if ((size + 1) * 4 > keys.length * 3) {
+            rehash(now);
+        }
+        int mask = keys.length - 1;
+        for (int slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+            long current = keys[slot];
+            if (current == key) {
+                return slot;
+            }
+            if (current == EMPTY) {
+                keys[slot] = key;
+                arrivals[slot] = now;
+                size++;
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * 丢弃已满的桶后重新散列，剩余条目仍超过一半时容量翻倍
+     */
+    private void rehash(long now) {
+        long[] oldKeys = keys;
+        long[] oldArrivals = arrivals;
+        int live = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY && oldArrivals[i] > now) {
+                live++;
+            }
+        }
+        int capacity = oldKeys.length;
+        while ((live + 1) * 2 > capacity) {
+            capacity <<= 1;
+        }
+        keys = new long[capacity];
+        arrivals = new long[capacity];
+        size = 0;
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY || oldArrivals[i] <= now) {
+                continue;
+            }
+            int slot = mix(oldKeys[i]) & mask;
+            while (keys[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[i];
+            arrivals[slot] = oldArrivals[i];
+            size++;
+        }
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,166 @@
+package com.thingspanel.sdk;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 设备主题注册表
+ * 按（服务标识符，设备ID）缓存{@link DeviceTopics}，两级Map查找不需要拼接键，命中时不分配对象。
+ * 条目数有上限，超出时随机淘汰一个条目；设备断开时可通过{@link #bindTo(TPHandler)}自动移除。
+ */
+public class TopicRegistry {
+
+    /** 默认最大缓存设备主题数 */
+    public static final int DEFAULT_MAX_ENTRIES = 100_000;
+
+    private static final String NO_SERVICE = "";
+
+    private final int maxEntries;
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, DeviceTopics>> services = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, GatewayTopics>> gateways = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final LongAdder evictions = new LongAdder();
+
+    public TopicRegistry() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries 最大缓存条目数
+     */
+    public TopicRegistry(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries必须大于0");
+        }
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * 在处理器收到设备断开通知时移除该设备的主题
+     * @param handler HTTP回调处理器
+     * @return 当前注册表实例
+     */
+    public TopicRegistry bindTo(TPHandler handler) {
+        handler.addDeviceDisconnectListener((deviceId, voucher) -> remove(deviceId));
+        return this;
+    }
+
+    /**
+     * 获取设备主题句柄，不存在时创建并缓存
+     * @param serviceIdentifier 服务标识符
+     * @param deviceId 设备ID
+     */
+    public DeviceTopics get(String serviceIdentifier, String deviceId) {
+        String service = serviceIdentifier == null ? NO_SERVICE : serviceIdentifier;
+        ConcurrentHashMap<String, DeviceTopics> devices = services.get(service);
+        if (devices == null) {
+            devices = services.computeIfAbsent(service, key -> new ConcurrentHashMap<>());
+        }
+        DeviceTopics topics = devices.get(deviceId);
+        if (topics != null) {
+            return topics;
+        }
+        DeviceTopics created = new DeviceTopics(serviceIdentifier, deviceId);
+        DeviceTopics existing = devices.putIfAbsent(deviceId, created);
+        if (existing != null) {
+            return existing;
+        }
+        if (size.incrementAndGet() > maxEntries) {
+            evictOne(devices, deviceId);
+        }
+        return created;
+    }
+
+    /**
+     * 获取网关主题句柄，不存在或网关的子设备列表已被替换时重建；子设备的主题句柄同样登记在本注册表中。
+     * 网关句柄数量通常很少，不计入条目上限
+     * @param serviceIdentifier 服务标识符
+     * @param gateway 网关设备
+     */
+    public GatewayTopics gateway(String serviceIdentifier, Device gateway) {
+        if (gateway == null || gateway.getDeviceId() == null) {
+            throw new IllegalArgumentException("网关设备ID不能为空");
+        }
+        String service = serviceIdentifier == null ? NO_SERVICE : serviceIdentifier;
+        ConcurrentHashMap<String, GatewayTopics> byGateway = gateways.get(service);
+        if (byGateway == null) {
+            byGateway = gateways.computeIfAbsent(service, key -> new ConcurrentHashMap<>());
+        }
+        GatewayTopics topics = byGateway.get(gateway.getDeviceId());
+        if (topics != null && topics.isCurrent(gateway.getSubDevices())) {
+            return topics;
+        }
+        GatewayTopics rebuilt = new GatewayTopics(get(serviceIdentifier, gateway.getDeviceId()), gateway.getSubDevices(), this);
+        byGateway.put(gateway.getDeviceId(), rebuilt);
+        return rebuilt;
+    }
+
+    /**
+     * 移除设备在所有服务下的主题
+     * @param deviceId 设备ID
+     */
+    public void remove(String deviceId) {
+        if (deviceId == null) {
+            return;
+        }
+        for (ConcurrentHashMap<String, DeviceTopics> devices : services.values()) {
+            if (devices.remove(deviceId) != null) {
+                size.decrementAndGet();
+            }
+        }
+        for (ConcurrentHashMap<String, GatewayTopics> byGateway : gateways.values()) {
+            byGateway.remove(deviceId);
+        }
+    }
+
+    /**
+     * 清空注册表
+     */
+    public void clear() {
+        for (ConcurrentHashMap<String, DeviceTopics> devices : services.values()) {
+            int removed = devices.size();
+            devices.clear();
+            size.addAndGet(-removed);
+        }
+        gateways.clear();
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * 淘汰同一服务下迭代顺序中的第一个其他条目，ConcurrentHashMap的迭代顺序由哈希决定，近似随机淘汰
+     */
+    private void evictOne(ConcurrentHashMap<String, DeviceTopics> devices, String keep) {
+        Iterator<Map.Entry<String, DeviceTopics>> iterator = devices.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, DeviceTopics> entry = iterator.next();
+            if (!entry.getKey().equals(keep) && devices.remove(entry.getKey(), entry.getValue())) {
+                size.decrementAndGet();
+                evictions.increment();
+                return;
+            }
+        }
+        // 当前服务下没有其他条目时从其他服务淘汰
+        for (ConcurrentHashMap<String, DeviceTopics> other : services.values()) {
+            if (other == devices) {
+                continue;
+            }
+            for (Map.Entry<String, DeviceTopics> entry : other.entrySet()) {
+                if (other.remove(entry.getKey(), entry.getValue())) {
+                    size.decrementAndGet();
+                    evictions.increment();
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.thingspanel.sdk;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+/**
+ * ApiResilience与CircuitBreaker单元测试
+ */
+public class ApiResilienceTest {
+
+    private static final String OK = "{\"code\":200,\"message\":\"ok\",\"data\":{\"id\":\"dev-1\"}}";
+    private static final String NOT_FOUND = "{\"code\":404,\"message\":\"设备不存在\"}";
+
+    /**
+     * 按调用序号返回脚本化响应的HTTP传输，延迟大于0时异步返回
+     */
+    static class ScriptedTransport implements HttpTransport {
+        final AtomicInteger calls = new AtomicInteger();
+        final IntFunction<Object[]> script;
+
+        ScriptedTransport(IntFunction<Object[]> script) {
+            this.script = script;
+        }
+
+        @Override
+        public <T> T post(URI uri, byte[] body, ResponseDecoder<T> decoder) {
+            Object[] step = script.apply(calls.getAndIncrement());
+            return decoder.decode((Integer) step[0], ((String) step[1]).getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public <T> CompletableFuture<T> postAsync(URI uri, byte[] body, ResponseDecoder<T> decoder) {
+            Object[] step = script.apply(calls.getAndIncrement());
+            long delay = step.length > 2 ? (Long) step[2] : 0;
+            return CompletableFuture.supplyAsync(
+                    () -> decoder.decode((Integer) step[0], ((String) step[1]).getBytes(StandardCharsets.UTF_8)),
+                    CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS));
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static TPAPIClient.DeviceConfigRequest configRequest() {
+        TPAPIClient.DeviceConfigRequest request = new TPAPIClient.DeviceConfigRequest();
+        request.deviceId = "dev-1";
+        return request;
+    }
+
+    private static ApiResilience.Options fastOptions() {
+        return new ApiResilience.Options().setBaseBackoffMillis(1).setMaxBackoffMillis(5);
+    }
+
+    @Test
+    public void testRetriesIdempotentCallOnServerError() throws Exception {
+        ScriptedTransport transport = new ScriptedTransport(n -> n < 2 ? new Object[]{503, ""} : new Object[]{200, OK});
+        TPAPIClient client = new TPAPIClient("http://localhost", transport, 16).enableResilience(fastOptions());
+
+        TPAPIClient.APIResponse<Device> response = client.getDeviceConfig(configRequest());
+        assertTrue(response.isSuccess());
+        assertEquals(200, response.getStatusCode());
+        assertEquals(2, client.getResilience().getStats().getRetries());
+
+        transport.calls.set(0);
+        assertTrue(client.getDeviceConfigAsync(configRequest()).get(5, TimeUnit.SECONDS).isSuccess());
+        assertEquals(3, transport.calls.get());
+    }
+
+    @Test
+    public void testDoesNotRetryBusinessErrorsOrNonIdempotentCalls() {
+        ScriptedTransport notFound = new ScriptedTransport(n -> new Object[]{200, NOT_FOUND});
+        TPAPIClient client = new TPAPIClient("http://localhost", notFound, 16).enableResilience(fastOptions());
+        assertFalse(client.getDeviceConfig(configRequest()).isSuccess());
+        assertEquals(1, notFound.calls.get());
+
+        ScriptedTransport failing = new ScriptedTransport(n -> new Object[]{503, ""});
+        client = new TPAPIClient("http://localhost", failing, 16).enableResilience(fastOptions());
+        TPAPIClient.DeviceDynamicAuthRequest auth = new TPAPIClient.DeviceDynamicAuthRequest();
+        auth.templateSecret = "secret";
+        assertFalse(client.deviceDynamicAuth(auth).isSuccess());
+        assertEquals(1, failing.calls.get());
+    }
+
+    @Test
+    public void testCircuitBreakerOpensAndRecovers() throws Exception {
+        AtomicInteger healthyAfter = new AtomicInteger(Integer.MAX_VALUE);
+        ScriptedTransport transport = new ScriptedTransport(
+                n -> n >= healthyAfter.get() ? new Object[]{200, OK} : new Object[]{500, ""});
+        TPAPIClient client = new TPAPIClient("http://localhost", transport, 16)
+                .enableResilience(fastOptions().setMaxRetries(0).setFailureThreshold(3).setOpenMillis(100));
+        CircuitBreaker breaker = client.getResilience().getCircuitBreaker();
+
+        for (int i = 0; i < 3; i++) {
+            client.getDeviceConfig(configRequest());
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        TPAPIClient.APIResponse<Device> rejected = client.getDeviceConfig(configRequest());
+        assertFalse(rejected.isSuccess());
+        assertEquals(0, rejected.getStatusCode());
+        assertEquals(3, transport.calls.get());
+        assertEquals(1, client.getResilience().getStats().getShortCircuited());
+
+        healthyAfter.set(0);
+        Thread.sleep(150);
+        assertTrue(client.getDeviceConfig(configRequest()).isSuccess());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(1, breaker.getOpenCount());
+    }
+
+    @Test
+    public void testHalfOpenProbeFailureReopens() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(1, 50);
+        breaker.onFailure();
+        assertFalse(breaker.tryAcquire());
+        Thread.sleep(60);
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(2, breaker.getOpenCount());
+    }
+
+    @Test
+    public void testHedgedRequestWinsOverSlowPrimary() throws Exception {
+        ScriptedTransport transport = new ScriptedTransport(
+                n -> n == 0 ? new Object[]{200, OK, 1000L} : new Object[]{200, OK, 0L});
+        TPAPIClient client = new TPAPIClient("http://localhost", transport, 16)
+                .enableResilience(fastOptions().setHedging(true).setHedgeDelayMillis(50));
+
+        long start = System.nanoTime();
+        TPAPIClient.APIResponse<Device> response = client.getDeviceConfigAsync(configRequest()).get(5, TimeUnit.SECONDS);
+        assertTrue(response.isSuccess());
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(800));
+        assertEquals(2, transport.calls.get());
+        assertEquals(1, client.getResilience().getStats().getHedges());
+    }
+
+    @Test
+    public void testHedgeIsSkippedWhileBreakerOpen() throws Exception {
+        ScriptedTransport transport = new ScriptedTransport(n -> new Object[]{200, OK, 200L});
+        TPAPIClient client = new TPAPIClient("http://localhost", transport, 16)
+                .enableResilience(fastOptions().setHedging(true).setHedgeDelayMillis(50)
+                        .setFailureThreshold(1).setOpenMillis(10_000));
+        CompletableFuture<TPAPIClient.APIResponse<Device>> pending = client.getDeviceConfigAsync(configRequest());
+        // 主请求在途时熔断器被其他调用打开，对冲请求不应再发出
+        client.getResilience().getCircuitBreaker().onFailure();
+
+        assertTrue(pending.get(5, TimeUnit.SECONDS).isSuccess());
+        assertEquals(1, transport.calls.get());
+        assertEquals(0, client.getResilience().getStats().getHedges());
+        assertEquals(1, client.getResilience().getStats().getShortCircuited());
+    }
+
+    @Test
+    public void testHedgeIsSkippedWhileRequestsAreQueued() throws Exception {
+        ScriptedTransport transport = new ScriptedTransport(n -> new Object[]{200, OK, 300L});
+        TPAPIClient client = new TPAPIClient("http://localhost", transport, 1)
+                .enableResilience(fastOptions().setHedging(true).setHedgeDelayMillis(50));
+
+        // 并发上限为1，第二个请求在限制器中排队：对冲只会排在它后面，不应发出
+        CompletableFuture<TPAPIClient.APIResponse<Device>> first = client.getDeviceConfigAsync(configRequest());
+        CompletableFuture<TPAPIClient.APIResponse<Device>> second = client.getDeviceConfigAsync(configRequest());
+        assertEquals(1, client.getQueuedAsyncRequests());
+
+        assertTrue(first.get(5, TimeUnit.SECONDS).isSuccess());
+        assertTrue(second.get(5, TimeUnit.SECONDS).isSuccess());
+        assertEquals(2, transport.calls.get());
+        assertEquals(0, client.getResilience().getStats().getHedges());
+    }
+}
@@ -0,0 +1,142 @@
+package com.thingspanel.sdk;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * AsyncLimiter及TPAPIClient异步接口单元测试
+ */
+public class AsyncLimiterTest {
+
+    @Test
+    public void testQueuesBeyondCapAndStartsOnCompletion() throws Exception {
+        AsyncLimiter limiter = new AsyncLimiter(2);
+        List<CompletableFuture<Integer>> gates = new ArrayList<>();
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            CompletableFuture<Integer> gate = new CompletableFuture<>();
+            gates.add(gate);
+            results.add(limiter.submit(() -> gate));
+        }
+        assertEquals(2, limiter.getActive());
+        assertEquals(3, limiter.getQueued());
+
+        gates.get(0).complete(0);
+        assertEquals(Integer.valueOf(0), results.get(0).get());
+        assertEquals(2, limiter.getActive());
+        assertEquals(2, limiter.getQueued());
+
+        for (int i = 1; i < 5; i++) {
+            gates.get(i).complete(i);
+        }
+        for (int i = 0; i < 5; i++) {
+            assertEquals(Integer.valueOf(i), results.get(i).get(1, TimeUnit.SECONDS));
+        }
+        assertEquals(0, limiter.getActive());
+        assertEquals(0, limiter.getQueued());
+    }
+
+    @Test
+    public void testSynchronousFailuresDoNotRecurse() throws Exception {
+        AsyncLimiter limiter = new AsyncLimiter(1);
+        CompletableFuture<String> gate = new CompletableFuture<>();
+        CompletableFuture<String> first = limiter.submit(() -> gate);
+        int count = 200_000;
+        List<CompletableFuture<String>> failed = new ArrayList<>(count);
+        IOException error = new IOException("连接被拒绝");
+        for (int i = 0; i < count; i++) {
+            if (i % 2 == 0) {
+                failed.add(limiter.submit(() -> CompletableFuture.failedFuture(error)));
+            } else {
+                failed.add(limiter.submit(() -> {
+                    throw new IllegalStateException("任务创建失败");
+                }));
+            }
+        }
+        assertEquals(count, limiter.getQueued());
+
+        // 所有排队任务都在释放许可的线程上同步失败，不应耗尽调用栈
+        gate.complete("ok");
+        assertEquals("ok", first.get());
+        for (int i = 0; i < count; i++) {
+            CompletableFuture<String> result = failed.get(i);
+            assertTrue(result.isCompletedExceptionally());
+            ExecutionException thrown = assertThrows(ExecutionException.class, result::get);
+            assertTrue(thrown.getCause() instanceof IOException || thrown.getCause() instanceof IllegalStateException);
+        }
+        assertEquals(0, limiter.getActive());
+        assertEquals(0, limiter.getQueued());
+
+        // 限制器仍可继续使用
+        assertEquals("next", limiter.submit(() -> CompletableFuture.completedFuture("next")).get());
+    }
+
+    @Test
+    public void testAsyncApiCallsRespectConcurrencyLimit() throws Exception {
+        GatedTransport transport = new GatedTransport();
+        TPAPIClient api = new TPAPIClient("http://localhost:8080", transport, 3);
+        List<CompletableFuture<TPAPIClient.APIResponse<String>>> responses = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            TPAPIClient.HeartbeatRequest request = new TPAPIClient.HeartbeatRequest();
+            request.serviceIdentifier = "svc-" + i;
+            responses.add(api.sendHeartbeatAsync(request));
+        }
+        assertEquals(3, transport.started.get());
+        assertEquals(3, api.getActiveAsyncRequests());
+        assertEquals(7, api.getQueuedAsyncRequests());
+
+        while (transport.completeOne()) {
+            assertTrue(api.getActiveAsyncRequests() <= 3);
+        }
+        assertEquals(10, transport.started.get());
+        for (CompletableFuture<TPAPIClient.APIResponse<String>> response : responses) {
+            assertTrue(response.get(1, TimeUnit.SECONDS).isSuccess());
+        }
+        assertEquals(0, api.getActiveAsyncRequests());
+    }
+
+    /**
+     * 请求挂起直到测试逐个完成的HTTP传输层
+     */
+    private static class GatedTransport implements HttpTransport {
+        final AtomicInteger started = new AtomicInteger();
+        private final ConcurrentLinkedQueue<Runnable> pending = new ConcurrentLinkedQueue<>();
+
+        @Override
+        public <T> T post(URI uri, byte[] body, ResponseDecoder<T> decoder) {
+            return decoder.decode(200, "{\"code\":200,\"message\":\"ok\"}".getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public <T> CompletableFuture<T> postAsync(URI uri, byte[] body, ResponseDecoder<T> decoder) {
+            started.incrementAndGet();
+            CompletableFuture<T> future = new CompletableFuture<>();
+            pending.add(() -> future.complete(post(uri, body, decoder)));
+            return future;
+        }
+
+        boolean completeOne() {
+            Runnable next = pending.poll();
+            if (next == null) {
+                return false;
+            }
+            next.run();
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.thingspanel.sdk;
+
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+/**
+ * BatchingPublisher单元测试
+ */
+public class BatchingPublisherTest {
+
+    @Test
+    public void testPublishesInOrder() throws Exception {
+        FakeMqttTransport transport = new FakeMqttTransport();
+        transport.connect(null);
+        BatchingPublisher publisher = new BatchingPublisher(transport,
+                new BatchingPublisher.Options().setBatchSize(16).setLingerMillis(1));
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(publisher.offer("t/" + i, ("" + i).getBytes(StandardCharsets.UTF_8), 1, false));
+        }
+        assertTrue(publisher.close(5000));
+
+        assertEquals(100, transport.published.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("t/" + i, transport.published.get(i).topic);
+        }
+        BatchingPublisher.Stats stats = publisher.getStats();
+        assertEquals(100, stats.getPublished());
+        assertEquals(0, stats.getDropped());
+        assertTrue(stats.getBatches() >= 100 / 16);
+    }
+
+    @Test
+    public void testInFlightWindowBoundsUnacknowledged() throws Exception {
+        FakeMqttTransport transport = new FakeMqttTransport().setAutoComplete(false);
+        transport.connect(null);
+        BatchingPublisher publisher = new BatchingPublisher(transport,
+                new BatchingPublisher.Options().setMaxInFlight(4).setLingerMillis(0));
+
+        for (int i = 0; i < 10; i++) {
+            publisher.offer("t", new byte[0], 1, false);
+        }
+        Thread.sleep(200);
+        assertEquals(4, transport.published.size());
+        assertEquals(4, publisher.getStats().getInFlight());
+
+        while (transport.published.size() < 10) {
+            transport.completePending();
+            Thread.sleep(10);
+        }
+        transport.completePending();
+        assertTrue(publisher.close(5000));
+        assertEquals(10, publisher.getStats().getPublished());
+    }
+
+    @Test
+    public void testUnsentMessagesGoToUndeliveredHandlerOnClose() throws Exception {
+        FakeMqttTransport transport = new FakeMqttTransport().setAutoComplete(false);
+        transport.connect(null);
+        List<String> undelivered = new CopyOnWriteArrayList<>();
+        BatchingPublisher publisher = new BatchingPublisher(transport,
+                new BatchingPublisher.Options().setMaxInFlight(2).setLingerMillis(0))
+                .setUndeliveredHandler((topic, payload, qos, retained, callback) -> undelivered.add(topic));
+
+        for (int i = 0; i < 6; i++) {
+            publisher.offer("t/" + i, new byte[0], 1, false);
+        }
+        Thread.sleep(100);
+        assertEquals(2, transport.published.size());
+
+        // 在途窗口一直未释放，关闭超时后缓冲区中的消息交给处理器而不是静默丢弃
+        assertFalse(publisher.close(50));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (undelivered.size() < 4 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(List.of("t/2", "t/3", "t/4", "t/5"), undelivered.stream().sorted().collect(Collectors.toList()));
+        assertEquals(4, publisher.getStats().getDropped());
+
+        // 已发出的消息未被确认就失败，同样交给处理器
+        transport.failPending(new MqttException(MqttException.REASON_CODE_CONNECTION_LOST));
+        assertEquals(6, undelivered.size());
+    }
+
+    @Test
+    public void testDropsWhenFull() throws Exception {
+        FakeMqttTransport transport = new FakeMqttTransport().setAutoComplete(false);
+        transport.connect(null);
+        BatchingPublisher publisher = new BatchingPublisher(transport, new BatchingPublisher.Options()
+                .setCapacity(2).setMaxInFlight(1).setEnqueueTimeoutMillis(0));
+
+        int accepted = 0;
+        for (int i = 0; i < 10; i++) {
+            if (publisher.offer("t", new byte[0], 1, false)) {
+                accepted++;
+            }
+        }
+        assertTrue(accepted < 10);
+        assertEquals(10 - accepted, publisher.getStats().getDropped());
+        transport.completePending();
+    }
+}
@@ -0,0 +1,191 @@
+package com.thingspanel.sdk;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * DeviceConfigCache单元测试
+ */
+public class DeviceConfigCacheTest {
+
+    /**
+     * 不发起网络请求的API客户端，记录调用次数
+     */
+    static class StubAPIClient extends TPAPIClient {
+        final AtomicInteger calls = new AtomicInteger();
+        final List<CompletableFuture<APIResponse<Device>>> pending = new CopyOnWriteArrayList<>();
+
+        StubAPIClient() {
+            super("http://localhost");
+        }
+
+        @Override
+        public APIResponse<Device> getDeviceConfig(DeviceConfigRequest request) {
+            calls.incrementAndGet();
+            return new APIResponse<>(true, "ok", new Device(request.deviceId, request.voucher, request.deviceNumber, "sensor", "mqtt"));
+        }
+
+        @Override
+        public CompletableFuture<APIResponse<Device>> getDeviceConfigAsync(DeviceConfigRequest request) {
+            calls.incrementAndGet();
+            CompletableFuture<APIResponse<Device>> future = new CompletableFuture<>();
+            pending.add(future);
+            return future;
+        }
+    }
+
+    private static TPAPIClient.DeviceConfigRequest request(String deviceId) {
+        TPAPIClient.DeviceConfigRequest request = new TPAPIClient.DeviceConfigRequest();
+        request.deviceId = deviceId;
+        request.voucher = "voucher";
+        request.deviceNumber = "DEV-" + deviceId;
+        return request;
+    }
+
+    @Test
+    public void testHitAfterMiss() {
+        StubAPIClient api = new StubAPIClient();
+        DeviceConfigCache cache = new DeviceConfigCache(api, 10, Duration.ofMinutes(1));
+
+        TPAPIClient.APIResponse<Device> first = cache.get(request("d1"));
+        TPAPIClient.APIResponse<Device> second = cache.get(request("d1"));
+
+        assertSame(first, second);
+        assertEquals(1, api.calls.get());
+        assertEquals(1, cache.getStats().getHits());
+        assertEquals(1, cache.getStats().getMisses());
+    }
+
+    @Test
+    public void testConcurrentMissesShareOneLoad() {
+        StubAPIClient api = new StubAPIClient();
+        DeviceConfigCache cache = new DeviceConfigCache(api, 10, Duration.ofMinutes(1));
+
+        CompletableFuture<TPAPIClient.APIResponse<Device>> a = cache.getAsync(request("d1"));
+        CompletableFuture<TPAPIClient.APIResponse<Device>> b = cache.getAsync(request("d1"));
+        assertEquals(1, api.calls.get());
+        assertFalse(a.isDone());
+
+        api.pending.get(0).complete(new TPAPIClient.APIResponse<>(true, "ok", new Device()));
+        assertSame(a.join(), b.join());
+        assertEquals(1, cache.getStats().getCoalesced());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testLruEvictionAndTtl() throws Exception {
+        StubAPIClient api = new StubAPIClient();
+        DeviceConfigCache cache = new DeviceConfigCache(api, 2, Duration.ofMillis(50));
+
+        cache.get(request("d1"));
+        cache.get(request("d2"));
+        cache.get(request("d1"));
+        cache.get(request("d3"));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getStats().getEvictions());
+
+        cache.get(request("d1"));
+        assertEquals(3, api.calls.get());
+
+        Thread.sleep(80);
+        cache.get(request("d1"));
+        assertEquals(4, api.calls.get());
+    }
+
+    @Test
+    public void testInvalidatedOnDeviceDisconnect() {
+        StubAPIClient api = new StubAPIClient();
+        TPHandler handler = new TPHandler();
+        DeviceConfigCache cache = new DeviceConfigCache(api, 10, Duration.ofMinutes(1)).bindTo(handler);
+
+        cache.get(request("d1"));
+        handler.handleDeviceDisconnect("d1", "voucher");
+        assertEquals(0, cache.size());
+
+        cache.get(request("d1"));
+        assertEquals(2, api.calls.get());
+    }
+
+    @Test
+    public void testKeysDoNotCollideAndMissingKeysBypassCache() {
+        StubAPIClient api = new StubAPIClient();
+        DeviceConfigCache cache = new DeviceConfigCache(api, 10, Duration.ofMinutes(1));
+
+        // 设备A的ID与设备B的编号相同
+        TPAPIClient.DeviceConfigRequest byId = request("X1");
+        TPAPIClient.DeviceConfigRequest byNumber = new TPAPIClient.DeviceConfigRequest();
+        byNumber.deviceNumber = "X1";
+        assertEquals("X1", cache.get(byId).getData().getDeviceId());
+        assertNull(cache.get(byNumber).getData().getDeviceId());
+        assertEquals(2, api.calls.get());
+
+        TPAPIClient.DeviceConfigRequest anonymous = new TPAPIClient.DeviceConfigRequest();
+        anonymous.voucher = "voucher";
+        cache.get(anonymous);
+        cache.get(anonymous);
+        assertEquals(4, api.calls.get());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testErrorDuringLoadDoesNotWedgeEntry() {
+        AtomicInteger failures = new AtomicInteger(1);
+        StubAPIClient api = new StubAPIClient() {
+            @Override
+            public APIResponse<Device> getDeviceConfig(DeviceConfigRequest request) {
+                if (failures.getAndDecrement() > 0) {
+                    throw new AssertionError("加载中断");
+                }
+                return super.getDeviceConfig(request);
+            }
+        };
+        DeviceConfigCache cache = new DeviceConfigCache(api, 10, Duration.ofMinutes(1));
+        assertThrows(AssertionError.class, () -> cache.get(request("d1")));
+        assertTrue(cache.get(request("d1")).isSuccess());
+    }
+
+    @Test
+    public void testInvalidateAlsoDropsEntriesCachedByNumber() {
+        StubAPIClient api = new StubAPIClient() {
+            @Override
+            public APIResponse<Device> getDeviceConfig(DeviceConfigRequest request) {
+                calls.incrementAndGet();
+                return new APIResponse<>(true, "ok", new Device("d1", request.voucher, request.deviceNumber, "sensor", "mqtt"));
+            }
+        };
+        TPHandler handler = new TPHandler();
+        DeviceConfigCache cache = new DeviceConfigCache(api, 10, Duration.ofMinutes(1)).bindTo(handler);
+
+        TPAPIClient.DeviceConfigRequest byNumber = new TPAPIClient.DeviceConfigRequest();
+        byNumber.deviceNumber = "DEV-d1";
+        byNumber.voucher = "voucher";
+        cache.get(byNumber);
+        cache.get(request("d1"));
+        assertEquals(2, cache.size());
+
+        handler.handleDeviceDisconnect("d1", "voucher");
+        assertEquals(0, cache.size());
+        cache.get(byNumber);
+        assertEquals(3, api.calls.get());
+    }
+
+    @Test
+    public void testDifferentVoucherDoesNotHit() {
+        StubAPIClient api = new StubAPIClient();
+        DeviceConfigCache cache = new DeviceConfigCache(api, 10, Duration.ofMinutes(1));
+
+        cache.get(request("d1"));
+        TPAPIClient.DeviceConfigRequest other = request("d1");
+        other.voucher = "other";
+        assertEquals("other", cache.get(other).getData().getVoucher());
+        assertEquals(2, api.calls.get());
+        assertEquals(0, cache.getStats().getHits());
+        assertEquals(2, cache.size());
+    }
+}
@@ -0,0 +1,155 @@
+package com.thingspanel.sdk;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * DeviceOnboarder单元测试
+ */
+public class DeviceOnboarderTest {
+
+    /**
+     * 按接口路径应答的HTTP传输：编号以bad开头的设备认证失败，以noconf开头的设备获取配置返回500
+     */
+    static class PlatformTransport implements HttpTransport {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+
+        @Override
+        public <T> T post(URI uri, byte[] body, ResponseDecoder<T> decoder) throws IOException {
+            Object[] response = respond(uri, body);
+            return decoder.decode((Integer) response[0], ((String) response[1]).getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public <T> CompletableFuture<T> postAsync(URI uri, byte[] body, ResponseDecoder<T> decoder) {
+            int current = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(current, Math::max);
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return post(uri, body, decoder);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            }, CompletableFuture.delayedExecutor(2, TimeUnit.MILLISECONDS));
+        }
+
+        private Object[] respond(URI uri, byte[] body) throws IOException {
+            Map<String, Object> request = JsonCodec.readObjectMap(body);
+            String number = (String) request.get("device_number");
+            if (uri.getPath().endsWith("/device/auth")) {
+                if (number.startsWith("bad")) {
+                    return new Object[]{200, "{\"code\":401,\"message\":\"模板密钥错误\"}"};
+                }
+                return new Object[]{200, "{\"code\":200,\"data\":{\"device_id\":\"id-" + number + "\",\"voucher\":\"v-" + number + "\"}}"};
+            }
+            if (number.startsWith("noconf")) {
+                return new Object[]{500, "{\"code\":500,\"message\":\"内部错误\"}"};
+            }
+            return new Object[]{200, "{\"code\":200,\"data\":{\"id\":\"" + request.get("device_id")
+                    + "\",\"voucher\":\"" + request.get("voucher") + "\",\"device_type\":\"sensor\"}}"};
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static List<String> numbers(int count) {
+        return IntStream.range(0, count).mapToObj(i -> "dev-" + i).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testOnboardsWithBoundedConcurrency() throws Exception {
+        PlatformTransport transport = new PlatformTransport();
+        TPAPIClient apiClient = new TPAPIClient("http://localhost", transport, 256);
+        DeviceOnboarder onboarder = new DeviceOnboarder(apiClient,
+                new DeviceOnboarder.Options().setMaxConcurrency(8).setUseVirtualThreads(false));
+
+        AtomicLong lastCompleted = new AtomicLong();
+        DeviceOnboarder.Result result = onboarder.onboard("secret", numbers(200),
+                (deviceNumber, success, completed, failed) -> lastCompleted.accumulateAndGet(completed, Math::max));
+
+        assertEquals(200, result.getDevices().size());
+        assertTrue(result.getFailures().isEmpty());
+        assertEquals(200, lastCompleted.get());
+        Device device = result.getDevice("dev-7");
+        assertEquals("id-dev-7", device.getDeviceId());
+        assertEquals("v-dev-7", device.getVoucher());
+        assertEquals("dev-7", device.getDeviceNumber());
+        assertTrue(transport.maxInFlight.get() <= 8, "并发超限: " + transport.maxInFlight.get());
+    }
+
+    @Test
+    public void testReportsPartialFailures() throws Exception {
+        TPAPIClient apiClient = new TPAPIClient("http://localhost", new PlatformTransport(), 256);
+        DeviceRegistry registry = new DeviceRegistry();
+        DeviceOnboarder onboarder = new DeviceOnboarder(apiClient,
+                new DeviceOnboarder.Options().setMaxConcurrency(4).setRegistry(registry));
+
+        DeviceOnboarder.Result result = onboarder.onboard("secret",
+                java.util.stream.Stream.of("dev-1", "bad-1", "noconf-1", "dev-2"), null);
+
+        assertEquals(2, result.getDevices().size());
+        assertEquals(2, result.getFailures().size());
+        Map<String, DeviceOnboarder.Failure> failures = result.getFailures().stream()
+                .collect(Collectors.toMap(DeviceOnboarder.Failure::getDeviceNumber, failure -> failure));
+        assertEquals(DeviceOnboarder.Stage.AUTH, failures.get("bad-1").getStage());
+        assertEquals(DeviceOnboarder.Stage.CONFIG, failures.get("noconf-1").getStage());
+        assertEquals(500, failures.get("noconf-1").getStatusCode());
+        assertEquals(2, registry.size());
+        assertEquals("id-dev-2", registry.getByNumber("dev-2").getDeviceId());
+    }
+
+    @Test
+    public void testConfigRequestExceptionIsReportedAtConfigStage() throws Exception {
+        // 编号以throwconf开头的设备获取配置时抛出异常，而不是返回失败响应
+        TPAPIClient apiClient = new TPAPIClient("http://localhost", new PlatformTransport(), 256) {
+            @Override
+            public APIResponse<Device> getDeviceConfig(DeviceConfigRequest request) {
+                if (request.deviceNumber.startsWith("throwconf")) {
+                    throw new IllegalStateException("连接被重置");
+                }
+                return super.getDeviceConfig(request);
+            }
+
+            @Override
+            public CompletableFuture<APIResponse<Device>> getDeviceConfigAsync(DeviceConfigRequest request) {
+                if (request.deviceNumber.startsWith("throwconf")) {
+                    return CompletableFuture.supplyAsync(() -> {
+                        throw new IllegalStateException("连接被重置");
+                    });
+                }
+                return super.getDeviceConfigAsync(request);
+            }
+        };
+        for (boolean virtualThreads : new boolean[]{false, true}) {
+            DeviceOnboarder onboarder = new DeviceOnboarder(apiClient,
+                    new DeviceOnboarder.Options().setMaxConcurrency(4).setUseVirtualThreads(virtualThreads));
+
+            DeviceOnboarder.Result result = onboarder.onboard("secret", List.of("dev-1", "throwconf-1"), null);
+
+            assertEquals(1, result.getDevices().size());
+            assertEquals(1, result.getFailures().size());
+            DeviceOnboarder.Failure failure = result.getFailures().get(0);
+            assertEquals("throwconf-1", failure.getDeviceNumber());
+            assertEquals(DeviceOnboarder.Stage.CONFIG, failure.getStage());
+            assertEquals("连接被重置", failure.getMessage());
+            assertEquals(0, failure.getStatusCode());
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.thingspanel.sdk;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DeviceRegistry单元测试
+ */
+public class DeviceRegistryTest {
+
+    private static Device gateway(String id, String number, SubDevice... subDevices) {
+        Device device = new Device(id, "v-" + id, number, "gateway", "MODBUS_RTU");
+        device.setSubDevices(Arrays.asList(subDevices));
+        return device;
+    }
+
+    @Test
+    public void testIndexesByIdNumberAndSubDevice() {
+        DeviceRegistry registry = new DeviceRegistry();
+        registry.put(gateway("gw-1", "GW001",
+                new SubDevice("sub-1", "sv1", "S001", "1"),
+                new SubDevice("sub-2", "sv2", "S002", "2")));
+
+        assertEquals("gw-1", registry.get("gw-1").getDeviceId());
+        assertSame(registry.get("gw-1"), registry.getByNumber("GW001"));
+        assertEquals("sub-2", registry.getSubDevice("gw-1", "2").getDeviceId());
+        assertNull(registry.getSubDevice("gw-1", "9"));
+        assertSame(registry.get("gw-1"), registry.getGateway("sub-1"));
+        assertEquals(2, registry.getStats().getSubDevices());
+    }
+
+    @Test
+    public void testReplaceDropsStaleIndexes() {
+        DeviceRegistry registry = new DeviceRegistry();
+        registry.put(gateway("gw-1", "GW001", new SubDevice("sub-1", "sv1", "S001", "1")));
+        registry.put(gateway("gw-1", "GW002", new SubDevice("sub-9", "sv9", "S009", "9")));
+
+        assertNull(registry.getByNumber("GW001"));
+        assertNull(registry.getGateway("sub-1"));
+        assertNull(registry.getSubDevice("gw-1", "1"));
+        assertEquals("gw-1", registry.getByNumber("GW002").getDeviceId());
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void testEvictsOnDeviceDisconnect() {
+        TPHandler handler = new TPHandler();
+        DeviceRegistry registry = new DeviceRegistry().bindTo(handler);
+        registry.put(gateway("gw-1", "GW001", new SubDevice("sub-1", "sv1", "S001", "1")));
+
+        handler.handleDeviceDisconnect("gw-1", "v-gw-1");
+        assertNull(registry.get("gw-1"));
+        assertNull(registry.getByNumber("GW001"));
+        assertNull(registry.getGateway("sub-1"));
+        assertEquals(1, registry.getStats().getEvictions());
+    }
+
+    @Test
+    public void testRefreshReplacesFromDeviceConfig() throws Exception {
+        ApiResilienceTest.ScriptedTransport transport = new ApiResilienceTest.ScriptedTransport(n -> new Object[]{200,
+                "{\"code\":200,\"data\":{\"id\":\"gw-1\",\"device_number\":\"GW001\",\"protocol_type\":\"MQTT\","
+                        + "\"sub_devices\":[{\"device_id\":\"sub-3\",\"sub_device_addr\":\"3\"}]}}"});
+        DeviceRegistry registry = new DeviceRegistry(new TPAPIClient("http://localhost", transport, 4), 1024);
+        registry.put(gateway("gw-1", "GW001"));
+
+        assertTrue(registry.refreshAsync("gw-1").get(5, TimeUnit.SECONDS).isSuccess());
+        assertEquals("MQTT", registry.get("gw-1").getProtocolType());
+        assertEquals("sub-3", registry.getSubDevice("gw-1", "3").getDeviceId());
+        assertNull(registry.refreshAsync("unknown").get(5, TimeUnit.SECONDS));
+    }
+}
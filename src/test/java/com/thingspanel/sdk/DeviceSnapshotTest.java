@@ -0,0 +1,124 @@
+package com.thingspanel.sdk;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * DeviceSnapshot单元测试
+ */
+public class DeviceSnapshotTest {
+
+    private Path dir;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("tp-snapshot");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private static Device gateway(String id, String number) {
+        Device device = new Device(id, "v-" + id, number, "gateway", null);
+        device.setConfig(Collections.singletonMap("interval", 5));
+        device.setSubDevices(Arrays.asList(
+                new SubDevice("sub-" + id, "sv", "S-" + number, "1"),
+                new SubDevice(null, null, null, "2")));
+        return device;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        DeviceRegistry source = new DeviceRegistry();
+        for (int i = 0; i < 100; i++) {
+            source.put(gateway("gw-" + i, "GW" + i));
+        }
+        Path file = dir.resolve("devices.snap");
+        assertEquals(100, DeviceSnapshot.save(source, file));
+        assertFalse(Files.exists(dir.resolve("devices.snap.tmp")));
+
+        DeviceRegistry restored = new DeviceRegistry();
+        assertEquals(100, DeviceSnapshot.load(file, restored));
+        Device device = restored.getByNumber("GW42");
+        assertEquals("gw-42", device.getDeviceId());
+        assertEquals("v-gw-42", device.getVoucher());
+        assertEquals("gateway", device.getDeviceType());
+        assertNull(device.getProtocolType());
+        assertEquals(5, device.getConfig().get("interval"));
+        assertEquals("sub-gw-42", restored.getSubDevice("gw-42", "1").getDeviceId());
+        assertNull(restored.getSubDevice("gw-42", "2").getDeviceId());
+        assertSame(device, restored.getGateway("sub-gw-42"));
+    }
+
+    @Test
+    public void testSnapshotIsOwnerOnly() throws Exception {
+        Path file = dir.resolve("devices.snap");
+        Files.write(file, new byte[0]);
+        DeviceRegistry source = new DeviceRegistry();
+        source.put(gateway("gw-1", "GW1"));
+        DeviceSnapshot.save(source, file);
+        // 快照含设备凭证，覆盖已有文件后也只对属主开放
+        if (Files.getFileStore(dir).supportsFileAttributeView(PosixFileAttributeView.class)) {
+            assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(file));
+        }
+    }
+
+    @Test
+    public void testMissingFileLoadsNothing() throws Exception {
+        assertEquals(0, DeviceSnapshot.load(dir.resolve("absent.snap"), new DeviceRegistry()));
+    }
+
+    @Test
+    public void testRejectsCorruptedFile() throws Exception {
+        DeviceRegistry source = new DeviceRegistry();
+        source.put(gateway("gw-1", "GW1"));
+        Path file = dir.resolve("devices.snap");
+        DeviceSnapshot.save(source, file);
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length / 2] ^= 0x5A;
+        Files.write(file, bytes);
+
+        DeviceRegistry restored = new DeviceRegistry();
+        assertThrows(IOException.class, () -> DeviceSnapshot.load(file, restored));
+        assertEquals(0, restored.size());
+        // 快速启动退化为空注册表
+        DeviceSnapshot.warmStart(file, restored, 0).get(5, TimeUnit.SECONDS);
+        assertEquals(0, restored.size());
+    }
+
+    @Test
+    public void testWarmStartRefreshesOnlyStaleDevices() throws Exception {
+        DeviceRegistry source = new DeviceRegistry();
+        source.put(gateway("gw-fresh", "GW1"));
+        source.put(gateway("gw-stale", "GW2"), System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2));
+        Path file = dir.resolve("devices.snap");
+        DeviceSnapshot.save(source, file);
+
+        ApiResilienceTest.ScriptedTransport transport = new ApiResilienceTest.ScriptedTransport(n -> new Object[]{200,
+                "{\"code\":200,\"data\":{\"id\":\"gw-stale\",\"device_number\":\"GW2\",\"protocol_type\":\"MQTT\"}}"});
+        DeviceRegistry restored = new DeviceRegistry(new TPAPIClient("http://localhost", transport, 4), 16);
+        DeviceSnapshot.warmStart(file, restored, TimeUnit.HOURS.toMillis(1)).get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, restored.size());
+        assertEquals(1, restored.getStats().getRefreshes());
+        assertEquals("MQTT", restored.get("gw-stale").getProtocolType());
+        assertNull(restored.get("gw-fresh").getProtocolType());
+    }
+}
@@ -0,0 +1,384 @@
+package com.thingspanel.sdk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 测试用进程内MQTT代理
+ * 只监听回环地址，实现MQTT 3.1/3.1.1的最小子集：CONNECT、PUBLISH（QoS 0/1/2入站确认）、SUBSCRIBE（+和#通配符）、
+ * UNSUBSCRIBE、PINGREQ、DISCONNECT及保留消息；转发时QoS取发布与订阅的较小值且不超过1，不跟踪出站确认，
+ * 不保存会话。每个连接一个读线程，用于端到端测试和负载生成，不用于生产。
+ */
+public class EmbeddedMqttBroker implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(EmbeddedMqttBroker.class.getName());
+
+    private static final int CONNECT = 1;
+    private static final int PUBLISH = 3;
+    private static final int PUBACK = 4;
+    private static final int PUBREC = 5;
+    private static final int PUBREL = 6;
+    private static final int PUBCOMP = 7;
+    private static final int SUBSCRIBE = 8;
+    private static final int UNSUBSCRIBE = 10;
+    private static final int PINGREQ = 12;
+    private static final int DISCONNECT = 14;
+
+    private final ServerSocket serverSocket;
+    private final Thread acceptor;
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final Map<String, byte[]> retained = new ConcurrentHashMap<>();
+    private volatile boolean running = true;
+
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+
+    /**
+     * 在回环地址的随机端口上启动
+     */
+    public EmbeddedMqttBroker() throws IOException {
+        this(0);
+    }
+
+    /**
+     * @param port 监听端口，0表示随机
+     */
+    public EmbeddedMqttBroker(int port) throws IOException {
+        this.serverSocket = new ServerSocket(port, 512, InetAddress.getLoopbackAddress());
+        this.acceptor = new Thread(this::acceptLoop, "tp-test-broker-accept");
+        this.acceptor.setDaemon(true);
+        this.acceptor.start();
+    }
+
+    /**
+     * 客户端连接地址，如tcp://127.0.0.1:12345
+     */
+    public String getServerURI() {
+        return "tcp://" + serverSocket.getInetAddress().getHostAddress() + ":" + serverSocket.getLocalPort();
+    }
+
+    /**
+     * 断开所有客户端连接，模拟代理重启；监听端口保持可用
+     */
+    public void dropConnections() {
+        for (Session session : sessions) {
+            session.close();
+        }
+    }
+
+    public long getConnections() {
+        return connections.sum();
+    }
+
+    /**
+     * 收到的PUBLISH数
+     */
+    public long getReceived() {
+        return received.sum();
+    }
+
+    /**
+     * 转发给订阅者的PUBLISH数
+     */
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+        dropConnections();
+        try {
+            acceptor.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Session session = new Session(socket);
+                sessions.add(session);
+                connections.increment();
+                Thread reader = new Thread(session::readLoop, "tp-test-broker-session");
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (running) {
+                    logger.log(Level.WARNING, "测试代理接受连接失败", e);
+                }
+            }
+        }
+    }
+
+    private void route(String topic, byte[] payload, int qos) {
+        for (Subscription subscription : subscriptions) {
+            if (matches(subscription.filter, topic)) {
+                subscription.session.deliver(topic, payload, Math.min(qos, subscription.qos));
+                delivered.increment();
+            }
+        }
+    }
+
+    /**
+     * 按MQTT规则匹配主题过滤器，支持单层通配符+和多层通配符#
+     */
+    static boolean matches(String filter, String topic) {
+        int f = 0;
+        int t = 0;
+        while (f < filter.length()) {
+            char c = filter.charAt(f);
+            if (c == '#') {
+                return true;
+            }
+            if (c == '+') {
+                while (t < topic.length() && topic.charAt(t) != '/') {
+                    t++;
+                }
+                f++;
+                continue;
+            }
+            if (t >= topic.length()) {
+                // "a/#"同时匹配"a"
+                return filter.startsWith("/#", f);
+            }
+            if (c != topic.charAt(t)) {
+                return false;
+            }
+            f++;
+            t++;
+        }
+        return t == topic.length();
+    }
+
+    /**
+     * 单个客户端连接
+     */
+    private final class Session {
+        private final Socket socket;
+        private final OutputStream out;
+        private int nextPacketId = 1;
+
+        Session(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new BufferedOutputStream(socket.getOutputStream(), 16 * 1024);
+        }
+
+        void readLoop() {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 16 * 1024))) {
+                while (running) {
+                    int header = in.read();
+                    if (header < 0) {
+                        return;
+                    }
+                    byte[] body = new byte[readRemainingLength(in)];
+                    in.readFully(body);
+                    if (!handle(header >>> 4, header & 0x0F, body)) {
+                        return;
+                    }
+                }
+            } catch (EOFException | SocketException e) {
+                // 连接被关闭
+            } catch (IOException e) {
+                logger.log(Level.FINE, "测试代理连接异常", e);
+            } finally {
+                close();
+            }
+        }
+
+        private boolean handle(int type, int flags, byte[] body) throws IOException {
+            switch (type) {
+                case CONNECT:
+                    write(new byte[]{0x20, 0x02, 0x00, 0x00});
+                    return true;
+                case PUBLISH:
+                    onPublish(flags, body);
+                    return true;
+                case PUBREL:
+                    write(new byte[]{(byte) (PUBCOMP << 4), 0x02, body[0], body[1]});
+                    return true;
+                case SUBSCRIBE:
+                    onSubscribe(body);
+                    return true;
+                case UNSUBSCRIBE:
+                    onUnsubscribe(body);
+                    return true;
+                case PINGREQ:
+                    write(new byte[]{(byte) 0xD0, 0x00});
+                    return true;
+                case DISCONNECT:
+                    return false;
+                default:
+                    // PUBACK、PUBREC等出站确认不跟踪
+                    return true;
+            }
+        }
+
+        private void onPublish(int flags, byte[] body) throws IOException {
+            int qos = (flags >>> 1) & 0x03;
+            boolean retain = (flags & 0x01) != 0;
+            int topicLength = ((body[0] & 0xFF) << 8) | (body[1] & 0xFF);
+            String topic = new String(body, 2, topicLength, StandardCharsets.UTF_8);
+            int offset = 2 + topicLength;
+            byte idHigh = 0;
+            byte idLow = 0;
+            if (qos > 0) {
+                idHigh = body[offset];
+                idLow = body[offset + 1];
+                offset += 2;
+            }
+            byte[] payload = new byte[body.length - offset];
+            System.arraycopy(body, offset, payload, 0, payload.length);
+            received.increment();
+            if (retain) {
+                if (payload.length == 0) {
+                    retained.remove(topic);
+                } else {
+                    retained.put(topic, payload);
+                }
+            }
+            route(topic, payload, qos);
+            if (qos == 1) {
+                write(new byte[]{(byte) (PUBACK << 4), 0x02, idHigh, idLow});
+            } else if (qos == 2) {
+                write(new byte[]{(byte) (PUBREC << 4), 0x02, idHigh, idLow});
+            }
+        }
+
+        private void onSubscribe(byte[] body) throws IOException {
+            List<Integer> granted = new ArrayList<>();
+            List<String> filters = new ArrayList<>();
+            int offset = 2;
+            while (offset < body.length) {
+                int length = ((body[offset] & 0xFF) << 8) | (body[offset + 1] & 0xFF);
+                String filter = new String(body, offset + 2, length, StandardCharsets.UTF_8);
+                int qos = Math.min(1, body[offset + 2 + length] & 0x03);
+                offset += 3 + length;
+                subscriptions.removeIf(s -> s.session == this && s.filter.equals(filter));
+                subscriptions.add(new Subscription(this, filter, qos));
+                granted.add(qos);
+                filters.add(filter);
+            }
+            byte[] suback = new byte[4 + granted.size()];
+            suback[0] = (byte) 0x90;
+            suback[1] = (byte) (2 + granted.size());
+            suback[2] = body[0];
+            suback[3] = body[1];
+            for (int i = 0; i < granted.size(); i++) {
+                suback[4 + i] = (byte) (int) granted.get(i);
+            }
+            write(suback);
+            for (int i = 0; i < filters.size(); i++) {
+                for (Map.Entry<String, byte[]> entry : retained.entrySet()) {
+                    if (matches(filters.get(i), entry.getKey())) {
+                        deliver(entry.getKey(), entry.getValue(), granted.get(i));
+                    }
+                }
+            }
+        }
+
+        private void onUnsubscribe(byte[] body) throws IOException {
+            int offset = 2;
+            while (offset < body.length) {
+                int length = ((body[offset] & 0xFF) << 8) | (body[offset + 1] & 0xFF);
+                String filter = new String(body, offset + 2, length, StandardCharsets.UTF_8);
+                offset += 2 + length;
+                subscriptions.removeIf(s -> s.session == this && s.filter.equals(filter));
+            }
+            write(new byte[]{(byte) 0xB0, 0x02, body[0], body[1]});
+        }
+
+        synchronized void deliver(String topic, byte[] payload, int qos) {
+            byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+            int remaining = 2 + topicBytes.length + (qos > 0 ? 2 : 0) + payload.length;
+            try {
+                out.write((PUBLISH << 4) | (qos << 1));
+                writeRemainingLength(remaining);
+                out.write(topicBytes.length >>> 8);
+                out.write(topicBytes.length);
+                out.write(topicBytes);
+                if (qos > 0) {
+                    int packetId = nextPacketId;
+                    nextPacketId = packetId == 0xFFFF ? 1 : packetId + 1;
+                    out.write(packetId >>> 8);
+                    out.write(packetId);
+                }
+                out.write(payload);
+                out.flush();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private synchronized void write(byte[] packet) throws IOException {
+            out.write(packet);
+            out.flush();
+        }
+
+        private void writeRemainingLength(int length) throws IOException {
+            do {
+                int digit = length & 0x7F;
+                length >>>= 7;
+                out.write(length > 0 ? digit | 0x80 : digit);
+            } while (length > 0);
+        }
+
+        void close() {
+            if (sessions.remove(this)) {
+                subscriptions.removeIf(s -> s.session == this);
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // 忽略
+            }
+        }
+    }
+
+    private static int readRemainingLength(DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int digit;
+        do {
+            digit = in.readUnsignedByte();
+            value |= (digit & 0x7F) << shift;
+            shift += 7;
+        } while ((digit & 0x80) != 0 && shift < 28);
+        return value;
+    }
+
+    private static final class Subscription {
+        final Session session;
+        final String filter;
+        final int qos;
+
+        Subscription(Session session, String filter, int qos) {
+            this.session = session;
+            this.filter = filter;
+            this.qos = qos;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.thingspanel.sdk;
+
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 测试用内存MQTT传输，记录发布的消息
+ * autoComplete为false时回调被挂起，直到调用completePending
+ */
+public class FakeMqttTransport implements MqttTransport {
+
+    public static class Published {
+        public final String topic;
+        public final byte[] payload;
+        public final int qos;
+        public final boolean retained;
+
+        Published(String topic, byte[] payload, int qos, boolean retained) {
+            this.topic = topic;
+            this.payload = payload;
+            this.qos = qos;
+            this.retained = retained;
+        }
+    }
+
+    public final List<Published> published = new CopyOnWriteArrayList<>();
+    public final List<String> subscriptions = new CopyOnWriteArrayList<>();
+    private final ConcurrentLinkedQueue<PublishCallback> pending = new ConcurrentLinkedQueue<>();
+    private volatile boolean connected;
+    private volatile boolean autoComplete = true;
+    private volatile MessageHandler messageHandler;
+    private volatile ConnectionListener connectionListener;
+    public final List<MqttConnectOptions> connects = new CopyOnWriteArrayList<>();
+    public final List<String[]> subscribeBatches = new CopyOnWriteArrayList<>();
+    private final AtomicInteger failingConnects = new AtomicInteger();
+
+    public FakeMqttTransport setAutoComplete(boolean autoComplete) {
+        this.autoComplete = autoComplete;
+        return this;
+    }
+
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    public void completePending() {
+        List<PublishCallback> callbacks = new ArrayList<>();
+        PublishCallback callback;
+        while ((callback = pending.poll()) != null) {
+            callbacks.add(callback);
+        }
+        callbacks.forEach(c -> c.onComplete(null));
+    }
+
+    /**
+     * 以失败完成所有未确认的发布，模拟连接在客户端察觉前已断开
+     */
+    public void failPending(Throwable error) {
+        List<PublishCallback> callbacks = new ArrayList<>();
+        PublishCallback callback;
+        while ((callback = pending.poll()) != null) {
+            callbacks.add(callback);
+        }
+        callbacks.forEach(c -> c.onComplete(error));
+    }
+
+    /**
+     * 之后的count次connect调用抛出异常
+     */
+    public FakeMqttTransport failNextConnects(int count) {
+        failingConnects.set(count);
+        return this;
+    }
+
+    /**
+     * 模拟连接意外断开
+     */
+    public void dropConnection() {
+        connected = false;
+        ConnectionListener listener = connectionListener;
+        if (listener != null) {
+            listener.onConnectionLost(new MqttException(MqttException.REASON_CODE_CONNECTION_LOST));
+        }
+    }
+
+    @Override
+    public void connect(MqttConnectOptions options) throws MqttException {
+        connects.add(options);
+        if (failingConnects.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            throw new MqttException(MqttException.REASON_CODE_SERVER_CONNECT_ERROR);
+        }
+        connected = true;
+    }
+
+    @Override
+    public void setConnectionListener(ConnectionListener listener) {
+        this.connectionListener = listener;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public void publish(String topic, byte[] payload, int qos, boolean retained, PublishCallback callback) throws MqttException {
+        if (!connected) {
+            throw new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED);
+        }
+        published.add(new Published(topic, payload, qos, retained));
+        if (autoComplete) {
+            callback.onComplete(null);
+        } else {
+            pending.add(callback);
+        }
+    }
+
+    @Override
+    public void subscribe(String[] topics, int[] qos) {
+        subscriptions.addAll(List.of(topics));
+        subscribeBatches.add(topics);
+    }
+
+    @Override
+    public void setMessageHandler(MessageHandler handler) {
+        this.messageHandler = handler;
+    }
+
+    /**
+     * 模拟收到一条入站消息
+     */
+    public void deliver(String topic, byte[] payload) {
+        MessageHandler handler = messageHandler;
+        if (handler != null) {
+            handler.onMessage(topic, payload);
+        }
+    }
+
+    @Override
+    public void disconnect() {
+        connected = false;
+    }
+}
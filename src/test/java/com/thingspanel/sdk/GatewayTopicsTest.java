@@ -0,0 +1,120 @@
+package com.thingspanel.sdk;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 网关子设备扇出发布单元测试
+ */
+public class GatewayTopicsTest {
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Device gateway(int subDevices) {
+        Device gateway = new Device("gw-1", "voucher", "GW-1", "gateway", "modbus");
+        List<SubDevice> list = new ArrayList<>();
+        for (int i = 1; i <= subDevices; i++) {
+            list.add(new SubDevice("sub-" + i, "v" + i, "SUB-" + i, String.valueOf(i)));
+        }
+        gateway.setSubDevices(list);
+        return gateway;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testAggregatedMessageSplicesReadingsByAddress() throws Exception {
+        FakeMqttTransport transport = new FakeMqttTransport();
+        TPClient client = new TPClient("tcp://localhost:1883").setTransport(transport).setServiceIdentifier("svc");
+        assertTrue(client.connect());
+
+        Map<String, byte[]> readings = new LinkedHashMap<>();
+        for (int i = 1; i <= 100; i++) {
+            readings.put(String.valueOf(i), bytes("{\"t\":" + i + "}"));
+        }
+        readings.put("999", bytes("{\"t\":0}"));
+
+        Device gateway = gateway(100);
+        int published = client.sendGatewayData(gateway, bytes("{\"rssi\":-60}"), readings, GatewayTopics.FanOut.AGGREGATED);
+        assertEquals(100, published);
+        assertEquals(1, transport.published.size());
+        assertEquals("plugin/svc/devices/gw-1/datas", transport.published.get(0).topic);
+
+        Map<String, Object> message = JsonCodec.readObjectMap(transport.published.get(0).payload);
+        assertEquals(-60, ((Map<String, Object>) message.get("gateway_data")).get("rssi"));
+        Map<String, Object> subDeviceData = (Map<String, Object>) message.get("sub_device_data");
+        assertEquals(100, subDeviceData.size());
+        assertEquals(42, ((Map<String, Object>) subDeviceData.get("42")).get("t"));
+
+        GatewayTopics topics = client.gatewayTopics("svc", gateway);
+        assertEquals(1, topics.getUnresolved());
+        assertEquals("sub-42", topics.getSubDevice("42").getDeviceId());
+        client.disconnect();
+    }
+
+    @Test
+    public void testPerSubDeviceFanOutReusesReadingBytes() throws Exception {
+        FakeMqttTransport transport = new FakeMqttTransport();
+        TPClient client = new TPClient("tcp://localhost:1883").setTransport(transport);
+        assertTrue(client.connect());
+        GatewayTopics topics = client.gatewayTopics("svc", gateway(3));
+
+        byte[] first = bytes("{\"t\":1}");
+        Map<String, byte[]> readings = new LinkedHashMap<>();
+        readings.put("1", first);
+        readings.put("3", bytes("{\"t\":3}"));
+        readings.put("7", bytes("{\"t\":7}"));
+
+        assertEquals(2, client.sendGatewayData(topics, null, readings, GatewayTopics.FanOut.PER_SUB_DEVICE));
+        assertEquals(2, transport.published.size());
+        assertEquals("plugin/svc/devices/sub-1/datas", transport.published.get(0).topic);
+        assertSame(first, transport.published.get(0).payload);
+        assertEquals("plugin/svc/devices/sub-3/datas", transport.published.get(1).topic);
+        assertEquals(1, topics.getUnresolved());
+        client.disconnect();
+    }
+
+    @Test
+    public void testIndexIsRebuiltWhenSubDeviceListIsReplaced() {
+        TopicRegistry registry = new TopicRegistry();
+        Device gateway = gateway(2);
+        GatewayTopics topics = registry.gateway("svc", gateway);
+        assertSame(topics, registry.gateway("svc", gateway));
+        assertSame(registry.get("svc", "sub-1"), topics.getSubDeviceTopics("1"));
+
+        gateway.setSubDevices(List.of(new SubDevice("sub-9", "v9", "SUB-9", "\"quoted\"")));
+        GatewayTopics rebuilt = registry.gateway("svc", gateway);
+        assertNotSame(topics, rebuilt);
+        assertNull(rebuilt.getSubDevice("1"));
+        assertEquals("sub-9", rebuilt.getSubDevice("\"quoted\"").getDeviceId());
+
+        registry.remove("gw-1");
+        assertNotSame(rebuilt, registry.gateway("svc", gateway));
+    }
+
+    @Test
+    public void testAggregatedMessageEscapesAddressAndSkipsEmptyPoll() throws Exception {
+        FakeMqttTransport transport = new FakeMqttTransport();
+        TPClient client = new TPClient("tcp://localhost:1883").setTransport(transport);
+        assertTrue(client.connect());
+        Device gateway = gateway(0);
+        gateway.setSubDevices(List.of(new SubDevice("sub-1", "v1", "SUB-1", "a\"b")));
+        GatewayTopics topics = client.gatewayTopics("svc", gateway);
+
+        assertEquals(0, client.sendGatewayData(topics, null, Map.of(), GatewayTopics.FanOut.AGGREGATED));
+        assertTrue(transport.published.isEmpty());
+
+        assertEquals(1, client.sendGatewayData(topics, null, Map.of("a\"b", bytes("{\"on\":true}")),
+                GatewayTopics.FanOut.AGGREGATED));
+        assertEquals("{\"sub_device_data\":{\"a\\\"b\":{\"on\":true}}}",
+                new String(transport.published.get(0).payload, StandardCharsets.UTF_8));
+        client.disconnect();
+    }
+}
@@ -0,0 +1,137 @@
+package com.thingspanel.sdk;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HeartbeatScheduler单元测试
+ */
+public class HeartbeatSchedulerTest {
+
+    static class StubAPIClient extends TPAPIClient {
+        final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+        volatile boolean failing;
+
+        StubAPIClient() {
+            super("http://localhost");
+        }
+
+        @Override
+        public CompletableFuture<APIResponse<String>> sendHeartbeatAsync(HeartbeatRequest request) {
+            calls.computeIfAbsent(request.serviceIdentifier, key -> new AtomicInteger()).incrementAndGet();
+            return CompletableFuture.completedFuture(new APIResponse<>(!failing, failing ? "HTTP 503" : "ok", "success"));
+        }
+
+        int count(String serviceIdentifier) {
+            AtomicInteger count = calls.get(serviceIdentifier);
+            return count == null ? 0 : count.get();
+        }
+    }
+
+    private static HeartbeatScheduler.Options fastOptions() {
+        return new HeartbeatScheduler.Options()
+                .setIntervalMillis(50)
+                .setTickMillis(5)
+                .setWheelSize(8)
+                .setMinRetryMillis(200)
+                .setMaxBackoffMillis(400);
+    }
+
+    @Test
+    public void testSendsPeriodicHeartbeatsForEachService() throws Exception {
+        StubAPIClient api = new StubAPIClient();
+        try (HeartbeatScheduler scheduler = new HeartbeatScheduler(api, fastOptions())) {
+            for (int i = 0; i < 20; i++) {
+                assertTrue(scheduler.register("svc-" + i));
+            }
+            assertFalse(scheduler.register("svc-0"));
+            Thread.sleep(500);
+            for (int i = 0; i < 20; i++) {
+                int count = api.count("svc-" + i);
+                assertTrue(count >= 3 && count <= 15, "svc-" + i + "心跳次数: " + count);
+            }
+            HeartbeatScheduler.Stats stats = scheduler.getStats();
+            assertEquals(20, stats.getRegistered());
+            assertEquals(stats.getSent(), stats.getRtt().getCount());
+            assertEquals(0, stats.getFailed());
+        }
+    }
+
+    @Test
+    public void testBacksOffOnFailure() throws Exception {
+        StubAPIClient api = new StubAPIClient();
+        api.failing = true;
+        try (HeartbeatScheduler scheduler = new HeartbeatScheduler(api, fastOptions())) {
+            scheduler.register("svc");
+            Thread.sleep(600);
+            // 正常周期下约12次，退避后明显减少
+            assertTrue(api.count("svc") <= 4, "失败时心跳次数: " + api.count("svc"));
+            assertTrue(scheduler.getConsecutiveFailures("svc") >= 1);
+            assertEquals(1, scheduler.getStats().getBackingOff());
+
+            api.failing = false;
+            Thread.sleep(600);
+            assertEquals(0, scheduler.getConsecutiveFailures("svc"));
+        }
+    }
+
+    @Test
+    public void testUnregisterStopsHeartbeats() throws Exception {
+        StubAPIClient api = new StubAPIClient();
+        try (HeartbeatScheduler scheduler = new HeartbeatScheduler(api, fastOptions())) {
+            scheduler.register("svc");
+            Thread.sleep(200);
+            assertTrue(scheduler.unregister("svc"));
+            int count = api.count("svc");
+            Thread.sleep(200);
+            assertEquals(count, api.count("svc"));
+            assertEquals(-1, scheduler.getConsecutiveFailures("svc"));
+        }
+    }
+
+    @Test
+    public void testClientRegistersOnConnect() {
+        StubAPIClient api = new StubAPIClient();
+        try (HeartbeatScheduler scheduler = new HeartbeatScheduler(api, fastOptions())) {
+            TPClient client = new TPClient("tcp://localhost:1883", api)
+                    .setServiceIdentifier("svc")
+                    .setTransport(new FakeMqttTransport())
+                    .enableHeartbeat(scheduler);
+            assertTrue(client.connect());
+            assertEquals(1, scheduler.getStats().getRegistered());
+            client.disconnect();
+            assertEquals(0, scheduler.getStats().getRegistered());
+        }
+    }
+
+    @Test
+    public void testSharedServiceStopsAfterLastUnregister() throws Exception {
+        StubAPIClient api = new StubAPIClient();
+        try (HeartbeatScheduler scheduler = new HeartbeatScheduler(api, fastOptions())) {
+            TPClientPool pool = new TPClientPool("tcp://localhost:1883", 2)
+                    .setServiceIdentifier("svc")
+                    .setTransportFactory(clientId -> new FakeMqttTransport());
+            for (int i = 0; i < pool.size(); i++) {
+                pool.getClient(i).enableHeartbeat(scheduler);
+            }
+            assertTrue(pool.connect());
+            assertEquals(1, scheduler.getStats().getRegistered());
+
+            // 一个连接断开不影响其他连接的心跳
+            pool.getClient(0).disconnect();
+            assertEquals(1, scheduler.getStats().getRegistered());
+            int count = api.count("svc");
+            Thread.sleep(200);
+            assertTrue(api.count("svc") > count);
+
+            pool.disconnect();
+            assertEquals(0, scheduler.getStats().getRegistered());
+            assertFalse(scheduler.unregister("svc"));
+        }
+    }
+}
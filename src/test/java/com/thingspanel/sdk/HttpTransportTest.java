@@ -0,0 +1,96 @@
+package com.thingspanel.sdk;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HTTP传输层单元测试
+ */
+public class HttpTransportTest {
+
+    private HttpServer server;
+    private String baseURL;
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile long delayMillis;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/api/v1/plugin/heartbeat", exchange -> {
+            requests.incrementAndGet();
+            exchange.getRequestBody().readAllBytes();
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = "{\"code\":200,\"message\":\"ok\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        baseURL = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private static TPAPIClient.HeartbeatRequest heartbeat(String serviceIdentifier) {
+        TPAPIClient.HeartbeatRequest request = new TPAPIClient.HeartbeatRequest();
+        request.serviceIdentifier = serviceIdentifier;
+        return request;
+    }
+
+    @Test
+    public void testSharedTransportAcrossClients() throws Exception {
+        JdkHttpTransport transport = new JdkHttpTransport(new JdkHttpTransport.Options().setRequestTimeoutMillis(5000));
+        TPAPIClient first = new TPAPIClient(baseURL, transport, 16);
+        TPAPIClient second = new TPAPIClient(baseURL + "/", transport, 16);
+        assertSame(first.getTransport(), second.getTransport());
+
+        assertTrue(first.sendHeartbeat(heartbeat("a")).isSuccess());
+        assertTrue(second.sendHeartbeatAsync(heartbeat("b")).get(5, TimeUnit.SECONDS).isSuccess());
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void testDefaultClientsShareTransport() {
+        assertSame(new TPAPIClient(baseURL).getTransport(), new TPAPIClient(baseURL).getTransport());
+        assertSame(JdkHttpTransport.shared(), new TPAPIClient(baseURL).getTransport());
+    }
+
+    @Test
+    public void testRequestTimeout() throws Exception {
+        delayMillis = 2000;
+        JdkHttpTransport transport = new JdkHttpTransport(new JdkHttpTransport.Options().setRequestTimeoutMillis(200));
+        TPAPIClient client = new TPAPIClient(baseURL, transport, 16);
+
+        long start = System.nanoTime();
+        TPAPIClient.APIResponse<String> response = client.sendHeartbeatAsync(heartbeat("a")).get(5, TimeUnit.SECONDS);
+        assertFalse(response.isSuccess());
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1500));
+    }
+
+    @Test
+    public void testApacheOptionsRejectNonPositiveTimeouts() {
+        ApacheHttpTransport.Options options = new ApacheHttpTransport.Options();
+        assertThrows(IllegalArgumentException.class, () -> options.setConnectTimeoutMillis(0));
+        assertThrows(IllegalArgumentException.class, () -> options.setRequestTimeoutMillis(-1));
+    }
+}
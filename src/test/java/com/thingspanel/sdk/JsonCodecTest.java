@@ -0,0 +1,74 @@
+package com.thingspanel.sdk;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * JsonCodec单元测试
+ */
+public class JsonCodecTest {
+
+    private static byte[] utf8(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testWriteObjectEscapes() {
+        byte[] body = JsonCodec.writeObject("device_id", "a\"b", "voucher", null);
+        assertEquals("{\"device_id\":\"a\\\"b\",\"voucher\":null}", new String(body, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testReadDevice() throws Exception {
+        String json = "{\"code\":200,\"message\":\"success\",\"data\":{"
+                + "\"id\":\"dev-1\",\"voucher\":\"{\\\"username\\\":\\\"u\\\"}\",\"device_type\":2,"
+                + "\"protocol_type\":\"MODBUS_RTU\",\"unknown\":{\"x\":[1,2]},"
+                + "\"config\":{\"host\":\"192.168.1.100\",\"port\":502},"
+                + "\"sub_devices\":[{\"device_id\":\"sub-1\",\"voucher\":\"v1\",\"sub_device_addr\":\"1\"},"
+                + "{\"device_id\":\"sub-2\",\"sub_device_addr\":\"2\"}]}}";
+
+        JsonCodec.Result<Device> result = JsonCodec.readResponse(utf8(json), JsonCodec::readDevice);
+
+        assertTrue(result.isSuccessCode());
+        assertEquals("success", result.getMessage());
+        Device device = result.getData();
+        assertEquals("dev-1", device.getDeviceId());
+        assertEquals("{\"username\":\"u\"}", device.getVoucher());
+        assertEquals("2", device.getDeviceType());
+        assertEquals("MODBUS_RTU", device.getProtocolType());
+        assertEquals("192.168.1.100", device.getConfig().get("host"));
+        assertEquals(502, device.getConfig().get("port"));
+        assertEquals(2, device.getSubDevices().size());
+        assertEquals("sub-1", device.getSubDevices().get(0).getDeviceId());
+        assertEquals("2", device.getSubDevices().get(1).getAddress());
+    }
+
+    @Test
+    public void testSubDevicesSkipNonObjectElements() throws Exception {
+        String json = "{\"code\":200,\"message\":\"success\",\"data\":{\"id\":\"dev-1\","
+                + "\"sub_devices\":[null,{\"device_id\":\"sub-1\"},[1],\"x\",{\"device_id\":\"sub-2\"}],"
+                + "\"device_type\":2}}";
+
+        Device device = JsonCodec.readResponse(utf8(json), JsonCodec::readDevice).getData();
+
+        assertEquals(2, device.getSubDevices().size());
+        assertEquals("sub-1", device.getSubDevices().get(0).getDeviceId());
+        assertEquals("sub-2", device.getSubDevices().get(1).getDeviceId());
+        assertEquals("2", device.getDeviceType());
+    }
+
+    @Test
+    public void testReadStringMapAndErrorCode() throws Exception {
+        JsonCodec.Result<Map<String, String>> result = JsonCodec.readResponse(
+                utf8("{\"data\":{\"device_id\":\"d1\",\"voucher\":\"v\",\"expire\":3600},\"code\":400,\"message\":\"bad\"}"),
+                JsonCodec::readStringMap);
+
+        assertFalse(result.isSuccessCode());
+        assertEquals("bad", result.getMessage());
+        assertEquals("d1", result.getData().get("device_id"));
+        assertEquals("3600", result.getData().get("expire"));
+    }
+}
@@ -0,0 +1,162 @@
+package com.thingspanel.sdk;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MessageDispatcher与LatencyHistogram单元测试
+ */
+public class MessageDispatcherTest {
+
+    @Test
+    public void testParseDeviceId() {
+        assertEquals("dev-1", MessageDispatcher.parseDeviceId("plugin/svc/devices/dev-1/commands"));
+        assertEquals("dev-2", MessageDispatcher.parseDeviceId("devices/dev-2"));
+        assertEquals("dev-3", MessageDispatcher.parseDeviceId("plugin/svc/devices/dev-3"));
+        assertNull(MessageDispatcher.parseDeviceId("plugin/svc/notifications"));
+        assertNull(MessageDispatcher.parseDeviceId("plugin/svc/devices/"));
+    }
+
+    @Test
+    public void testPreservesPerDeviceOrder() throws Exception {
+        int devices = 16;
+        int perDevice = 500;
+        Map<String, List<Integer>> received = new ConcurrentHashMap<>();
+        CountDownLatch done = new CountDownLatch(devices * perDevice);
+        MessageDispatcher dispatcher = new MessageDispatcher((deviceId, topic, payload) -> {
+            received.computeIfAbsent(deviceId, key -> new CopyOnWriteArrayList<>())
+                    .add(Integer.parseInt(new String(payload, StandardCharsets.UTF_8)));
+            done.countDown();
+        }, new MessageDispatcher.Options().setStripes(4).setDrainBatch(8));
+
+        Thread[] producers = new Thread[devices];
+        for (int d = 0; d < devices; d++) {
+            String topic = "plugin/svc/devices/dev-" + d + "/commands";
+            producers[d] = new Thread(() -> {
+                for (int i = 0; i < perDevice; i++) {
+                    assertTrue(dispatcher.dispatch(topic, String.valueOf(i).getBytes(StandardCharsets.UTF_8)));
+                }
+            });
+            producers[d].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (int d = 0; d < devices; d++) {
+            List<Integer> values = received.get("dev-" + d);
+            assertEquals(perDevice, values.size());
+            for (int i = 0; i < perDevice; i++) {
+                assertEquals(i, values.get(i).intValue());
+            }
+        }
+        // 监听器返回后才更新统计，先等待队列排空
+        assertTrue(dispatcher.close(1000));
+        MessageDispatcher.Stats stats = dispatcher.getStats();
+        assertEquals(devices * perDevice, stats.getDispatched());
+        assertEquals(devices * perDevice, stats.getHandlerLatency().getCount());
+    }
+
+    @Test
+    public void testDropsWhenStripeFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        MessageDispatcher dispatcher = new MessageDispatcher((deviceId, topic, payload) -> release.await(),
+                new MessageDispatcher.Options().setStripes(1).setMaxQueuedPerStripe(3));
+        int accepted = 0;
+        for (int i = 0; i < 10; i++) {
+            if (dispatcher.dispatch("devices/dev-1", new byte[0])) {
+                accepted++;
+            }
+        }
+        assertEquals(3, accepted);
+        assertEquals(7, dispatcher.getStats().getDropped());
+        assertEquals(3, dispatcher.getStats().getQueueDepths()[0]);
+        release.countDown();
+        assertTrue(dispatcher.close(1000));
+    }
+
+    @Test
+    public void testCloseDuringDrainDropsRemainder() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        MessageDispatcher dispatcher = new MessageDispatcher((deviceId, topic, payload) -> {
+            started.countDown();
+            release.await();
+        }, new MessageDispatcher.Options().setStripes(1).setDrainBatch(2));
+        for (int i = 0; i < 10; i++) {
+            assertTrue(dispatcher.dispatch("devices/dev-1", new byte[0]));
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertFalse(dispatcher.close(0));
+
+        // 处理完一批后重新调度被拒绝，剩余消息计为丢弃而不是留在队列中
+        release.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (dispatcher.getQueued() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, dispatcher.getQueued());
+        assertEquals(2, dispatcher.getStats().getDispatched());
+        assertEquals(8, dispatcher.getStats().getDropped());
+    }
+
+    @Test
+    public void testClientRoutesInboundMessages() throws Exception {
+        FakeMqttTransport transport = new FakeMqttTransport();
+        CountDownLatch received = new CountDownLatch(1);
+        TPClient client = new TPClient("tcp://localhost:1883")
+                .setTransport(transport)
+                .setMessageListener((deviceId, topic, payload) -> {
+                    assertEquals("dev-1", deviceId);
+                    received.countDown();
+                });
+        assertTrue(client.connect());
+        client.subscribe("plugin/svc/devices/+/commands");
+        transport.deliver("plugin/svc/devices/dev-1/commands", "{}".getBytes(StandardCharsets.UTF_8));
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+        client.disconnect();
+    }
+
+    @Test
+    public void testReplacingListenerKeepsDelivering() throws Exception {
+        FakeMqttTransport transport = new FakeMqttTransport();
+        CountDownLatch replaced = new CountDownLatch(1);
+        TPClient client = new TPClient("tcp://localhost:1883")
+                .setTransport(transport)
+                .setMessageListener((deviceId, topic, payload) -> {
+                });
+        assertTrue(client.connect());
+        MessageDispatcher previous = client.getMessageDispatcher();
+        client.setMessageListener((deviceId, topic, payload) -> replaced.countDown());
+        transport.deliver("plugin/svc/devices/dev-1/commands", "{}".getBytes(StandardCharsets.UTF_8));
+        assertTrue(replaced.await(5, TimeUnit.SECONDS));
+
+        // 已关闭的分发器丢弃迟到的消息，不向传输层的回调线程抛出异常
+        assertFalse(previous.dispatch("plugin/svc/devices/dev-1/commands", new byte[0]));
+        assertEquals(0, previous.getQueued());
+        assertEquals(1, previous.getStats().getDropped());
+        client.disconnect();
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(1_000_000, snapshot.getMaxNanos());
+        assertEquals(500_000, snapshot.getPercentileNanos(50), 500_000 * 0.07);
+        assertEquals(990_000, snapshot.getPercentileNanos(99), 990_000 * 0.07);
+        assertEquals(0, new LatencyHistogram().snapshot().getPercentileNanos(99));
+    }
+}
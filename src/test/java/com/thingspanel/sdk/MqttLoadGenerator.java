@@ -0,0 +1,395 @@
+package com.thingspanel.sdk;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * MQTT端到端负载生成器
+ * 以目标速率经{@link TPClient}为N台模拟设备发布数据，另一个TPClient订阅全部数据主题，
+ * 统计持续吞吐、发布到接收的延迟分布（HdrHistogram）、丢失消息数以及GC次数、GC耗时和分配字节数。
+ * 每条消息的前8字节为计划发送时刻（System.nanoTime），延迟从计划时刻算起，发送落后于计划时不会低估延迟。
+ *
+ * 运行（未指定broker时启动进程内的{@link EmbeddedMqttBroker}）：
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.thingspanel.sdk.MqttLoadGenerator
+ *     -Dexec.args="devices=1000 rate=20000 duration=30 warmup=5 payload=64 threads=4 batching=true"
+ */
+public class MqttLoadGenerator {
+
+    private static final String SERVICE = "load";
+    private static final String SUBSCRIPTION = "plugin/" + SERVICE + "/devices/+/datas";
+
+    private final Options options;
+    private final Recorder latency = new Recorder(3);
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private volatile long measureFromNanos = Long.MAX_VALUE;
+
+    public MqttLoadGenerator(Options options) {
+        this.options = options;
+    }
+
+    /**
+     * 对指定代理执行一轮负载
+     * @param serverURI 代理地址
+     * @return 测量窗口（预热之后）的结果
+     */
+    public Report run(String serverURI) throws InterruptedException {
+        TPClient subscriber = new TPClient(serverURI).setClientId("tp-load-sub-" + System.nanoTime())
+                .setMessageListener(this::onMessage, new MessageDispatcher.Options().setMaxQueuedPerStripe(1 << 16));
+        TPClient publisher = new TPClient(serverURI).setClientId("tp-load-pub-" + System.nanoTime());
+        if (options.batching) {
+            publisher.enableBatching(new BatchingPublisher.Options());
+        }
+        if (!subscriber.connect() || !publisher.connect()) {
+            throw new IllegalStateException("无法连接到MQTT代理: " + serverURI);
+        }
+        subscriber.subscribe(SUBSCRIPTION);
+        try {
+            DeviceTopics[] devices = new DeviceTopics[options.devices];
+            for (int i = 0; i < devices.length; i++) {
+                devices[i] = publisher.deviceTopics(SERVICE, "dev-" + i);
+            }
+            return drive(publisher, devices);
+        } finally {
+            publisher.disconnect();
+            subscriber.disconnect();
+        }
+    }
+
+    private Report drive(TPClient publisher, DeviceTopics[] devices) throws InterruptedException {
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(options.warmupSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) * options.threads / options.ratePerSecond;
+        measureFromNanos = measureFrom;
+
+        List<Thread> threads = new ArrayList<>(options.threads);
+        CountDownLatch finished = new CountDownLatch(options.threads);
+        CountDownLatch measured = new CountDownLatch(1);
+        for (int t = 0; t < options.threads; t++) {
+            int offset = t;
+            Thread thread = new Thread(() -> {
+                long next = start + offset * intervalNanos / options.threads;
+                for (int i = offset; next < end; i += options.threads) {
+                    long wait = next - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    byte[] payload = new byte[Math.max(Long.BYTES, options.payloadBytes)];
+                    ByteBuffer.wrap(payload).putLong(next);
+                    publisher.sendData(devices[i % devices.length], payload);
+                    if (next >= measureFrom) {
+                        sent.increment();
+                    }
+                    next += intervalNanos;
+                }
+                // 采样分配量之前保持存活，否则线程的分配计数随线程结束而丢失
+                finished.countDown();
+                try {
+                    measured.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "tp-load-publisher-" + t);
+            thread.setDaemon(true);
+            threads.add(thread);
+        }
+
+        long sleep = measureFrom - System.nanoTime();
+        threads.forEach(Thread::start);
+        if (sleep > 0) {
+            TimeUnit.NANOSECONDS.sleep(sleep);
+        }
+        long gcCountBefore = gcCount();
+        long gcMillisBefore = gcMillis();
+        Map<Long, Long> allocatedBefore = allocatedBytes();
+        finished.await();
+        long elapsedNanos = System.nanoTime() - measureFrom;
+        long allocated = allocatedSince(allocatedBefore);
+        measured.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        // 等待在途消息到达
+        long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (received.sum() < sent.sum() && System.nanoTime() < drainDeadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        return new Report(sent.sum(), received.sum(), elapsedNanos, latency.getIntervalHistogram(),
+                gcCount() - gcCountBefore, gcMillis() - gcMillisBefore, allocated);
+    }
+
+    private void onMessage(String deviceId, String topic, byte[] payload) {
+        long scheduled = ByteBuffer.wrap(payload).getLong();
+        if (scheduled < measureFromNanos) {
+            return;
+        }
+        latency.recordValue(Math.max(0, System.nanoTime() - scheduled));
+        received.increment();
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    /**
+     * 各存活线程累计分配的字节数，不支持时返回null
+     */
+    private static Map<Long, Long> allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+        if (!allocation.isThreadAllocatedMemorySupported() || !allocation.isThreadAllocatedMemoryEnabled()) {
+            return null;
+        }
+        long[] ids = threads.getAllThreadIds();
+        long[] bytes = allocation.getThreadAllocatedBytes(ids);
+        Map<Long, Long> byThread = new HashMap<>(ids.length * 2);
+        for (int i = 0; i < ids.length; i++) {
+            if (bytes[i] >= 0) {
+                byThread.put(ids[i], bytes[i]);
+            }
+        }
+        return byThread;
+    }
+
+    /**
+     * 自before以来当前存活线程新分配的字节数，期间结束的线程不计入；不支持时返回-1
+     */
+    private static long allocatedSince(Map<Long, Long> before) {
+        Map<Long, Long> after = allocatedBytes();
+        if (before == null || after == null) {
+            return -1;
+        }
+        long total = 0;
+        for (Map.Entry<Long, Long> entry : after.entrySet()) {
+            total += entry.getValue() - before.getOrDefault(entry.getKey(), 0L);
+        }
+        return total;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new Options();
+        String broker = null;
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("参数格式应为key=value: " + arg);
+            }
+            String key = arg.substring(0, eq);
+            String value = arg.substring(eq + 1);
+            switch (key) {
+                case "broker": broker = value; break;
+                case "devices": options.setDevices(Integer.parseInt(value)); break;
+                case "rate": options.setRatePerSecond(Integer.parseInt(value)); break;
+                case "duration": options.setDurationSeconds(Integer.parseInt(value)); break;
+                case "warmup": options.setWarmupSeconds(Integer.parseInt(value)); break;
+                case "payload": options.setPayloadBytes(Integer.parseInt(value)); break;
+                case "threads": options.setThreads(Integer.parseInt(value)); break;
+                case "batching": options.setBatching(Boolean.parseBoolean(value)); break;
+                default: throw new IllegalArgumentException("未知参数: " + key);
+            }
+        }
+        Report report;
+        if (broker == null) {
+            try (EmbeddedMqttBroker embedded = new EmbeddedMqttBroker()) {
+                report = new MqttLoadGenerator(options).run(embedded.getServerURI());
+            }
+        } else {
+            report = new MqttLoadGenerator(options).run(broker);
+        }
+        System.out.println(report);
+        report.getLatency().outputPercentileDistribution(System.out, 1000.0);
+    }
+
+    /**
+     * 一轮负载的结果
+     */
+    public static class Report {
+        private final long sent;
+        private final long received;
+        private final long elapsedNanos;
+        private final Histogram latency;
+        private final long gcCount;
+        private final long gcMillis;
+        private final long allocatedBytes;
+
+        public Report(long sent, long received, long elapsedNanos, Histogram latency,
+                      long gcCount, long gcMillis, long allocatedBytes) {
+            this.sent = sent;
+            this.received = received;
+            this.elapsedNanos = elapsedNanos;
+            this.latency = latency;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        public long getSent() {
+            return sent;
+        }
+
+        public long getReceived() {
+            return received;
+        }
+
+        /**
+         * 发送但未在结束后5秒内收到的消息数
+         */
+        public long getLost() {
+            return Math.max(0, sent - received);
+        }
+
+        /**
+         * 持续吞吐（接收消息数/秒）
+         */
+        public double getThroughput() {
+            return received * 1e9 / elapsedNanos;
+        }
+
+        /**
+         * 发布到接收的延迟分布（纳秒）
+         */
+        public Histogram getLatency() {
+            return latency;
+        }
+
+        public long getGcCount() {
+            return gcCount;
+        }
+
+        public long getGcMillis() {
+            return gcMillis;
+        }
+
+        /**
+         * 测量窗口内的分配字节数（不含期间结束的线程），不支持时为负数
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("发送: %d, 接收: %d, 丢失: %d, 吞吐: %.0f msg/s%n"
+                            + "延迟(us) p50: %.1f, p99: %.1f, p99.9: %.1f, max: %.1f%n"
+                            + "GC次数: %d, GC耗时: %dms, 分配: %s",
+                    sent, received, getLost(), getThroughput(),
+                    latency.getValueAtPercentile(50) / 1e3, latency.getValueAtPercentile(99) / 1e3,
+                    latency.getValueAtPercentile(99.9) / 1e3, latency.getMaxValue() / 1e3,
+                    gcCount, gcMillis,
+                    allocatedBytes < 0 ? "不支持" : (allocatedBytes / Math.max(1, received)) + " B/msg");
+        }
+    }
+
+    /**
+     * 负载参数
+     */
+    public static class Options {
+        private int devices = 1000;
+        private int ratePerSecond = 10_000;
+        private int durationSeconds = 30;
+        private int warmupSeconds = 5;
+        private int payloadBytes = 64;
+        private int threads = 2;
+        private boolean batching = true;
+
+        /**
+         * 模拟设备数，消息按设备轮流发布
+         */
+        public Options setDevices(int devices) {
+            if (devices <= 0) {
+                throw new IllegalArgumentException("devices必须大于0");
+            }
+            this.devices = devices;
+            return this;
+        }
+
+        /**
+         * 目标总发布速率（条/秒）
+         */
+        public Options setRatePerSecond(int ratePerSecond) {
+            if (ratePerSecond <= 0) {
+                throw new IllegalArgumentException("ratePerSecond必须大于0");
+            }
+            this.ratePerSecond = ratePerSecond;
+            return this;
+        }
+
+        /**
+         * 测量时长（秒），不含预热
+         */
+        public Options setDurationSeconds(int durationSeconds) {
+            if (durationSeconds <= 0) {
+                throw new IllegalArgumentException("durationSeconds必须大于0");
+            }
+            this.durationSeconds = durationSeconds;
+            return this;
+        }
+
+        /**
+         * 预热时长（秒），期间的消息不计入结果
+         */
+        public Options setWarmupSeconds(int warmupSeconds) {
+            if (warmupSeconds < 0) {
+                throw new IllegalArgumentException("warmupSeconds不能小于0");
+            }
+            this.warmupSeconds = warmupSeconds;
+            return this;
+        }
+
+        /**
+         * 每条消息的字节数，不小于8
+         */
+        public Options setPayloadBytes(int payloadBytes) {
+            this.payloadBytes = payloadBytes;
+            return this;
+        }
+
+        /**
+         * 发布线程数
+         */
+        public Options setThreads(int threads) {
+            if (threads <= 0) {
+                throw new IllegalArgumentException("threads必须大于0");
+            }
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * 发布端是否启用批量流水线发布
+         */
+        public Options setBatching(boolean batching) {
+            this.batching = batching;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.thingspanel.sdk;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 进程内MQTT代理与负载生成器的端到端测试，经真实的Paho客户端和回环TCP连接
+ */
+public class MqttLoadGeneratorTest {
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean(), "等待超时");
+    }
+
+    @Test
+    public void testTopicFilterMatching() {
+        assertTrue(EmbeddedMqttBroker.matches("plugin/load/devices/+/datas", "plugin/load/devices/dev-1/datas"));
+        assertFalse(EmbeddedMqttBroker.matches("plugin/load/devices/+/datas", "plugin/load/devices/dev-1/status"));
+        assertTrue(EmbeddedMqttBroker.matches("devices/#", "devices/status/dev-1"));
+        assertTrue(EmbeddedMqttBroker.matches("devices/#", "devices"));
+        assertTrue(EmbeddedMqttBroker.matches("#", "a/b/c"));
+        assertFalse(EmbeddedMqttBroker.matches("a/b", "a/bc"));
+        assertFalse(EmbeddedMqttBroker.matches("a/+", "a/b/c"));
+    }
+
+    @Test
+    public void testDeliversEveryMessageAtTargetRate() throws Exception {
+        try (EmbeddedMqttBroker broker = new EmbeddedMqttBroker()) {
+            MqttLoadGenerator.Report report = new MqttLoadGenerator(new MqttLoadGenerator.Options()
+                    .setDevices(50).setRatePerSecond(2000).setWarmupSeconds(1).setDurationSeconds(2))
+                    .run(broker.getServerURI());
+
+            assertTrue(report.getSent() > 3000, report.toString());
+            assertEquals(0, report.getLost(), report.toString());
+            assertEquals(report.getSent(), report.getLatency().getTotalCount());
+            assertTrue(report.getLatency().getValueAtPercentile(50) > 0);
+        }
+    }
+
+    @Test
+    public void testResubscribesAfterBrokerRestart() throws Exception {
+        try (EmbeddedMqttBroker broker = new EmbeddedMqttBroker()) {
+            List<String> received = new CopyOnWriteArrayList<>();
+            TPClient client = new TPClient(broker.getServerURI())
+                    .setMessageListener((deviceId, topic, payload) -> received.add(new String(payload, StandardCharsets.UTF_8)))
+                    .enableAutoReconnect(new ReconnectSupervisor.Options().setInitialDelayMillis(20).setMaxDelayMillis(200));
+            assertTrue(client.connect());
+            client.subscribe("plugin/svc/devices/+/datas");
+            DeviceTopics device = client.deviceTopics("svc", "dev-1");
+
+            broker.dropConnections();
+            await(() -> client.getReconnectSupervisor().getStats().getReconnects() == 1);
+            client.sendData(device, "{\"t\":1}".getBytes(StandardCharsets.UTF_8));
+            await(() -> received.size() == 1);
+            assertEquals(2, broker.getConnections());
+            client.disconnect();
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.thingspanel.sdk;
+
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * OfflineOutbox单元测试
+ */
+public class OfflineOutboxTest {
+
+    private Path directory;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("tp-outbox");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private OfflineOutbox.Options options() {
+        return new OfflineOutbox.Options().setDirectory(directory).setReplayRatePerSecond(0);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void awaitPublished(FakeMqttTransport transport, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (transport.published.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, transport.published.size());
+    }
+
+    @Test
+    public void testReplaysInOrderAcrossSegments() throws Exception {
+        try (OfflineOutbox outbox = OfflineOutbox.open(options().setSegmentBytes(1024))) {
+            for (int i = 0; i < 100; i++) {
+                assertTrue(outbox.append("t/" + i, bytes("payload-" + i), 1, false));
+            }
+            assertTrue(outbox.getStats().getSegments() > 1);
+            assertTrue(outbox.hasBacklog());
+
+            FakeMqttTransport transport = new FakeMqttTransport();
+            transport.connect(null);
+            outbox.startReplay(transport);
+            awaitPublished(transport, 100);
+            for (int i = 0; i < 100; i++) {
+                assertEquals("t/" + i, transport.published.get(i).topic);
+                assertArrayEquals(bytes("payload-" + i), transport.published.get(i).payload);
+            }
+            outbox.stopReplay();
+            assertFalse(outbox.hasBacklog());
+            assertEquals(100, outbox.getStats().getReplayed());
+        }
+    }
+
+    @Test
+    public void testRecoversBacklogAfterReopen() throws Exception {
+        try (OfflineOutbox outbox = OfflineOutbox.open(options())) {
+            for (int i = 0; i < 10; i++) {
+                outbox.append("t/" + i, bytes("" + i), 1, false);
+            }
+        }
+        try (OfflineOutbox outbox = OfflineOutbox.open(options())) {
+            assertEquals(10, outbox.getStats().getPending());
+            FakeMqttTransport transport = new FakeMqttTransport();
+            transport.connect(null);
+            outbox.startReplay(transport);
+            awaitPublished(transport, 10);
+            assertEquals("t/0", transport.published.get(0).topic);
+        }
+        // 已重放的消息在再次打开后不会重复
+        try (OfflineOutbox outbox = OfflineOutbox.open(options())) {
+            assertFalse(outbox.hasBacklog());
+        }
+    }
+
+    @Test
+    public void testTruncatesCorruptedTail() throws Exception {
+        try (OfflineOutbox outbox = OfflineOutbox.open(options().setSegmentBytes(4096))) {
+            outbox.append("t/ok", bytes("ok"), 1, false);
+            outbox.append("t/bad", bytes("bad"), 1, false);
+        }
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.filter(path -> path.toString().endsWith(".seg")).findFirst().orElseThrow();
+        }
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            // 第二条记录的最后一个字节
+            int first = 8 + 12 + "t/ok".length() + 2;
+            file.seek(first + 8 + 12 + "t/bad".length() + 2);
+            file.write('X');
+        }
+        try (OfflineOutbox outbox = OfflineOutbox.open(options().setSegmentBytes(4096))) {
+            assertEquals(1, outbox.getStats().getPending());
+            assertEquals(1, outbox.getStats().getCorrupted());
+        }
+    }
+
+    @Test
+    public void testDropsOldestSegmentsOverCapacity() throws Exception {
+        try (OfflineOutbox outbox = OfflineOutbox.open(options().setSegmentBytes(1024).setMaxTotalBytes(2048))) {
+            for (int i = 0; i < 100; i++) {
+                outbox.append("t/" + i, new byte[64], 1, false);
+            }
+            OfflineOutbox.Stats stats = outbox.getStats();
+            assertEquals(2, stats.getSegments());
+            assertTrue(stats.getDroppedSegments() > 0);
+            assertTrue(stats.getPending() < 100);
+        }
+    }
+
+    @Test
+    public void testClientBuffersUntilConnected() throws Exception {
+        FakeMqttTransport transport = new FakeMqttTransport();
+        try (OfflineOutbox outbox = OfflineOutbox.open(options())) {
+            TPClient client = new TPClient("tcp://localhost:1883")
+                    .setServiceIdentifier("svc")
+                    .setTransport(transport)
+                    .enableOfflineOutbox(outbox);
+            client.sendData("svc", "dev-1", "{\"t\":1}");
+            client.sendStatus("dev-1", "1");
+            assertEquals(0, transport.published.size());
+            assertEquals(2, outbox.getStats().getPending());
+
+            assertTrue(client.connect());
+            // 连接后新消息直接发送，积压由重放线程按写入顺序发出
+            client.sendData("svc", "dev-1", "{\"t\":2}");
+            awaitPublished(transport, 3);
+            List<String> backlog = new ArrayList<>();
+            for (FakeMqttTransport.Published message : transport.published) {
+                if (!Arrays.equals(bytes("{\"t\":2}"), message.payload)) {
+                    backlog.add(message.topic);
+                }
+            }
+            assertEquals(List.of("plugin/svc/devices/dev-1/datas", "devices/status/dev-1"), backlog);
+            client.disconnect();
+        }
+    }
+
+    @Test
+    public void testUndeliveredDirectPublishesSpillToOutbox() throws Exception {
+        FakeMqttTransport transport = new FakeMqttTransport().setAutoComplete(false);
+        try (OfflineOutbox outbox = OfflineOutbox.open(options())) {
+            TPClient client = new TPClient("tcp://localhost:1883")
+                    .setServiceIdentifier("svc")
+                    .setTransport(transport)
+                    .enableOfflineOutbox(outbox);
+            assertTrue(client.connect());
+            DeviceTopics device = client.deviceTopics("svc", "dev-1");
+            client.sendData(device, bytes("{\"t\":1}"));
+            PublishToken token = client.sendDataAsync(device, bytes("{\"t\":2}"), 1);
+            assertEquals(2, transport.published.size());
+
+            // 已发出的消息未被确认就失败，转入发件箱后由重放线程重新发出
+            transport.failPending(new MqttException(MqttException.REASON_CODE_CONNECTION_LOST));
+            assertTrue(token.isSuccess());
+            assertEquals(2, outbox.getStats().getAppended());
+            awaitPublished(transport, 4);
+
+            // 断开时仍未确认的直接发布同样转入发件箱
+            client.sendData(device, bytes("{\"t\":3}"));
+            client.disconnect();
+            assertEquals(3, outbox.getStats().getAppended());
+            assertEquals(0, client.getRejectedMessages());
+        }
+    }
+
+    @Test
+    public void testReplayAdvancesOnlyOnAcknowledgement() throws Exception {
+        FakeMqttTransport transport = new FakeMqttTransport().setAutoComplete(false);
+        transport.connect(null);
+        try (OfflineOutbox outbox = OfflineOutbox.open(options().setReplayWindow(4))) {
+            for (int i = 0; i < 10; i++) {
+                outbox.append("t/" + i, bytes("" + i), 1, false);
+            }
+            outbox.startReplay(transport);
+            awaitPublished(transport, 4);
+            Thread.sleep(50);
+            // 窗口已满，未确认前不再发送
+            assertEquals(4, transport.published.size());
+            assertEquals(0, outbox.getStats().getReplayed());
+            assertEquals(10, outbox.getStats().getPending());
+        }
+        // 未确认的消息在重新打开后仍在积压中
+        try (OfflineOutbox outbox = OfflineOutbox.open(options())) {
+            assertEquals(10, outbox.getStats().getPending());
+        }
+    }
+
+    @Test
+    public void testFailedReplayIsResent() throws Exception {
+        FailingTransport transport = new FailingTransport(2);
+        try (OfflineOutbox outbox = OfflineOutbox.open(options())) {
+            for (int i = 0; i < 5; i++) {
+                outbox.append("t/" + i, bytes("" + i), 1, false);
+            }
+            outbox.startReplay(transport);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (outbox.getStats().getReplayed() < 5 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(5, outbox.getStats().getReplayed());
+            assertFalse(outbox.hasBacklog());
+            // 失败的记录及其后已发出的记录被重发，至少一次
+            assertTrue(transport.delivered.containsAll(List.of("t/0", "t/1", "t/2", "t/3", "t/4")));
+            assertTrue(transport.attempts.get() > 5);
+        }
+    }
+
+    @Test
+    public void testCorruptActiveSegmentClearsBacklog() throws Exception {
+        try (OfflineOutbox outbox = OfflineOutbox.open(options().setSegmentBytes(4096))) {
+            outbox.append("t/ok", bytes("ok"), 1, false);
+            outbox.append("t/bad", bytes("bad"), 1, false);
+        }
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.filter(path -> path.toString().endsWith(".seg")).findFirst().orElseThrow();
+        }
+        try (OfflineOutbox outbox = OfflineOutbox.open(options().setSegmentBytes(4096))) {
+            // 恢复后再写入一条，然后破坏第二条记录的内容（长度与CRC不变）
+            outbox.append("t/new", bytes("new"), 1, false);
+            try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+                int first = 8 + 12 + "t/ok".length() + 2;
+                file.seek(first + 8 + 12 + "t/bad".length() + 2);
+                file.write('X');
+            }
+            FakeMqttTransport transport = new FakeMqttTransport();
+            transport.connect(null);
+            outbox.startReplay(transport);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (outbox.hasBacklog() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertFalse(outbox.hasBacklog());
+            assertEquals("t/ok", transport.published.get(0).topic);
+            assertEquals(1, outbox.getStats().getCorrupted());
+        }
+    }
+
+    /**
+     * 前failures次发布以失败回调完成的传输层
+     */
+    private static class FailingTransport extends FakeMqttTransport {
+        final List<String> delivered = new CopyOnWriteArrayList<>();
+        final AtomicInteger attempts = new AtomicInteger();
+        private final AtomicInteger failures;
+
+        FailingTransport(int failures) throws Exception {
+            this.failures = new AtomicInteger(failures);
+            connect(null);
+        }
+
+        @Override
+        public void publish(String topic, byte[] payload, int qos, boolean retained, PublishCallback callback)
+                throws MqttException {
+            attempts.incrementAndGet();
+            if (failures.getAndDecrement() > 0) {
+                callback.onComplete(new IllegalStateException("未确认"));
+                return;
+            }
+            super.publish(topic, payload, qos, retained, error -> {
+                delivered.add(topic);
+                callback.onComplete(error);
+            });
+        }
+    }
+}
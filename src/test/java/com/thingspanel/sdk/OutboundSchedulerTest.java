@@ -0,0 +1,288 @@
+package com.thingspanel.sdk;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OutboundScheduler及令牌桶单元测试
+ */
+public class OutboundSchedulerTest {
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 记录调度结果的发布出口
+     */
+    private static class RecordingSink implements OutboundScheduler.Sink {
+        final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+        final List<String> payloads = Collections.synchronizedList(new ArrayList<>());
+        final List<Throwable> dropped = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void dispatch(String topic, byte[] payload, int qos, boolean retained, PublishToken token) {
+            sent.add(topic);
+            payloads.add(new String(payload, StandardCharsets.UTF_8));
+            if (token != null) {
+                token.onComplete(null);
+            }
+        }
+
+        @Override
+        public void dropped(PublishToken token, Throwable reason) {
+            dropped.add(reason);
+            if (token != null) {
+                token.onComplete(reason);
+            }
+        }
+
+        void awaitSent(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (sent.size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(2);
+            }
+            assertTrue(sent.size() >= count, "已发送 " + sent.size() + "/" + count);
+        }
+    }
+
+    @Test
+    public void testTokenBucketsFollowRateAndBurst() {
+        TokenBuckets buckets = new TokenBuckets(10, 3);
+        long key = TokenBuckets.key("dev-1");
+        long now = 1_000_000_000L;
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, buckets.waitNanos(key, now));
+            buckets.take(key, now);
+        }
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), buckets.waitNanos(key, now));
+        assertEquals(0, buckets.waitNanos(key, now + TimeUnit.MILLISECONDS.toNanos(100)));
+        assertEquals(0, buckets.waitNanos(TokenBuckets.key("dev-2"), now));
+
+        // 强制扣减最多欠一整桶
+        for (int i = 0; i < 100; i++) {
+            buckets.debit(key, now);
+        }
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(300), buckets.waitNanos(key, now));
+    }
+
+    @Test
+    public void testTokenBucketsReclaimFullBucketsOnGrowth() {
+        TokenBuckets buckets = new TokenBuckets(1000, 1);
+        long now = 0;
+        for (int i = 0; i < 40; i++) {
+            buckets.take(TokenBuckets.key("dev-" + i), now);
+        }
+        assertEquals(40, buckets.size());
+        // 一秒后前40个桶都已满，扩容时被清除
+        now += TimeUnit.SECONDS.toNanos(1);
+        for (int i = 40; i < 80; i++) {
+            buckets.take(TokenBuckets.key("dev-" + i), now);
+        }
+        assertTrue(buckets.size() < 80, "已满的桶未被清除: " + buckets.size());
+        assertEquals(0, buckets.waitNanos(TokenBuckets.key("dev-0"), now));
+    }
+
+    @Test
+    public void testPriorityLanesOvertakeQueuedTelemetry() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        OutboundScheduler scheduler = new OutboundScheduler("test", sink,
+                new OutboundScheduler.Options().setGlobalRate(50, 1));
+        TopicRegistry topics = new TopicRegistry();
+        DeviceTopics device = topics.get("svc", "dev-1");
+        for (int i = 0; i < 20; i++) {
+            scheduler.offer(device, OutboundScheduler.Lane.TELEMETRY, device.getDataTopic(), bytes("{}"), 1, false, null);
+        }
+        scheduler.offer(device, OutboundScheduler.Lane.STATUS, device.getStatusTopic(), bytes("1"), 1, false, null);
+        scheduler.offer(device, OutboundScheduler.Lane.ALARM, "alarm/dev-1", bytes("{}"), 1, false, null);
+
+        sink.awaitSent(4);
+        List<String> first = new ArrayList<>(sink.sent.subList(0, 4));
+        assertTrue(first.indexOf("alarm/dev-1") >= 0 && first.indexOf("alarm/dev-1") < first.indexOf(device.getStatusTopic()),
+                "告警应先于状态发出: " + first);
+        assertTrue(scheduler.close(5000));
+        assertEquals(22, sink.sent.size());
+        OutboundScheduler.Stats stats = scheduler.getStats();
+        assertEquals(20, stats.getLane(OutboundScheduler.Lane.TELEMETRY).getSent());
+        assertEquals(1, stats.getLane(OutboundScheduler.Lane.ALARM).getSent());
+        assertTrue(stats.getThrottled() > 0);
+    }
+
+    @Test
+    public void testChattyDeviceDoesNotStarveOthers() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        OutboundScheduler scheduler = new OutboundScheduler("test", sink,
+                new OutboundScheduler.Options().setDeviceRate(10, 1));
+        TopicRegistry topics = new TopicRegistry();
+        DeviceTopics chatty = topics.get("svc", "chatty");
+        DeviceTopics quiet = topics.get("svc", "quiet");
+        for (int i = 0; i < 50; i++) {
+            scheduler.offer(chatty, OutboundScheduler.Lane.TELEMETRY, chatty.getDataTopic(), bytes("{\"i\":" + i + "}"), 1, false, null);
+        }
+        for (int i = 0; i < 5; i++) {
+            scheduler.offer(quiet, OutboundScheduler.Lane.TELEMETRY, quiet.getDataTopic(), bytes("{}"), 1, false, null);
+            Thread.sleep(120);
+        }
+        sink.awaitSent(8);
+        List<String> sent = new ArrayList<>(sink.sent);
+        assertEquals(5, Collections.frequency(sent, quiet.getDataTopic()), "安静设备的消息被阻塞: " + sent);
+        assertTrue(Collections.frequency(sent, chatty.getDataTopic()) < 15, "高频设备未被限速: " + sent.size());
+
+        // 同一设备内保持顺序
+        List<String> chattyPayloads = new ArrayList<>();
+        synchronized (sink.payloads) {
+            for (int i = 0; i < sink.sent.size(); i++) {
+                if (sink.sent.get(i).equals(chatty.getDataTopic())) {
+                    chattyPayloads.add(sink.payloads.get(i));
+                }
+            }
+        }
+        for (int i = 0; i < chattyPayloads.size(); i++) {
+            assertEquals("{\"i\":" + i + "}", chattyPayloads.get(i));
+        }
+        scheduler.close(0);
+    }
+
+    @Test
+    public void testQuietDeviceBehindLargeThrottledBacklog() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        OutboundScheduler scheduler = new OutboundScheduler("test", sink,
+                new OutboundScheduler.Options().setDeviceRate(10, 1));
+        TopicRegistry topics = new TopicRegistry();
+        DeviceTopics chatty = topics.get("svc", "chatty");
+        DeviceTopics quiet = topics.get("svc", "quiet");
+        // 积压远超扫描深度，被限流的设备仍只占一个轮转位置
+        for (int i = 0; i < 1000; i++) {
+            scheduler.offer(chatty, OutboundScheduler.Lane.TELEMETRY, chatty.getDataTopic(), bytes("{}"), 1, false, null);
+        }
+        scheduler.offer(quiet, OutboundScheduler.Lane.TELEMETRY, quiet.getDataTopic(), bytes("{}"), 1, false, null);
+
+        long deadline = System.currentTimeMillis() + 500;
+        while (!sink.sent.contains(quiet.getDataTopic()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(2);
+        }
+        assertTrue(sink.sent.contains(quiet.getDataTopic()), "安静设备的消息被积压阻塞: " + sink.sent.size());
+        assertTrue(scheduler.getQueued() > 990);
+        scheduler.close(0);
+    }
+
+    @Test
+    public void testQuietDeviceBeyondScanDepthIsNotParked() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        OutboundScheduler scheduler = new OutboundScheduler("test", sink, new OutboundScheduler.Options()
+                .setDeviceRate(1, 1)
+                .setScanDepth(4));
+        TopicRegistry topics = new TopicRegistry();
+        int chattyCount = 40;
+        for (int i = 0; i < chattyCount; i++) {
+            DeviceTopics chatty = topics.get("svc", "chatty-" + i);
+            for (int j = 0; j < 2; j++) {
+                scheduler.offer(chatty, OutboundScheduler.Lane.TELEMETRY, chatty.getDataTopic(), bytes("{}"), 1, false, null);
+            }
+        }
+        sink.awaitSent(chattyCount);
+        // 被限流的设备数远超扫描深度，达到扫描深度不应休眠，否则安静设备要等待多个休眠周期
+        DeviceTopics quiet = topics.get("svc", "quiet");
+        long start = System.nanoTime();
+        scheduler.offer(quiet, OutboundScheduler.Lane.TELEMETRY, quiet.getDataTopic(), bytes("{}"), 1, false, null);
+        long deadline = System.currentTimeMillis() + 500;
+        while (!sink.sent.contains(quiet.getDataTopic()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(sink.sent.contains(quiet.getDataTopic()), "安静设备的消息未发出");
+        assertTrue(elapsedMillis < 150, "安静设备等待了多个休眠周期: " + elapsedMillis + "ms");
+        assertEquals(chattyCount, scheduler.getQueued());
+        scheduler.close(0);
+    }
+
+    @Test
+    public void testOverflowPolicies() throws Exception {
+        PublishToken.Pool pool = new PublishToken.Pool(16, error -> {
+        });
+        RecordingSink sink = new RecordingSink();
+        // 全局每秒1条，首条发出后其余消息留在通道中
+        OutboundScheduler scheduler = new OutboundScheduler("test", sink, new OutboundScheduler.Options()
+                .setGlobalRate(1, 1)
+                .setCapacity(OutboundScheduler.Lane.ALARM, 2)
+                .setCapacity(OutboundScheduler.Lane.STATUS, 2)
+                .setCapacity(OutboundScheduler.Lane.TELEMETRY, 2));
+        TopicRegistry topics = new TopicRegistry();
+        DeviceTopics a = topics.get("svc", "a");
+        DeviceTopics b = topics.get("svc", "b");
+        scheduler.offer(a, OutboundScheduler.Lane.TELEMETRY, "warmup", bytes("0"), 1, false, null);
+        sink.awaitSent(1);
+
+        // 告警通道默认丢弃最新
+        scheduler.offer(a, OutboundScheduler.Lane.ALARM, "alarm/1", bytes("1"), 1, false, null);
+        scheduler.offer(a, OutboundScheduler.Lane.ALARM, "alarm/2", bytes("2"), 1, false, null);
+        PublishToken rejected = pool.acquire();
+        scheduler.offer(a, OutboundScheduler.Lane.ALARM, "alarm/3", bytes("3"), 1, false, rejected);
+        assertTrue(rejected.isDone());
+        assertFalse(rejected.isSuccess());
+
+        // 遥测通道默认丢弃最旧
+        PublishToken oldest = pool.acquire();
+        scheduler.offer(a, OutboundScheduler.Lane.TELEMETRY, a.getDataTopic(), bytes("t1"), 1, false, oldest);
+        scheduler.offer(b, OutboundScheduler.Lane.TELEMETRY, b.getDataTopic(), bytes("t2"), 1, false, null);
+        scheduler.offer(b, OutboundScheduler.Lane.TELEMETRY, b.getDataTopic(), bytes("t3"), 1, false, null);
+        assertTrue(oldest.isDone());
+        assertFalse(oldest.isSuccess());
+
+        // 状态通道默认合并同一主题的最新值
+        PublishToken superseded = pool.acquire();
+        scheduler.offer(a, OutboundScheduler.Lane.STATUS, a.getStatusTopic(), bytes("1"), 1, false, superseded);
+        scheduler.offer(b, OutboundScheduler.Lane.STATUS, b.getStatusTopic(), bytes("1"), 1, false, null);
+        scheduler.offer(a, OutboundScheduler.Lane.STATUS, a.getStatusTopic(), bytes("0"), 1, false, null);
+        assertTrue(superseded.isSuccess());
+
+        OutboundScheduler.Stats stats = scheduler.getStats();
+        assertEquals(1, stats.getLane(OutboundScheduler.Lane.ALARM).getDropped());
+        assertEquals(1, stats.getLane(OutboundScheduler.Lane.TELEMETRY).getDropped());
+        assertEquals(1, stats.getLane(OutboundScheduler.Lane.STATUS).getCoalesced());
+        assertEquals(2, stats.getLane(OutboundScheduler.Lane.STATUS).getQueueDepth());
+        assertEquals(6, scheduler.getQueued());
+
+        // 超时前发不完的消息以失败完成
+        assertFalse(scheduler.close(50));
+        assertTrue(sink.dropped.size() >= 2 + 5);
+        assertFalse(sink.payloads.contains("t1"));
+    }
+
+    @Test
+    public void testClientRoutesStatusThroughPriorityLane() throws Exception {
+        FakeMqttTransport transport = new FakeMqttTransport();
+        TPClient client = new TPClient("tcp://localhost:1883").setTransport(transport)
+                .enableOutboundScheduler(new OutboundScheduler.Options().setGlobalRate(100, 1));
+        assertTrue(client.connect());
+        DeviceTopics device = client.deviceTopics("svc", "dev-1");
+        for (int i = 0; i < 30; i++) {
+            client.sendData(device, bytes("{}"));
+        }
+        client.sendStatus(device, bytes("1"));
+        PublishToken alarm = client.sendDataAsync(device, bytes("{\"alarm\":1}"), 1, OutboundScheduler.Lane.ALARM);
+        assertTrue(alarm.await(5000));
+        assertTrue(alarm.isSuccess());
+        alarm.release();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (transport.published.size() < 32 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        int statusIndex = -1;
+        for (int i = 0; i < transport.published.size(); i++) {
+            if (transport.published.get(i).topic.equals(device.getStatusTopic())) {
+                statusIndex = i;
+            }
+        }
+        assertTrue(statusIndex >= 0 && statusIndex < 5, "状态消息排在遥测之后: " + statusIndex);
+        client.disconnect();
+        assertEquals(32, transport.published.size());
+    }
+}
@@ -0,0 +1,75 @@
+package com.thingspanel.sdk;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PublishToken及带QoS的发布接口单元测试
+ */
+public class PublishTokenTest {
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testTokenCompletesOnAcknowledgementAndIsReused() throws Exception {
+        FakeMqttTransport transport = new FakeMqttTransport().setAutoComplete(false);
+        TPClient client = new TPClient("tcp://localhost:1883").setTransport(transport);
+        assertTrue(client.connect());
+        DeviceTopics device = client.deviceTopics("svc", "dev-1");
+
+        PublishToken token = client.sendStatusAsync(device, bytes("online"), 2, true);
+        assertFalse(token.isDone());
+        assertThrows(IllegalStateException.class, token::release);
+        assertEquals(2, transport.published.get(0).qos);
+        assertTrue(transport.published.get(0).retained);
+
+        transport.completePending();
+        assertTrue(token.await(1000));
+        assertTrue(token.isSuccess());
+        token.release();
+        assertSame(token, client.sendDataAsync(device, bytes("{}"), 0));
+        client.disconnect();
+    }
+
+    @Test
+    public void testCallbacksArePipelinedWithinInFlightWindow() throws Exception {
+        FakeMqttTransport transport = new FakeMqttTransport().setAutoComplete(false);
+        TPClient client = new TPClient("tcp://localhost:1883").setTransport(transport)
+                .enableBatching(new BatchingPublisher.Options().setMaxInFlight(4).setLingerMillis(1));
+        assertTrue(client.connect());
+        DeviceTopics device = client.deviceTopics("svc", "dev-1");
+
+        AtomicInteger succeeded = new AtomicInteger();
+        MqttTransport.PublishCallback callback = error -> {
+            if (error == null) {
+                succeeded.incrementAndGet();
+            }
+        };
+        for (int i = 0; i < 10; i++) {
+            client.publish(device.getDataTopic(), bytes("{\"i\":" + i + "}"), 1, false, callback);
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (succeeded.get() < 10 && System.currentTimeMillis() < deadline) {
+            assertTrue(transport.pendingCount() <= 4, "在途消息超过窗口: " + transport.pendingCount());
+            transport.completePending();
+            Thread.sleep(2);
+        }
+        assertEquals(10, succeeded.get());
+        client.disconnect();
+    }
+
+    @Test
+    public void testFailsWhenNotConnected() {
+        TPClient client = new TPClient("tcp://localhost:1883").setTransport(new FakeMqttTransport());
+        PublishToken token = client.publish("devices/status/dev-1", bytes("offline"), 1, true);
+        assertTrue(token.isDone());
+        assertFalse(token.isSuccess());
+        assertNotNull(token.getError());
+        assertThrows(IllegalArgumentException.class, () -> client.publish("t", bytes("x"), 3, false));
+    }
+}
@@ -0,0 +1,96 @@
+package com.thingspanel.sdk;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+/**
+ * ReconnectSupervisor及TPClient自动重连单元测试
+ */
+public class ReconnectSupervisorTest {
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(condition.getAsBoolean(), "等待超时");
+    }
+
+    private static ReconnectSupervisor.Options fastOptions() {
+        return new ReconnectSupervisor.Options().setInitialDelayMillis(5).setMaxDelayMillis(20).setSubscribeBatchSize(2);
+    }
+
+    @Test
+    public void testReconnectsAndReplaysSubscriptionsInBatches() throws Exception {
+        FakeMqttTransport transport = new FakeMqttTransport();
+        TPClient client = new TPClient("tcp://localhost:1883").setTransport(transport)
+                .enableAutoReconnect(fastOptions());
+        assertTrue(client.connect());
+        assertFalse(transport.connects.get(0).isCleanSession());
+        for (int i = 0; i < 5; i++) {
+            client.subscribe("plugin/svc/devices/" + i + "/commands");
+        }
+        transport.subscribeBatches.clear();
+
+        transport.failNextConnects(3);
+        transport.dropConnection();
+        ReconnectSupervisor supervisor = client.getReconnectSupervisor();
+        await(() -> supervisor.getStats().getReconnects() == 1);
+
+        assertTrue(transport.isConnected());
+        assertEquals(4, supervisor.getStats().getAttempts());
+        assertEquals(1, supervisor.getStats().getOutage().getCount());
+        assertEquals(3, transport.subscribeBatches.size());
+        assertEquals(5, transport.subscribeBatches.stream().mapToInt(batch -> batch.length).sum());
+        assertFalse(supervisor.isReconnecting());
+        client.disconnect();
+    }
+
+    @Test
+    public void testStopsAfterMaxAttempts() throws Exception {
+        FakeMqttTransport transport = new FakeMqttTransport();
+        TPClient client = new TPClient("tcp://localhost:1883").setTransport(transport)
+                .enableAutoReconnect(fastOptions().setMaxAttempts(2));
+        assertTrue(client.connect());
+
+        transport.failNextConnects(10);
+        transport.dropConnection();
+        ReconnectSupervisor supervisor = client.getReconnectSupervisor();
+        await(() -> supervisor.getStats().getAbandoned() == 1);
+        assertEquals(2, supervisor.getStats().getAttempts());
+        assertFalse(transport.isConnected());
+        client.disconnect();
+    }
+
+    @Test
+    public void testOutboxBuffersDuringOutage() throws Exception {
+        Path directory = Files.createTempDirectory("tp-reconnect");
+        try (OfflineOutbox outbox = OfflineOutbox.open(new OfflineOutbox.Options().setDirectory(directory).setReplayRatePerSecond(0))) {
+            FakeMqttTransport transport = new FakeMqttTransport();
+            TPClient client = new TPClient("tcp://localhost:1883").setTransport(transport)
+                    .enableAutoReconnect(fastOptions().setInitialDelayMillis(200))
+                    .enableOfflineOutbox(outbox);
+            assertTrue(client.connect());
+            DeviceTopics device = client.deviceTopics("svc", "dev-1");
+
+            transport.failNextConnects(1);
+            transport.dropConnection();
+            client.sendData(device, "{\"t\":1}".getBytes(StandardCharsets.UTF_8));
+            await(() -> client.getReconnectSupervisor().getStats().getReconnects() == 1);
+            await(() -> transport.published.size() == 1);
+            assertEquals(device.getDataTopic(), transport.published.get(0).topic);
+            client.disconnect();
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.thingspanel.sdk;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleSupplier;
+
+/**
+ * SdkMetrics埋点测试
+ */
+public class SdkMetricsTest {
+
+    /**
+     * 记录所有回调的指标实现
+     */
+    static class RecordingMetrics implements SdkMetrics {
+        final AtomicLong published = new AtomicLong();
+        final AtomicLong publishedBytes = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final List<String> events = new CopyOnWriteArrayList<>();
+        final Map<String, DoubleSupplier> gauges = new ConcurrentHashMap<>();
+
+        @Override
+        public void publish(int bytes) {
+            published.incrementAndGet();
+            publishedBytes.addAndGet(bytes);
+        }
+
+        @Override
+        public void publishFailed() {
+            failures.incrementAndGet();
+        }
+
+        @Override
+        public void apiCall(String endpoint, long nanos, boolean success) {
+            assertTrue(nanos >= 0);
+            events.add("api " + endpoint + " " + success);
+        }
+
+        @Override
+        public void callbackHandled(String path, int status, long nanos) {
+            assertTrue(nanos >= 0);
+            events.add("callback " + path + " " + status);
+        }
+
+        @Override
+        public void connectionStateChanged(String clientId, boolean connected) {
+            events.add(clientId + (connected ? " up" : " down"));
+        }
+
+        @Override
+        public void gauge(String name, String clientId, DoubleSupplier value) {
+            gauges.put(name + "/" + clientId, value);
+        }
+
+        @Override
+        public void removeGauges(String clientId) {
+            gauges.keySet().removeIf(key -> key.endsWith("/" + clientId));
+        }
+    }
+
+    @Test
+    public void testClientRecordsPublishesAndConnectionState() {
+        RecordingMetrics metrics = new RecordingMetrics();
+        FakeMqttTransport transport = new FakeMqttTransport();
+        TPClient client = new TPClient("tcp://localhost:1883")
+                .setClientId("c1")
+                .setTransport(transport)
+                .enableBatching(new BatchingPublisher.Options())
+                .setMetrics(metrics);
+        assertTrue(client.connect());
+
+        client.sendStatus("dev-1", "1");
+        client.sendData("svc", "dev-1", "{\"t\":1}");
+        assertEquals(2, metrics.published.get());
+        assertEquals(1 + 7, metrics.publishedBytes.get());
+        assertEquals(0, metrics.failures.get());
+        assertNotNull(metrics.gauges.get("tp.mqtt.publisher.queue/c1"));
+        assertNotNull(metrics.gauges.get("tp.mqtt.publisher.inflight/c1"));
+
+        client.disconnect();
+        assertEquals(List.of("c1 up", "c1 down"), metrics.events);
+        // 断开后不再持有客户端的取值函数，重新连接时再注册
+        assertTrue(metrics.gauges.isEmpty());
+        assertTrue(client.connect());
+        assertNotNull(metrics.gauges.get("tp.mqtt.publisher.queue/c1"));
+        client.disconnect();
+    }
+
+    @Test
+    public void testApiCallsAreTimedPerEndpoint() throws Exception {
+        RecordingMetrics metrics = new RecordingMetrics();
+        ApiResilienceTest.ScriptedTransport transport = new ApiResilienceTest.ScriptedTransport(
+                n -> n == 0 ? new Object[]{200, "{\"code\":200,\"message\":\"ok\"}"} : new Object[]{500, ""});
+        TPAPIClient client = new TPAPIClient("http://localhost", transport, 4).setMetrics(metrics);
+
+        TPAPIClient.HeartbeatRequest request = new TPAPIClient.HeartbeatRequest();
+        request.serviceIdentifier = "svc";
+        assertTrue(client.sendHeartbeat(request).isSuccess());
+        assertFalse(client.sendHeartbeatAsync(request).get(5, TimeUnit.SECONDS).isSuccess());
+
+        assertEquals(List.of("api /api/v1/plugin/heartbeat true", "api /api/v1/plugin/heartbeat false"), metrics.events);
+    }
+
+    @Test
+    public void testCallbacksAreTimedByPathAndStatus() throws Exception {
+        RecordingMetrics metrics = new RecordingMetrics();
+        TPHandler handler = new TPHandler();
+        handler.setMetrics(metrics);
+        handler.start(0);
+        try {
+            HttpClient http = HttpClient.newHttpClient();
+            URI uri = URI.create("http://127.0.0.1:" + handler.getPort() + "/api/v1/device/disconnect");
+            assertEquals(200, http.send(HttpRequest.newBuilder(uri).POST(HttpRequest.BodyPublishers.ofString(
+                    "{\"device_id\":\"d1\"}")).build(), HttpResponse.BodyHandlers.ofString()).statusCode());
+            assertEquals(405, http.send(HttpRequest.newBuilder(uri).GET().build(),
+                    HttpResponse.BodyHandlers.ofString()).statusCode());
+            // 指标在响应写出后记录，可能略晚于客户端收到响应
+            long deadline = System.currentTimeMillis() + 5000;
+            while (metrics.events.size() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        } finally {
+            handler.stop(0);
+        }
+        assertEquals(List.of("callback /api/v1/device/disconnect 200", "callback /api/v1/device/disconnect 405"),
+                metrics.events);
+    }
+}
@@ -0,0 +1,174 @@
+package com.thingspanel.sdk;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * StatusCoalescer单元测试
+ */
+public class StatusCoalescerTest {
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testPendingUpdatesCollapseToLatestPerDevice() {
+        List<String> sent = new ArrayList<>();
+        StatusCoalescer coalescer = new StatusCoalescer(
+                (device, status) -> sent.add(device.getDeviceId() + "=" + new String(status, StandardCharsets.UTF_8)),
+                new StatusCoalescer.Options().setWindowMillis(60_000));
+        TopicRegistry topics = new TopicRegistry();
+        DeviceTopics first = topics.get("svc", "dev-1");
+        DeviceTopics second = topics.get("svc", "dev-2");
+        for (int i = 0; i < 50; i++) {
+            coalescer.update(first, bytes(i % 2 == 0 ? "1" : "0"));
+        }
+        coalescer.update(second, bytes("1"));
+
+        coalescer.flush();
+        assertEquals(List.of("dev-1=0", "dev-2=1"), sent);
+        coalescer.flush();
+        assertEquals(2, sent.size());
+
+        coalescer.update(first, bytes("1"));
+        coalescer.close();
+        assertEquals("dev-1=1", sent.get(2));
+
+        StatusCoalescer.Stats stats = coalescer.getStats();
+        assertEquals(52, stats.getUpdates());
+        assertEquals(49, stats.getCoalesced());
+        assertEquals(3, stats.getSent());
+        assertEquals(0, stats.getPending());
+        // dev-2发出后空闲了一个窗口，槽位已移除
+        assertEquals(1, stats.getDevices());
+        assertThrows(IllegalStateException.class, () -> coalescer.update(first, bytes("0")));
+    }
+
+    @Test
+    public void testIdleSlotsAreRemovedAfterOneWindow() {
+        List<String> sent = new ArrayList<>();
+        StatusCoalescer coalescer = new StatusCoalescer(
+                (device, status) -> sent.add(device.getDeviceId() + "=" + new String(status, StandardCharsets.UTF_8)),
+                new StatusCoalescer.Options().setWindowMillis(60_000));
+        TopicRegistry topics = new TopicRegistry();
+        DeviceTopics flapping = topics.get("svc", "dev-1");
+        for (int i = 0; i < 1000; i++) {
+            coalescer.update(topics.get("svc", "gone-" + i), bytes("0"));
+        }
+        coalescer.update(flapping, bytes("1"));
+        coalescer.flush();
+        assertEquals(1001, coalescer.getStats().getDevices());
+
+        // 下一个窗口内仍有更新的设备保留槽位，其余的被移除
+        coalescer.update(flapping, bytes("0"));
+        coalescer.flush();
+        assertEquals(1, coalescer.getStats().getDevices());
+        coalescer.flush();
+        assertEquals(0, coalescer.getStats().getDevices());
+
+        // 槽位移除后再次更新照常发送
+        coalescer.update(flapping, bytes("1"));
+        coalescer.close();
+        assertEquals(1003, sent.size());
+        assertEquals(List.of("dev-1=1", "dev-1=0", "dev-1=1"), sent.subList(1000, 1003));
+    }
+
+    @Test
+    public void testUpdateDuringFlushWaitsForNextWindow() {
+        TopicRegistry topics = new TopicRegistry();
+        DeviceTopics device = topics.get("svc", "dev-1");
+        List<String> sent = new ArrayList<>();
+        StatusCoalescer[] holder = new StatusCoalescer[1];
+        holder[0] = new StatusCoalescer((d, status) -> {
+            String value = new String(status, StandardCharsets.UTF_8);
+            sent.add(value);
+            // 发布过程中设备再次变化，本轮不能再发同一设备
+            if (value.equals("1")) {
+                holder[0].update(d, bytes("0"));
+            }
+        }, new StatusCoalescer.Options().setWindowMillis(60_000));
+
+        holder[0].update(device, bytes("1"));
+        holder[0].flush();
+        assertEquals(List.of("1"), sent);
+        assertEquals(1, holder[0].getStats().getPending());
+        holder[0].flush();
+        assertEquals(List.of("1", "0"), sent);
+        holder[0].close();
+    }
+
+    @Test
+    public void testConcurrentUpdatesNeverLoseFinalState() throws Exception {
+        Map<String, String> last = new ConcurrentHashMap<>();
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        StatusCoalescer coalescer = new StatusCoalescer((device, status) -> {
+            last.put(device.getDeviceId(), new String(status, StandardCharsets.UTF_8));
+            order.add(device.getDeviceId());
+        }, new StatusCoalescer.Options().setWindowMillis(5));
+        TopicRegistry topics = new TopicRegistry();
+        int threads = 4;
+        int devicesPerThread = 8;
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            int owner = t;
+            new Thread(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    DeviceTopics device = topics.get("svc", "dev-" + owner + "-" + (i % devicesPerThread));
+                    coalescer.update(device, bytes(String.valueOf(i)));
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+        coalescer.close();
+
+        StatusCoalescer.Stats stats = coalescer.getStats();
+        assertEquals(threads * 20_000, stats.getUpdates());
+        assertEquals(stats.getUpdates(), stats.getCoalesced() + stats.getSent());
+        assertTrue(stats.getSent() < stats.getUpdates());
+        for (int t = 0; t < threads; t++) {
+            for (int d = 0; d < devicesPerThread; d++) {
+                assertEquals(String.valueOf(20_000 - devicesPerThread + d), last.get("dev-" + t + "-" + d));
+            }
+        }
+    }
+
+    @Test
+    public void testClientSendsAtMostOneStatusPerWindow() throws Exception {
+        FakeMqttTransport transport = new FakeMqttTransport();
+        TPClient client = new TPClient("tcp://localhost:1883").setTransport(transport)
+                .enableStatusCoalescing(new StatusCoalescer.Options().setWindowMillis(200));
+        assertTrue(client.connect());
+        DeviceTopics device = client.deviceTopics("svc", "dev-1");
+        for (int i = 0; i < 100; i++) {
+            client.sendStatus(device, bytes(i % 2 == 0 ? "1" : "0"));
+        }
+        client.sendStatus("dev-2", "1");
+        assertTrue(transport.published.size() <= 2);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (transport.published.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(2, transport.published.size());
+        StatusCoalescer.Stats stats = client.getStatusCoalescer().getStats();
+        assertEquals(99, stats.getCoalesced());
+        assertEquals(2, stats.getSent());
+
+        // 断开时发出窗口中尚未发送的状态
+        client.sendStatus(device, bytes("1"));
+        client.disconnect();
+        assertEquals(3, transport.published.size());
+        assertEquals(device.getStatusTopic(), transport.published.get(2).topic);
+        assertEquals("1", new String(transport.published.get(2).payload, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,127 @@
+package com.thingspanel.sdk;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * TPClientPool单元测试
+ */
+public class TPClientPoolTest {
+
+    private final List<FakeMqttTransport> transports = new ArrayList<>();
+
+    private TPClientPool connectedPool(int connections) {
+        TPClientPool pool = new TPClientPool("tcp://localhost:1883", connections)
+                .setClientIdPrefix("gw")
+                .setServiceIdentifier("svc")
+                .setTransportFactory(clientId -> {
+                    FakeMqttTransport transport = new FakeMqttTransport();
+                    transports.add(transport);
+                    return transport;
+                });
+        assertTrue(pool.connect());
+        return pool;
+    }
+
+    @Test
+    public void testDerivedClientIds() {
+        TPClientPool pool = connectedPool(3);
+        assertEquals("gw-0", pool.getClient(0).getClientId());
+        assertEquals("gw-2", pool.getClient(2).getClientId());
+        pool.disconnect();
+    }
+
+    @Test
+    public void testDevicesSpreadAndStayOnShard() {
+        TPClientPool pool = connectedPool(4);
+        int[] counts = new int[4];
+        for (int i = 0; i < 4000; i++) {
+            String deviceId = "device-" + i;
+            int shard = pool.shardFor(deviceId);
+            assertEquals(shard, pool.shardFor(deviceId));
+            counts[shard]++;
+        }
+        for (int count : counts) {
+            assertTrue(count > 500, "分片不均衡: " + count);
+        }
+        pool.disconnect();
+    }
+
+    @Test
+    public void testRebalancesWhenConnectionDrops() {
+        TPClientPool pool = connectedPool(4);
+        int[] before = new int[1000];
+        for (int i = 0; i < before.length; i++) {
+            before[i] = pool.shardFor("device-" + i);
+        }
+
+        transports.get(1).disconnect();
+        for (int i = 0; i < before.length; i++) {
+            int shard = pool.shardFor("device-" + i);
+            assertNotEquals(1, shard);
+            if (before[i] != 1) {
+                assertEquals(before[i], shard);
+            }
+        }
+
+        assertEquals(1, pool.reconnectDropped());
+        for (int i = 0; i < before.length; i++) {
+            assertEquals(before[i], pool.shardFor("device-" + i));
+        }
+        pool.disconnect();
+    }
+
+    @Test
+    public void testPerShardStats() {
+        TPClientPool pool = connectedPool(2);
+        for (int i = 0; i < 100; i++) {
+            pool.sendData("svc", "device-" + i, "{}");
+        }
+        List<TPClientPool.ShardStats> stats = pool.getShardStats();
+        assertEquals(2, stats.size());
+        assertEquals(100, stats.get(0).getSent() + stats.get(1).getSent());
+        assertEquals(stats.get(0).getSent(), transports.get(0).published.size());
+        assertTrue(stats.get(0).isConnected());
+        assertEquals(0, stats.get(0).getRejected());
+        pool.disconnect();
+    }
+
+    @Test
+    public void testShardStatsExcludeDroppedMessages() {
+        TPClientPool pool = connectedPool(2);
+        for (int i = 0; i < 50; i++) {
+            pool.sendData("svc", "device-" + i, "{}");
+        }
+        // 两个连接都意外断开且未启用发件箱，之后的消息被传输层拒绝
+        transports.get(0).dropConnection();
+        transports.get(1).dropConnection();
+        for (int i = 0; i < 50; i++) {
+            pool.sendData("svc", "device-" + i, "{}");
+        }
+        List<TPClientPool.ShardStats> stats = pool.getShardStats();
+        assertEquals(50, stats.get(0).getSent() + stats.get(1).getSent());
+        assertEquals(50, stats.get(0).getRejected() + stats.get(1).getRejected());
+        assertEquals(transports.get(0).published.size(), stats.get(0).getSent());
+        pool.disconnect();
+    }
+
+    @Test
+    public void testShardStatsCountDirectInFlightWithoutBatching() {
+        TPClientPool pool = connectedPool(2);
+        transports.forEach(transport -> transport.setAutoComplete(false));
+        for (int i = 0; i < 20; i++) {
+            pool.sendData("svc", "device-" + i, "{}");
+        }
+        List<TPClientPool.ShardStats> stats = pool.getShardStats();
+        assertEquals(20, stats.get(0).getInFlight() + stats.get(1).getInFlight());
+        assertEquals(transports.get(0).pendingCount(), stats.get(0).getInFlight());
+
+        transports.forEach(FakeMqttTransport::completePending);
+        stats = pool.getShardStats();
+        assertEquals(0, stats.get(0).getInFlight() + stats.get(1).getInFlight());
+        pool.disconnect();
+    }
+}
@@ -1,5 +1,6 @@
 package com.thingspanel.sdk;
 
+import org.eclipse.paho.client.mqttv3.MqttException;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.BeforeEach;
 import static org.junit.jupiter.api.Assertions.*;
@@ -15,7 +16,8 @@ public class TPClientTest {
     public void setUp() {
         client = new TPClient("tcp://localhost:1883")
             .setAuth("test_user", "test_pass")
-            .setClientId("test-client-001");
+            .setClientId("test-client-001")
+            .setTransport(new FakeMqttTransport());
     }
     
     @Test
@@ -43,7 +45,8 @@ public class TPClientTest {
     
     @Test
     public void testFullClientCreation() {
-        TPClient fullClient = new TPClient("tcp://localhost:1883", "http://localhost:8080");
+        TPClient fullClient = new TPClient("tcp://localhost:1883", "http://localhost:8080")
+            .setTransport(new FakeMqttTransport());
         assertNotNull(fullClient);
         
         // 测试API功能需要连接
@@ -58,4 +61,71 @@ public class TPClientTest {
             fullClient.disconnect();
         }
     }
-} 
\ No newline at end of file
+
+    @Test
+    public void testSendDataWithDeviceTopics() {
+        FakeMqttTransport transport = new FakeMqttTransport();
+        TPClient mqttClient = new TPClient("tcp://localhost:1883").setTransport(transport);
+        mqttClient.connect();
+
+        DeviceTopics topics = mqttClient.deviceTopics("my-service", "device-001");
+        assertSame(topics, mqttClient.deviceTopics("my-service", "device-001"));
+
+        mqttClient.sendData(topics, new byte[]{1, 2});
+        mqttClient.sendData("my-service", "device-001", "{}");
+        mqttClient.sendStatus(topics, new byte[]{'1'});
+
+        assertEquals("plugin/my-service/devices/device-001/datas", transport.published.get(0).topic);
+        assertSame(transport.published.get(0).topic, transport.published.get(1).topic);
+        assertEquals("devices/status/device-001", transport.published.get(2).topic);
+        mqttClient.disconnect();
+    }
+
+    @Test
+    public void testConnectTwiceKeepsPublisher() {
+        FakeMqttTransport transport = new FakeMqttTransport();
+        TPClient mqttClient = new TPClient("tcp://localhost:1883").setTransport(transport)
+                .enableBatching(new BatchingPublisher.Options());
+        assertTrue(mqttClient.connect());
+        BatchingPublisher publisher = mqttClient.getBatchingPublisher();
+        assertTrue(mqttClient.connect());
+        assertSame(publisher, mqttClient.getBatchingPublisher());
+        assertEquals(1, transport.connects.size());
+
+        // 连接丢失后再次connect会关闭旧的发布器并重新建立
+        transport.dropConnection();
+        assertTrue(mqttClient.connect());
+        assertNotSame(publisher, mqttClient.getBatchingPublisher());
+        assertEquals(2, transport.connects.size());
+        mqttClient.disconnect();
+    }
+
+    @Test
+    public void testDirectPublishFailsFastWhenInFlightWindowFull() throws Exception {
+        FakeMqttTransport transport = new FakeMqttTransport().setAutoComplete(false);
+        TPClient mqttClient = new TPClient("tcp://localhost:1883").setTransport(transport).setMaxInFlight(2);
+        assertTrue(mqttClient.connect());
+        assertEquals(2, transport.connects.get(0).getMaxInflight());
+        DeviceTopics topics = mqttClient.deviceTopics("my-service", "device-001");
+        PublishToken first = mqttClient.sendDataAsync(topics, new byte[]{1}, 1);
+        mqttClient.sendData(topics, new byte[]{2});
+
+        // 窗口已满，第三条立即失败而不是阻塞调用线程
+        PublishToken third = mqttClient.sendDataAsync(topics, new byte[]{3}, 1);
+        assertTrue(third.isDone());
+        assertEquals(MqttException.REASON_CODE_MAX_INFLIGHT, ((MqttException) third.getError()).getReasonCode());
+        assertEquals(2, transport.published.size());
+
+        transport.completePending();
+        assertTrue(first.isSuccess());
+        assertFalse(mqttClient.sendDataAsync(topics, new byte[]{4}, 1).isDone());
+        assertEquals(3, transport.published.size());
+        assertEquals(3, mqttClient.getAcceptedMessages());
+
+        // 断开时仍未确认的消息以失败完成，句柄不会一直挂起
+        PublishToken pending = mqttClient.sendDataAsync(topics, new byte[]{5}, 1);
+        mqttClient.disconnect();
+        assertTrue(pending.isDone());
+        assertFalse(pending.isSuccess());
+    }
+}
@@ -0,0 +1,106 @@
+package com.thingspanel.sdk;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TPHandler内置HTTP服务器测试
+ */
+public class TPHandlerTest {
+
+    private final HttpClient http = HttpClient.newHttpClient();
+    private TPHandler handler;
+
+    @AfterEach
+    public void tearDown() {
+        if (handler != null) {
+            handler.stop(0);
+        }
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://127.0.0.1:" + handler.getPort() + path);
+    }
+
+    private HttpResponse<String> post(String path, String body) throws Exception {
+        return http.send(HttpRequest.newBuilder(uri(path)).POST(HttpRequest.BodyPublishers.ofString(body)).build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    @Test
+    public void testRoutesCallbacks() throws Exception {
+        List<String> disconnected = new CopyOnWriteArrayList<>();
+        handler = new TPHandler();
+        handler.setDeviceDisconnectHandler((deviceId, voucher) -> disconnected.add(deviceId + "/" + voucher));
+        handler.setFormConfigHandler((protocolType, deviceType, formType) -> {
+            Map<String, Object> config = new HashMap<>();
+            config.put("form", protocolType + ":" + formType);
+            return config;
+        });
+        handler.start(0);
+
+        HttpResponse<String> response = post("/api/v1/device/disconnect", "{\"device_id\":\"d1\",\"voucher\":\"v1\"}");
+        assertEquals(200, response.statusCode());
+        assertEquals(List.of("d1/v1"), disconnected);
+
+        HttpResponse<String> form = http.send(HttpRequest.newBuilder(
+                uri("/api/v1/form/config?protocol_type=MODBUS&device_type=1&form_type=CFG")).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertEquals("{\"code\":200,\"message\":\"success\",\"data\":{\"form\":\"MODBUS:CFG\"}}", form.body());
+
+        assertEquals(400, post("/api/v1/plugin/notification", "not json").statusCode());
+        assertEquals(405, http.send(HttpRequest.newBuilder(uri("/api/v1/device/disconnect")).GET().build(),
+                HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    @Test
+    public void testRejectsOversizedBody() throws Exception {
+        handler = new TPHandler();
+        handler.start(0, new TPHandler.ServerOptions().setMaxRequestBytes(16));
+
+        HttpResponse<String> response = post("/api/v1/plugin/notification", "{\"message\":\"0123456789abcdef\"}");
+        assertEquals(413, response.statusCode());
+        assertEquals(1, handler.getServerStats().getTooLarge());
+    }
+
+    @Test
+    public void testReturns503WhenSaturated() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        handler = new TPHandler();
+        handler.setNotificationHandler(notification -> {
+            entered.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        handler.start(0, new TPHandler.ServerOptions().setMaxConcurrentRequests(1).setRetryAfterSeconds(3));
+
+        CompletableFuture<HttpResponse<String>> slow = http.sendAsync(
+                HttpRequest.newBuilder(uri("/api/v1/plugin/notification")).POST(HttpRequest.BodyPublishers.ofString("{}")).build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        HttpResponse<String> rejected = post("/api/v1/plugin/notification", "{}");
+        assertEquals(503, rejected.statusCode());
+        assertEquals("3", rejected.headers().firstValue("Retry-After").orElse(null));
+
+        release.countDown();
+        assertEquals(200, slow.get(5, TimeUnit.SECONDS).statusCode());
+    }
+}
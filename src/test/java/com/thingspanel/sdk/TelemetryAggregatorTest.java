@@ -0,0 +1,104 @@
+package com.thingspanel.sdk;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * TelemetryAggregator单元测试
+ */
+public class TelemetryAggregatorTest {
+
+    private final TopicRegistry topics = new TopicRegistry();
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+
+    private TelemetryAggregator aggregator(TelemetryAggregator.Options options) {
+        // 刷新周期足够长，测试中手动flush
+        return new TelemetryAggregator((device, payload) ->
+                sent.add(device.getDeviceId() + " " + new String(payload, StandardCharsets.UTF_8)),
+                options.setFlushIntervalMillis(3_600_000));
+    }
+
+    @Test
+    public void testAggregatesWindowPerDeviceAndField() {
+        TelemetryAggregator aggregator = aggregator(new TelemetryAggregator.Options()
+                .setAggregation("max", TelemetryAggregator.Aggregation.MAX)
+                .setAggregation("min", TelemetryAggregator.Aggregation.MIN)
+                .setAggregation("last", TelemetryAggregator.Aggregation.LAST));
+        DeviceTopics d1 = topics.get("svc", "d1");
+        DeviceTopics d2 = topics.get("svc", "d2");
+        for (int i = 1; i <= 100; i++) {
+            aggregator.record(d1, "avg", i);
+            aggregator.record(d1, "max", i);
+            aggregator.record(d1, "min", i);
+            aggregator.record(d1, "last", i * 0.5);
+        }
+        aggregator.record(d2, "avg", 7);
+
+        aggregator.flush();
+        assertTrue(sent.contains("d1 {\"avg\":50.5,\"max\":100,\"min\":1,\"last\":50}"), sent.toString());
+        assertTrue(sent.contains("d2 {\"avg\":7}"), sent.toString());
+        assertEquals(2, sent.size());
+
+        // 空窗口不发布
+        aggregator.flush();
+        assertEquals(2, sent.size());
+
+        TelemetryAggregator.Stats stats = aggregator.getStats();
+        assertEquals(401, stats.getSamples());
+        assertEquals(2, stats.getPublished());
+        aggregator.close();
+    }
+
+    @Test
+    public void testDeadbandSuppressesSmallChanges() {
+        TelemetryAggregator aggregator = aggregator(new TelemetryAggregator.Options()
+                .setDeadband("temperature", 0.5)
+                .setDeadband("switch", 0));
+        DeviceTopics device = topics.get("svc", "d1");
+
+        aggregator.record(device, "temperature", 25.0);
+        aggregator.record(device, "switch", 1);
+        aggregator.flush();
+        aggregator.record(device, "temperature", 25.3);
+        aggregator.record(device, "switch", 1);
+        aggregator.flush();
+        aggregator.record(device, "temperature", 25.3);
+        aggregator.record(device, "switch", 0);
+        aggregator.flush();
+        aggregator.record(device, "temperature", 26.0);
+        aggregator.flush();
+
+        assertEquals(List.of(
+                "d1 {\"temperature\":25,\"switch\":1}",
+                "d1 {\"switch\":0}",
+                "d1 {\"temperature\":26}"), sent);
+        assertEquals(3, aggregator.getStats().getSuppressed());
+        aggregator.close();
+    }
+
+    @Test
+    public void testCloseFlushesAndRejectsNewSamples() {
+        TelemetryAggregator aggregator = aggregator(new TelemetryAggregator.Options());
+        aggregator.record(topics.get("svc", "d1"), "v", 1.25);
+        aggregator.close();
+        assertEquals(List.of("d1 {\"v\":1.25}"), sent);
+        assertThrows(IllegalStateException.class, () -> aggregator.record(topics.get("svc", "d1"), "v", 1));
+    }
+
+    @Test
+    public void testSameDeviceFromDifferentHandlesSharesWindow() {
+        TelemetryAggregator aggregator = aggregator(new TelemetryAggregator.Options());
+        // 另一个注册表（如另一个客户端）为同一设备创建的句柄
+        aggregator.record(topics.get("svc", "d1"), "v", 1);
+        aggregator.record(new TopicRegistry().get("svc", "d1"), "v", 3);
+
+        aggregator.flush();
+        assertEquals(List.of("d1 {\"v\":2}"), sent);
+        assertEquals(1, aggregator.getStats().getDevices());
+        aggregator.close();
+    }
+}
@@ -0,0 +1,106 @@
+package com.thingspanel.sdk;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * TelemetryBuilder与TelemetrySchema单元测试
+ */
+public class TelemetryBuilderTest {
+
+    private static final TelemetrySchema SCHEMA = TelemetrySchema.forDeviceType("telemetry-test");
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b & 0xFF));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testJsonMatchesPlatformFormat() throws Exception {
+        byte[] payload = TelemetryBuilder.acquire(SCHEMA, TelemetryBuilder.Encoding.JSON)
+                .put("temperature", 25.5)
+                .put("humidity", 60)
+                .put("online", true)
+                .put("note", "a\"b")
+                .put("fault", Double.NaN)
+                .build();
+        assertEquals("{\"temperature\":25.5,\"humidity\":60,\"online\":true,\"note\":\"a\\\"b\",\"fault\":null}",
+                new String(payload, StandardCharsets.UTF_8));
+
+        Map<String, Object> parsed = JsonCodec.readObjectMap(payload);
+        assertEquals(25.5, parsed.get("temperature"));
+        assertEquals(60, parsed.get("humidity"));
+
+        assertEquals("{}", new String(TelemetryBuilder.acquire(SCHEMA, TelemetryBuilder.Encoding.JSON).build(),
+                StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testCborEncoding() {
+        byte[] payload = TelemetryBuilder.acquire(SCHEMA, TelemetryBuilder.Encoding.CBOR)
+                .put("t", 25.5)
+                .put("n", -500)
+                .put("b", false)
+                .put("s", "ok")
+                .build();
+        // A4 映射4项；25.5可无损表示为单精度
+        assertEquals("a4" + "6174" + "fa41cc0000" + "616e" + "3901f3" + "6162" + "f4" + "6173" + "626f6b", hex(payload));
+
+        byte[] precise = TelemetryBuilder.acquire(SCHEMA, TelemetryBuilder.Encoding.CBOR).put("t", 0.1).build();
+        assertEquals("a16174fb3fb999999999999a", hex(precise));
+    }
+
+    @Test
+    public void testMessagePackEncoding() {
+        byte[] payload = TelemetryBuilder.acquire(SCHEMA, TelemetryBuilder.Encoding.MSGPACK)
+                .put("t", 25.5)
+                .put("n", 300)
+                .put("m", -5)
+                .put("b", true)
+                .put("s", (String) null)
+                .build();
+        assertEquals("85" + "a174" + "ca41cc0000" + "a16e" + "cd012c" + "a16d" + "fb" + "a162" + "c3" + "a173" + "c0",
+                hex(payload));
+    }
+
+    @Test
+    public void testLargeMapHeaders() {
+        TelemetryBuilder cbor = TelemetryBuilder.acquire(SCHEMA, TelemetryBuilder.Encoding.CBOR);
+        TelemetryBuilder msgpack = TelemetryBuilder.acquire(SCHEMA, TelemetryBuilder.Encoding.MSGPACK);
+        for (int i = 0; i < 300; i++) {
+            cbor.put("field-" + i, i);
+            msgpack.put("field-" + i, i);
+        }
+        assertEquals("b9012c", hex(cbor.build()).substring(0, 6));
+        assertEquals("de012c", hex(msgpack.build()).substring(0, 6));
+    }
+
+    @Test
+    public void testBuilderIsPooledPerThread() {
+        TelemetryBuilder first = TelemetryBuilder.acquire(SCHEMA, TelemetryBuilder.Encoding.JSON);
+        TelemetryBuilder nested = TelemetryBuilder.acquire(SCHEMA, TelemetryBuilder.Encoding.JSON);
+        assertNotSame(first, nested);
+        nested.put("x", 1).build();
+        first.put("x", 1).build();
+
+        assertSame(first, TelemetryBuilder.acquire(SCHEMA, TelemetryBuilder.Encoding.JSON));
+        first.build();
+        assertThrows(IllegalStateException.class, () -> first.put("x", 1));
+    }
+
+    @Test
+    public void testSchemaIsCachedPerDeviceType() {
+        Device device = new Device();
+        device.setDeviceType("telemetry-test");
+        assertSame(SCHEMA, TelemetrySchema.forDevice(device));
+        assertSame(TelemetrySchema.forDeviceType(null), TelemetrySchema.forDevice(new Device()));
+        assertSame(SCHEMA.field("temperature"), SCHEMA.field("temperature"));
+        assertEquals("\"temperature\":", new String(SCHEMA.field("temperature").json, StandardCharsets.UTF_8));
+    }
+}